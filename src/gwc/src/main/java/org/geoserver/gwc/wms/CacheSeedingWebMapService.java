@@ -17,6 +17,7 @@ import org.geoserver.ows.Dispatcher;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.WebMapService;
+import org.geoserver.wms.map.ImagePool;
 import org.geotools.util.logging.Logging;
 
 /**
@@ -64,6 +65,9 @@ public class CacheSeedingWebMapService implements MethodInterceptor {
         boolean isSeedingRequest = rawKvp != null
                 && rawKvp.containsKey(GeoServerTileLayer.GWC_SEED_INTERCEPT_TOKEN);
         if (isSeedingRequest) {
+            // the metatile is encoded after the dispatcher returns, keep its rasters out of
+            // the image pool, which recycles them once the request is finished
+            ImagePool.getDefault().detachAll();
             GeoServerTileLayer.WEB_MAP.set(map);
             // returning null makes the Dispatcher ignore further processing the request
             return null;
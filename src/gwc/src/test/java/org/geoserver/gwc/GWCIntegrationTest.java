@@ -33,6 +33,7 @@ import org.geoserver.gwc.layer.GeoServerTileLayer;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfo;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.wms.map.ImagePool;
 import org.geowebcache.GeoWebCacheDispatcher;
 import org.geowebcache.GeoWebCacheException;
 import org.geowebcache.GeoWebCacheExtensions;
@@ -490,4 +491,30 @@ public class GWCIntegrationTest extends GeoServerSystemTestSupport {
         assertEquals(256, image.getWidth());
         assertEquals(256, image.getHeight());
     }
+
+    @Test
+    public void testImagePool() throws Exception {
+        // the metatile is encoded after the seeding request is over, the pool must not
+        // recycle its raster meanwhile
+        ImagePool pool = ImagePool.getDefault();
+        long maxSize = pool.getMaxSize();
+        pool.setMaxSize(16 * 1024 * 1024);
+        try {
+            String request = "gwc/service/wms?LAYERS=cite%3ABasicPolygons&FORMAT=image%2Fpng&SERVICE=WMS&VERSION=1.1.1&REQUEST=GetMap&STYLES=&SRS=EPSG%3A4326&BBOX=-11.25,0,0,11.25&WIDTH=256&HEIGHT=256";
+            BufferedImage image = getAsImage(request, "image/png");
+            assertEquals(0, pool.getSize());
+
+            // the polygons are drawn over the background, a recycled raster would be blank
+            int background = image.getRGB(0, 0);
+            boolean drawn = false;
+            for (int x = 0; x < image.getWidth() && !drawn; x++) {
+                for (int y = 0; y < image.getHeight() && !drawn; y++) {
+                    drawn = image.getRGB(x, y) != background;
+                }
+            }
+            assertTrue(drawn);
+        } finally {
+            pool.setMaxSize(maxSize);
+        }
+    }
 }
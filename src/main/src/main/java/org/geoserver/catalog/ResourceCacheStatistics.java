@@ -0,0 +1,156 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Usage statistics of one of the {@link ResourcePool} caches.
+ * <p>
+ * A lookup served from the cache counts as a hit, any other lookup as a miss, including the ones
+ * that waited for another thread to load the same entry. Load times are in nanoseconds.
+ * </p>
+ */
+public class ResourceCacheStatistics {
+
+    final String name;
+
+    final AtomicLong hitCount = new AtomicLong();
+
+    final AtomicLong missCount = new AtomicLong();
+
+    final AtomicLong loadSuccessCount = new AtomicLong();
+
+    final AtomicLong loadFailureCount = new AtomicLong();
+
+    final AtomicLong totalLoadTime = new AtomicLong();
+
+    final AtomicLong evictionCount = new AtomicLong();
+
+    volatile Map<?, ?> cache;
+
+    public ResourceCacheStatistics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * The name of the cache
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The number of entries currently in the cache
+     */
+    public int getSize() {
+        Map<?, ?> cache = this.cache;
+        return cache != null ? cache.size() : 0;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * The ratio of lookups served from the cache, or 1 if the cache has never been accessed
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 1.0 : (double) hits / total;
+    }
+
+    public long getLoadSuccessCount() {
+        return loadSuccessCount.get();
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount.get();
+    }
+
+    /**
+     * The total time spent loading entries, in nanoseconds
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime.get();
+    }
+
+    /**
+     * The average time spent loading an entry, in nanoseconds
+     */
+    public double getAverageLoadPenalty() {
+        long loads = loadSuccessCount.get() + loadFailureCount.get();
+        return loads == 0 ? 0.0 : (double) totalLoadTime.get() / loads;
+    }
+
+    /**
+     * The number of entries evicted because of the size or time limits of the cache
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Resets all the counters
+     */
+    public void reset() {
+        hitCount.set(0);
+        missCount.set(0);
+        loadSuccessCount.set(0);
+        loadFailureCount.set(0);
+        totalLoadTime.set(0);
+        evictionCount.set(0);
+    }
+
+    /**
+     * Returns the statistics as a map, in a form suitable for JMX and REST clients
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("size", getSize());
+        map.put("hitCount", getHitCount());
+        map.put("missCount", getMissCount());
+        map.put("hitRate", getHitRate());
+        map.put("loadSuccessCount", getLoadSuccessCount());
+        map.put("loadFailureCount", getLoadFailureCount());
+        map.put("totalLoadTime", getTotalLoadTime());
+        map.put("averageLoadPenalty", getAverageLoadPenalty());
+        map.put("evictionCount", getEvictionCount());
+        return map;
+    }
+
+    void hit() {
+        hitCount.incrementAndGet();
+    }
+
+    void miss() {
+        missCount.incrementAndGet();
+    }
+
+    void loaded(long nanos, boolean success) {
+        totalLoadTime.addAndGet(nanos);
+        if (success) {
+            loadSuccessCount.incrementAndGet();
+        } else {
+            loadFailureCount.incrementAndGet();
+        }
+    }
+
+    void evicted() {
+        evictionCount.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return name + toMap();
+    }
+}
@@ -14,8 +14,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.URL;
@@ -28,8 +31,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -79,7 +88,6 @@ import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.jdbc.VirtualTable;
 import org.geotools.referencing.CRS;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.logging.Logging;
 import org.geotools.xml.Schemas;
 import org.opengis.coverage.grid.GridCoverage;
@@ -101,6 +109,13 @@ import org.vfny.geoserver.global.GeoServerFeatureLocking;
 import org.vfny.geoserver.global.GeoserverDataDirectory;
 import org.vfny.geoserver.util.DataStoreUtils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ForwardingMap;
+
 /**
  * Provides access to resources such as datastores, coverage readers, and 
  * feature types.
@@ -141,14 +156,28 @@ public class ResourcePool {
     }
     
     /**
-     * Default number of hard references
+     * Default number of hard references, feature types past them are kept through soft references
      */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
+
+    /**
+     * Default maximum size of the caches holding store connections and readers, unbounded since
+     * evicting an entry disposes it, possibly while still in use
+     */
+    static int CACHE_SIZE_DEFAULT = -1;
+
+    /**
+     * Default number of parsed coordinate reference systems and styles kept in memory
+     */
+    static int CRS_CACHE_SIZE_DEFAULT = 1000;
+
+    static int STYLE_CACHE_SIZE_DEFAULT = 1000;
     
     private static final String IMAGE_PYRAMID = "ImagePyramid";
     private static final String IMAGE_MOSAIC = "ImageMosaic";
 
     Catalog catalog;
+    ConcurrentMap<String, ResourceCacheStatistics> cacheStatistics = new ConcurrentHashMap<String, ResourceCacheStatistics>();
     Map<String, CoordinateReferenceSystem> crsCache;
     Map<String, DataAccess> dataStoreCache;
     Map<String, FeatureType> featureTypeCache;
@@ -236,7 +265,7 @@ public class ResourcePool {
     }
 
     protected Map<String,CoordinateReferenceSystem> createCrsCache() {
-        return new HashMap<String, CoordinateReferenceSystem>();
+        return new CRSCache();
     }
 
     /**
@@ -332,7 +361,7 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, Style> createStyleCache() {
-        return new HashMap<StyleInfo, Style>();
+        return new StyleCache();
     }
 
     /**
@@ -352,6 +381,69 @@ public class ResourcePool {
         return new WMSCache();
     }
 
+    /**
+     * Returns the usage statistics of the resource caches, keyed by cache name.
+     */
+    public Map<String, ResourceCacheStatistics> getCacheStatistics() {
+        return Collections.unmodifiableMap(cacheStatistics);
+    }
+
+    ResourceCacheStatistics cacheStatistics(String name) {
+        ResourceCacheStatistics stats = cacheStatistics.get(name);
+        if (stats == null) {
+            stats = new ResourceCacheStatistics(name);
+            ResourceCacheStatistics existing = cacheStatistics.putIfAbsent(name, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Looks up a resource in a cache, loading and caching it if missing.
+     * <p>
+     * When the cache is a {@link CatalogResourceCache} concurrent loads of the same key are
+     * de-duplicated, otherwise (subclasses can provide any map through the create*Cache methods)
+     * the whole cache is locked while loading.
+     * </p>
+     */
+    @SuppressWarnings("unchecked")
+    <K, V> V load(Map<K, V> cache, K key, Callable<V> loader) throws IOException {
+        if (cache instanceof CatalogResourceCache) {
+            return ((CatalogResourceCache<K, V>) cache).get(key, loader);
+        }
+
+        V value = cache.get(key);
+        if (value == null) {
+            synchronized (cache) {
+                value = cache.get(key);
+                if (value == null) {
+                    value = call(loader);
+                    if (value != null) {
+                        cache.put(key, value);
+                    }
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Runs the loader, rethrowing checked exceptions as {@link IOException}
+     */
+    static <V> V call(Callable<V> loader) throws IOException {
+        try {
+            return loader.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw (IOException) new IOException().initCause(e);
+        }
+    }
+
     /**
      * Sets the size of the feature type cache.
      * <p>
@@ -410,29 +502,22 @@ public class ResourcePool {
      * @throws IOException In the event the srsName can not be parsed or leads 
      * to an exception in the underlying call to CRS.decode.
      */
-    public CoordinateReferenceSystem getCRS( String srsName )
+    public CoordinateReferenceSystem getCRS( final String srsName )
         throws IOException {
         
         if(srsName == null)
             return null;
         
-        CoordinateReferenceSystem crs = crsCache.get( srsName );
-        if ( crs == null ) {
-            synchronized (crsCache) {
-                crs = crsCache.get( srsName );
-                if ( crs == null ) {
-                    try {
-                        crs = CRS.decode( srsName );
-                        crsCache.put( srsName, crs );
-                    }
-                    catch( Exception e) {
-                        throw (IOException) new IOException().initCause(e);
-                    }
+        return load(crsCache, srsName, new Callable<CoordinateReferenceSystem>() {
+            public CoordinateReferenceSystem call() throws IOException {
+                try {
+                    return CRS.decode( srsName );
+                }
+                catch( Exception e) {
+                    throw (IOException) new IOException().initCause(e);
                 }
             }
-        }
-        
-        return crs;
+        });
     }
     
     /**
@@ -472,95 +557,98 @@ public class ResourcePool {
      * 
      * @throws IOException Any errors that occur connecting to the resource.
      */
-    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( DataStoreInfo info ) throws IOException {
+    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( final DataStoreInfo info ) throws IOException {
+        String id = info.getId();
+        if (id == null) {
+            // no need to cache the stores returned from un-saved DataStoreInfo objects (it would
+            // be actually harmful, NPE when trying to dispose of them)
+            return createDataStore(info);
+        }
+        
+        return (DataAccess<? extends FeatureType, ? extends Feature>) load(dataStoreCache, id,
+            new Callable<DataAccess>() {
+                public DataAccess call() throws IOException {
+                    return createDataStore(info);
+                }
+            });
+    }
+    
+    /**
+     * Connects to the underlying resource of a datastore, without caching it.
+     */
+    DataAccess<? extends FeatureType, ? extends Feature> createDataStore( DataStoreInfo info ) throws IOException {
         DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
         try {
-            String id = info.getId();
-            dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id);
-            if ( dataStore == null ) {
-                synchronized (dataStoreCache) {
-                    dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get( id );
-                    if ( dataStore == null ) {
-                        //create data store
-                        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
-                        
-                        //call this methdo to execute the hack which recognizes 
-                        // urls which are relative to the data directory
-                        // TODO: find a better way to do this
-                        connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
-                        
-                        // obtain the factory
-                        DataAccessFactory factory = null;
-                        try {
-                            factory = getDataStoreFactory(info);
-                        } catch(IOException e) {
-                            throw new IOException("Failed to find the datastore factory for " + info.getName() 
-                                    + ", did you forget to install the store extension jar?");
-                        }
-                        Param[] params = factory.getParametersInfo();
-                        
-                        //ensure that the namespace parameter is set for the datastore
-                        if (!connectionParameters.containsKey( "namespace") && params != null) {
-                            //if we grabbed the factory, check that the factory actually supports
-                            // a namespace parameter, if we could not get the factory, assume that
-                            // it does
-                            boolean supportsNamespace = true;
-                            supportsNamespace = false;
-                            
-                            for ( Param p : params ) {
-                                if ( "namespace".equalsIgnoreCase( p.key ) ) {
-                                    supportsNamespace = true;
-                                    break;
-                                }
-                            }
-                            
-                            if ( supportsNamespace ) {
-                                WorkspaceInfo ws = info.getWorkspace();
-                                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
-                                if ( ns == null ) {
-                                    ns = info.getCatalog().getDefaultNamespace();
-                                }
-                                if ( ns != null ) {
-                                    connectionParameters.put( "namespace", ns.getURI() );
-                                }    
-                            }
-                        }
-                        
-                        // see if the store has a repository param, if so, pass the one wrapping
-                        // the store
-                        if(params != null) {
-                            for ( Param p : params ) {
-                                if(Repository.class.equals(p.getType())) {
-                                    connectionParameters.put(p.getName(), repository);
-                                }
-                            }
-                        }
-                        
-                        dataStore = DataStoreUtils.getDataAccess(connectionParameters);
-                        if (dataStore == null) {
-                            /*
-                             * Preserve DataStore retyping behaviour by calling
-                             * DataAccessFinder.getDataStore after the call to
-                             * DataStoreUtils.getDataStore above.
-                             * 
-                             * TODO: DataAccessFinder can also find DataStores, and when retyping is
-                             * supported for DataAccess, we can use a single mechanism.
-                             */
-                            dataStore = DataAccessFinder.getDataStore(connectionParameters);
-                        }
-                        
-                        if ( dataStore == null ) {
-                            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
-                        }
-                        
-                        // cache only if the id is not null, no need to cache the stores
-                        // returned from un-saved DataStoreInfo objects (it would be actually
-                        // harmful, NPE when trying to dispose of them)
-                        if(id != null) {
-                            dataStoreCache.put( id, dataStore );
-                        }
+            //create data store
+            Map<String, Serializable> connectionParameters = info.getConnectionParameters();
+            
+            //call this methdo to execute the hack which recognizes 
+            // urls which are relative to the data directory
+            // TODO: find a better way to do this
+            connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
+            
+            // obtain the factory
+            DataAccessFactory factory = null;
+            try {
+                factory = getDataStoreFactory(info);
+            } catch(IOException e) {
+                throw new IOException("Failed to find the datastore factory for " + info.getName() 
+                        + ", did you forget to install the store extension jar?");
+            }
+            Param[] params = factory.getParametersInfo();
+            
+            //ensure that the namespace parameter is set for the datastore
+            if (!connectionParameters.containsKey( "namespace") && params != null) {
+                //if we grabbed the factory, check that the factory actually supports
+                // a namespace parameter, if we could not get the factory, assume that
+                // it does
+                boolean supportsNamespace = true;
+                supportsNamespace = false;
+                
+                for ( Param p : params ) {
+                    if ( "namespace".equalsIgnoreCase( p.key ) ) {
+                        supportsNamespace = true;
+                        break;
                     }
-                } 
+                }
+                
+                if ( supportsNamespace ) {
+                    WorkspaceInfo ws = info.getWorkspace();
+                    NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
+                    if ( ns == null ) {
+                        ns = info.getCatalog().getDefaultNamespace();
+                    }
+                    if ( ns != null ) {
+                        connectionParameters.put( "namespace", ns.getURI() );
+                    }    
+                }
+            }
+            
+            // see if the store has a repository param, if so, pass the one wrapping
+            // the store
+            if(params != null) {
+                for ( Param p : params ) {
+                    if(Repository.class.equals(p.getType())) {
+                        connectionParameters.put(p.getName(), repository);
+                    }
+                }
+            }
+            
+            dataStore = DataStoreUtils.getDataAccess(connectionParameters);
+            if (dataStore == null) {
+                /*
+                 * Preserve DataStore retyping behaviour by calling
+                 * DataAccessFinder.getDataStore after the call to
+                 * DataStoreUtils.getDataStore above.
+                 * 
+                 * TODO: DataAccessFinder can also find DataStores, and when retyping is
+                 * supported for DataAccess, we can use a single mechanism.
+                 */
+                dataStore = DataAccessFinder.getDataStore(connectionParameters);
+            }
+            
+            if ( dataStore == null ) {
+                throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
             }
             
             return dataStore;
@@ -630,7 +718,7 @@ public class ResourcePool {
         dataStoreCache.remove( info.getId() );
     }
     
-    public List<AttributeTypeInfo> getAttributes(FeatureTypeInfo info) throws IOException {
+    public List<AttributeTypeInfo> getAttributes(final FeatureTypeInfo info) throws IOException {
         //first check the feature type itself
         //      workaround for GEOS-3294, upgrading from 2.0 data directory,
         //      simply ignore any stored attributes
@@ -642,33 +730,28 @@ public class ResourcePool {
             return info.getAttributes();
         }
         
-        //check the cache
-        List<AttributeTypeInfo> atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-        if (atts == null) {
-            synchronized (featureTypeAttributeCache) {
-                atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-                if (atts == null) {
-                    //load from feature type
-                    atts = loadAttributes(info);
-                    
-                    //check for a schema override
-                    try {
-                        handleSchemaOverride(atts,info);
-                    }
-                    catch( Exception e ) {
-                        LOGGER.log( Level.WARNING, 
-                            "Error occured applying schema override for "+info.getName(), e);
-                    }
-                    
-                    // cache attributes only if the id is not null -> the feature type is not new
-                    if(info.getId() != null) {
-                        featureTypeAttributeCache.put(info.getId(), atts);
-                    }
+        Callable<List<AttributeTypeInfo>> loader = new Callable<List<AttributeTypeInfo>>() {
+            public List<AttributeTypeInfo> call() throws IOException {
+                //load from feature type
+                List<AttributeTypeInfo> atts = loadAttributes(info);
+                
+                //check for a schema override
+                try {
+                    handleSchemaOverride(atts,info);
                 }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, 
+                        "Error occured applying schema override for "+info.getName(), e);
+                }
+                return atts;
             }
-        }
+        };
         
-        return atts;
+        // cache attributes only if the id is not null -> the feature type is not new
+        if(info.getId() == null) {
+            return call(loader);
+        }
+        return load(featureTypeAttributeCache, info.getId(), loader);
     }
     
     public List<AttributeTypeInfo> loadAttributes(FeatureTypeInfo info) throws IOException {
@@ -799,100 +882,105 @@ public class ResourcePool {
         return getFeatureType(info, true);
     }
     
-    FeatureType getFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
+    FeatureType getFeatureType( final FeatureTypeInfo info, final boolean handleProjectionPolicy ) throws IOException {
         boolean cacheable = isCacheable(info) && handleProjectionPolicy;
-        FeatureType ft = (FeatureType) featureTypeCache.get( info.getId() );
-        if ( ft == null || !cacheable ) {
-            synchronized ( featureTypeCache ) {
-                ft = (FeatureType) featureTypeCache.get( info.getId() );
-                if ( ft == null || !cacheable) {
-                    
-                    //grab the underlying feature type
-                    DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
-                    
-                    // sql view handling
-                    VirtualTable vt = null;
-                    String vtName = null;
-                    if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
-                            (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
-                        
-                        if(!cacheable) {
-                            // use a highly random name, we don't want to actually add the
-                            // virtual table to the store as this feature type is not cacheable,
-                            // it is "dirty" or un-saved. The renaming below will take care
-                            // of making the user see the actual name
-                            final String[] typeNames = jstore.getTypeNames();
-                            do {
-                                vtName = UUID.randomUUID().toString();
-                            } while (Arrays.asList(typeNames).contains(vtName));
+        if ( !cacheable ) {
+            return loadFeatureType(info, handleProjectionPolicy, false);
+        }
+        
+        return load(featureTypeCache, info.getId(), new Callable<FeatureType>() {
+            public FeatureType call() throws IOException {
+                return loadFeatureType(info, handleProjectionPolicy, true);
+            }
+        });
+    }
     
-                            // try adding the vt and see if that works
-                            jstore.addVirtualTable(new VirtualTable(vtName, vt));
-                            ft = jstore.getSchema(vtName);
-                        } else {
-                            vtName = vt.getName();
-                            if(!jstore.getVirtualTables().containsValue(vt)) {
-                                jstore.addVirtualTable(vt);
-                            }
-                            ft = jstore.getSchema(vt.getName());
-                        }
-                    } else {
-                        ft = dataAccess.getSchema(info.getQualifiedNativeName());
+    /**
+     * Loads the underlying resource for a feature type, without caching it.
+     */
+    FeatureType loadFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy, boolean cacheable ) throws IOException {
+        FeatureType ft;
+        //grab the underlying feature type
+        DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
+        
+        // sql view handling
+        VirtualTable vt = null;
+        String vtName = null;
+        if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
+                (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
+            
+            if(!cacheable) {
+                // use a highly random name, we don't want to actually add the
+                // virtual table to the store as this feature type is not cacheable,
+                // it is "dirty" or un-saved. The renaming below will take care
+                // of making the user see the actual name
+                final String[] typeNames = jstore.getTypeNames();
+                do {
+                    vtName = UUID.randomUUID().toString();
+                } while (Arrays.asList(typeNames).contains(vtName));
+
+                // try adding the vt and see if that works
+                jstore.addVirtualTable(new VirtualTable(vtName, vt));
+                ft = jstore.getSchema(vtName);
+            } else {
+                vtName = vt.getName();
+                if(!jstore.getVirtualTables().containsValue(vt)) {
+                    jstore.addVirtualTable(vt);
+                }
+                ft = jstore.getSchema(vt.getName());
+            }
+        } else {
+            ft = dataAccess.getSchema(info.getQualifiedNativeName());
+        }
+        
+        // TODO: support reprojection for non-simple FeatureType
+        if (ft instanceof SimpleFeatureType) {
+            SimpleFeatureType sft = (SimpleFeatureType) ft;
+            //create the feature type so it lines up with the "declared" schema
+            SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+            tb.setName( info.getName() );
+            tb.setNamespaceURI( info.getNamespace().getURI() );
+
+            if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
+                //take this to mean just load all native
+                for ( PropertyDescriptor pd : ft.getDescriptors() ) {
+                    if ( !( pd instanceof AttributeDescriptor ) ) {
+                        continue;
                     }
                     
-                    // TODO: support reprojection for non-simple FeatureType
-                    if (ft instanceof SimpleFeatureType) {
-                        SimpleFeatureType sft = (SimpleFeatureType) ft;
-                        //create the feature type so it lines up with the "declared" schema
-                        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
-                        tb.setName( info.getName() );
-                        tb.setNamespaceURI( info.getNamespace().getURI() );
-
-                        if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
-                            //take this to mean just load all native
-                            for ( PropertyDescriptor pd : ft.getDescriptors() ) {
-                                if ( !( pd instanceof AttributeDescriptor ) ) {
-                                    continue;
-                                }
-                                
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                if(handleProjectionPolicy) {
-                                    ad = handleDescriptor(ad, info);
-                                }
-                                tb.add( ad );
-                            }
-                        }
-                        else {
-                            //only load native attributes configured
-                            for ( AttributeTypeInfo att : info.getAttributes() ) {
-                                String attName = att.getName();
-                                
-                                //load the actual underlying attribute type
-                                PropertyDescriptor pd = ft.getDescriptor( attName );
-                                if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
-                                    throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
-                                            + " does not contains the configured attribute " + attName
-                                            + ". Check your schema configuration");
-                                }
-                            
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                ad = handleDescriptor(ad, info);
-                                tb.add( (AttributeDescriptor) ad );
-                            }
-                        }
-                        ft = tb.buildFeatureType();
-                    } // end special case for SimpleFeatureType
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    if(handleProjectionPolicy) {
+                        ad = handleDescriptor(ad, info);
+                    }
+                    tb.add( ad );
+                }
+            }
+            else {
+                //only load native attributes configured
+                for ( AttributeTypeInfo att : info.getAttributes() ) {
+                    String attName = att.getName();
                     
-                    if(cacheable) {
-                        featureTypeCache.put( info.getId(), ft );
-                    } else if(vtName != null) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        jstore.removeVirtualTable(vtName);
+                    //load the actual underlying attribute type
+                    PropertyDescriptor pd = ft.getDescriptor( attName );
+                    if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
+                        throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
+                                + " does not contains the configured attribute " + attName
+                                + ". Check your schema configuration");
                     }
+                
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    ad = handleDescriptor(ad, info);
+                    tb.add( (AttributeDescriptor) ad );
                 }
             }
+            ft = tb.buildFeatureType();
+        } // end special case for SimpleFeatureType
+        
+        if(!cacheable && vtName != null) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            jstore.removeVirtualTable(vtName);
         }
         
         return ft;
@@ -1155,7 +1243,7 @@ public class ResourcePool {
      * @throws IOException Any errors that occur loading the reader.
      */
     @SuppressWarnings("deprecation")
-    public GridCoverageReader getGridCoverageReader( CoverageStoreInfo info, Hints hints ) 
+    public GridCoverageReader getGridCoverageReader( final CoverageStoreInfo info, Hints hints ) 
         throws IOException {
         
         final AbstractGridFormat gridFormat = info.getFormat();
@@ -1163,7 +1251,6 @@ public class ResourcePool {
             throw new IOException("Could not find the raster plugin for format " + info.getType());
         }
         
-        GridCoverageReader reader = null;
         Object key;
         if ( hints != null && info.getId() != null) {
             // expand the hints if necessary
@@ -1181,27 +1268,13 @@ public class ResourcePool {
             }
             
             key = new CoverageHintReaderKey(info.getId(), hints);
-            reader = (GridCoverageReader) hintCoverageReaderCache.get( key );
         } else {
             key = info.getId();
-            if(key != null) {
-                reader = (GridCoverageReader) coverageReaderCache.get( key );
-            }
         }
         
-        if (reader != null) {
-            return reader;
-        }
-        
-        synchronized ( hints != null ? hintCoverageReaderCache : coverageReaderCache ) {
-            if (key != null) {
-                if (hints != null) {
-                    reader = (GridCoverageReader) hintCoverageReaderCache.get(key);
-                } else {
-                    reader = (GridCoverageReader) coverageReaderCache.get(key);
-                }
-            }
-            if (reader == null) {
+        final Hints readerHints = hints;
+        Callable<GridCoverageReader> loader = new Callable<GridCoverageReader>() {
+            public GridCoverageReader call() throws IOException {
                 /////////////////////////////////////////////////////////
                 //
                 // Getting coverage reader using the format and the real path.
@@ -1210,19 +1283,17 @@ public class ResourcePool {
                 final File obj = GeoserverDataDirectory.findDataFile(info.getURL());
     
                 // readers might change the provided hints, pass down a defensive copy
-                reader = gridFormat.getReader(obj, new Hints(hints));
-                if(key != null) {
-                    if(hints != null) {
-                        hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
-                    } else {
-                        coverageReaderCache.put((String) key, reader);
-                    }
-                }
+                return gridFormat.getReader(obj, new Hints(readerHints));
             }
-        }
+        };
         
-        return reader;
-            
+        if (key == null) {
+            return call(loader);
+        } else if (key instanceof CoverageHintReaderKey) {
+            return load(hintCoverageReaderCache, (CoverageHintReaderKey) key, loader);
+        } else {
+            return load(coverageReaderCache, (String) key, loader);
+        }
     }
     
     /**
@@ -1387,48 +1458,39 @@ public class ResourcePool {
      * @param info The WMS configuration
      * @throws IOException
      */
-    public WebMapServer getWebMapServer(WMSStoreInfo info) throws IOException {
-        try {
-            String id = info.getId();
-            WebMapServer wms = (WebMapServer) wmsCache.get(id);
-            if (wms == null) {
-                synchronized (wmsCache) {
-                    wms = (WebMapServer) wmsCache.get(id);
-                    if (wms == null) {
-                        HTTPClient client;
-                        if (info.isUseConnectionPooling()) {
-                            client = new MultithreadedHttpClient();
-                            if (info.getMaxConnections() > 0) {
-                                int maxConnections = info.getMaxConnections();
-                                MultithreadedHttpClient mtClient = (MultithreadedHttpClient) client;
-                                mtClient.setMaxConnections(maxConnections);
-                            }
-                        } else {
-                            client = new SimpleHttpClient();
-                        }
-                        String username = info.getUsername();
-                        String password = info.getPassword();
-                        int connectTimeout = info.getConnectTimeout();
-                        int readTimeout = info.getReadTimeout();
-                        client.setUser(username);
-                        client.setPassword(password);
-                        client.setConnectTimeout(connectTimeout);
-                        client.setReadTimeout(readTimeout);
-
-                        URL serverURL = new URL(info.getCapabilitiesURL());
-                        wms = new WebMapServer(serverURL, client);
-                        
-                        wmsCache.put(id, wms);
+    public WebMapServer getWebMapServer(final WMSStoreInfo info) throws IOException {
+        Callable<WebMapServer> loader = new Callable<WebMapServer>() {
+            public WebMapServer call() throws Exception {
+                HTTPClient client;
+                if (info.isUseConnectionPooling()) {
+                    client = new MultithreadedHttpClient();
+                    if (info.getMaxConnections() > 0) {
+                        int maxConnections = info.getMaxConnections();
+                        MultithreadedHttpClient mtClient = (MultithreadedHttpClient) client;
+                        mtClient.setMaxConnections(maxConnections);
                     }
+                } else {
+                    client = new SimpleHttpClient();
                 }
+                String username = info.getUsername();
+                String password = info.getPassword();
+                int connectTimeout = info.getConnectTimeout();
+                int readTimeout = info.getReadTimeout();
+                client.setUser(username);
+                client.setPassword(password);
+                client.setConnectTimeout(connectTimeout);
+                client.setReadTimeout(readTimeout);
+
+                URL serverURL = new URL(info.getCapabilitiesURL());
+                return new WebMapServer(serverURL, client);
             }
-
-            return wms;
-        } catch (IOException ioe) {
-            throw ioe;
-        } catch (Exception e) {
-            throw (IOException) new IOException().initCause(e);
+        };
+        
+        String id = info.getId();
+        if (id == null) {
+            return call(loader);
         }
+        return load(wmsCache, id, loader);
     }
     
     /**
@@ -1472,32 +1534,25 @@ public class ResourcePool {
      * 
      * @throws IOException Any parsing errors.
      */
-    public Style getStyle( StyleInfo info ) throws IOException {
-        Style style = styleCache.get( info );
-        if ( style == null ) {
-            synchronized (styleCache) {
-                style = styleCache.get( info );
-                if ( style == null ) {
-                    
-                    //JD: it is important that we call the SLDParser(File) constructor because
-                    // if not the sourceURL will not be set which will mean it will fail to 
-                    //resolve relative references to online resources
-                    File styleFile = dataDir().findStyleSldFile(info);
-                    if ( styleFile == null ){
-                        throw new IOException( "No such file: " + info.getFilename());
-                    }
-                    
-                    style = Styles.style(Styles.parse(styleFile, null, info.getSLDVersion()));
-                    
-                    //set the name of the style to be the name of hte style metadata
-                    // remove this when wms works off style info
-                    style.setName( info.getName() );
-                    styleCache.put( info, style );
+    public Style getStyle( final StyleInfo info ) throws IOException {
+        return load(styleCache, info, new Callable<Style>() {
+            public Style call() throws IOException {
+                //JD: it is important that we call the SLDParser(File) constructor because
+                // if not the sourceURL will not be set which will mean it will fail to 
+                //resolve relative references to online resources
+                File styleFile = dataDir().findStyleSldFile(info);
+                if ( styleFile == null ){
+                    throw new IOException( "No such file: " + info.getFilename());
                 }
+                
+                Style style = Styles.style(Styles.parse(styleFile, null, info.getSLDVersion()));
+                
+                //set the name of the style to be the name of hte style metadata
+                // remove this when wms works off style info
+                style.setName( info.getName() );
+                return style;
             }
-        }
-        
-        return style;
+        });
     }
     
     /**
@@ -1621,70 +1676,366 @@ public class ResourcePool {
         listeners.clear();
     }
     
+    /**
+     * Returns an integer cache setting, looked up as the
+     * <code>resourcePool.&lt;cache&gt;.&lt;property&gt;</code> property
+     * (see {@link GeoServerExtensions#getProperty(String)}).
+     */
+    static int cacheProperty(String cache, String property, int defaultValue) {
+        String name = "resourcePool." + cache + "." + property;
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + name + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+    
     /**
      * Base class for all the resource caches, ensures type safety and provides
-     * an easier way to handle with resource disposal 
+     * an easier way to handle with resource disposal.
+     * <p>
+     * The cache is concurrent and bounded, entries are disposed when evicted or removed.
+     * The maximum size (a negative value meaning unbounded) and the time in seconds an entry
+     * is kept after its last access (0 meaning forever) can be configured with the
+     * <code>resourcePool.&lt;name&gt;.maxSize</code> and 
+     * <code>resourcePool.&lt;name&gt;.expireAfterAccess</code> properties. 
+     * Entries loaded through {@link #get(Object, Callable)} are built by a single thread, any
+     * other thread asking for the same key waits for the load to complete, while a thread
+     * asking again for a key it is loading loads it again on its own.
+     * </p>
+     * <p>
+     * Caches built with soft values do not dispose the entries evicted because of the maximum
+     * size, but keep them through soft references, as the garbage collector allows, moving them
+     * back among the others when accessed again. These entries are not part of the map views, and
+     * are not disposed if collected, so soft values suit only caches whose values hold no
+     * resources.
+     * </p>
      * @author Andrea Aime
      *
      * @param <K>
      * @param <V>
      */
-    abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
+    abstract class CatalogResourceCache<K, V> extends ForwardingMap<K, V> {
+        
+        final String name;
+        
+        final int maxSize;
+        
+        final Cache<K, V> cache;
+        
+        final ConcurrentMap<K, LoadTask> loading = new ConcurrentHashMap<K, LoadTask>();
+        
+        /**
+         * The entries evicted because of the maximum size, when the cache has soft values 
+         */
+        final ConcurrentMap<K, SoftEntry> softEntries;
+        
+        final ReferenceQueue<V> collected;
+        
+        final ResourceCacheStatistics statistics;
 
-        public CatalogResourceCache() {
-            this(100);
+        public CatalogResourceCache(String name) {
+            this(name, CACHE_SIZE_DEFAULT);
         }
 
-        public CatalogResourceCache(int hardReferences) {
-            super(hardReferences);
-            super.cleaner = new ValueCleaner() {
+        public CatalogResourceCache(String name, int maxSize) {
+            this(name, maxSize, false);
+        }
 
-                @Override
-                public void clean(Object key, Object object) {
-                    dispose((K) key, (V) object);
+        public CatalogResourceCache(String name, int maxSize, boolean softValues) {
+            this.name = name;
+            this.softEntries = softValues ? new ConcurrentHashMap<K, SoftEntry>() : null;
+            this.collected = softValues ? new ReferenceQueue<V>() : null;
+            this.maxSize = cacheProperty(name, "maxSize", maxSize);
+            int expireAfterAccess = cacheProperty(name, "expireAfterAccess", 0);
+            
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+            if (this.maxSize >= 0) {
+                builder.maximumSize(this.maxSize);
+            }
+            if (expireAfterAccess > 0) {
+                builder.expireAfterAccess(expireAfterAccess, TimeUnit.SECONDS);
+            }
+            this.cache = builder.removalListener(new RemovalListener<K, V>() {
+                public void onRemoval(RemovalNotification<K, V> notification) {
+                    removed(notification);
                 }
-            };
+            }).build();
+            
+            this.statistics = cacheStatistics(name);
+            this.statistics.cache = this;
         }
-
+        
+        @Override
+        protected Map<K, V> delegate() {
+            return cache.asMap();
+        }
+        
+        /**
+         * The maximum number of entries in the cache, or a negative number if unbounded 
+         */
+        public int getMaxSize() {
+            return maxSize;
+        }
+        
+        public ResourceCacheStatistics getStatistics() {
+            return statistics;
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(Object key) {
+            if (key == null) {
+                return null;
+            }
+            V value = super.get(key);
+            if (value == null && softEntries != null) {
+                SoftEntry entry = softEntries.remove(key);
+                value = entry != null ? entry.get() : null;
+                if (value != null) {
+                    // back among the strongly referenced ones, unless loaded again meanwhile
+                    V existing = delegate().putIfAbsent((K) key, value);
+                    value = existing != null ? existing : value;
+                }
+            }
+            return value;
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            if (key == null) {
+                return false;
+            }
+            if (super.containsKey(key)) {
+                return true;
+            }
+            SoftEntry entry = softEntries != null ? softEntries.get(key) : null;
+            return entry != null && entry.get() != null;
+        }
+        
         @Override
+        public V put(K key, V value) {
+            if (key == null || value == null) {
+                // the backing cache does not support nulls
+                return null;
+            }
+            if (softEntries != null) {
+                purge();
+                softEntries.remove(key);
+            }
+            return super.put(key, value);
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
         public V remove(Object key) {
-            V object = super.remove(key);
-            if (object != null) {
-                dispose((K) key, (V) object);
+            if (key == null) {
+                return null;
             }
-            return object;
+            V value = super.remove(key);
+            SoftEntry entry = softEntries != null ? softEntries.remove(key) : null;
+            if (value == null && entry != null) {
+                value = entry.get();
+                if (value != null) {
+                    dispose((K) key, value);
+                }
+            }
+            return value;
         }
-
+        
         @Override
         public void clear() {
-            for (Entry entry : entrySet()) {
+            super.clear();
+            if (softEntries != null) {
+                for (SoftEntry entry : softEntries.values()) {
+                    if (softEntries.remove(entry.key, entry)) {
+                        V value = entry.get();
+                        if (value != null) {
+                            dispose(entry.key, value);
+                        }
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Drops the soft entries whose value has been collected
+         */
+        @SuppressWarnings("unchecked")
+        void purge() {
+            for (SoftEntry entry = (SoftEntry) collected.poll(); entry != null; 
+                    entry = (SoftEntry) collected.poll()) {
+                softEntries.remove(entry.key, entry);
+            }
+        }
+        
+        /**
+         * Returns the value associated to the key, using the loader to build and cache it if
+         * missing. Concurrent calls for the same key share a single load.
+         */
+        public V get(final K key, final Callable<V> loader) throws IOException {
+            V value = get(key);
+            if (value != null) {
+                statistics.hit();
+                return value;
+            }
+            statistics.miss();
+            
+            LoadTask task = new LoadTask(new Callable<V>() {
+                public V call() throws Exception {
+                    // might have been loaded while we were getting here
+                    V value = CatalogResourceCache.this.get(key);
+                    if (value != null) {
+                        return value;
+                    }
+                    
+                    long start = System.nanoTime();
+                    boolean success = false;
+                    try {
+                        value = loader.call();
+                        success = true;
+                    } finally {
+                        statistics.loaded(System.nanoTime() - start, success);
+                    }
+                    if (value != null) {
+                        put(key, value);
+                    }
+                    return value;
+                }
+            });
+            
+            LoadTask existing = loading.putIfAbsent(key, task);
+            if (existing == null) {
                 try {
-                    dispose((K) entry.getKey(), (V) entry.getValue());
+                    task.run();
+                } finally {
+                    loading.remove(key, task);
                 }
-                catch(Exception e) {
-                    LOGGER.log(Level.WARNING, "Error dispoing entry: " + entry, e);
+                existing = task;
+            } else if (existing.thread == Thread.currentThread()) {
+                // the loader needs the very same entry it is loading, waiting for it would
+                // deadlock the thread
+                task.run();
+                existing = task;
+            }
+            
+            try {
+                return existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (IOException) new InterruptedIOException("Interrupted while loading " 
+                        + key).initCause(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw (IOException) new IOException().initCause(cause);
+            }
+        }
+        
+        void removed(RemovalNotification<K, V> notification) {
+            if (notification.getCause() == RemovalCause.REPLACED) {
+                return;
+            }
+            if (notification.wasEvicted()) {
+                statistics.evicted();
+            }
+            K key = notification.getKey();
+            V value = notification.getValue();
+            if (key != null && value != null && softEntries != null
+                    && notification.getCause() == RemovalCause.SIZE) {
+                purge();
+                softEntries.put(key, new SoftEntry(key, value));
+            } else if (key != null && value != null) {
+                try {
+                    dispose(key, value);
+                } catch(Exception e) {
+                    LOGGER.log(Level.WARNING, "Error dispoing entry: " + key, e);
                 }
             }
-            super.clear();
         }
 
         protected abstract void dispose(K key, V object);
+        
+        /**
+         * A load in progress, along with the thread running it
+         */
+        class LoadTask extends FutureTask<V> {
+            
+            final Thread thread = Thread.currentThread();
+            
+            LoadTask(Callable<V> loader) {
+                super(loader);
+            }
+        }
+        
+        /**
+         * A soft reference to an evicted value, along with its key
+         */
+        class SoftEntry extends SoftReference<V> {
+            
+            final K key;
+            
+            SoftEntry(K key, V value) {
+                super(value, collected);
+                this.key = key;
+            }
+        }
+    }
+    
+    class CRSCache extends CatalogResourceCache<String, CoordinateReferenceSystem> {
+        
+        public CRSCache() {
+            super("crs", CRS_CACHE_SIZE_DEFAULT, true);
+        }
+        
+        @Override
+        protected void dispose(String key, CoordinateReferenceSystem object) {
+            // nothing to do
+        }
+    }
+    
+    class StyleCache extends CatalogResourceCache<StyleInfo, Style> {
+        
+        public StyleCache() {
+            super("styles", STYLE_CACHE_SIZE_DEFAULT, true);
+        }
+        
+        @Override
+        protected void dispose(StyleInfo key, Style object) {
+            // nothing to do
+        }
     }
     
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
         
         public FeatureTypeCache(int maxSize) {
-            super(maxSize);
+            super("featureTypes", maxSize, true);
         }
         
         protected void dispose(String id, FeatureType featureType) {
         	FeatureTypeInfo info = catalog.getFeatureType(id);
-            LOGGER.info( "Disposing feature type '" + info.getName() + "'");
-            fireDisposed(info, featureType);
+        	if(info != null) {
+                LOGGER.info( "Disposing feature type '" + info.getName() + "'");
+                fireDisposed(info, featureType);
+        	}
         }
     }
     
     class DataStoreCache extends CatalogResourceCache<String, DataAccess> {
+        
+        public DataStoreCache() {
+            super("dataStores");
+        }
     	
         protected void dispose(String id, DataAccess da) {
         	DataStoreInfo info = catalog.getDataStore(id);
@@ -1707,6 +2058,10 @@ public class ResourcePool {
     
     class CoverageReaderCache extends CatalogResourceCache<String, GridCoverageReader> {
         
+        public CoverageReaderCache() {
+            super("coverageReaders");
+        }
+        
         protected void dispose(String id, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(id);
         	if(info != null) {
@@ -1727,6 +2082,10 @@ public class ResourcePool {
     
     class CoverageHintReaderCache extends CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader> {
         
+        public CoverageHintReaderCache() {
+            super("coverageHintReaders");
+        }
+        
         protected void dispose(CoverageHintReaderKey key, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(key.id);
         	if(info != null) {
@@ -1796,7 +2155,7 @@ public class ResourcePool {
     class FeatureTypeAttributeCache extends CatalogResourceCache<String, List<AttributeTypeInfo>> {
 
         FeatureTypeAttributeCache(int size) {
-            super(size);
+            super("featureTypeAttributes", size, true);
         }
 
         @Override
@@ -1806,6 +2165,10 @@ public class ResourcePool {
     }
 
     class WMSCache extends CatalogResourceCache<String, WebMapServer> {
+        
+        public WMSCache() {
+            super("webMapServers");
+        }
 
         @Override
         protected void dispose(String key, WebMapServer object) {
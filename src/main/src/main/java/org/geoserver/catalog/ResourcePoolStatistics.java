@@ -0,0 +1,37 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes the cache statistics of the catalog {@link ResourcePool}, looking up the pool on each
+ * call since it can be replaced at runtime.
+ */
+public class ResourcePoolStatistics implements ResourcePoolStatisticsMBean {
+
+    Catalog catalog;
+
+    public ResourcePoolStatistics(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public Map<String, Map<String, Object>> getStatistics() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<String, Map<String, Object>>();
+        for (ResourceCacheStatistics stats : catalog.getResourcePool().getCacheStatistics()
+                .values()) {
+            result.put(stats.getName(), stats.toMap());
+        }
+        return result;
+    }
+
+    public void reset() {
+        for (ResourceCacheStatistics stats : catalog.getResourcePool().getCacheStatistics()
+                .values()) {
+            stats.reset();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of {@link ResourcePoolStatistics}.
+ */
+public interface ResourcePoolStatisticsMBean {
+
+    /**
+     * The statistics of each {@link ResourcePool} cache, keyed by cache name
+     */
+    Map<String, Map<String, Object>> getStatistics();
+
+    /**
+     * Resets the statistics of all caches
+     */
+    void reset();
+}
@@ -99,7 +99,11 @@ public class CatalogImpl implements Catalog {
     protected boolean extendedValidation = true;
 
     public CatalogImpl() {
-        facade = new DefaultCatalogFacade(this);
+        if (Boolean.valueOf(GeoServerExtensions.getProperty(IndexedCatalogFacade.INDEXED_CATALOG))) {
+            facade = new IndexedCatalogFacade(this);
+        } else {
+            facade = new DefaultCatalogFacade(this);
+        }
         resourcePool = ResourcePool.create(this);
     }
     
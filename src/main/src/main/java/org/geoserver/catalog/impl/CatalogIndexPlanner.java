@@ -0,0 +1,223 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+
+/**
+ * Turns the predicates of a catalog query into lookups against the indexes of an
+ * {@link IndexedCatalogFacade}.
+ * <p>
+ * The planner only narrows down the set of objects a filter has to be evaluated against: the
+ * candidates it returns are a superset of the objects matching the filter, callers are still
+ * expected to evaluate the full filter on each of them. Supported predicates are equality
+ * comparisons between an indexed property and a literal, combined with {@link And} (the most
+ * selective indexed child is used) and {@link Or} (all children must be indexed, their results
+ * are merged). Indexed properties are:
+ * <ul>
+ * <li>{@code id} and {@code name} for stores, resources, layers, layer groups and styles</li>
+ * <li>{@code workspace.id} for stores</li>
+ * <li>{@code prefixedName}, {@code store.id}, {@code namespace.id}, {@code namespace.prefix},
+ * {@code enabled} and {@code advertised} for resources</li>
+ * <li>{@code resource.id}, {@code resource.namespace.prefix}, {@code defaultStyle.id},
+ * {@code styles.id}, {@code enabled} and {@code advertised} for layers</li>
+ * </ul>
+ * </p>
+ */
+class CatalogIndexPlanner {
+
+    IndexedCatalogFacade facade;
+
+    CatalogIndexPlanner(IndexedCatalogFacade facade) {
+        this.facade = facade;
+    }
+
+    /**
+     * Returns the objects of the specified type that may match the filter, or <code>null</code>
+     * if the filter cannot be answered from the indexes and a full scan is required.
+     */
+    List<CatalogInfo> candidates(Class<?> of, Filter filter) {
+        List<? extends CatalogInfo> candidates = lookup(of, filter);
+        if (candidates == null) {
+            return null;
+        }
+        List<CatalogInfo> result = new ArrayList<CatalogInfo>(candidates.size());
+        for (CatalogInfo info : candidates) {
+            if (of.isInstance(info)) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
+    List<? extends CatalogInfo> lookup(Class<?> of, Filter filter) {
+        if (filter instanceof PropertyIsEqualTo) {
+            return lookup(of, (PropertyIsEqualTo) filter);
+        }
+        if (filter instanceof And) {
+            List<? extends CatalogInfo> best = null;
+            for (Filter child : ((And) filter).getChildren()) {
+                List<? extends CatalogInfo> candidates = lookup(of, child);
+                if (candidates != null && (best == null || candidates.size() < best.size())) {
+                    best = candidates;
+                    if (best.isEmpty()) {
+                        break;
+                    }
+                }
+            }
+            return best;
+        }
+        if (filter instanceof Or) {
+            Map<String, CatalogInfo> union = new LinkedHashMap<String, CatalogInfo>();
+            for (Filter child : ((Or) filter).getChildren()) {
+                List<? extends CatalogInfo> candidates = lookup(of, child);
+                if (candidates == null) {
+                    return null;
+                }
+                for (CatalogInfo info : candidates) {
+                    union.put(info.getId(), info);
+                }
+            }
+            return new ArrayList<CatalogInfo>(union.values());
+        }
+        return null;
+    }
+
+    List<? extends CatalogInfo> lookup(Class<?> of, PropertyIsEqualTo equal) {
+        if (!equal.isMatchingCase()) {
+            return null;
+        }
+
+        String property;
+        Object value;
+        Expression e1 = equal.getExpression1();
+        Expression e2 = equal.getExpression2();
+        if (e1 instanceof PropertyName && e2 instanceof Literal) {
+            property = ((PropertyName) e1).getPropertyName();
+            value = ((Literal) e2).getValue();
+        } else if (e2 instanceof PropertyName && e1 instanceof Literal) {
+            property = ((PropertyName) e2).getPropertyName();
+            value = ((Literal) e1).getValue();
+        } else {
+            return null;
+        }
+
+        if (value instanceof Boolean) {
+            return lookupFlag(of, property, (Boolean) value);
+        }
+        if (value instanceof String) {
+            return lookup(of, property, (String) value);
+        }
+        return null;
+    }
+
+    List<? extends CatalogInfo> lookup(Class<?> of, String property, String value) {
+        if (StoreInfo.class.isAssignableFrom(of)) {
+            if ("id".equals(property)) {
+                return facade.storesById.get(value);
+            } else if ("name".equals(property)) {
+                return facade.storesByName.get(value);
+            } else if ("workspace.id".equals(property)) {
+                return facade.storesByWorkspace.get(value);
+            }
+        } else if (ResourceInfo.class.isAssignableFrom(of)) {
+            if ("id".equals(property)) {
+                return facade.resourcesById.get(value);
+            } else if ("name".equals(property)) {
+                return facade.resourcesByName.get(value);
+            } else if ("prefixedName".equals(property)) {
+                int colon = value.indexOf(':');
+                if (colon == -1) {
+                    return Collections.emptyList();
+                }
+                NamespaceInfo ns = facade.getNamespaceByPrefix(value.substring(0, colon));
+                if (ns == null) {
+                    return Collections.emptyList();
+                }
+                return facade.resourcesByQualifiedName.get(IndexedCatalogFacade.qualified(
+                        ns.getId(), value.substring(colon + 1)));
+            } else if ("store.id".equals(property)) {
+                return facade.resourcesByStore.get(value);
+            } else if ("namespace.id".equals(property)) {
+                return facade.resourcesByNamespace.get(value);
+            } else if ("namespace.prefix".equals(property)) {
+                return resourcesByPrefix(value);
+            }
+        } else if (LayerInfo.class.isAssignableFrom(of)) {
+            if ("id".equals(property)) {
+                return facade.layersById.get(value);
+            } else if ("name".equals(property)) {
+                return facade.layersByName.get(value);
+            } else if ("resource.id".equals(property)) {
+                return facade.layersByResource.get(value);
+            } else if ("resource.namespace.prefix".equals(property)) {
+                List<LayerInfo> layers = new ArrayList<LayerInfo>();
+                for (ResourceInfo resource : resourcesByPrefix(value)) {
+                    layers.addAll(facade.layersByResource.get(resource.getId()));
+                }
+                return layers;
+            } else if ("defaultStyle.id".equals(property) || "styles.id".equals(property)) {
+                return facade.layersByStyle.get(value);
+            }
+        } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
+            if ("id".equals(property)) {
+                return facade.layerGroupsById.get(value);
+            } else if ("name".equals(property)) {
+                return facade.layerGroupsByName.get(value);
+            }
+        } else if (StyleInfo.class.isAssignableFrom(of)) {
+            if ("id".equals(property)) {
+                return facade.stylesById.get(value);
+            } else if ("name".equals(property)) {
+                return facade.stylesByName.get(value);
+            }
+        }
+        return null;
+    }
+
+    List<? extends CatalogInfo> lookupFlag(Class<?> of, String property, Boolean value) {
+        if (ResourceInfo.class.isAssignableFrom(of)) {
+            if ("enabled".equals(property)) {
+                return facade.resourcesByEnabled.get(value);
+            } else if ("advertised".equals(property)) {
+                return facade.resourcesByAdvertised.get(value);
+            }
+        } else if (LayerInfo.class.isAssignableFrom(of)) {
+            if ("enabled".equals(property)) {
+                return facade.layersByEnabled.get(value);
+            } else if ("advertised".equals(property)) {
+                return facade.layersByAdvertised.get(value);
+            }
+        }
+        return null;
+    }
+
+    List<ResourceInfo> resourcesByPrefix(String prefix) {
+        NamespaceInfo ns = facade.getNamespaceByPrefix(prefix);
+        if (ns == null) {
+            return Collections.emptyList();
+        }
+        return facade.resourcesByNamespace.get(ns.getId());
+    }
+}
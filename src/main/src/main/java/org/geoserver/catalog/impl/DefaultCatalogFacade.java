@@ -995,6 +995,16 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         for ( MapInfo m : maps ) {
             resolve(m);
         }
+        
+        reindex();
+    }
+    
+    /**
+     * Hook for subclasses keeping secondary structures over the catalog contents, called after 
+     * the contents have been replaced wholesale by {@link #resolve()} or 
+     * {@link #syncTo(CatalogFacade)}.
+     */
+    protected void reindex() {
     }
 
     public void syncTo(CatalogFacade dao) {
@@ -1011,6 +1021,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             other.maps = maps;
             other.layerGroups = layerGroups;
             other.styles = styles;
+            other.reindex();
         }
         else {
             //do a manual import
@@ -1149,6 +1160,15 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             throw new IllegalArgumentException("Unknown type: " + of);
         }
 
+        return sortAndFilter(all, filter, sortBy);
+    }
+
+    /**
+     * Sorts the objects (if a sort order is specified) and returns a view of those matching the
+     * filter
+     */
+    protected <T extends CatalogInfo> Iterable<T> sortAndFilter(List<T> all, final Filter filter,
+            final SortBy sortBy) {
         if (null != sortBy) {
             Ordering<Object> ordering = Ordering.from(comparator(sortBy));
             if (SortOrder.DESCENDING.equals(sortBy.getSortOrder())) {
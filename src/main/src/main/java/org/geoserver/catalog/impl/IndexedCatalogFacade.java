@@ -0,0 +1,671 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
+
+/**
+ * In memory catalog facade that backs the lookups of {@link DefaultCatalogFacade} with hash
+ * indexes, so that finding a store, resource, layer, layer group or style by id, name, store,
+ * namespace or style reference does not require a scan of the whole catalog.
+ * <p>
+ * Objects are still stored in the collections inherited from {@link DefaultCatalogFacade}, the
+ * indexes are secondary structures kept up to date by the add/save/remove methods. Names are
+ * indexed along with the id of their container (workspace or namespace) rather than its name, so
+ * that renaming a workspace or namespace does not invalidate the entries of its contents.
+ * </p>
+ * <p>
+ * The facade is used by {@link CatalogImpl} when the {@link #INDEXED_CATALOG} property is set to
+ * <code>true</code>, as a system property, servlet context parameter or environment variable.
+ * </p>
+ */
+public class IndexedCatalogFacade extends DefaultCatalogFacade {
+
+    /**
+     * Property enabling the use of this facade in {@link CatalogImpl}
+     */
+    public static final String INDEXED_CATALOG = "GEOSERVER_INDEXED_CATALOG";
+
+    transient Index<StoreInfo> storesById;
+
+    transient Index<StoreInfo> storesByName;
+
+    transient Index<StoreInfo> storesByWorkspace;
+
+    transient Index<ResourceInfo> resourcesById;
+
+    transient Index<ResourceInfo> resourcesByName;
+
+    transient Index<ResourceInfo> resourcesByQualifiedName;
+
+    transient Index<ResourceInfo> resourcesByNamespace;
+
+    transient Index<ResourceInfo> resourcesByStore;
+
+    transient Index<ResourceInfo> resourcesByEnabled;
+
+    transient Index<ResourceInfo> resourcesByAdvertised;
+
+    transient Index<LayerInfo> layersById;
+
+    transient Index<LayerInfo> layersByName;
+
+    transient Index<LayerInfo> layersByResource;
+
+    transient Index<LayerInfo> layersByStyle;
+
+    transient Index<LayerInfo> layersByEnabled;
+
+    transient Index<LayerInfo> layersByAdvertised;
+
+    transient Index<LayerGroupInfo> layerGroupsById;
+
+    transient Index<LayerGroupInfo> layerGroupsByName;
+
+    transient Index<LayerGroupInfo> layerGroupsByQualifiedName;
+
+    transient Index<StyleInfo> stylesById;
+
+    transient Index<StyleInfo> stylesByName;
+
+    transient Index<StyleInfo> stylesByQualifiedName;
+
+    transient CatalogIndexPlanner planner;
+
+    public IndexedCatalogFacade(Catalog catalog) {
+        super(catalog);
+        createIndexes();
+    }
+
+    void createIndexes() {
+        storesById = new Index<StoreInfo>();
+        storesByName = new Index<StoreInfo>();
+        storesByWorkspace = new Index<StoreInfo>();
+        resourcesById = new Index<ResourceInfo>();
+        resourcesByName = new Index<ResourceInfo>();
+        resourcesByQualifiedName = new Index<ResourceInfo>();
+        resourcesByNamespace = new Index<ResourceInfo>();
+        resourcesByStore = new Index<ResourceInfo>();
+        resourcesByEnabled = new Index<ResourceInfo>();
+        resourcesByAdvertised = new Index<ResourceInfo>();
+        layersById = new Index<LayerInfo>();
+        layersByName = new Index<LayerInfo>();
+        layersByResource = new Index<LayerInfo>();
+        layersByStyle = new Index<LayerInfo>();
+        layersByEnabled = new Index<LayerInfo>();
+        layersByAdvertised = new Index<LayerInfo>();
+        layerGroupsById = new Index<LayerGroupInfo>();
+        layerGroupsByName = new Index<LayerGroupInfo>();
+        layerGroupsByQualifiedName = new Index<LayerGroupInfo>();
+        stylesById = new Index<StyleInfo>();
+        stylesByName = new Index<StyleInfo>();
+        stylesByQualifiedName = new Index<StyleInfo>();
+        planner = new CatalogIndexPlanner(this);
+    }
+
+    //
+    // Stores
+    //
+    @Override
+    public StoreInfo add(StoreInfo store) {
+        StoreInfo added = super.add(store);
+        index(store);
+        return added;
+    }
+
+    @Override
+    public void remove(StoreInfo store) {
+        super.remove(store);
+        unindex(store);
+    }
+
+    @Override
+    public void save(StoreInfo store) {
+        super.save(store);
+        index(unwrap(store));
+    }
+
+    @Override
+    public <T extends StoreInfo> T getStore(String id, Class<T> clazz) {
+        T store = first(storesById.get(id), clazz);
+        return store != null ? ModificationProxy.create(store, clazz) : null;
+    }
+
+    @Override
+    public <T extends StoreInfo> T getStoreByName(WorkspaceInfo workspace, String name,
+            Class<T> clazz) {
+        List<T> matches;
+        if (workspace == ANY_WORKSPACE) {
+            matches = filter(storesByName.get(name), clazz);
+            if (matches.size() != 1) {
+                return null;
+            }
+        } else if (workspace == null || workspace.getId() == null) {
+            return super.getStoreByName(workspace, name, clazz);
+        } else {
+            matches = filter(storesByName.get(qualified(workspace.getId(), name)), clazz);
+        }
+        return matches.isEmpty() ? null : ModificationProxy.create(matches.get(0), clazz);
+    }
+
+    @Override
+    public <T extends StoreInfo> List<T> getStoresByWorkspace(WorkspaceInfo workspace,
+            Class<T> clazz) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+        if (workspace == null || workspace.getId() == null) {
+            return super.getStoresByWorkspace(workspace, clazz);
+        }
+        return ModificationProxy.createList(filter(storesByWorkspace.get(workspace.getId()),
+                clazz), clazz);
+    }
+
+    void index(StoreInfo store) {
+        String ws = store.getWorkspace() != null ? store.getWorkspace().getId() : null;
+        storesById.put(store, store.getId());
+        storesByName.put(store, store.getName(), qualified(ws, store.getName()));
+        storesByWorkspace.put(store, ws);
+    }
+
+    void unindex(StoreInfo store) {
+        storesById.remove(store);
+        storesByName.remove(store);
+        storesByWorkspace.remove(store);
+    }
+
+    //
+    // Resources
+    //
+    @Override
+    public ResourceInfo add(ResourceInfo resource) {
+        ResourceInfo added = super.add(resource);
+        index(resource);
+        return added;
+    }
+
+    @Override
+    public void remove(ResourceInfo resource) {
+        super.remove(resource);
+        unindex(resource);
+    }
+
+    @Override
+    public void save(ResourceInfo resource) {
+        super.save(resource);
+        ResourceInfo real = unwrap(resource);
+        index(real);
+
+        // layer names are derived from the resource name
+        for (LayerInfo layer : layersByResource.get(real.getId())) {
+            index(layer);
+        }
+    }
+
+    @Override
+    public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
+        T resource = first(resourcesById.get(id), clazz);
+        return resource != null ? ModificationProxy.create(resource, clazz) : null;
+    }
+
+    @Override
+    public <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name,
+            Class<T> clazz) {
+        List<T> matches;
+        if (namespace == ANY_NAMESPACE) {
+            matches = filter(resourcesByName.get(name), clazz);
+            if (matches.size() != 1) {
+                return null;
+            }
+        } else if (namespace == null || namespace.getId() == null) {
+            return super.getResourceByName(namespace, name, clazz);
+        } else {
+            matches = filter(resourcesByQualifiedName.get(qualified(namespace.getId(), name)),
+                    clazz);
+        }
+        return matches.isEmpty() ? null : ModificationProxy.create(matches.get(0), clazz);
+    }
+
+    @Override
+    public List getResourcesByNamespace(NamespaceInfo namespace, Class clazz) {
+        if (namespace == null) {
+            namespace = getDefaultNamespace();
+        }
+        if (namespace == null || namespace.getId() == null) {
+            return super.getResourcesByNamespace(namespace, clazz);
+        }
+        return ModificationProxy.createList(
+                filter(resourcesByNamespace.get(namespace.getId()), clazz), clazz);
+    }
+
+    @Override
+    public <T extends ResourceInfo> T getResourceByStore(StoreInfo store, String name,
+            Class<T> clazz) {
+        for (T resource : filter(resourcesByStore.get(store.getId()), clazz)) {
+            if (name.equals(resource.getName())) {
+                return ModificationProxy.create(resource, clazz);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public <T extends ResourceInfo> List<T> getResourcesByStore(StoreInfo store, Class<T> clazz) {
+        return ModificationProxy.createList(filter(resourcesByStore.get(store.getId()), clazz),
+                clazz);
+    }
+
+    void index(ResourceInfo resource) {
+        String ns = resource.getNamespace() != null ? resource.getNamespace().getId() : null;
+        resourcesById.put(resource, resource.getId());
+        resourcesByName.put(resource, resource.getName());
+        resourcesByQualifiedName.put(resource, qualified(ns, resource.getName()));
+        resourcesByNamespace.put(resource, ns);
+        resourcesByStore.put(resource, resource.getStore() != null ? resource.getStore()
+                .getId() : null);
+        resourcesByEnabled.put(resource, resource.isEnabled());
+        resourcesByAdvertised.put(resource, resource.isAdvertised());
+    }
+
+    void unindex(ResourceInfo resource) {
+        resourcesById.remove(resource);
+        resourcesByName.remove(resource);
+        resourcesByQualifiedName.remove(resource);
+        resourcesByNamespace.remove(resource);
+        resourcesByStore.remove(resource);
+        resourcesByEnabled.remove(resource);
+        resourcesByAdvertised.remove(resource);
+    }
+
+    //
+    // Layers
+    //
+    @Override
+    public LayerInfo add(LayerInfo layer) {
+        LayerInfo added = super.add(layer);
+        index(layer);
+        return added;
+    }
+
+    @Override
+    public void remove(LayerInfo layer) {
+        super.remove(layer);
+        unindex(layer);
+    }
+
+    @Override
+    public void save(LayerInfo layer) {
+        super.save(layer);
+        index(unwrap(layer));
+    }
+
+    @Override
+    public LayerInfo getLayer(String id) {
+        LayerInfo layer = first(layersById.get(id), LayerInfo.class);
+        return layer != null ? ModificationProxy.create(layer, LayerInfo.class) : null;
+    }
+
+    @Override
+    public LayerInfo getLayerByName(String name) {
+        LayerInfo layer = first(layersByName.get(name), LayerInfo.class);
+        return layer != null ? ModificationProxy.create(layer, LayerInfo.class) : null;
+    }
+
+    @Override
+    public List<LayerInfo> getLayers(ResourceInfo resource) {
+        return ModificationProxy.createList(layersByResource.get(resource.getId()),
+                LayerInfo.class);
+    }
+
+    @Override
+    public List<LayerInfo> getLayers(StyleInfo style) {
+        return ModificationProxy.createList(layersByStyle.get(style.getId()), LayerInfo.class);
+    }
+
+    void index(LayerInfo layer) {
+        ResourceInfo resource = layer.getResource();
+        List<Object> styleIds = new ArrayList<Object>();
+        if (layer.getDefaultStyle() != null) {
+            styleIds.add(layer.getDefaultStyle().getId());
+        }
+        if (layer.getStyles() != null) {
+            for (StyleInfo style : layer.getStyles()) {
+                if (style != null && !styleIds.contains(style.getId())) {
+                    styleIds.add(style.getId());
+                }
+            }
+        }
+
+        layersById.put(layer, layer.getId());
+        layersByName.put(layer, resource != null ? resource.getName() : null);
+        layersByResource.put(layer, resource != null ? resource.getId() : null);
+        layersByStyle.put(layer, styleIds.toArray());
+        if (resource != null && !isUnresolved(resource)) {
+            layersByEnabled.put(layer, layer.isEnabled());
+            layersByAdvertised.put(layer, layer.isAdvertised());
+        } else {
+            // flags cannot be determined yet, keep the layer among the candidates of both values
+            layersByEnabled.put(layer, Boolean.TRUE, Boolean.FALSE);
+            layersByAdvertised.put(layer, Boolean.TRUE, Boolean.FALSE);
+        }
+    }
+
+    void unindex(LayerInfo layer) {
+        layersById.remove(layer);
+        layersByName.remove(layer);
+        layersByResource.remove(layer);
+        layersByStyle.remove(layer);
+        layersByEnabled.remove(layer);
+        layersByAdvertised.remove(layer);
+    }
+
+    //
+    // Layer groups
+    //
+    @Override
+    public LayerGroupInfo add(LayerGroupInfo layerGroup) {
+        LayerGroupInfo added = super.add(layerGroup);
+        index(layerGroup);
+        return added;
+    }
+
+    @Override
+    public void remove(LayerGroupInfo layerGroup) {
+        super.remove(layerGroup);
+        unindex(layerGroup);
+    }
+
+    @Override
+    public void save(LayerGroupInfo layerGroup) {
+        super.save(layerGroup);
+        index(unwrap(layerGroup));
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroup(String id) {
+        LayerGroupInfo layerGroup = first(layerGroupsById.get(id), LayerGroupInfo.class);
+        return layerGroup != null ? ModificationProxy.create(layerGroup, LayerGroupInfo.class)
+                : null;
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroupByName(WorkspaceInfo workspace, String name) {
+        List<LayerGroupInfo> matches;
+        if (workspace == ANY_WORKSPACE) {
+            matches = layerGroupsByName.get(name);
+        } else if (workspace == NO_WORKSPACE) {
+            matches = layerGroupsByQualifiedName.get(qualified(null, name));
+        } else if (workspace.getId() == null) {
+            return super.getLayerGroupByName(workspace, name);
+        } else {
+            matches = layerGroupsByQualifiedName.get(qualified(workspace.getId(), name));
+        }
+
+        if (matches.size() == 1) {
+            return ModificationProxy.create(matches.get(0), LayerGroupInfo.class);
+        }
+        return null;
+    }
+
+    void index(LayerGroupInfo layerGroup) {
+        String ws = layerGroup.getWorkspace() != null ? layerGroup.getWorkspace().getId() : null;
+        layerGroupsById.put(layerGroup, layerGroup.getId());
+        layerGroupsByName.put(layerGroup, layerGroup.getName());
+        layerGroupsByQualifiedName.put(layerGroup, qualified(ws, layerGroup.getName()));
+    }
+
+    void unindex(LayerGroupInfo layerGroup) {
+        layerGroupsById.remove(layerGroup);
+        layerGroupsByName.remove(layerGroup);
+        layerGroupsByQualifiedName.remove(layerGroup);
+    }
+
+    //
+    // Styles
+    //
+    @Override
+    public StyleInfo add(StyleInfo style) {
+        StyleInfo added = super.add(style);
+        index(style);
+        return added;
+    }
+
+    @Override
+    public void remove(StyleInfo style) {
+        super.remove(style);
+        unindex(style);
+    }
+
+    @Override
+    public void save(StyleInfo style) {
+        super.save(style);
+        index(unwrap(style));
+    }
+
+    @Override
+    public StyleInfo getStyle(String id) {
+        StyleInfo style = first(stylesById.get(id), StyleInfo.class);
+        return style != null ? ModificationProxy.create(style, StyleInfo.class) : null;
+    }
+
+    @Override
+    public StyleInfo getStyleByName(String name) {
+        StyleInfo style = first(stylesByQualifiedName.get(qualified(null, name)),
+                StyleInfo.class);
+        return style != null ? ModificationProxy.create(style, StyleInfo.class) : null;
+    }
+
+    @Override
+    public StyleInfo getStyleByName(WorkspaceInfo workspace, String name) {
+        if (null == workspace) {
+            throw new NullPointerException("workspace");
+        }
+        if (null == name) {
+            throw new NullPointerException("name");
+        }
+
+        if (workspace == ANY_WORKSPACE) {
+            List<StyleInfo> matches = stylesByName.get(name);
+            return matches.size() == 1 ? ModificationProxy.create(matches.get(0),
+                    StyleInfo.class) : null;
+        }
+
+        if (workspace != NO_WORKSPACE && workspace.getId() == null) {
+            return super.getStyleByName(workspace, name);
+        }
+
+        String ws = workspace == NO_WORKSPACE ? null : workspace.getId();
+        StyleInfo style = first(stylesByQualifiedName.get(qualified(ws, name)), StyleInfo.class);
+        return style != null ? ModificationProxy.create(style, StyleInfo.class) : null;
+    }
+
+    void index(StyleInfo style) {
+        String ws = style.getWorkspace() != null ? style.getWorkspace().getId() : null;
+        stylesById.put(style, style.getId());
+        stylesByName.put(style, style.getName());
+        stylesByQualifiedName.put(style, qualified(ws, style.getName()));
+    }
+
+    void unindex(StyleInfo style) {
+        stylesById.remove(style);
+        stylesByName.remove(style);
+        stylesByQualifiedName.remove(style);
+    }
+
+    //
+    // Bulk operations
+    //
+    @Override
+    public void dispose() {
+        super.dispose();
+        createIndexes();
+    }
+
+    /**
+     * Rebuilds all the indexes from the contents of the inherited collections
+     */
+    @Override
+    protected void reindex() {
+        createIndexes();
+        for (Object store : stores.values()) {
+            index((StoreInfo) store);
+        }
+        for (Object resource : resources.values()) {
+            index((ResourceInfo) resource);
+        }
+        for (LayerInfo layer : layers) {
+            index(layer);
+        }
+        for (LayerGroupInfo layerGroup : layerGroups) {
+            index(layerGroup);
+        }
+        for (StyleInfo style : styles) {
+            index(style);
+        }
+    }
+
+    //
+    // Queries
+    //
+    /**
+     * Narrows down the objects the filter is evaluated against using the indexes, falling back on
+     * a full scan when the filter contains no indexable predicate.
+     * 
+     * @see CatalogIndexPlanner
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends CatalogInfo> Iterable<T> iterable(final Class<? super T> of,
+            final Filter filter, final SortBy sortBy) {
+        List<T> candidates = (List) planner.candidates(of, filter);
+        if (candidates == null) {
+            return super.iterable(of, filter, sortBy);
+        }
+        List<T> proxies = ModificationProxy.createList(candidates, (Class<T>) of);
+        return sortAndFilter(proxies, filter, sortBy);
+    }
+
+    //
+    // Utilities
+    //
+    static boolean isUnresolved(Object info) {
+        return Proxy.isProxyClass(info.getClass())
+                && Proxy.getInvocationHandler(info) instanceof ResolvingProxy;
+    }
+
+    static Object qualified(String containerId, String name) {
+        return Arrays.asList(containerId, name);
+    }
+
+    static <T> List<T> filter(List<? super T> objects, Class<T> clazz) {
+        List<T> result = new ArrayList<T>(objects.size());
+        for (Object o : objects) {
+            if (clazz.isInstance(o)) {
+                result.add(clazz.cast(o));
+            }
+        }
+        return result;
+    }
+
+    static <T> T first(List<? super T> objects, Class<T> clazz) {
+        for (Object o : objects) {
+            if (clazz.isInstance(o)) {
+                return clazz.cast(o);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Maps keys to the catalog objects indexed under them, remembering which keys each object was
+     * indexed with so that its entries can be dropped or moved without knowing its previous state.
+     * <p>
+     * Lookups are lock free on the key map and only synchronize on the (small) set of objects
+     * sharing the key, updates are serialized. Objects sharing a key are kept in insertion order.
+     * </p>
+     */
+    static class Index<T extends CatalogInfo> {
+
+        final ConcurrentMap<Object, Map<String, T>> entries = new ConcurrentHashMap<Object, Map<String, T>>();
+
+        final ConcurrentMap<String, Collection<Object>> keys = new ConcurrentHashMap<String, Collection<Object>>();
+
+        /**
+         * Indexes the object under the specified keys, replacing any previous entry for it. Null
+         * keys are ignored.
+         */
+        synchronized void put(T info, Object... newKeys) {
+            remove(info);
+
+            List<Object> indexed = new ArrayList<Object>(newKeys.length);
+            for (Object key : newKeys) {
+                if (key == null) {
+                    continue;
+                }
+                Map<String, T> values = entries.get(key);
+                if (values == null) {
+                    values = Collections.synchronizedMap(new LinkedHashMap<String, T>());
+                    entries.put(key, values);
+                }
+                values.put(info.getId(), info);
+                indexed.add(key);
+            }
+            keys.put(info.getId(), indexed);
+        }
+
+        /**
+         * Drops all the entries of the object
+         */
+        synchronized void remove(T info) {
+            Collection<Object> indexed = keys.remove(info.getId());
+            if (indexed == null) {
+                return;
+            }
+            for (Object key : indexed) {
+                Map<String, T> values = entries.get(key);
+                if (values != null) {
+                    values.remove(info.getId());
+                    if (values.isEmpty()) {
+                        entries.remove(key);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the objects indexed under the key, in insertion order
+         */
+        List<T> get(Object key) {
+            Map<String, T> values = key != null ? entries.get(key) : null;
+            if (values == null) {
+                return Collections.emptyList();
+            }
+            synchronized (values) {
+                return new ArrayList<T>(values.values());
+            }
+        }
+    }
+}
@@ -0,0 +1,438 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.Wrapper;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.ModificationProxy;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Binary snapshot of the catalog, used to speed up restarts of large catalogs.
+ * <p>
+ * The snapshot is a java serialization dump of the catalog objects stored in the data directory
+ * root, along with the modification times of all the xml files the catalog is read from. On
+ * startup the snapshot is memory mapped and read back only if the modification times still
+ * match, otherwise the loader falls back on parsing the xml files, and writes a new snapshot
+ * afterwards.
+ * </p>
+ * <p>
+ * Snapshots are only taken right after the xml files have been parsed, when the catalog is
+ * known to match them. At any later time the files might have been edited by hand while the
+ * catalog in memory still holds the old contents, a snapshot would then record the current
+ * modification times along with stale contents, and hide the edits on next startup. Changes
+ * made through GeoServer thus invalidate the snapshot until the next startup parses the xml
+ * files again.
+ * </p>
+ * <p>
+ * Snapshots are disabled by default, set the {@link #ENABLED} property to <code>true</code>
+ * to enable them.
+ * </p>
+ */
+public class CatalogSnapshot {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver");
+
+    /**
+     * Property enabling the catalog snapshots
+     */
+    public static final String ENABLED = "GEOSERVER_CATALOG_SNAPSHOT";
+
+    /**
+     * Name of the snapshot file in the data directory
+     */
+    public static final String FILE_NAME = "catalog.snapshot";
+
+    /**
+     * Format version, to be bumped on any incompatible change to the snapshot contents
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The data directory folders the catalog is read from
+     */
+    static final String[] CATALOG_DIRECTORIES = new String[] { "workspaces", "styles",
+            "layergroups" };
+
+    GeoServerResourceLoader resourceLoader;
+
+    public CatalogSnapshot(GeoServerResourceLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+    }
+
+    /**
+     * Returns true if snapshots have been enabled with the {@link #ENABLED} property
+     */
+    public static boolean isEnabled() {
+        return Boolean.valueOf(GeoServerExtensions.getProperty(ENABLED));
+    }
+
+    File getFile() {
+        return new File(resourceLoader.getBaseDirectory(), FILE_NAME);
+    }
+
+    /**
+     * Reads the catalog from the snapshot.
+     *
+     * @return The catalog, or <code>null</code> if the snapshot is missing, out of date or
+     *         cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public CatalogImpl read() {
+        File file = getFile();
+        if (!file.exists()) {
+            return null;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                FileChannel channel = fis.getChannel();
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                ObjectInputStream in = new ObjectInputStream(new ByteBufferInputStream(buffer));
+
+                if (in.readInt() != VERSION) {
+                    LOGGER.info("Catalog snapshot format changed, ignoring it");
+                    return null;
+                }
+                Map<String, Long> manifest = (Map<String, Long>) in.readObject();
+                if (!manifest.equals(manifest())) {
+                    LOGGER.info("Catalog configuration files changed since the snapshot was taken, ignoring it");
+                    return null;
+                }
+
+                Contents contents = (Contents) in.readObject();
+                CatalogImpl catalog = contents.toCatalog(resourceLoader);
+                LOGGER.info("Catalog loaded from snapshot in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                return catalog;
+            } finally {
+                fis.close();
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to read the catalog snapshot, falling back on "
+                    + "the xml configuration", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes out a snapshot of the catalog, recording the current modification times of the 
+     * files. Failures are logged and a partial snapshot is never left behind.
+     */
+    public void write(Catalog catalog) {
+        write(catalog, manifest());
+    }
+
+    /**
+     * Writes out a snapshot of the catalog. Failures are logged and a partial snapshot is never
+     * left behind.
+     * 
+     * @param manifest The modification times of the files, as taken with {@link #manifest()}
+     *        before the catalog was read from them
+     */
+    public void write(Catalog catalog, Map<String, Long> manifest) {
+        if (catalog instanceof Wrapper) {
+            catalog = ((Wrapper) catalog).unwrap(Catalog.class);
+        }
+
+        long start = System.currentTimeMillis();
+        File file = getFile();
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp));
+            try {
+                ObjectOutputStream out = new SnapshotOutputStream(os);
+                out.writeInt(VERSION);
+                out.writeObject(manifest);
+                out.writeObject(new Contents(catalog));
+                out.flush();
+            } finally {
+                os.close();
+            }
+
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Could not remove the old snapshot " + file.getPath());
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp.getPath() + " to "
+                        + file.getPath());
+            }
+            LOGGER.info("Catalog snapshot written in " + (System.currentTimeMillis() - start)
+                    + " ms");
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to write the catalog snapshot", e);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Removes the snapshot
+     */
+    public void delete() {
+        File file = getFile();
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Builds the modification times map of the xml files the catalog is read from, keyed by
+     * path relative to the data directory. To be taken before reading the files, so that any
+     * change happening meanwhile makes the snapshot look out of date, rather than the opposite.
+     */
+    public Map<String, Long> manifest() {
+        Map<String, Long> manifest = new TreeMap<String, Long>();
+        File root = resourceLoader.getBaseDirectory();
+        for (String name : CATALOG_DIRECTORIES) {
+            scan(new File(root, name), name, manifest);
+        }
+        return manifest;
+    }
+
+    void scan(File dir, String path, Map<String, Long> manifest) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String childPath = path + "/" + f.getName();
+            if (f.isDirectory()) {
+                scan(f, childPath, manifest);
+            } else if (f.getName().endsWith(".xml")) {
+                manifest.put(childPath, f.lastModified());
+            }
+        }
+    }
+
+    /**
+     * The catalog contents, with the objects stored in the order they have to be added back
+     */
+    static class Contents implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        List<WorkspaceInfo> workspaces;
+
+        List<NamespaceInfo> namespaces;
+
+        List<StyleInfo> styles;
+
+        List<StoreInfo> stores;
+
+        List<ResourceInfo> resources;
+
+        List<LayerInfo> layers;
+
+        List<LayerGroupInfo> layerGroups;
+
+        String defaultWorkspace;
+
+        String defaultNamespace;
+
+        /**
+         * Stores disabled by the loader because of a connection error, they are re-enabled
+         * before being checked again
+         */
+        Set<String> disabledStores = new HashSet<String>();
+
+        Contents(Catalog catalog) {
+            workspaces = unwrap(catalog.getWorkspaces());
+            namespaces = unwrap(catalog.getNamespaces());
+            styles = unwrap(catalog.getStyles());
+            stores = unwrap(catalog.getStores(StoreInfo.class));
+            resources = unwrap(catalog.getResources(ResourceInfo.class));
+            layers = unwrap(catalog.getLayers());
+            layerGroups = sort(unwrap(catalog.getLayerGroups()));
+
+            WorkspaceInfo ws = catalog.getDefaultWorkspace();
+            defaultWorkspace = ws != null ? ws.getName() : null;
+            NamespaceInfo ns = catalog.getDefaultNamespace();
+            defaultNamespace = ns != null ? ns.getPrefix() : null;
+
+            for (StoreInfo store : stores) {
+                if (!store.isEnabled() && store.getError() != null) {
+                    disabledStores.add(store.getId());
+                }
+            }
+        }
+
+        <T extends CatalogInfo> List<T> unwrap(List<T> infos) {
+            List<T> result = new ArrayList<T>(infos.size());
+            for (T info : infos) {
+                result.add(ModificationProxy.unwrap(info));
+            }
+            return result;
+        }
+
+        /**
+         * Sorts the layer groups so that nested groups come before the groups containing them
+         */
+        List<LayerGroupInfo> sort(List<LayerGroupInfo> groups) {
+            List<LayerGroupInfo> sorted = new ArrayList<LayerGroupInfo>(groups.size());
+            Set<String> added = new HashSet<String>();
+            List<LayerGroupInfo> remaining = new ArrayList<LayerGroupInfo>(groups);
+            while (!remaining.isEmpty()) {
+                int size = remaining.size();
+                for (Iterator<LayerGroupInfo> it = remaining.iterator(); it.hasNext();) {
+                    LayerGroupInfo group = it.next();
+                    if (nestedGroupsAdded(group, added)) {
+                        sorted.add(group);
+                        added.add(group.getId());
+                        it.remove();
+                    }
+                }
+                if (remaining.size() == size) {
+                    // cycle or dangling reference, let the catalog sort it out
+                    sorted.addAll(remaining);
+                    break;
+                }
+            }
+            return sorted;
+        }
+
+        boolean nestedGroupsAdded(LayerGroupInfo group, Set<String> added) {
+            for (PublishedInfo p : group.getLayers()) {
+                if (p instanceof LayerGroupInfo && !added.contains(p.getId())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        CatalogImpl toCatalog(GeoServerResourceLoader resourceLoader) {
+            CatalogImpl catalog = new CatalogImpl();
+            catalog.setResourceLoader(resourceLoader);
+
+            for (WorkspaceInfo ws : workspaces) {
+                catalog.add(ws);
+            }
+            for (NamespaceInfo ns : namespaces) {
+                catalog.add(ns);
+            }
+            for (StyleInfo s : styles) {
+                catalog.add(s);
+            }
+            for (StoreInfo s : stores) {
+                if (disabledStores.contains(s.getId())) {
+                    s.setEnabled(true);
+                }
+                s.setError(null);
+                catalog.add(s);
+            }
+            for (ResourceInfo r : resources) {
+                catalog.add(r);
+            }
+            for (LayerInfo l : layers) {
+                catalog.add(l);
+            }
+            for (LayerGroupInfo lg : layerGroups) {
+                catalog.add(lg);
+            }
+
+            if (defaultWorkspace != null) {
+                catalog.setDefaultWorkspace(catalog.getWorkspaceByName(defaultWorkspace));
+            }
+            if (defaultNamespace != null) {
+                catalog.setDefaultNamespace(catalog.getNamespaceByPrefix(defaultNamespace));
+            }
+            return catalog;
+        }
+    }
+
+    /**
+     * Object stream getting rid of modification proxies and of the errors attached to the
+     * stores, which are transient state and often not serializable
+     */
+    static class SnapshotOutputStream extends ObjectOutputStream {
+
+        SnapshotOutputStream(OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof Throwable) {
+                return null;
+            }
+            if (obj != null && Proxy.isProxyClass(obj.getClass())) {
+                return ModificationProxy.unwrap(obj);
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * Input stream reading from a (memory mapped) byte buffer
+     */
+    static class ByteBufferInputStream extends InputStream {
+
+        ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buffer.remaining();
+        }
+    }
+}
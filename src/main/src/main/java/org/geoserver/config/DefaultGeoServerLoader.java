@@ -47,7 +47,9 @@ public class DefaultGeoServerLoader extends GeoServerLoader {
         
         if ( !legacy ) {
             //add the listener which will persist changes
-            catalog.addListener( new GeoServerPersister( resourceLoader, xp ) );
+            GeoServerPersister p = new GeoServerPersister( resourceLoader, xp );
+            p.setWriteBehind( GeoServerPersister.isWriteBehindEnabled() );
+            catalog.addListener( p );
         }
     }
     
@@ -68,6 +70,7 @@ public class DefaultGeoServerLoader extends GeoServerLoader {
             } else {
                 // lazy creation of the persister at the first need
                 this.persister = new GeoServerPersister(resourceLoader, xp);
+                this.persister.setWriteBehind(GeoServerPersister.isWriteBehindEnabled());
             }
             readConfiguration(geoServer, xp);
         } finally {
@@ -86,5 +89,21 @@ public class DefaultGeoServerLoader extends GeoServerLoader {
         
         catalog.removeListener(p);
     }
+    
+    @Override
+    public void destroy() throws Exception {
+        //write out any queued change
+        if ( geoserver != null ) {
+            for ( GeoServerPersister p : 
+                    GeoServerPersister.persisters(geoserver.getCatalog(), geoserver) ) {
+                p.dispose();
+            }
+        }
+        
+        //no catalog snapshot is taken here, the files might have been edited by hand since 
+        // the catalog was loaded, see CatalogSnapshot
+        
+        super.destroy();
+    }
 
 }
@@ -15,6 +15,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,7 +30,6 @@ import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.geoserver.catalog.Catalog;
-import org.geoserver.catalog.CatalogFactory;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.DataStoreInfo;
@@ -31,7 +37,9 @@ import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
@@ -39,6 +47,7 @@ import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.Wrapper;
 import org.geoserver.catalog.event.CatalogListener;
 import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.catalog.util.LegacyCatalogImporter;
 import org.geoserver.catalog.util.LegacyCatalogReader;
 import org.geoserver.catalog.util.LegacyFeatureTypeInfoReader;
@@ -76,6 +85,12 @@ public abstract class GeoServerLoader {
     // this ugly hack can die
     static boolean legacy = false;
     
+    /**
+     * Property controlling the number of threads parsing the catalog configuration files, 
+     * defaults to the number of available processors, 1 disables parallel loading
+     */
+    public static final String LOADER_THREADS = "GEOSERVER_LOADER_THREADS";
+    
     public GeoServerLoader( GeoServerResourceLoader resourceLoader ) {
         this.resourceLoader = resourceLoader;
     }
@@ -196,7 +211,11 @@ public abstract class GeoServerLoader {
     }
     
     public void reload() throws Exception {
-        destroy();
+        //reloading is meant to pick up changes made directly to the files, drop the snapshot
+        if ( CatalogSnapshot.isEnabled() ) {
+            new CatalogSnapshot(resourceLoader).delete();
+        }
+        geoserver.dispose();
         
         //reload catalog, make sure we reload the underlying catalog, not any wrappers
         Catalog catalog = geoserver.getCatalog();
@@ -215,6 +234,9 @@ public abstract class GeoServerLoader {
         // we are going to synch up the catalogs and need to preserve listeners,
         // but these two fellas are attached to the new catalog as well
         catalog.removeListeners(ResourcePool.CacheClearingListener.class);
+        for (GeoServerPersister p : GeoServerPersister.persisters(catalog, null)) {
+            p.dispose();
+        }
         catalog.removeListeners(GeoServerPersister.class);
         List<CatalogListener> listeners = new ArrayList<CatalogListener>(catalog.getListeners());
 
@@ -222,8 +244,17 @@ public abstract class GeoServerLoader {
         // an old data directory
         File f = resourceLoader.find( "catalog.xml" );
         if ( f == null ) {
-            //assume 2.x style data directory
-            CatalogImpl catalog2 = (CatalogImpl) readCatalog( xp );
+            //assume 2.x style data directory, use the binary snapshot if up to date
+            CatalogSnapshot snapshot = CatalogSnapshot.isEnabled() ? 
+                    new CatalogSnapshot(resourceLoader) : null;
+            CatalogImpl catalog2 = snapshot != null ? readSnapshot( snapshot ) : null;
+            if ( catalog2 == null ) {
+                Map<String, Long> manifest = snapshot != null ? snapshot.manifest() : null;
+                catalog2 = (CatalogImpl) readCatalog( xp );
+                if ( snapshot != null ) {
+                    snapshot.write( catalog2, manifest );
+                }
+            }
             // make to remove the old resource pool catalog listener
             ((CatalogImpl)catalog).sync( catalog2 );
         } else {
@@ -239,77 +270,173 @@ public abstract class GeoServerLoader {
         }
     }
     
+    /**
+     * Reads the catalog from the snapshot, checking the data store connections as the xml
+     * loading would do.
+     * 
+     * @return The catalog, or <code>null</code> if the snapshot is not usable
+     */
+    CatalogImpl readSnapshot(CatalogSnapshot snapshot) {
+        CatalogImpl catalog = snapshot.read();
+        if ( catalog == null ) {
+            return null;
+        }
+        
+        List<DataStoreInfo> dataStores = new ArrayList<DataStoreInfo>();
+        for ( DataStoreInfo ds : catalog.getDataStores() ) {
+            dataStores.add( ModificationProxy.unwrap( ds ) );
+        }
+        ExecutorService executor = createLoaderExecutor();
+        try {
+            checkDataStores(dataStores, executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        return catalog;
+    }
+    
     /**
      * Reads the catalog from disk.
+     * <p>
+     * The configuration files are parsed in parallel, one phase per level of the dependency
+     * chain workspace &rarr; style &rarr; store &rarr; resource &rarr; layer &rarr; layer group, 
+     * each phase adding its results to the catalog, in data directory order, before the next 
+     * one starts, so that references to objects loaded in previous phases can be resolved while 
+     * parsing. The number of threads is controlled by the {@link #LOADER_THREADS} property.
+     * </p>
      */
     Catalog readCatalog( XStreamPersister xp ) throws Exception {
         Catalog catalog = new CatalogImpl();
         catalog.setResourceLoader(resourceLoader);
         xp.setCatalog( catalog );
         
-        CatalogFactory factory = catalog.getFactory();
-       
-        //global styles
-        loadStyles(resourceLoader.find( "styles" ), catalog, xp);
-
-        //workspaces, stores, and resources
+        ExecutorService executor = createLoaderExecutor();
+        try {
+            readCatalog(catalog, xp, executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        
+        return catalog;
+    }
+    
+    void readCatalog(Catalog catalog, XStreamPersister xp, ExecutorService executor) throws Exception {
+        long start = System.currentTimeMillis();
+        long phaseStart = start;
+        
+        //workspaces
         File workspaces = resourceLoader.find( "workspaces" );
+        List<File> workspaceDirs = new ArrayList<File>();
         if ( workspaces != null ) {
-            //do a first quick scan over all workspaces, setting the default
-            File dws = new File(workspaces, "default.xml");
-            WorkspaceInfo defaultWorkspace = null;
-            if (dws.exists()) {
-                try {
-                    defaultWorkspace = depersist(xp, dws, WorkspaceInfo.class);
-                    LOGGER.info("Loaded default workspace " + defaultWorkspace.getName());
-                }
-                catch( Exception e ) {
-                    LOGGER.log(Level.WARNING, "Failed to load default workspace", e);
+            workspaceDirs.addAll(list(workspaces, DirectoryFileFilter.INSTANCE));
+            workspaceDirs = loadWorkspaces(workspaces, workspaceDirs, catalog, xp, executor);
+        }
+        else {
+            LOGGER.warning( "No 'workspaces' directory found, unable to load any stores." );
+        }
+        phaseStart = logPhase("workspaces", catalog.getWorkspaces().size(), phaseStart);
+        
+        //global styles, then the styles of each workspace
+        List<File> styleDirs = new ArrayList<File>();
+        styleDirs.add(resourceLoader.find( "styles" ));
+        for ( File wsd : workspaceDirs ) {
+            styleDirs.add(resourceLoader.find(wsd, "styles"));
+        }
+        loadStyles(styleDirs, catalog, xp, executor);
+        phaseStart = logPhase("styles", catalog.getStyles().size(), phaseStart);
+
+        //stores, resources and layers
+        List<Loaded> stores = loadStores(workspaceDirs, catalog, xp, executor);
+        phaseStart = logPhase("stores", catalog.getStores(StoreInfo.class).size(), phaseStart);
+        
+        List<Loaded> resources = loadResources(stores, catalog, xp, executor);
+        phaseStart = logPhase("resources", catalog.getResources(ResourceInfo.class).size(), phaseStart);
+        
+        loadLayers(resources, catalog, xp, executor);
+        phaseStart = logPhase("layers", catalog.getLayers().size(), phaseStart);
+
+        //layer groups, they can refer to each other and are thus loaded one at a time, first 
+        // the ones of each workspace, then the global ones
+        if ( workspaces != null ) {
+            for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
+                File layergroups = resourceLoader.find(wsd, "layergroups");
+                if (layergroups != null) {
+                    loadLayerGroups(layergroups, catalog, xp);
                 }
             }
-            else {
-                LOGGER.warning("No default workspace was found.");
+        }
+        File layergroups = resourceLoader.find( "layergroups" );
+        if ( layergroups != null ) {
+           loadLayerGroups(layergroups, catalog, xp);
+        }
+        logPhase("layer groups", catalog.getLayerGroups().size(), phaseStart);
+        
+        LOGGER.info("Catalog loaded in " + (System.currentTimeMillis() - start) + " ms");
+    }
+    
+    /**
+     * Loads the workspaces and their namespaces, returning the directories of the workspaces
+     * that were successfully added to the catalog.
+     */
+    List<File> loadWorkspaces(File workspaces, List<File> workspaceDirs, Catalog catalog, 
+            XStreamPersister xp, ExecutorService executor) {
+        //do a first quick scan over all workspaces, setting the default
+        File dws = new File(workspaces, "default.xml");
+        WorkspaceInfo defaultWorkspace = null;
+        if (dws.exists()) {
+            try {
+                defaultWorkspace = depersist(xp, dws, WorkspaceInfo.class);
+                LOGGER.info("Loaded default workspace " + defaultWorkspace.getName());
             }
-            
-            for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
-                File f = new File( wsd, "workspace.xml");
-                if ( !f.exists() ) {
-                    continue;
-                }
+            catch( Exception e ) {
+                LOGGER.log(Level.WARNING, "Failed to load default workspace", e);
+            }
+        }
+        else {
+            LOGGER.warning("No default workspace was found.");
+        }
+        
+        List<Loaded> files = new ArrayList<Loaded>();
+        for ( File wsd : workspaceDirs ) {
+            File f = new File( wsd, "workspace.xml");
+            if ( f.exists() ) {
+                files.add(new Loaded(wsd, f, WorkspaceInfo.class));
                 
-                WorkspaceInfo ws = null;
+                File nsf = new File( wsd, "namespace.xml" );
+                if ( nsf.exists() ) {
+                    files.add(new Loaded(wsd, nsf, NamespaceInfo.class));
+                }
+            }
+        }
+        depersist(xp, files, executor);
+        
+        List<File> loaded = new ArrayList<File>();
+        WorkspaceInfo ws = null;
+        for ( Loaded l : files ) {
+            if ( l.clazz == WorkspaceInfo.class ) {
+                ws = null;
                 try {
-                    ws = depersist( xp, f, WorkspaceInfo.class );
+                    ws = (WorkspaceInfo) l.get();
                     catalog.add( ws );    
                 }
                 catch( Exception e ) {
-                    LOGGER.log( Level.WARNING, "Failed to load workspace '" + wsd.getName() + "'" , e );
+                    LOGGER.log( Level.WARNING, "Failed to load workspace '" + l.dir.getName() + "'" , e );
+                    ws = null;
                     continue;
                 }
                 
                 LOGGER.info( "Loaded workspace '" + ws.getName() +"'");
-                
-                //load the namespace
-                File nsf = new File( wsd, "namespace.xml" );
-                NamespaceInfo ns = null; 
-                if ( nsf.exists() ) {
-                    try {
-                        ns = depersist( xp, nsf, NamespaceInfo.class );
-                        catalog.add( ns );
-                    }
-                    catch( Exception e ) {
-                        LOGGER.log( Level.WARNING, "Failed to load namespace for '" + wsd.getName() + "'" , e );
-                    }
-                }
+                loaded.add(l.dir);
                 
                 //set the default workspace, this value might be null in the case of coming from a 
                 // 2.0.0 data directory. See http://jira.codehaus.org/browse/GEOS-3440
                 if (defaultWorkspace != null ) {
                     if (ws.getName().equals(defaultWorkspace.getName())) {
                         catalog.setDefaultWorkspace(ws);
-                        if (ns != null) {
-                            catalog.setDefaultNamespace(ns);
-                        }
                     }
                 }
                 else {
@@ -321,210 +448,304 @@ public abstract class GeoServerLoader {
                         }
                         catch( Exception e ) {
                             LOGGER.log( Level.WARNING, "Failed to persist default workspace '" + 
-                                wsd.getName() + "'" , e );
+                                l.dir.getName() + "'" , e );
                         }
-                        
                     }
                 }
-
-                //load the styles for the workspace
-                File styles = resourceLoader.find(wsd, "styles");
-                if (styles != null) {
-                    loadStyles(styles, catalog, xp);
+            } 
+            else if ( ws != null ) {
+                //the namespace of the workspace just loaded
+                try {
+                    NamespaceInfo ns = (NamespaceInfo) l.get();
+                    catalog.add( ns );
+                    
+                    if (defaultWorkspace != null && ws.getName().equals(defaultWorkspace.getName())) {
+                        catalog.setDefaultNamespace(ns);
+                    }
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load namespace for '" + l.dir.getName() + "'" , e );
                 }
             }
+        }
+        return loaded;
+    }
+    
+    /**
+     * Loads the stores of the specified workspaces, connecting to the enabled data stores 
+     * to determine if they should be disabled, and returns the stores that were successfully 
+     * added to the catalog.
+     */
+    List<Loaded> loadStores(List<File> workspaceDirs, Catalog catalog, XStreamPersister xp, 
+            ExecutorService executor) throws Exception {
+        List<Loaded> files = new ArrayList<Loaded>();
+        for ( File wsd : workspaceDirs ) {
+            for ( File sd : list(wsd, DirectoryFileFilter.INSTANCE) ) {
+                File f = new File( sd, "datastore.xml");
+                if ( f.exists() ) {
+                    files.add(new Loaded(sd, f, DataStoreInfo.class));
+                    continue;
+                }
+                f = new File( sd, "coveragestore.xml" );
+                if ( f.exists() ) {
+                    files.add(new Loaded(sd, f, CoverageStoreInfo.class));
+                    continue;
+                }
+                f = new File( sd, "wmsstore.xml" );
+                if ( f.exists() ) {
+                    files.add(new Loaded(sd, f, WMSStoreInfo.class));
+                    continue;
+                }
+                LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
+            }
+        }
+        depersist(xp, files, executor);
+        
+        List<Loaded> loaded = new ArrayList<Loaded>();
+        List<DataStoreInfo> dataStores = new ArrayList<DataStoreInfo>();
+        for ( Loaded l : files ) {
+            String type = l.clazz == DataStoreInfo.class ? "data store" : 
+                l.clazz == CoverageStoreInfo.class ? "coverage store" : "wms store";
+            StoreInfo store = null;
+            try {
+                store = (StoreInfo) l.get();
+                catalog.add( store );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load " + type + " '" + l.dir.getName() +"'", e);
+                continue;
+            }
             
-            for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
-                
-                //load the stores for this workspace
-                for ( File sd : list(wsd, DirectoryFileFilter.INSTANCE) ) {
-                    File f = new File( sd, "datastore.xml");
-                    if ( f.exists() ) {
-                        //load as a datastore
-                        DataStoreInfo ds = null;
-                        try {    
-                            ds = depersist( xp, f, DataStoreInfo.class );
-                            catalog.add( ds );
-                            
-                            LOGGER.info( "Loaded data store '" + ds.getName() +"'");
-                            
-                            if (ds.isEnabled()) {
-                                //connect to the datastore to determine if we should disable it
-                                try {
-                                    ds.getDataStore(null);
-                                }
-                                catch( Throwable t ) {
-                                    LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
-                                    LOGGER.log( Level.INFO, "", t );
-                                    
-                                    ds.setError(t);
-                                    ds.setEnabled(false);
-                                }
-                            }
-                        }
-                        catch( Exception e ) {
-                            LOGGER.log( Level.WARNING, "Failed to load data store '" + sd.getName() +"'", e);
-                            continue;
-                        }
+            LOGGER.info( "Loaded " + type + " '" + store.getName() +"'");
+            loaded.add(l);
+            
+            if ( store instanceof DataStoreInfo ) {
+                dataStores.add((DataStoreInfo) store);
+            }
+        }
+        checkDataStores(dataStores, executor);
+        
+        return loaded;
+    }
+    
+    /**
+     * Connects to the enabled data stores, disabling the ones that cannot be connected to.
+     */
+    void checkDataStores(List<DataStoreInfo> dataStores, ExecutorService executor) {
+        List<Callable<Object>> connections = new ArrayList<Callable<Object>>();
+        for ( final DataStoreInfo ds : dataStores ) {
+            if ( !ds.isEnabled() ) {
+                continue;
+            }
+            connections.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    //connect to the datastore to determine if we should disable it
+                    try {
+                        ds.getDataStore(null);
+                    }
+                    catch( Throwable t ) {
+                        LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
+                        LOGGER.log( Level.INFO, "", t );
                         
-                        //load feature types
-                        for ( File ftd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                            f = new File( ftd, "featuretype.xml" );
-                            if( f.exists() ) {
-                                FeatureTypeInfo ft = null;
-                                try {
-                                    ft = depersist(xp,f,FeatureTypeInfo.class);
-                                }
-                                catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load feature type '" + ftd.getName() +"'", e);
-                                    continue;
-                                }
-                                
-                                catalog.add( ft );
-                                
-                                LOGGER.info( "Loaded feature type '" + ds.getName() +"'");
-                                
-                                f = new File( ftd, "layer.xml" );
-                                if ( f.exists() ) {
-                                    try {
-                                        LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                        catalog.add( l );
-                                        
-                                        LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                    }
-                                    catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load layer for feature type '" + ft.getName() +"'", e);
-                                    }
-                                }
-                            }
-                            else {
-                                LOGGER.warning( "Ignoring feature type directory " + ftd.getAbsolutePath() );
-                            }
-                        }
-                    } else {
-                        //look for a coverage store
-                        f = new File( sd, "coveragestore.xml" );
-                        if ( f.exists() ) {
-                            CoverageStoreInfo cs = null;
-                            try {
-                                cs = depersist( xp, f, CoverageStoreInfo.class );
-                                catalog.add( cs );
-                            
-                                LOGGER.info( "Loaded coverage store '" + cs.getName() +"'");
-                            }
-                            catch( Exception e ) {
-                                LOGGER.log( Level.WARNING, "Failed to load coverage store '" + sd.getName() +"'", e);
-                                continue;
-                            }
-                            
-                            //load coverages
-                            for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                                f = new File( cd, "coverage.xml" );
-                                if( f.exists() ) {
-                                    CoverageInfo c = null;
-                                    try {
-                                        c = depersist(xp,f,CoverageInfo.class);
-                                        catalog.add( c );
-                                        
-                                        LOGGER.info( "Loaded coverage '" + cs.getName() +"'");
-                                    }
-                                    catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load coverage '" + cd.getName() +"'", e);
-                                        continue;
-                                    }
-                                    
-                                    f = new File( cd, "layer.xml" );
-                                    if ( f.exists() ) {
-                                        try {
-                                            LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                            catalog.add( l );
-                                            
-                                            LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load layer coverage '" + c.getName() +"'", e);
-                                        }
-                                    }
-                                }
-                                else {
-                                    LOGGER.warning( "Ignoring coverage directory " + cd.getAbsolutePath() );
-                                }
-                            }
-                        } else {
-                            f = new File( sd, "wmsstore.xml" );
-                            if(f.exists()) {
-                                WMSStoreInfo wms = null;
-                                try {
-                                    wms = depersist( xp, f, WMSStoreInfo.class );
-                                    catalog.add( wms );
-                                
-                                    LOGGER.info( "Loaded wmsstore '" + wms.getName() +"'");
-                                } catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load wms store '" + sd.getName() +"'", e);
-                                    continue;
-                                }
-                                
-                                //load wms layers
-                                for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                                    f = new File( cd, "wmslayer.xml" );
-                                    if( f.exists() ) {
-                                        WMSLayerInfo wl = null;
-                                        try {
-                                            wl = depersist(xp,f,WMSLayerInfo.class);
-                                            catalog.add( wl );
-                                            
-                                            LOGGER.info( "Loaded wms layer'" + wl.getName() +"'");
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load wms layer '" + cd.getName() +"'", e);
-                                            continue;
-                                        }
-                                        
-                                        f = new File( cd, "layer.xml" );
-                                        if ( f.exists() ) {
-                                            try {
-                                                LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                                catalog.add( l );
-                                                
-                                                LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                            }
-                                            catch( Exception e ) {
-                                                LOGGER.log( Level.WARNING, "Failed to load cascaded wms layer '" + wl.getName() +"'", e);
-                                            }
-                                        }
-                                    }
-                                    else {
-                                        LOGGER.warning( "Ignoring coverage directory " + cd.getAbsolutePath() );
-                                    }
-                                }
-                            } else {
-                                LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
-                                continue;
-                            }
-                        }
+                        ds.setError(t);
+                        ds.setEnabled(false);
                     }
+                    return null;
                 }
+            });
+        }
+        invokeAll(connections, executor);
+    }
+    
+    /**
+     * Loads the resources of the specified stores, returning the ones that were successfully 
+     * added to the catalog.
+     */
+    List<Loaded> loadResources(List<Loaded> stores, Catalog catalog, XStreamPersister xp, 
+            ExecutorService executor) {
+        List<Loaded> files = new ArrayList<Loaded>();
+        for ( Loaded store : stores ) {
+            String fileName;
+            Class<?> clazz;
+            String type;
+            if ( store.clazz == DataStoreInfo.class ) {
+                fileName = "featuretype.xml";
+                clazz = FeatureTypeInfo.class;
+                type = "feature type";
+            } else if ( store.clazz == CoverageStoreInfo.class ) {
+                fileName = "coverage.xml";
+                clazz = CoverageInfo.class;
+                type = "coverage";
+            } else {
+                fileName = "wmslayer.xml";
+                clazz = WMSLayerInfo.class;
+                type = "wms layer";
+            }
+            
+            for ( File rd : list(store.dir, DirectoryFileFilter.INSTANCE) ) {
+                File f = new File( rd, fileName );
+                if ( f.exists() ) {
+                    files.add(new Loaded(rd, f, clazz));
+                } else {
+                    LOGGER.warning( "Ignoring " + type + " directory " + rd.getAbsolutePath() );
+                }
+            }
+        }
+        depersist(xp, files, executor);
 
-                //load hte layer groups for this workspace
-                File layergroups = resourceLoader.find(wsd, "layergroups");
-                if (layergroups != null) {
-                    loadLayerGroups(layergroups, catalog, xp);
+        List<Loaded> loaded = new ArrayList<Loaded>();
+        for ( Loaded l : files ) {
+            String type = l.clazz == FeatureTypeInfo.class ? "feature type" : 
+                l.clazz == CoverageInfo.class ? "coverage" : "wms layer";
+            try {
+                ResourceInfo r = (ResourceInfo) l.get();
+                catalog.add( r );
+                
+                LOGGER.info( "Loaded " + type + " '" + r.getName() +"'");
+                loaded.add(l);
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load " + type + " '" + l.dir.getName() +"'", e);
+            }
+        }
+        return loaded;
+    }
+    
+    /**
+     * Loads the layers of the specified resources.
+     */
+    void loadLayers(List<Loaded> resources, Catalog catalog, XStreamPersister xp, 
+            ExecutorService executor) {
+        List<Loaded> files = new ArrayList<Loaded>();
+        for ( Loaded resource : resources ) {
+            File f = new File( resource.dir, "layer.xml" );
+            if ( f.exists() ) {
+                files.add(new Loaded(resource.dir, f, LayerInfo.class));
+            }
+        }
+        depersist(xp, files, executor);
+        
+        for ( Loaded l : files ) {
+            try {
+                LayerInfo layer = (LayerInfo) l.get();
+                catalog.add( layer );
+                
+                LOGGER.info( "Loaded layer '" + layer.getName() + "'" );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load layer '" + l.dir.getName() +"'", e);
+            }
+        }
+    }
+    
+    /**
+     * Parses the files in parallel, storing the resulting objects (or the parsing errors) in 
+     * each {@link Loaded}.
+     */
+    void depersist(final XStreamPersister xp, List<Loaded> files, ExecutorService executor) {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(files.size());
+        for ( final Loaded l : files ) {
+            tasks.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    try {
+                        l.info = depersist(xp, l.file, l.clazz);
+                    }
+                    catch( Exception e ) {
+                        l.error = e;
+                    }
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks, executor);
+    }
+    
+    /**
+     * Runs the tasks with the executor and waits for their completion, or runs them in the 
+     * current thread if the executor is null.
+     */
+    void invokeAll(List<Callable<Object>> tasks, ExecutorService executor) {
+        try {
+            if (executor == null) {
+                for (Callable<Object> task : tasks) {
+                    task.call();
+                }
+            } else {
+                for (Future<Object> future : executor.invokeAll(tasks)) {
+                    future.get();
                 }
             }
+        } 
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading the catalog", e);
         }
-        else {
-            LOGGER.warning( "No 'workspaces' directory found, unable to load any stores." );
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Creates the executor used to parse the catalog files, or returns <code>null</code> if 
+     * the catalog should be loaded by a single thread.
+     */
+    ExecutorService createLoaderExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String value = GeoServerExtensions.getProperty(LOADER_THREADS);
+        if (value != null) {
+            try {
+                threads = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + LOADER_THREADS + ": " + value);
+            }
+        }
+        if (threads <= 1) {
+            return null;
         }
-
-        //namespaces
         
-        //layergroups
-        File layergroups = resourceLoader.find( "layergroups" );
-        if ( layergroups != null ) {
-           loadLayerGroups(layergroups, catalog, xp);
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            AtomicInteger count = new AtomicInteger();
+            
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GeoServerLoader-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    
+    long logPhase(String phase, int count, long start) {
+        long now = System.currentTimeMillis();
+        LOGGER.info("Loaded " + count + " " + phase + " in " + (now - start) + " ms");
+        return now;
+    }
+    
+    /**
+     * A configuration file to be parsed, along with the parsing outcome
+     */
+    static class Loaded {
+        /** the directory of the object, or the one containing the file */
+        final File dir;
+        final File file;
+        final Class<?> clazz;
+        volatile Object info;
+        volatile Exception error;
+        
+        Loaded(File dir, File file, Class<?> clazz) {
+            this.dir = dir;
+            this.file = file;
+            this.clazz = clazz;
+        }
+        
+        Object get() throws Exception {
+            if (error != null) {
+                throw error;
+            }
+            return info;
         }
-
-        return catalog;
     }
     
     /**
@@ -659,21 +880,31 @@ public abstract class GeoServerLoader {
         }
     }
 
-    void loadStyles(File styles, Catalog catalog, XStreamPersister xp) {
-        for ( File sf : list(styles,new SuffixFileFilter(".xml") ) ) {
-            try {
+    /**
+     * Loads the styles contained in the specified directories, in order.
+     */
+    void loadStyles(List<File> dirs, Catalog catalog, XStreamPersister xp, ExecutorService executor) {
+        List<Loaded> files = new ArrayList<Loaded>();
+        for ( File styles : dirs ) {
+            for ( File sf : list(styles,new SuffixFileFilter(".xml") ) ) {
                 //handle the .xml.xml case
                 if (new File(styles,sf.getName()+".xml").exists()) {
                     continue;
                 }
-                
-                StyleInfo s = depersist( xp, sf, StyleInfo.class );
+                files.add(new Loaded(styles, sf, StyleInfo.class));
+            }
+        }
+        depersist(xp, files, executor);
+        
+        for ( Loaded l : files ) {
+            try {
+                StyleInfo s = (StyleInfo) l.get();
                 catalog.add( s );
                 
                 LOGGER.info( "Loaded style '" + s.getName() + "'" );
             }
             catch( Exception e ) {
-                LOGGER.log( Level.WARNING, "Failed to load style from file '" + sf.getName() + "'" , e );
+                LOGGER.log( Level.WARNING, "Failed to load style from file '" + l.file.getName() + "'" , e );
             }
         }
     }
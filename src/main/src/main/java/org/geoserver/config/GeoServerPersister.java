@@ -5,6 +5,7 @@
 package org.geoserver.config;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -12,7 +13,9 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,6 +42,7 @@ import org.geoserver.catalog.event.CatalogModifyEvent;
 import org.geoserver.catalog.event.CatalogPostModifyEvent;
 import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geotools.data.DataUtilities;
 import org.geotools.styling.AbstractStyleVisitor;
@@ -48,23 +52,189 @@ import org.geotools.util.logging.Logging;
 import static org.geoserver.data.util.IOUtils.rename;
 import static org.geoserver.data.util.IOUtils.xStreamPersist;
 
+/**
+ * Persists catalog and configuration changes to the data directory.
+ * <p>
+ * By default files are written synchronously while handling the change events. In write-behind 
+ * mode (see {@link #setWriteBehind(boolean)}) the objects are still encoded while handling the
+ * change events, as they might be modified again meanwhile, but the files are written in batches
+ * by a background thread, coalescing repeated modifications of the same object into a single
+ * write. Renames, moves and removals are still performed synchronously, after flushing 
+ * the queue. Callers needing durability can wait for the queue to be written out with 
+ * {@link #flush()}.
+ * </p>
+ */
 public class GeoServerPersister implements CatalogListener, ConfigurationListener {
 
     /**
      * logging instance
      */
     static Logger LOGGER = Logging.getLogger( "org.geoserver.config");
+    
+    /**
+     * Property enabling write-behind persistence
+     */
+    public static final String WRITE_BEHIND = "GEOSERVER_PERSISTER_WRITE_BEHIND";
+    
+    /**
+     * Time in milliseconds a queued write waits before being flushed, giving further changes of
+     * the same object a chance to be coalesced
+     */
+    static long FLUSH_DELAY = 100;
      
     GeoServerResourceLoader rl;
     GeoServerDataDirectory dd;
     XStreamPersister xp;
     
+    /**
+     * queued writes, the encoded objects by target file, guarded by itself
+     */
+    final Map<File, byte[]> pending = new LinkedHashMap<File, byte[]>();
+    /**
+     * number of queued writes being performed
+     */
+    int writing;
+    boolean writeBehind;
+    Thread flusher;
+    
     public GeoServerPersister(GeoServerResourceLoader rl, XStreamPersister xp) {
         this.rl = rl;
         this.dd = new GeoServerDataDirectory(rl);
         this.xp = xp;
     }
     
+    /**
+     * Returns true if write-behind persistence has been enabled with the {@link #WRITE_BEHIND} 
+     * property
+     */
+    public static boolean isWriteBehindEnabled() {
+        return Boolean.valueOf(GeoServerExtensions.getProperty(WRITE_BEHIND));
+    }
+    
+    /**
+     * Enables or disables write-behind persistence. Disabling it flushes any queued write.
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        synchronized (pending) {
+            this.writeBehind = writeBehind;
+        }
+        if (!writeBehind) {
+            dispose();
+        }
+    }
+    
+    public boolean isWriteBehind() {
+        synchronized (pending) {
+            return writeBehind;
+        }
+    }
+    
+    /**
+     * The number of writes queued or being performed
+     */
+    public int getQueueDepth() {
+        synchronized (pending) {
+            return pending.size() + writing;
+        }
+    }
+    
+    /**
+     * Writes out all the queued changes, returning only when all the changes queued before the 
+     * call have been written to disk.
+     * 
+     * @throws CatalogException If any of the queued writes failed
+     */
+    public void flush() {
+        Map<File, byte[]> batch = drain();
+        try {
+            write(batch);
+        } finally {
+            synchronized (pending) {
+                writing -= batch.size();
+                pending.notifyAll();
+                
+                // wait for the batch the background thread might be writing
+                while (writing > 0) {
+                    try {
+                        pending.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CatalogException("Interrupted while flushing the configuration", e);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Flushes the queue before a synchronous change to the data directory, failed writes have
+     * already been logged and are not a reason to fail the change
+     */
+    void flushQuietly() {
+        try {
+            flush();
+        } catch (CatalogException e) {
+            LOGGER.log(Level.FINE, "Queued writes failed", e);
+        }
+    }
+    
+    /**
+     * Flushes the queued writes and stops the background writer thread
+     */
+    public void dispose() {
+        try {
+            flush();
+        } finally {
+            synchronized (pending) {
+                if (flusher != null) {
+                    flusher.interrupt();
+                    flusher = null;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Flushes all the write-behind persisters among the listeners of the catalog and of the 
+     * configuration
+     */
+    public static void flush(Catalog catalog, GeoServer geoServer) {
+        for (GeoServerPersister p : persisters(catalog, geoServer)) {
+            p.flush();
+        }
+    }
+    
+    /**
+     * The total number of writes queued by the persisters among the listeners of the catalog and 
+     * of the configuration
+     */
+    public static int getQueueDepth(Catalog catalog, GeoServer geoServer) {
+        int depth = 0;
+        for (GeoServerPersister p : persisters(catalog, geoServer)) {
+            depth += p.getQueueDepth();
+        }
+        return depth;
+    }
+    
+    static List<GeoServerPersister> persisters(Catalog catalog, GeoServer geoServer) {
+        List<GeoServerPersister> persisters = new ArrayList<GeoServerPersister>();
+        if (catalog != null) {
+            for (CatalogListener l : catalog.getListeners()) {
+                if (l instanceof GeoServerPersister && !persisters.contains(l)) {
+                    persisters.add((GeoServerPersister) l);
+                }
+            }
+        }
+        if (geoServer != null) {
+            for (ConfigurationListener l : geoServer.getListeners()) {
+                if (l instanceof GeoServerPersister && !persisters.contains(l)) {
+                    persisters.add((GeoServerPersister) l);
+                }
+            }
+        }
+        return persisters;
+    }
+    
     public void handleAddEvent(CatalogAddEvent event) {
         Object source = event.getSource();
         try {
@@ -110,6 +280,13 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     public void handleModifyEvent(CatalogModifyEvent event) {
         Object source = event.getSource();
         
+        //renames and moves are done synchronously, write out the queue first
+        List<String> propertyNames = event.getPropertyNames();
+        if ( propertyNames.contains( "name" ) || propertyNames.contains( "workspace" ) 
+                || propertyNames.contains( "store" ) ) {
+            flushQuietly();
+        }
+        
         try {
             //here we handle name changes
             int i = event.getPropertyNames().indexOf( "name" );
@@ -247,6 +424,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
 
     public void handleRemoveEvent(CatalogRemoveEvent event) {
         Object source = event.getSource();
+        flushQuietly();
         try {
             if ( source instanceof WorkspaceInfo ) {
                 removeWorkspace( (WorkspaceInfo) source );
@@ -311,6 +489,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
         if ( i > -1 ) {
             WorkspaceInfo newWorkspace = (WorkspaceInfo) newValues.get( i );
             LOGGER.fine( "Moving settings '" + settings + " to workspace: " + newWorkspace);
+            flushQuietly();
 
             try {
                 File oldFile = file(settings);
@@ -333,6 +512,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
 
     public void handleSettingsRemoved(SettingsInfo settings) {
         LOGGER.fine( "Removing settings " + settings );
+        flushQuietly();
         try {
             file(settings).delete();
         } catch (IOException e) {
@@ -781,6 +961,24 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     }
 
     void persist( Object o, File f ) throws IOException {
+        synchronized (pending) {
+            if (writeBehind) {
+                //coalesce with any queued write of the same file, encoding a snapshot of the 
+                // object as it is now, the live object can change before the write
+                pending.put(f, encode(o, f));
+                if (flusher == null) {
+                    flusher = new Thread(new Flusher(), "GeoServerPersister flusher");
+                    flusher.setDaemon(true);
+                    flusher.start();
+                }
+                pending.notifyAll();
+                return;
+            }
+        }
+        write( o, f );
+    }
+    
+    void write( Object o, File f ) throws IOException {
         try {
             synchronized ( xp ) {
                 xStreamPersist(f, o, xp);
@@ -794,9 +992,114 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
         }
     }
 
+    /**
+     * Encodes the object the same way {@link #write(Object, File)} would write it
+     */
+    byte[] encode( Object o, File f ) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            synchronized ( xp ) {
+                xp.save( o, out );
+            }
+            return out.toByteArray();
+        }
+        catch( Exception e ) {
+            //catch any exceptions and send them back as CatalogExeptions
+            String msg = "Error persisting " + o + " to " + f.getCanonicalPath();
+            throw new CatalogException(msg, e);
+        }
+    }
+    
+    /**
+     * Writes out an encoded object, through a temporary file as {@link #write(Object, File)}
+     */
+    void write( byte[] encoded, File f ) throws IOException {
+        File temp = new File(f.getParentFile(), f.getName() + ".tmp");
+        if ( temp.exists() ) {
+            temp.delete();
+        }
+        try {
+            FileUtils.writeByteArrayToFile( temp, encoded );
+            rename( temp, f );
+            LOGGER.fine("Persisted " + f.getAbsolutePath() );
+        }
+        catch( Exception e ) {
+            String msg = "Error persisting " + f.getCanonicalPath();
+            throw new CatalogException(msg, e);
+        }
+    }
+
     void rmdir(File dir) throws IOException {
         if (dir != null) {
             FileUtils.deleteDirectory( dir );
         }
     }
+    
+    /**
+     * Takes all the queued writes, marking them as being written
+     */
+    Map<File, byte[]> drain() {
+        synchronized (pending) {
+            Map<File, byte[]> batch = new LinkedHashMap<File, byte[]>(pending);
+            pending.clear();
+            writing += batch.size();
+            return batch;
+        }
+    }
+    
+    /**
+     * Performs the writes, throwing back the first failure once all of them have been attempted
+     */
+    void write(Map<File, byte[]> batch) {
+        CatalogException failure = null;
+        for (Map.Entry<File, byte[]> entry : batch.entrySet()) {
+            try {
+                write(entry.getValue(), entry.getKey());
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Error persisting " + entry.getKey(), e);
+                if (failure == null) {
+                    failure = e instanceof CatalogException ? (CatalogException) e 
+                            : new CatalogException(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    /**
+     * Writes out the queued changes in batches, waiting {@link GeoServerPersister#FLUSH_DELAY} 
+     * before each batch
+     */
+    class Flusher implements Runnable {
+        
+        public void run() {
+            while (true) {
+                try {
+                    synchronized (pending) {
+                        while (pending.isEmpty()) {
+                            pending.wait();
+                        }
+                    }
+                    Thread.sleep(FLUSH_DELAY);
+                } catch (InterruptedException e) {
+                    // disposed
+                    return;
+                }
+                
+                Map<File, byte[]> batch = drain();
+                try {
+                    write(batch);
+                } catch (Exception e) {
+                    // already logged
+                } finally {
+                    synchronized (pending) {
+                        writing -= batch.size();
+                        pending.notifyAll();
+                    }
+                }
+            }
+        }
+    }
 }
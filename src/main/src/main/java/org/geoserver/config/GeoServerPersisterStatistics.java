@@ -0,0 +1,31 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import org.geoserver.catalog.Catalog;
+
+/**
+ * Exposes the write queue of the {@link GeoServerPersister} instances attached to the catalog
+ * and the configuration, and allows to flush it.
+ */
+public class GeoServerPersisterStatistics implements GeoServerPersisterStatisticsMBean {
+
+    Catalog catalog;
+
+    GeoServer geoServer;
+
+    public GeoServerPersisterStatistics(Catalog catalog, GeoServer geoServer) {
+        this.catalog = catalog;
+        this.geoServer = geoServer;
+    }
+
+    public int getQueueDepth() {
+        return GeoServerPersister.getQueueDepth(catalog, geoServer);
+    }
+
+    public void flush() {
+        GeoServerPersister.flush(catalog, geoServer);
+    }
+}
@@ -0,0 +1,21 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+/**
+ * JMX management interface of {@link GeoServerPersisterStatistics}.
+ */
+public interface GeoServerPersisterStatisticsMBean {
+
+    /**
+     * The number of configuration writes queued or being performed
+     */
+    int getQueueDepth();
+
+    /**
+     * Writes out all the queued configuration changes
+     */
+    void flush();
+}
@@ -5,12 +5,15 @@
 package org.geoserver.filters;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
@@ -27,12 +30,30 @@ public class AlternativesResponseStream extends ServletOutputStream {
     HttpServletResponse myResponse;
     ServletOutputStream myStream;
     Set myCompressibleTypes;
+    Map<Pattern, Integer> myCompressionLevels;
+    int myThreshold;
     Logger logger = org.geotools.util.logging.Logging.getLogger("org.geoserver.filters");
 
     public AlternativesResponseStream(HttpServletResponse response, Set compressible) throws IOException {
+        this(response, compressible, Collections.<Pattern, Integer>emptyMap(),
+                GZIPResponseStream.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param response The response to write to
+     * @param compressible The patterns of the mime types to compress
+     * @param levels The compression level by mime type pattern, the first match wins, mime types
+     *        not matching any pattern use the default compression level
+     * @param threshold The compressed size past which the output is streamed, see
+     *        {@link GZIPResponseStream}
+     */
+    public AlternativesResponseStream(HttpServletResponse response, Set compressible,
+            Map<Pattern, Integer> levels, int threshold) throws IOException {
         super();
         myResponse = response;
         myCompressibleTypes = compressible;
+        myCompressionLevels = levels;
+        myThreshold = threshold;
     }
 
     public void close() throws IOException {
@@ -67,7 +88,8 @@ public class AlternativesResponseStream extends ServletOutputStream {
 
         if (type != null && isCompressible(type)){
             logger.log(Level.FINE, "Compressing output for mimetype: {0}", type);
-            myStream = new GZIPResponseStream(myResponse);
+            myStream = new GZIPResponseStream(myResponse, myThreshold,
+                    getCompressionLevel(stripParams(type)));
         } else {
             logger.log(Level.FINE, "Not compressing output for mimetype: {0}", type);
             myStream = myResponse.getOutputStream();
@@ -94,6 +116,15 @@ public class AlternativesResponseStream extends ServletOutputStream {
         return false;
     }
 
+    protected int getCompressionLevel(String mimetype) {
+        for (Map.Entry<Pattern, Integer> entry : myCompressionLevels.entrySet()) {
+            if (entry.getKey().matcher(mimetype).matches()) {
+                return entry.getValue();
+            }
+        }
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
     protected String stripParams(String mimetype){
         int firstSemicolon = mimetype.indexOf(";");
 
@@ -0,0 +1,58 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Pool of raw (no zlib wrapper) {@link Deflater} instances used by {@link GZIPResponseStream}.
+ * <p>
+ * A deflater holds native memory that is only released by {@link Deflater#end()} or by
+ * finalization, reusing them avoids allocating and finalizing one per compressed response.
+ * </p>
+ */
+class DeflaterPool {
+
+    /**
+     * Maximum number of idle deflaters kept around
+     */
+    static final int MAX_IDLE = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+    static final Queue<Deflater> IDLE = new ConcurrentLinkedQueue<Deflater>();
+
+    static final AtomicInteger IDLE_COUNT = new AtomicInteger();
+
+    /**
+     * Grabs a deflater from the pool, or creates a new one if the pool is empty.
+     *
+     * @param level The compression level, see {@link Deflater#setLevel(int)}
+     */
+    static Deflater acquire(int level) {
+        Deflater deflater = IDLE.poll();
+        if (deflater != null) {
+            IDLE_COUNT.decrementAndGet();
+            deflater.setLevel(level);
+        } else {
+            deflater = new Deflater(level, true);
+        }
+        return deflater;
+    }
+
+    /**
+     * Returns a deflater to the pool, the deflater must not be used afterwards.
+     */
+    static void release(Deflater deflater) {
+        deflater.reset();
+        if (IDLE_COUNT.incrementAndGet() <= MAX_IDLE) {
+            IDLE.offer(deflater);
+        } else {
+            IDLE_COUNT.decrementAndGet();
+            deflater.end();
+        }
+    }
+}
@@ -14,6 +14,8 @@ package org.geoserver.filters;
 
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -30,6 +32,10 @@ public class GZIPFilter implements Filter {
 
     private Set myCompressedTypes;
 
+    private Map<Pattern, Integer> myCompressionLevels = new LinkedHashMap<Pattern, Integer>();
+
+    private int myThreshold = GZIPResponseStream.DEFAULT_THRESHOLD;
+
     public void doFilter(ServletRequest req, ServletResponse res,
             FilterChain chain) throws IOException, ServletException {
         if (req instanceof HttpServletRequest) {
@@ -38,7 +44,8 @@ public class GZIPFilter implements Filter {
             String ae = request.getHeader("accept-encoding");
             if (ae != null && ae.indexOf("gzip") != -1) {
                 GZIPResponseWrapper wrappedResponse =
-                    new GZIPResponseWrapper(response, myCompressedTypes, request.getRequestURL().toString());
+                    new GZIPResponseWrapper(response, myCompressedTypes, myCompressionLevels,
+                        myThreshold, request.getRequestURL().toString());
                 chain.doFilter(req, wrappedResponse);
                 wrappedResponse.finishResponse();
                 return;
@@ -58,6 +65,21 @@ public class GZIPFilter implements Filter {
             for (int i = 0; i < typeNames.length; i++){
                 myCompressedTypes.add(Pattern.compile(typeNames[i]));
             }
+
+            // optional comma separated list of regex=level, first match wins
+            String compressionLevels = filterConfig.getInitParameter("compression-levels");
+            if (compressionLevels != null) {
+                for (String level : compressionLevels.split(",")) {
+                    int idx = level.lastIndexOf('=');
+                    myCompressionLevels.put(Pattern.compile(level.substring(0, idx).trim()),
+                            Integer.valueOf(level.substring(idx + 1).trim()));
+                }
+            }
+
+            String threshold = filterConfig.getInitParameter("streaming-threshold");
+            if (threshold != null) {
+                myThreshold = Integer.parseInt(threshold.trim());
+            }
         } catch (Exception e){
             System.out.println("Error while setting up GZIPFilter; " + e);
         }
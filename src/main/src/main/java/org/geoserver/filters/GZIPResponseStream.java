@@ -13,52 +13,131 @@ package org.geoserver.filters;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPOutputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 
 
+/**
+ * Compresses the response in gzip format.
+ * <p>
+ * The compressed output is buffered as long as it stays below a threshold, so that the
+ * Content-Length header can be set once the response is complete. Past the threshold the
+ * buffered bytes are sent and the rest of the response is streamed out without a length, which
+ * makes the container fall back on chunked transfer encoding.
+ * </p>
+ */
 public class GZIPResponseStream extends ServletOutputStream {
+    /**
+     * Default amount of compressed bytes buffered before switching to streaming
+     */
+    public static final int DEFAULT_THRESHOLD = 1024 * 1024;
+
+    static final byte[] GZIP_HEADER = new byte[] { (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED,
+            0, 0, 0, 0, 0, 0, 0 };
+
     protected ByteArrayOutputStream baos = null;
-    protected GZIPOutputStream gzipstream = null;
+    protected DeflaterOutputStream gzipstream = null;
     protected boolean closed = false;
     protected HttpServletResponse response = null;
     protected ServletOutputStream output = null;
+    protected int threshold;
+    protected Deflater deflater;
+    protected CRC32 crc = new CRC32();
+    protected OutputStream sink;
 
     public GZIPResponseStream(HttpServletResponse response) throws IOException {
+        this(response, DEFAULT_THRESHOLD, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param response The response to compress
+     * @param threshold The amount of compressed bytes buffered before switching to streaming,
+     *        zero or negative to always stream
+     * @param level The compression level, see {@link Deflater#setLevel(int)}
+     */
+    public GZIPResponseStream(HttpServletResponse response, int threshold, int level)
+            throws IOException {
         super();
         closed = false;
         this.response = response;
         this.output = response.getOutputStream();
-        baos = new ByteArrayOutputStream();
-        gzipstream = new GZIPOutputStream(baos);
+        this.threshold = threshold;
+        baos = new ByteArrayOutputStream(Math.max(32, Math.min(threshold, 8192)));
+        baos.write(GZIP_HEADER);
+        deflater = DeflaterPool.acquire(level);
+        sink = new ThresholdStream();
+        gzipstream = new DeflaterOutputStream(sink, deflater, 8192);
     }
 
     public void close() throws IOException {
         if (closed) {
             throw new IOException("This output stream has already been closed");
         }
-        gzipstream.finish();
-
-        byte[] bytes = baos.toByteArray();
-        String contentLength = Integer.toString(bytes.length);
-        
-        //JD: we need to be careful about how we set the header, checking first if it has 
-        // already been set, if we don't the result will be two values for the content lenght
-        // header which will throw off most http clients
-        if (response.containsHeader("Content-Length")) {
-            response.setHeader("Content-Length", contentLength);
-        }
-        else {
-            response.addHeader("Content-Length", contentLength);
+        try {
+            gzipstream.finish();
+            writeTrailer();
+
+            if (baos != null) {
+                // below the threshold, the length is known
+                String contentLength = Integer.toString(baos.size());
+
+                //JD: we need to be careful about how we set the header, checking first if it has 
+                // already been set, if we don't the result will be two values for the content lenght
+                // header which will throw off most http clients
+                if (response.containsHeader("Content-Length")) {
+                    response.setHeader("Content-Length", contentLength);
+                }
+                else {
+                    response.addHeader("Content-Length", contentLength);
+                }
+
+                response.addHeader("Content-Encoding", "gzip");
+                baos.writeTo(output);
+                baos = null;
+            }
+            output.flush();
+            output.close();
+        } finally {
+            closed = true;
+            DeflaterPool.release(deflater);
+            deflater = null;
         }
-         
+    }
+
+    void writeTrailer() throws IOException {
+        byte[] trailer = new byte[8];
+        writeInt((int) crc.getValue(), trailer, 0);
+        writeInt((int) deflater.getBytesRead(), trailer, 4);
+        sink.write(trailer, 0, trailer.length);
+    }
+
+    static void writeInt(int value, byte[] buf, int offset) {
+        // little endian, as mandated by the gzip format
+        buf[offset] = (byte) value;
+        buf[offset + 1] = (byte) (value >> 8);
+        buf[offset + 2] = (byte) (value >> 16);
+        buf[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * Sends the buffered output and switches to streaming.
+     */
+    void startStreaming() throws IOException {
         response.addHeader("Content-Encoding", "gzip");
-        output.write(bytes);
-        output.flush();
-        output.close();
-        closed = true;
+        baos.writeTo(output);
+        baos = null;
+    }
+
+    /**
+     * Whether the output is being streamed rather than buffered.
+     */
+    public boolean isStreaming() {
+        return baos == null && !closed;
     }
 
     public void flush() throws IOException {
@@ -66,12 +145,16 @@ public class GZIPResponseStream extends ServletOutputStream {
             throw new IOException("Cannot flush a closed output stream");
         }
         gzipstream.flush();
+        if (baos == null) {
+            output.flush();
+        }
     }
 
     public void write(int b) throws IOException {
         if (closed) {
             throw new IOException("Cannot write to a closed output stream");
         }
+        crc.update(b);
         gzipstream.write((byte)b);
     }
 
@@ -83,6 +166,7 @@ public class GZIPResponseStream extends ServletOutputStream {
         if (closed) {
             throw new IOException("Cannot write to a closed output stream");
         }
+        crc.update(b, off, len);
         gzipstream.write(b, off, len);
     }
 
@@ -93,4 +177,25 @@ public class GZIPResponseStream extends ServletOutputStream {
     public void reset() {
         //noop
     }
+
+    /**
+     * Receives the compressed bytes, buffering them until the threshold is passed.
+     */
+    class ThresholdStream extends OutputStream {
+
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (baos != null) {
+                if (baos.size() + len <= threshold) {
+                    baos.write(b, off, len);
+                    return;
+                }
+                startStreaming();
+            }
+            output.write(b, off, len);
+        }
+    }
 }
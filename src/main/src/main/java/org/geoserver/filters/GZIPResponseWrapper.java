@@ -14,8 +14,11 @@ package org.geoserver.filters;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
@@ -26,19 +29,30 @@ public class GZIPResponseWrapper extends HttpServletResponseWrapper {
     protected AlternativesResponseStream stream = null;
     protected PrintWriter writer = null;
     protected Set formatsToCompress;
+    protected Map<Pattern, Integer> compressionLevels;
+    protected int threshold;
     protected String requestedURL;
     protected Logger logger = org.geotools.util.logging.Logging.getLogger("org.geoserver.filters");
 
     public GZIPResponseWrapper(HttpServletResponse response, Set toCompress, String url) {
+        this(response, toCompress, Collections.<Pattern, Integer>emptyMap(),
+                GZIPResponseStream.DEFAULT_THRESHOLD, url);
+    }
+
+    public GZIPResponseWrapper(HttpServletResponse response, Set toCompress,
+            Map<Pattern, Integer> levels, int threshold, String url) {
         super(response);
         requestedURL = url;
         origResponse = response;
         // TODO: allow user-configured format list here
         formatsToCompress = toCompress;
+        compressionLevels = levels;
+        this.threshold = threshold;
     }
 
     protected AlternativesResponseStream createOutputStream() throws IOException {
-        return new AlternativesResponseStream(origResponse, formatsToCompress);
+        return new AlternativesResponseStream(origResponse, formatsToCompress, compressionLevels,
+                threshold);
     }
 
     public void setContentType(String type){
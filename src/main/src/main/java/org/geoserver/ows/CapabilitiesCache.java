@@ -0,0 +1,460 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.MetadataMap;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Cache of encoded capabilities documents.
+ * <p>
+ * Documents are keyed by service, version, local workspace and layer, roles of the current user, the global
+ * update sequence and any further request parameter the service output depends on (see
+ * {@link #key(String, String, Object...)}). Requests are keyed on the parameters the output
+ * depends on only, so that parameters added to bust caches along the way do not fill this one
+ * with copies of the same document (see {@link #requestKey(String, String, String, String...)}).
+ * Since the update sequence is part of the key a stale
+ * document is never returned, on top of that the cache listens to catalog and configuration
+ * events and drops its contents on any change, so that no memory is wasted on documents that
+ * cannot be hit anymore.
+ * </p>
+ * <p>
+ * Each key maps to an entity tag (see {@link #etag(Key)}) that responses can send back to clients,
+ * allowing them to revalidate with <code>If-None-Match</code> and get a
+ * <code>304 Not Modified</code> instead of the full document.
+ * </p>
+ * <p>
+ * Caching is enabled on a per service basis by setting the {@link #ENABLED_KEY} flag in the
+ * service metadata. The cache is bounded by the total size of the documents it holds, the least
+ * recently used ones are dropped first.
+ * </p>
+ */
+public class CapabilitiesCache {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesCache.class);
+
+    /**
+     * Default maximum size in bytes of the documents kept in the cache
+     */
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Key of the service metadata flag enabling the cache
+     */
+    public static final String ENABLED_KEY = "capabilitiesCache";
+
+    GeoServer geoServer;
+
+    LinkedHashMap<Key, byte[]> documents = new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+
+    long maxSize = DEFAULT_MAX_SIZE;
+
+    long size;
+
+    long accessCount;
+
+    long hitCount;
+
+    public CapabilitiesCache(GeoServer geoServer) {
+        this.geoServer = geoServer;
+
+        Invalidator invalidator = new Invalidator();
+        geoServer.getCatalog().addListener(invalidator);
+        geoServer.addListener(invalidator);
+    }
+
+    /**
+     * Returns the cache from the application context, if any
+     */
+    public static CapabilitiesCache get() {
+        return GeoServerExtensions.bean(CapabilitiesCache.class);
+    }
+
+    /**
+     * Sets the maximum size in bytes of the documents kept in the cache, dropping the least
+     * recently used ones if needed.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * The total size in bytes of the cached documents
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns true if the cache is enabled for the specified service, in the context of the
+     * current local workspace
+     */
+    public boolean isEnabled(Class<? extends ServiceInfo> clazz) {
+        ServiceInfo service = geoServer.getService(clazz);
+        if (service == null) {
+            return false;
+        }
+        MetadataMap metadata = service.getMetadata();
+        Boolean enabled = metadata != null ? metadata.get(ENABLED_KEY, Boolean.class) : null;
+        return enabled != null && enabled.booleanValue();
+    }
+
+    /**
+     * Builds the cache key for the document requested by the current OWS request of the 
+     * specified service.
+     * 
+     * @param operation The operation being run
+     * @param params The names of the KVP parameters the document depends on
+     * @return The key, or <code>null</code> if caching is not enabled for the service or the
+     *         request cannot be cached
+     * @see #requestKey(String, String, String, String...)
+     */
+    public Key requestKey(Class<? extends ServiceInfo> clazz, Operation operation,
+            String... params) {
+        if (!isEnabled(clazz)) {
+            return null;
+        }
+        return requestKey(operation.getService().getId(), operation.getService().getVersion()
+                .toString(), operation.getId(), params);
+    }
+
+    /**
+     * Builds the cache key for the document requested by the current OWS request, using the
+     * request URL and the values of the specified KVP parameters to tell requests apart. Other
+     * parameters, like the ones added by clients to bypass caches, are not part of the key.
+     * 
+     * @param request The request name, eg "GetCapabilities"
+     * @param params The names of the KVP parameters the document depends on, matched ignoring
+     *        case
+     * @return The key, or <code>null</code> if the current request is not a plain KVP GET request
+     *         and thus cannot be cached
+     */
+    @SuppressWarnings("unchecked")
+    public Key requestKey(String service, String version, String request, String... params) {
+        Request owsRequest = Dispatcher.REQUEST.get();
+        if (owsRequest == null || !owsRequest.isGet() || owsRequest.isSOAP()
+                || owsRequest.getRawKvp() == null) {
+            return null;
+        }
+        HttpServletRequest http = owsRequest.getHttpRequest();
+        StringBuffer url = http != null ? http.getRequestURL() : null;
+
+        Map<String, Object> kvp = new TreeMap<String, Object>();
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) owsRequest.getRawKvp())
+                .entrySet()) {
+            for (String param : params) {
+                if (param.equalsIgnoreCase(entry.getKey())) {
+                    kvp.put(param.toUpperCase(), entry.getValue());
+                }
+            }
+        }
+        return key(service, version, request, url != null ? url.toString() : null, kvp);
+    }
+
+    /**
+     * Builds the cache key for a capabilities document requested in the current thread.
+     *
+     * @param service The service id, eg "WMS"
+     * @param version The service version
+     * @param params Any other request parameter affecting the output, like the base url or the
+     *        namespace filter. Must implement equals and hashCode.
+     */
+    public Key key(String service, String version, Object... params) {
+        WorkspaceInfo ws = LocalWorkspace.get();
+        LayerInfo layer = LocalLayer.get();
+        GeoServerInfo global = geoServer.getGlobal();
+        long updateSequence = global != null ? global.getUpdateSequence() : 0;
+        return new Key(service, version, ws != null ? ws.getName() : null,
+                layer != null ? layer.getName() : null, roles(), updateSequence, params);
+    }
+
+    /**
+     * Returns the entity tag of the document identified by the key
+     */
+    public String etag(Key key) {
+        return "\"" + Integer.toHexString(key.hashCode()) + "-" + key.getUpdateSequence() + "\"";
+    }
+
+    /**
+     * Returns the headers to send along with the document identified by the key, that is, its
+     * entity tag, or <code>null</code> if the key is <code>null</code>
+     */
+    public String[][] getHeaders(Key key) {
+        if (key == null) {
+            return null;
+        }
+        return new String[][] { { "ETag", etag(key) } };
+    }
+
+    /**
+     * Returns true if the current request carries an <code>If-None-Match</code> header matching
+     * the specified entity tag
+     */
+    public static boolean isNotModified(String etag) {
+        Request request = Dispatcher.REQUEST.get();
+        if (request == null || request.getHttpRequest() == null) {
+            return false;
+        }
+        String header = request.getHttpRequest().getHeader("If-None-Match");
+        if (header == null) {
+            return false;
+        }
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if ("*".equals(tag) || etag.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes out the document identified by the key, encoding it only if not already cached.
+     * If the client already has an up to date copy of the document a
+     * <code>304 Not Modified</code> status is set instead, and nothing is written. A
+     * <code>null</code> key, for a document that cannot be cached, is encoded straight to the
+     * output.
+     */
+    public void write(Key key, OutputStream output, Encoder encoder) throws IOException {
+        if (key == null) {
+            encoder.encode(output);
+            return;
+        }
+        if (isNotModified(etag(key))) {
+            Dispatcher.REQUEST.get().getHttpResponse().setStatus(
+                    HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        byte[] document = get(key);
+        if (document == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            encoder.encode(bytes);
+            document = bytes.toByteArray();
+            put(key, document);
+        }
+        output.write(document);
+    }
+
+    /**
+     * Returns the cached document, or <code>null</code> if not found
+     */
+    public synchronized byte[] get(Key key) {
+        accessCount++;
+        byte[] document = documents.get(key);
+        if (document != null) {
+            hitCount++;
+        }
+        return document;
+    }
+
+    /**
+     * Caches the encoded document, unless larger than the cache itself
+     */
+    public synchronized void put(Key key, byte[] document) {
+        if (document.length > maxSize) {
+            return;
+        }
+        byte[] previous = documents.put(key, document);
+        if (previous != null) {
+            size -= previous.length;
+        }
+        size += document.length;
+        evict();
+    }
+
+    /**
+     * Drops the least recently used documents until the cache fits its maximum size
+     */
+    void evict() {
+        for (Iterator<byte[]> it = documents.values().iterator(); size > maxSize && it.hasNext();) {
+            size -= it.next().length;
+            it.remove();
+        }
+    }
+
+    /**
+     * Drops all the cached documents
+     */
+    public synchronized void clear() {
+        if (!documents.isEmpty() && LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Clearing " + documents.size() + " cached capabilities documents");
+        }
+        documents.clear();
+        size = 0;
+    }
+
+    public synchronized long getAccessCount() {
+        return accessCount;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * The names of the authorities granted to the current user, sorted, or <code>null</code> for
+     * an anonymous request
+     */
+    static List<String> roles() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || auth.getAuthorities() == null) {
+            return null;
+        }
+        TreeSet<String> roles = new TreeSet<String>();
+        for (GrantedAuthority authority : auth.getAuthorities()) {
+            roles.add(authority.getAuthority());
+        }
+        return new ArrayList<String>(roles);
+    }
+
+    /**
+     * Encodes a document on cache miss
+     */
+    public static interface Encoder {
+        void encode(OutputStream output) throws IOException;
+    }
+
+    /**
+     * Identifies a capabilities document
+     */
+    public static class Key {
+
+        final List<Object> values;
+
+        final long updateSequence;
+
+        Key(String service, String version, String workspace, String layer,
+                List<String> roles, long updateSequence, Object... params) {
+            this.values = new ArrayList<Object>(5 + params.length);
+            this.values.add(service);
+            this.values.add(version);
+            this.values.add(workspace);
+            this.values.add(layer);
+            this.values.add(roles);
+            this.values.addAll(Arrays.asList(params));
+            this.updateSequence = updateSequence;
+        }
+
+        /**
+         * The global update sequence at the time the key was created
+         */
+        public long getUpdateSequence() {
+            return updateSequence;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * values.hashCode() + (int) (updateSequence ^ (updateSequence >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return updateSequence == other.updateSequence && values.equals(other.values);
+        }
+
+        @Override
+        public String toString() {
+            return "Key" + values + "@" + updateSequence;
+        }
+    }
+
+    /**
+     * Clears the cache on any catalog or configuration change
+     */
+    class Invalidator extends ConfigurationListenerAdapter implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+            clear();
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+            clear();
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+            // wait for the post modify event
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+            clear();
+        }
+
+        @Override
+        public void handlePostGlobalChange(GeoServerInfo global) {
+            clear();
+        }
+
+        @Override
+        public void handleSettingsAdded(SettingsInfo settings) {
+            clear();
+        }
+
+        @Override
+        public void handleSettingsPostModified(SettingsInfo settings) {
+            clear();
+        }
+
+        @Override
+        public void handleSettingsRemoved(SettingsInfo settings) {
+            clear();
+        }
+
+        @Override
+        public void handlePostServiceChange(ServiceInfo service) {
+            clear();
+        }
+
+        @Override
+        public void handleServiceRemove(ServiceInfo service) {
+            clear();
+        }
+
+        @Override
+        public void reloaded() {
+            clear();
+        }
+    }
+}
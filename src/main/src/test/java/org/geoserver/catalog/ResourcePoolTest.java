@@ -13,7 +13,16 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -30,7 +39,6 @@ import org.geoserver.test.SystemTest;
 import org.geotools.data.DataAccess;
 import org.geotools.factory.GeoTools;
 import org.geotools.feature.NameImpl;
-import org.geotools.util.SoftValueHashMap;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.opengis.feature.Feature;
@@ -176,7 +184,8 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         gs.save(global);
 
         Catalog catalog = getCatalog();
-        assertEquals(200, ((SoftValueHashMap)catalog.getResourcePool().getFeatureTypeCache()).getHardReferencesCount());
+        assertEquals(200, ((ResourcePool.CatalogResourceCache) catalog.getResourcePool()
+                .getFeatureTypeCache()).getMaxSize());
     }
     
     @Test public void testDropCoverageStore() throws Exception {
@@ -210,6 +219,123 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         
     }
 
+    @Test public void testConcurrentLoadsShareSingleLoad() throws Exception {
+        ResourcePool pool = new ResourcePool();
+        final ResourcePool.CatalogResourceCache<String, String> cache = 
+            pool.new CatalogResourceCache<String, String>("test") {
+                @Override
+                protected void dispose(String key, String object) {
+                }
+            };
+        
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Callable<String> loader = new Callable<String>() {
+            public String call() throws Exception {
+                loads.incrementAndGet();
+                latch.await();
+                return "value";
+            }
+        };
+        
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return cache.get("key", loader);
+                    }
+                }));
+            }
+            Thread.sleep(100);
+            latch.countDown();
+            
+            for (Future<String> result : results) {
+                assertEquals("value", result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, loads.get());
+        
+        ResourceCacheStatistics stats = pool.getCacheStatistics().get("test");
+        assertEquals(1, stats.getLoadSuccessCount());
+        assertEquals(4, stats.getHitCount() + stats.getMissCount());
+        assertEquals(1, stats.getSize());
+        
+        assertEquals("value", cache.get("key", loader));
+        assertEquals(1, loads.get());
+    }
+    
+    @Test public void testReentrantLoad() throws Exception {
+        ResourcePool pool = new ResourcePool();
+        final ResourcePool.CatalogResourceCache<String, String> cache = 
+            pool.new CatalogResourceCache<String, String>("test") {
+                @Override
+                protected void dispose(String key, String object) {
+                }
+            };
+        
+        final AtomicInteger loads = new AtomicInteger();
+        final Callable<String> loader = new Callable<String>() {
+            public String call() throws Exception {
+                if (loads.incrementAndGet() == 1) {
+                    // asks for the entry being loaded, same thread
+                    return cache.get("key", this) + "-outer";
+                }
+                return "inner";
+            }
+        };
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> result = executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return cache.get("key", loader);
+                }
+            });
+            assertEquals("inner-outer", result.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, loads.get());
+    }
+    
+    @Test public void testSoftValues() throws Exception {
+        ResourcePool pool = new ResourcePool();
+        final List<String> disposed = new ArrayList<String>();
+        ResourcePool.CatalogResourceCache<String, String> cache = 
+            pool.new CatalogResourceCache<String, String>("test", 1, true) {
+                @Override
+                protected void dispose(String key, String object) {
+                    disposed.add(key);
+                }
+            };
+        
+        // strongly referenced here, so that the garbage collector won't clear them
+        String a = new String("a");
+        String b = new String("b");
+        cache.put("a", a);
+        cache.put("b", b);
+        // evicted from the strongly referenced ones, not disposed, still around
+        assertEquals(1, cache.size());
+        assertTrue(disposed.isEmpty());
+        assertTrue(cache.containsKey("a"));
+        assertSame(a, cache.get("a"));
+        
+        // back among the strongly referenced ones, b takes its place among the soft ones
+        assertTrue(cache.keySet().contains("a"));
+        assertTrue(cache.containsKey("b"));
+        
+        assertSame(b, cache.remove("b"));
+        assertEquals(Arrays.asList("b"), disposed);
+        assertFalse(cache.containsKey("b"));
+        
+        cache.clear();
+        assertEquals(Arrays.asList("b", "a"), disposed);
+    }
+    
     @RunTestSetup
     @Test public void testGeoServerReload() throws Exception {
         Catalog cat = getCatalog();
@@ -0,0 +1,135 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.geoserver.catalog.Predicates.and;
+import static org.geoserver.catalog.Predicates.contains;
+import static org.geoserver.catalog.Predicates.equal;
+import static org.geoserver.catalog.Predicates.or;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+
+/**
+ * Runs the catalog test suite against the {@link IndexedCatalogFacade}, plus a few checks on
+ * index maintenance across renames.
+ */
+public class IndexedCatalogFacadeTest extends CatalogImplTest {
+
+    @Override
+    protected Catalog createCatalog() {
+        CatalogImpl catalog = new CatalogImpl();
+        catalog.setFacade(new IndexedCatalogFacade(catalog));
+        return catalog;
+    }
+
+    @Test
+    public void testRenameResourceUpdatesLayerIndex() {
+        addLayer();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName(ft.getName());
+        ft2.setName("ftRenamed");
+        catalog.save(ft2);
+
+        assertNull(catalog.getLayerByName("ftName"));
+        LayerInfo layer = catalog.getLayerByName("ftRenamed");
+        assertNotNull(layer);
+        assertEquals(l.getId(), layer.getId());
+        assertNotNull(catalog.getFeatureTypeByName(ns.getPrefix(), "ftRenamed"));
+        assertNull(catalog.getFeatureTypeByName(ns.getPrefix(), "ftName"));
+    }
+
+    @Test
+    public void testRenameNamespaceKeepsResourceIndex() {
+        addLayer();
+
+        NamespaceInfo ns2 = catalog.getNamespaceByPrefix(ns.getPrefix());
+        ns2.setPrefix("nsRenamed");
+        catalog.save(ns2);
+
+        assertNotNull(catalog.getFeatureTypeByName("nsRenamed", ft.getName()));
+        assertNotNull(catalog.getLayerByName("nsRenamed:" + ft.getName()));
+    }
+
+    @Test
+    public void testLayerStyleIndex() {
+        addLayer();
+
+        StyleInfo s2 = catalog.getFactory().createStyle();
+        s2.setName("styleName2");
+        s2.setFilename("styleFilename2");
+        catalog.add(s2);
+
+        assertEquals(1, catalog.getLayers(s).size());
+        assertTrue(catalog.getLayers(s2).isEmpty());
+
+        LayerInfo layer = catalog.getLayerByName(ft.getName());
+        layer.setDefaultStyle(s2);
+        layer.getStyles().add(s);
+        catalog.save(layer);
+
+        assertEquals(1, catalog.getLayers(s).size());
+        assertEquals(1, catalog.getLayers(s2).size());
+
+        layer = catalog.getLayerByName(ft.getName());
+        layer.getStyles().clear();
+        catalog.save(layer);
+
+        assertTrue(catalog.getLayers(s).isEmpty());
+        assertEquals(1, catalog.getLayers(s2).size());
+    }
+
+    @Test
+    public void testStyleMovedToWorkspace() {
+        addWorkspace();
+        addStyle();
+
+        StyleInfo s2 = catalog.getStyleByName(s.getName());
+        s2.setWorkspace(catalog.getWorkspaceByName(ws.getName()));
+        catalog.save(s2);
+
+        assertNull(catalog.getStyleByName(s.getName()));
+        WorkspaceInfo workspace = catalog.getWorkspaceByName(ws.getName());
+        assertNotNull(catalog.getStyleByName(workspace, s.getName()));
+    }
+
+    @Test
+    public void testPlannerCandidates() {
+        addLayer();
+        IndexedCatalogFacade facade = (IndexedCatalogFacade) ((CatalogImpl) catalog).getFacade();
+        CatalogIndexPlanner planner = facade.planner;
+
+        Filter filter = and(equal("enabled", Boolean.TRUE), equal("advertised", Boolean.TRUE),
+                equal("resource.namespace.prefix", ns.getPrefix()));
+        assertEquals(1, planner.candidates(LayerInfo.class, filter).size());
+        assertEquals(1, catalog.count(LayerInfo.class, filter));
+
+        filter = equal("resource.namespace.prefix", "notThere");
+        assertTrue(planner.candidates(LayerInfo.class, filter).isEmpty());
+        assertEquals(0, catalog.count(LayerInfo.class, filter));
+
+        filter = or(equal("defaultStyle.id", s.getId()), equal("styles.id", s.getId()));
+        assertEquals(1, planner.candidates(LayerInfo.class, filter).size());
+
+        filter = equal("prefixedName", ns.getPrefix() + ":" + ft.getName());
+        assertEquals(1, planner.candidates(FeatureTypeInfo.class, filter).size());
+        assertEquals(1, catalog.count(FeatureTypeInfo.class, filter));
+
+        // not indexable, requires a full scan
+        assertNull(planner.candidates(LayerInfo.class, contains("name", "ft")));
+        assertNull(planner.candidates(LayerInfo.class,
+                or(equal("name", ft.getName()), contains("name", "ft"))));
+    }
+}
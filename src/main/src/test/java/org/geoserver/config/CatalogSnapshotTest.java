@@ -0,0 +1,101 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.test.SystemTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SystemTest.class)
+public class CatalogSnapshotTest extends GeoServerSystemTestSupport {
+
+    CatalogSnapshot snapshot;
+
+    @Before
+    public void createSnapshot() {
+        snapshot = new CatalogSnapshot(getResourceLoader());
+    }
+
+    @After
+    public void deleteSnapshot() {
+        snapshot.delete();
+    }
+
+    @Test
+    public void testMissing() {
+        assertNull(snapshot.read());
+    }
+
+    @Test
+    public void testWriteRead() {
+        Catalog catalog = getCatalog();
+        snapshot.write(catalog);
+        assertTrue(snapshot.getFile().exists());
+
+        CatalogImpl read = snapshot.read();
+        assertNotNull(read);
+        try {
+            assertEquals(catalog.getWorkspaces().size(), read.getWorkspaces().size());
+            assertEquals(catalog.getNamespaces().size(), read.getNamespaces().size());
+            assertEquals(catalog.getDefaultWorkspace().getName(),
+                    read.getDefaultWorkspace().getName());
+            assertEquals(catalog.getStyles().size(), read.getStyles().size());
+            assertEquals(catalog.getStores(StoreInfo.class).size(),
+                    read.getStores(StoreInfo.class).size());
+            assertEquals(catalog.getResources(ResourceInfo.class).size(),
+                    read.getResources(ResourceInfo.class).size());
+            assertEquals(catalog.getLayers().size(), read.getLayers().size());
+            assertEquals(catalog.getLayerGroups().size(), read.getLayerGroups().size());
+
+            for (LayerInfo layer : catalog.getLayers()) {
+                LayerInfo l = read.getLayer(layer.getId());
+                assertNotNull(l);
+                assertEquals(layer.getResource().prefixedName(), l.getResource().prefixedName());
+                assertNotNull(l.getResource().getCatalog());
+            }
+        } finally {
+            read.dispose();
+        }
+    }
+
+    @Test
+    public void testOutOfDate() throws Exception {
+        snapshot.write(getCatalog());
+
+        File workspaces = new File(getResourceLoader().getBaseDirectory(), "workspaces");
+        File dws = new File(workspaces, "default.xml");
+        assertTrue(dws.exists());
+        assertTrue(dws.setLastModified(dws.lastModified() + 10000));
+
+        assertNull(snapshot.read());
+    }
+
+    @Test
+    public void testChangedWhileReading() throws Exception {
+        Map<String, Long> manifest = snapshot.manifest();
+
+        // edited after the catalog was read, the snapshot must not hide it
+        File workspaces = new File(getResourceLoader().getBaseDirectory(), "workspaces");
+        File dws = new File(workspaces, "default.xml");
+        assertTrue(dws.setLastModified(dws.lastModified() + 10000));
+
+        snapshot.write(getCatalog(), manifest);
+        assertTrue(snapshot.getFile().exists());
+        assertNull(snapshot.read());
+    }
+}
@@ -0,0 +1,78 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.*;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.test.SystemTest;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SystemTest.class)
+public class GeoServerLoaderTest extends GeoServerSystemTestSupport {
+
+    @After
+    public void clearLoaderThreads() {
+        System.clearProperty(GeoServerLoader.LOADER_THREADS);
+    }
+
+    @Test
+    public void testReadCatalogSingleThread() throws Exception {
+        System.setProperty(GeoServerLoader.LOADER_THREADS, "1");
+        assertSameContents(getCatalog(), readCatalog());
+    }
+
+    @Test
+    public void testReadCatalogParallel() throws Exception {
+        System.setProperty(GeoServerLoader.LOADER_THREADS, "4");
+        assertSameContents(getCatalog(), readCatalog());
+    }
+
+    Catalog readCatalog() throws Exception {
+        DefaultGeoServerLoader loader = new DefaultGeoServerLoader(getResourceLoader());
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        return loader.readCatalog(xp);
+    }
+
+    void assertSameContents(Catalog expected, Catalog actual) {
+        try {
+            assertSameContentsInternal(expected, actual);
+        } finally {
+            actual.dispose();
+        }
+    }
+
+    void assertSameContentsInternal(Catalog expected, Catalog actual) {
+        assertEquals(expected.getWorkspaces().size(), actual.getWorkspaces().size());
+        assertEquals(expected.getNamespaces().size(), actual.getNamespaces().size());
+        assertEquals(expected.getDefaultWorkspace().getName(),
+                actual.getDefaultWorkspace().getName());
+        assertEquals(expected.getStyles().size(), actual.getStyles().size());
+        assertEquals(expected.getStores(StoreInfo.class).size(),
+                actual.getStores(StoreInfo.class).size());
+        assertEquals(expected.getResources(ResourceInfo.class).size(),
+                actual.getResources(ResourceInfo.class).size());
+        assertEquals(expected.getLayers().size(), actual.getLayers().size());
+        assertEquals(expected.getLayerGroups().size(), actual.getLayerGroups().size());
+
+        for (LayerInfo layer : expected.getLayers()) {
+            LayerInfo read = actual.getLayerByName(layer.getResource().prefixedName());
+            assertNotNull(layer.getResource().prefixedName(), read);
+            assertEquals(layer.getResource().getStore().getName(),
+                    read.getResource().getStore().getName());
+            if (layer.getDefaultStyle() != null) {
+                assertEquals(layer.getDefaultStyle().getName(), read.getDefaultStyle().getName());
+            }
+        }
+    }
+}
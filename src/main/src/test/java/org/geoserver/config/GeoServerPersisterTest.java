@@ -819,6 +819,67 @@ public class GeoServerPersisterTest extends GeoServerSystemTestSupport {
         assertNull(f);
     }
 
+    @Test
+    public void testWriteBehind() throws Exception {
+        GeoServerPersister p = new GeoServerPersister( getResourceLoader(), 
+            new XStreamPersisterFactory().createXMLPersister() );
+        p.setWriteBehind(true);
+        
+        // hold the background writer back for the duration of the test
+        long delay = GeoServerPersister.FLUSH_DELAY;
+        GeoServerPersister.FLUSH_DELAY = 60000;
+        try {
+            WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+            ws.setName( "acme" );
+            File f = new File( testData.getDataDirectoryRoot(), "acme-write-behind.xml" );
+            
+            p.persist( ws, f );
+            ws.setName( "acme2" );
+            p.persist( ws, f );
+            
+            // coalesced into a single write, not performed yet
+            assertEquals( 1, p.getQueueDepth() );
+            assertFalse( f.exists() );
+            
+            p.flush();
+            assertEquals( 0, p.getQueueDepth() );
+            assertTrue( f.exists() );
+            assertXpathEvaluatesTo( "acme2", "/workspace/name", dom( f ) );
+            f.delete();
+        }
+        finally {
+            GeoServerPersister.FLUSH_DELAY = delay;
+            p.dispose();
+        }
+    }
+    
+    @Test
+    public void testWriteBehindSnapshot() throws Exception {
+        GeoServerPersister p = new GeoServerPersister( getResourceLoader(), 
+            new XStreamPersisterFactory().createXMLPersister() );
+        p.setWriteBehind(true);
+        
+        long delay = GeoServerPersister.FLUSH_DELAY;
+        GeoServerPersister.FLUSH_DELAY = 60000;
+        try {
+            WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+            ws.setName( "acme" );
+            File f = new File( testData.getDataDirectoryRoot(), "acme-snapshot.xml" );
+            
+            p.persist( ws, f );
+            // changed after the event, not persisted
+            ws.setName( "acme2" );
+            
+            p.flush();
+            assertXpathEvaluatesTo( "acme", "/workspace/name", dom( f ) );
+            f.delete();
+        }
+        finally {
+            GeoServerPersister.FLUSH_DELAY = delay;
+            p.dispose();
+        }
+    }
+    
     Document dom( File f ) throws Exception {
         return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse( f );
     }
@@ -0,0 +1,185 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.impl.GeoServerImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class CapabilitiesCacheTest {
+
+    GeoServerImpl geoServer;
+
+    CapabilitiesCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        geoServer = new GeoServerImpl();
+        geoServer.setCatalog(new CatalogImpl());
+        geoServer.setGlobal(geoServer.getFactory().createGlobal());
+        cache = new CapabilitiesCache(geoServer);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        LocalWorkspace.remove();
+        Dispatcher.REQUEST.remove();
+    }
+
+    @Test
+    public void testKey() {
+        CapabilitiesCache.Key key = cache.key("WMS", "1.1.1", "http://localhost/geoserver");
+        assertEquals(key, cache.key("WMS", "1.1.1", "http://localhost/geoserver"));
+        assertFalse(key.equals(cache.key("WMS", "1.3.0", "http://localhost/geoserver")));
+        assertFalse(key.equals(cache.key("WMS", "1.1.1", "http://example.com/geoserver")));
+
+        Catalog catalog = geoServer.getCatalog();
+        WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+        ws.setName("ws");
+        LocalWorkspace.set(ws);
+        assertFalse(key.equals(cache.key("WMS", "1.1.1", "http://localhost/geoserver")));
+    }
+
+    @Test
+    public void testUpdateSequence() {
+        CapabilitiesCache.Key key = cache.key("WMS", "1.1.1");
+        cache.put(key, new byte[] { 1 });
+        assertNotNull(cache.get(cache.key("WMS", "1.1.1")));
+
+        GeoServerInfo global = geoServer.getGlobal();
+        global.setUpdateSequence(global.getUpdateSequence() + 1);
+        geoServer.save(global);
+
+        assertNull(cache.get(key));
+        assertNull(cache.get(cache.key("WMS", "1.1.1")));
+    }
+
+    @Test
+    public void testCatalogChangeClears() {
+        CapabilitiesCache.Key key = cache.key("WMS", "1.3.0");
+        cache.put(key, new byte[] { 1 });
+        assertNotNull(cache.get(key));
+
+        Catalog catalog = geoServer.getCatalog();
+        WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+        ws.setName("ws");
+        catalog.add(ws);
+
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testRequestKey() {
+        assertNull(requestKey());
+
+        Request request = request("GET");
+        Dispatcher.REQUEST.set(request);
+        CapabilitiesCache.Key key = requestKey();
+        assertNotNull(key);
+        assertEquals(key, requestKey());
+
+        request.getRawKvp().put("namespace", "topp");
+        assertFalse(key.equals(requestKey()));
+        key = requestKey();
+
+        // parameters the document does not depend on are not part of the key
+        request.getRawKvp().put("_dc", "1365001234");
+        assertEquals(key, requestKey());
+
+        // POST bodies are not part of the key, cannot cache
+        Dispatcher.REQUEST.set(request("POST"));
+        assertNull(requestKey());
+    }
+
+    CapabilitiesCache.Key requestKey() {
+        return cache.requestKey("WFS", "1.1.0", "GetCapabilities", "NAMESPACE");
+    }
+
+    @Test
+    public void testMaxSize() {
+        cache.setMaxSize(10);
+        CapabilitiesCache.Key k1 = cache.key("WMS", "1.1.1");
+        CapabilitiesCache.Key k2 = cache.key("WMS", "1.3.0");
+        cache.put(k1, new byte[6]);
+        cache.put(k2, new byte[4]);
+        assertEquals(10, cache.getSize());
+
+        // the least recently used document goes
+        cache.get(k1);
+        CapabilitiesCache.Key k3 = cache.key("WFS", "1.1.0");
+        cache.put(k3, new byte[4]);
+        assertNotNull(cache.get(k1));
+        assertNull(cache.get(k2));
+        assertEquals(10, cache.getSize());
+
+        // documents larger than the cache are not kept
+        cache.put(cache.key("WFS", "2.0.0"), new byte[11]);
+        assertNull(cache.get(cache.key("WFS", "2.0.0")));
+        assertEquals(10, cache.getSize());
+    }
+
+    @Test
+    public void testWriteNotModified() throws Exception {
+        Request request = request("GET");
+        Dispatcher.REQUEST.set(request);
+        CapabilitiesCache.Key key = requestKey();
+
+        CountingEncoder encoder = new CountingEncoder();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        cache.write(key, output, encoder);
+        cache.write(key, output, encoder);
+        assertEquals(1, encoder.count);
+        assertEquals(2, output.size());
+
+        ((MockHttpServletRequest) request.getHttpRequest()).addHeader("If-None-Match",
+                cache.etag(key));
+        output.reset();
+        cache.write(key, output, encoder);
+        assertEquals(0, output.size());
+        assertEquals(304, ((MockHttpServletResponse) request.getHttpResponse()).getStatusCode());
+    }
+
+    Request request(String method) {
+        MockHttpServletRequest http = new MockHttpServletRequest();
+        http.setMethod(method);
+        http.setRequestURI("/geoserver/wfs");
+        http.setRequestURL("http://localhost:8080/geoserver/wfs");
+        Map<String, Object> kvp = new HashMap<String, Object>();
+        kvp.put("SERVICE", "WFS");
+        kvp.put("REQUEST", "GetCapabilities");
+
+        Request request = new Request();
+        request.setHttpRequest(http);
+        request.setHttpResponse(new MockHttpServletResponse());
+        request.setGet("GET".equals(method));
+        request.setRawKvp(kvp);
+        return request;
+    }
+
+    static class CountingEncoder implements CapabilitiesCache.Encoder {
+        int count;
+
+        public void encode(OutputStream output) throws IOException {
+            count++;
+            output.write(1);
+        }
+    }
+}
@@ -26,6 +26,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,6 +59,9 @@ import org.geotools.xml.EMFUtils;
 import org.geotools.xml.transform.TransformerBase;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
 import org.w3c.dom.Document;
@@ -118,7 +124,7 @@ import org.xmlpull.v1.XmlPullParserFactory;
  * @author Justin Deoliveira, The Open Planning Project, jdeolive@openplans.org
  *
  */
-public class Dispatcher extends AbstractController {
+public class Dispatcher extends AbstractController implements ApplicationListener {
     /**
      * Logging instance
      */
@@ -147,6 +153,16 @@ public class Dispatcher extends AbstractController {
      */
     List<DispatcherCallback> callbacks = Collections.EMPTY_LIST;
 
+    /**
+     * index of the registered services, rebuilt on context refresh
+     */
+    volatile ServiceRegistry registry;
+
+    /**
+     * number of dispatched operations, keyed by "service version operation"
+     */
+    ConcurrentHashMap<String, AtomicLong> dispatched = new ConcurrentHashMap<String, AtomicLong>();
+
     /** SOAP namespace */
     static final String SOAP_NS = "http://www.w3.org/2003/05/soap-envelope";
     
@@ -574,23 +590,30 @@ public class Dispatcher extends AbstractController {
             throw new ServiceException(msg, "MissingParameterValue", "request");
         }
 
-        // ensure the requested operation exists
-        boolean exists = false;
-        for ( String op : serviceDescriptor.getOperations() ) {
-            if ( op.equalsIgnoreCase( req.getRequest() ) ) {
-                exists = true;
-                break;
+        // lookup the operation, initial lookup based on (service,request)
+        ServiceRegistry.OperationMethod opMethod = null;
+        ServiceRegistry registry = registry();
+        if (registry.contains(serviceDescriptor)) {
+            opMethod = registry.operation(serviceDescriptor, req.getRequest());
+        } else {
+            // service replaced by a callback, resolve it directly
+            for ( String op : serviceDescriptor.getOperations() ) {
+                if ( op.equalsIgnoreCase( req.getRequest() ) ) {
+                    Object serviceBean = serviceDescriptor.getService();
+                    Method method = OwsUtils.method(serviceBean.getClass(), req.getRequest());
+                    if (method != null) {
+                        opMethod = new ServiceRegistry.OperationMethod(op, method);
+                    }
+                    break;
+                }
             }
         }
 
-        // lookup the operation, initial lookup based on (service,request)
-        Object serviceBean = serviceDescriptor.getService();
-        Method operation = OwsUtils.method(serviceBean.getClass(), req.getRequest());
-
-        if (operation == null || !exists) {
+        if (opMethod == null) {
             String msg = "No such operation " + req;
             throw new ServiceException(msg, "OperationNotSupported", req.getRequest());
         }
+        Method operation = opMethod.getMethod();
 
         //step 4: setup the paramters
         Object[] parameters = new Object[operation.getParameterTypes().length];
@@ -721,9 +744,39 @@ public class Dispatcher extends AbstractController {
         }
 
         Operation op = new Operation(req.getRequest(), serviceDescriptor, operation, parameters);
+        countDispatch(serviceDescriptor, opMethod.getName());
         return fireOperationDispatchedCallback(req,op);
     }
 
+    void countDispatch(Service service, String operation) {
+        String key = service.getId() + " " + service.getVersion() + " " + operation;
+        AtomicLong count = dispatched.get(key);
+        if (count == null) {
+            AtomicLong existing = dispatched.putIfAbsent(key, count = new AtomicLong());
+            count = existing != null ? existing : count;
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * The number of times each operation has been dispatched, keyed by
+     * "service version operation".
+     */
+    public Map<String, Long> getDispatchCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : dispatched.entrySet()) {
+            counts.put(e.getKey(), e.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Resets the operation dispatch counts.
+     */
+    public void resetDispatchCounts() {
+        dispatched.clear();
+    }
+
     Operation fireOperationDispatchedCallback(Request req, Operation op ) {
         for ( DispatcherCallback cb : callbacks ) {
             Operation o = cb.operationDispatched( req, op );
@@ -1013,20 +1066,31 @@ public class Dispatcher extends AbstractController {
     }
     
     Collection loadServices() {
-        Collection services = GeoServerExtensions.extensions(Service.class);
+        return registry().getServices();
+    }
 
-        if (!(new HashSet(services).size() == services.size())) {
-            String msg = "Two identical service descriptors found";
-            throw new IllegalStateException(msg);
+    ServiceRegistry registry() {
+        ServiceRegistry result = registry;
+        if (result == null) {
+            synchronized (this) {
+                result = registry;
+                if (result == null) {
+                    registry = result = new ServiceRegistry(
+                            GeoServerExtensions.extensions(Service.class));
+                }
+            }
         }
+        return result;
+    }
 
-        return services;
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextRefreshedEvent) {
+            // the set of services might have changed
+            registry = null;
+        }
     }
 
     Service findService(String id, String ver, String namespace) throws ServiceException {
-        Version version = (ver != null) ? new Version(ver) : null;
-        Collection services = loadServices();
-        
         // the id is actually the pathinfo, in case workspace specific services
         // are active we want to skip the workspace part in the path and go directly to the
         // servlet, which normally, if we ended up here, is a reflector (wms/kml)
@@ -1034,88 +1098,7 @@ public class Dispatcher extends AbstractController {
             id = id.substring(id.indexOf("/") + 1);
         }
 
-        //first just match on service,request
-        List matches = new ArrayList();
-
-        for (Iterator itr = services.iterator(); itr.hasNext();) {
-            Service sBean = (Service) itr.next();
-
-            if (sBean.getId().equalsIgnoreCase(id)) {
-                matches.add(sBean);
-            }
-        }
-
-        if (matches.isEmpty()) {
-            return null;
-        }
-
-        Service sBean = null;
-
-        //if multiple, use version to filter match
-        if (matches.size() > 1) {
-            List vmatches = new ArrayList(matches);
-
-            //match up the version
-            if (version != null) {
-                //version specified, look for a match
-                for (Iterator itr = vmatches.iterator(); itr.hasNext();) {
-                    Service s = (Service) itr.next();
-
-                    if (version.equals(s.getVersion())) {
-                        continue;
-                    }
-
-                    itr.remove();
-                }
-
-                if (vmatches.isEmpty()) {
-                    //no matching version found, drop out and next step 
-                    // will sort to return highest version
-                    vmatches = new ArrayList(matches);
-                }
-            }
-
-            //if still multiple matches use namespace, if available, to filter
-            if (namespace != null && vmatches.size() > 1) {
-                List nmatches = new ArrayList(vmatches);
-                for (Iterator itr = nmatches.iterator(); itr.hasNext();) {
-                    Service s = (Service) itr.next();
-                    if (s.getNamespace() != null && !s.getNamespace().equals(namespace)) {
-                        //service declares namespace, kick it out if there is no match
-                        itr.remove();
-                    }
-                    else {
-                        //service does not declare namespace, leave it along
-                    }
-                }
-
-                if (!nmatches.isEmpty()) {
-                    vmatches = nmatches;
-                }
-            }
-            
-            //multiple services found, sort by version
-            if (vmatches.size() > 1) {
-                //use highest version
-                Comparator comparator = new Comparator() {
-                        public int compare(Object o1, Object o2) {
-                            Service s1 = (Service) o1;
-                            Service s2 = (Service) o2;
-
-                            return s1.getVersion().compareTo(s2.getVersion());
-                        }
-                    };
-
-                Collections.sort(vmatches, comparator);
-            }
-
-            sBean = (Service) vmatches.get(vmatches.size() - 1);
-        } else {
-            //only a single match, that was easy
-            sBean = (Service) matches.get(0);
-        }
-
-        return sBean;
+        return registry().find(id, ver, namespace);
     }
 
     public static Collection loadKvpRequestReaders() {
@@ -0,0 +1,27 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.Map;
+
+/**
+ * Exposes the operation dispatch counts of the {@link Dispatcher}.
+ */
+public class DispatcherStatistics implements DispatcherStatisticsMBean {
+
+    Dispatcher dispatcher;
+
+    public DispatcherStatistics(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public Map<String, Long> getDispatchCounts() {
+        return dispatcher.getDispatchCounts();
+    }
+
+    public void reset() {
+        dispatcher.resetDispatchCounts();
+    }
+}
@@ -0,0 +1,24 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of {@link DispatcherStatistics}.
+ */
+public interface DispatcherStatisticsMBean {
+
+    /**
+     * The number of times each operation has been dispatched, keyed by
+     * "service version operation"
+     */
+    Map<String, Long> getDispatchCounts();
+
+    /**
+     * Resets the dispatch counts
+     */
+    void reset();
+}
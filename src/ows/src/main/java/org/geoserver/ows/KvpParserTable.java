@@ -0,0 +1,163 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+/**
+ * Precompiled lookup table of the registered {@link KvpParser} extensions.
+ * <p>
+ * Resolving the parser for a key means filtering all the parsers by service, version and
+ * request and then picking the closest match, see
+ * {@link KvpUtils#purgeParsers(List, String, String, String)} and
+ * {@link KvpUtils#findParser(String, String, String, String, java.util.Collection)}. The table
+ * performs that resolution once per (service, version, request) combination and keeps the
+ * result as a map from upper case key to parser, so that parsing a request boils down to a
+ * single map lookup per parameter.
+ * </p>
+ * <p>
+ * The table is rebuilt when the application context is refreshed, since that is when the set of
+ * parsers can change.
+ * </p>
+ *
+ * @see KvpUtils#parse(Map)
+ */
+public class KvpParserTable implements ApplicationListener {
+
+    /**
+     * Maximum number of (service, version, request) combinations retained, the requests sent by
+     * clients control the combinations so the table cannot be allowed to grow indefinitely
+     */
+    static final int MAX_COMBINATIONS = 1000;
+
+    /**
+     * The parsers grouped by upper case key, in extension order
+     */
+    volatile Map<String, List<KvpParser>> parsers;
+
+    /**
+     * The resolved parsers, by (service, version, request), values are either a {@link KvpParser}
+     * or the {@link IllegalStateException} reporting an ambiguous match
+     */
+    Map<List<String>, Map<String, Object>> tables =
+        new ConcurrentHashMap<List<String>, Map<String, Object>>();
+
+    /**
+     * Looks up the parser for the specified key.
+     *
+     * @param key the key matching the value to parse
+     * @param table the parsers for the request, obtained with
+     *        {@link #lookup(String, String, String)}
+     *
+     * @return the parser, or null if no parser is registered for the key
+     *
+     * @throws IllegalStateException if more than one candidate parser is found
+     */
+    public static KvpParser lookup(String key, Map<String, Object> table) {
+        Object parser = table.get(key.toUpperCase());
+        if (parser instanceof IllegalStateException) {
+            throw new IllegalStateException(((IllegalStateException) parser).getMessage());
+        }
+        return (KvpParser) parser;
+    }
+
+    /**
+     * Returns the parsers applying to the specified service, version and request, keyed by upper
+     * case key.
+     *
+     * @param service the service parameter from the kvp (can be null)
+     * @param version the version parameter from the kvp (can be null)
+     * @param request the request parameter from the kvp (can be null)
+     */
+    public Map<String, Object> lookup(String service, String version, String request) {
+        List<String> combination = Arrays.asList(upper(service), version, upper(request));
+        Map<String, Object> table = tables.get(combination);
+        if (table == null) {
+            table = resolve(service, version, request);
+            if (tables.size() >= MAX_COMBINATIONS) {
+                tables.clear();
+            }
+            tables.put(combination, table);
+        }
+        return table;
+    }
+
+    Map<String, Object> resolve(String service, String version, String request) {
+        Map<String, Object> table = new HashMap<String, Object>();
+        for (Map.Entry<String, List<KvpParser>> entry : parsers().entrySet()) {
+            List<KvpParser> candidates = new ArrayList<KvpParser>(entry.getValue());
+            KvpUtils.purgeParsers(candidates, service, version, request);
+            if (candidates.isEmpty()) {
+                continue;
+            }
+
+            try {
+                KvpParser parser = KvpUtils.findParser(entry.getKey(), service, request,
+                        version, candidates);
+                if (parser != null) {
+                    table.put(entry.getKey(), parser);
+                }
+            } catch (IllegalStateException e) {
+                // only an error if the request actually contains the key
+                table.put(entry.getKey(), e);
+            }
+        }
+        return Collections.unmodifiableMap(table);
+    }
+
+    Map<String, List<KvpParser>> parsers() {
+        Map<String, List<KvpParser>> result = parsers;
+        if (result == null) {
+            synchronized (this) {
+                result = parsers;
+                if (result == null) {
+                    result = new LinkedHashMap<String, List<KvpParser>>();
+                    for (KvpParser parser : GeoServerExtensions.extensions(KvpParser.class)) {
+                        String key = parser.getKey().toUpperCase();
+                        List<KvpParser> list = result.get(key);
+                        if (list == null) {
+                            list = new ArrayList<KvpParser>(1);
+                            result.put(key, list);
+                        }
+                        list.add(parser);
+                    }
+                    parsers = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Discards the table, it will be rebuilt on the next lookup.
+     */
+    public synchronized void reset() {
+        parsers = null;
+        tables.clear();
+    }
+
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextRefreshedEvent) {
+            reset();
+        }
+    }
+
+    static String upper(String value) {
+        return value != null ? value.toUpperCase() : null;
+    }
+}
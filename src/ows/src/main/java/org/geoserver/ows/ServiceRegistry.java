@@ -0,0 +1,229 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geoserver.ows.util.OwsUtils;
+import org.geoserver.platform.Service;
+import org.geotools.util.Version;
+
+/**
+ * Precomputed index of the {@link Service} descriptors used by the {@link Dispatcher}.
+ * <p>
+ * Services are indexed by id, and the outcome of matching an (id, version, namespace) triple
+ * against them is remembered, so that dispatching a request does not have to scan every
+ * registered service. The operations of each service are also resolved upfront to the method of
+ * the service bean implementing them.
+ * </p>
+ * <p>
+ * Instances are immutable as far as the set of services goes, the dispatcher builds a new one
+ * whenever the application context is refreshed.
+ * </p>
+ */
+public class ServiceRegistry {
+
+    /**
+     * Maximum number of (id, version, namespace) matches retained, clients control the values
+     * so the memo cannot be allowed to grow indefinitely
+     */
+    static final int MAX_MATCHES = 1000;
+
+    /**
+     * An operation of a service, along with the method implementing it
+     */
+    public static class OperationMethod {
+        String name;
+
+        Method method;
+
+        OperationMethod(String name, Method method) {
+            this.name = name;
+            this.method = method;
+        }
+
+        /**
+         * The operation name, as declared by the service descriptor
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The method of the service bean implementing the operation
+         */
+        public Method getMethod() {
+            return method;
+        }
+    }
+
+    List<Service> services;
+
+    Map<String, List<Service>> servicesById = new HashMap<String, List<Service>>();
+
+    Map<Service, Map<String, OperationMethod>> operations =
+        new IdentityHashMap<Service, Map<String, OperationMethod>>();
+
+    Map<List<String>, Service> matches = new ConcurrentHashMap<List<String>, Service>();
+
+    public ServiceRegistry(Collection<Service> services) {
+        if (!(new HashSet<Service>(services).size() == services.size())) {
+            String msg = "Two identical service descriptors found";
+            throw new IllegalStateException(msg);
+        }
+        this.services = Collections.unmodifiableList(new ArrayList<Service>(services));
+
+        for (Service service : services) {
+            String id = service.getId().toUpperCase();
+            List<Service> list = servicesById.get(id);
+            if (list == null) {
+                list = new ArrayList<Service>(1);
+                servicesById.put(id, list);
+            }
+            list.add(service);
+
+            Map<String, OperationMethod> methods = new HashMap<String, OperationMethod>();
+            Class clazz = service.getService() != null ? service.getService().getClass() : null;
+            if (clazz != null && service.getOperations() != null) {
+                for (String op : service.getOperations()) {
+                    Method method = OwsUtils.method(clazz, op);
+                    if (method != null && !methods.containsKey(op.toUpperCase())) {
+                        methods.put(op.toUpperCase(), new OperationMethod(op, method));
+                    }
+                }
+            }
+            operations.put(service, methods);
+        }
+    }
+
+    /**
+     * All the registered services.
+     */
+    public List<Service> getServices() {
+        return services;
+    }
+
+    /**
+     * Looks up the service matching the specified id, version and namespace.
+     * <p>
+     * When multiple services share the id the one matching the version is preferred, then the
+     * one matching the namespace, and finally the one with the highest version.
+     * </p>
+     *
+     * @param id The service id, case insensitive.
+     * @param ver The requested version, may be null.
+     * @param namespace The request namespace, may be null.
+     *
+     * @return The matching service, or null if no service has the specified id.
+     */
+    public Service find(String id, String ver, String namespace) {
+        List<Service> candidates = servicesById.get(id.toUpperCase());
+        if (candidates == null) {
+            return null;
+        }
+        if (candidates.size() == 1) {
+            //only a single match, that was easy
+            return candidates.get(0);
+        }
+
+        List<String> key = Arrays.asList(id.toUpperCase(), ver, namespace);
+        Service service = matches.get(key);
+        if (service == null) {
+            Version version = (ver != null) ? new Version(ver) : null;
+            service = match(candidates, version, namespace);
+            if (matches.size() >= MAX_MATCHES) {
+                matches.clear();
+            }
+            matches.put(key, service);
+        }
+        return service;
+    }
+
+    /**
+     * Looks up the operation of a service.
+     *
+     * @param service The service descriptor, as returned by
+     *        {@link #find(String, String, String)}.
+     * @param request The operation name, case insensitive.
+     *
+     * @return The operation, or null if the service is not part of the registry or does not
+     *         declare the operation, or the service bean does not implement it.
+     */
+    public OperationMethod operation(Service service, String request) {
+        Map<String, OperationMethod> methods = operations.get(service);
+        return methods != null ? methods.get(request.toUpperCase()) : null;
+    }
+
+    /**
+     * Whether the service is part of the registry.
+     */
+    public boolean contains(Service service) {
+        return operations.containsKey(service);
+    }
+
+    Service match(List<Service> matches, Version version, String namespace) {
+        List<Service> vmatches = new ArrayList<Service>(matches);
+
+        //match up the version
+        if (version != null) {
+            //version specified, look for a match
+            for (Iterator<Service> itr = vmatches.iterator(); itr.hasNext();) {
+                Service s = itr.next();
+
+                if (version.equals(s.getVersion())) {
+                    continue;
+                }
+
+                itr.remove();
+            }
+
+            if (vmatches.isEmpty()) {
+                //no matching version found, drop out and next step
+                // will sort to return highest version
+                vmatches = new ArrayList<Service>(matches);
+            }
+        }
+
+        //if still multiple matches use namespace, if available, to filter
+        if (namespace != null && vmatches.size() > 1) {
+            List<Service> nmatches = new ArrayList<Service>(vmatches);
+            for (Iterator<Service> itr = nmatches.iterator(); itr.hasNext();) {
+                Service s = itr.next();
+                if (s.getNamespace() != null && !s.getNamespace().equals(namespace)) {
+                    //service declares namespace, kick it out if there is no match
+                    itr.remove();
+                }
+            }
+
+            if (!nmatches.isEmpty()) {
+                vmatches = nmatches;
+            }
+        }
+
+        //multiple services found, sort by version
+        if (vmatches.size() > 1) {
+            //use highest version
+            Collections.sort(vmatches, new Comparator<Service>() {
+                public int compare(Service s1, Service s2) {
+                    return s1.getVersion().compareTo(s2.getVersion());
+                }
+            });
+        }
+
+        return vmatches.get(vmatches.size() - 1);
+    }
+}
@@ -22,6 +22,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geoserver.ows.KvpParser;
+import org.geoserver.ows.KvpParserTable;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geotools.util.Version;
@@ -338,6 +339,11 @@ public class KvpUtils {
                 value = trim((String) entry.getValue());
             } else if (entry.getValue() instanceof String[]) {
                 String[] values = (String[]) entry.getValue();
+                if (values.length == 1) {
+                    // the common case, no need to look for repetitions
+                    normalizedKvp.put(key, trim(values[0]));
+                    continue;
+                }
                 // we use a set so that mere value repetition (a common error for which the OWS spec
                 // leaves the server up to decide what to do) does not cause the result to be a String[]
                 LinkedHashSet<String> normalized = new LinkedHashSet<String>();
@@ -356,8 +362,8 @@ public class KvpUtils {
                 }
             }
             
-            //convert key to lowercase 
-            normalizedKvp.put(key.toLowerCase(), value);
+            // the map takes care of the key case
+            normalizedKvp.put(key, value);
         }
         
         return normalizedKvp;
@@ -391,15 +397,20 @@ public class KvpUtils {
      * @return A list of errors that occured.
      */
     public static List<Throwable> parse(Map kvp) {
+        String service = KvpUtils.getSingleValue(kvp, "service");
+        String version = KvpUtils.getSingleValue(kvp, "version");
+        String request = KvpUtils.getSingleValue(kvp, "request");
+
+        // use the precompiled parser table when available
+        KvpParserTable table = GeoServerExtensions.bean(KvpParserTable.class);
+        if (table != null) {
+            return parse(kvp, table.lookup(service, version, request));
+        }
 
         // look up parser objects
         List<KvpParser> parsers = GeoServerExtensions.extensions(KvpParser.class);
 
         //strip out parsers which do not match current service/request/version
-        String service = KvpUtils.getSingleValue(kvp, "service");
-        String version = KvpUtils.getSingleValue(kvp, "version");
-        String request = KvpUtils.getSingleValue(kvp, "request");
-        
         purgeParsers(parsers, service, version, request);
 
         // parser the kvp's
@@ -410,37 +421,61 @@ public class KvpUtils {
 
             // find the parser for this key value pair
             KvpParser parser = findParser(key, service, request, version, parsers);
+            parse(entry, parser, errors);
+        }
+
+        return errors;
+    }
 
-            // parse the value
-            Object parsed = null;
+    /**
+     * Parses the kvp's using parsers already resolved for the request.
+     *
+     * @param kvp the kvp's to parse
+     * @param parsers the parsers by upper case key, as returned by
+     *        {@link KvpParserTable#lookup(String, String, String)}
+     *
+     * @return a list of errors that occured.
+     */
+    public static List<Throwable> parse(Map kvp, Map<String, Object> parsers) {
+        ArrayList<Throwable> errors = new ArrayList<Throwable>(0);
+        for (Iterator<Map.Entry<Object, Object>> itr = kvp.entrySet().iterator(); itr.hasNext();) {
+            Map.Entry<Object, Object> entry = itr.next();
+            KvpParser parser = KvpParserTable.lookup((String) entry.getKey(), parsers);
             if (parser != null) {
-                try {
-                    if (entry.getValue() instanceof String) {
-                        String value = (String) entry.getValue();
-                        parsed = parser.parse(value);
-                    } else {
-                        String[] values = (String[]) entry.getValue();
-                        List<Object> result = new ArrayList<Object>();
-                        for (String v : values) {
-                            result.add(parser.parse(v));
-                        }
-                        parsed = result;
-                    }
-                } catch (Throwable t) {
-                    // dont throw any exceptions yet, befor the service is
-                    // known
-                    errors.add(t);
-                }
+                parse(entry, parser, errors);
             }
+        }
+        return errors;
+    }
 
-            // We only change the value of the parameter if the parser was found and no exception is thrown (parsed != null) If so (==null) it is
-            // untouched (remains a String)
-            if (parsed != null) {
-                entry.setValue(parsed);
+    static void parse(Map.Entry<Object, Object> entry, KvpParser parser, List<Throwable> errors) {
+        // parse the value
+        Object parsed = null;
+        if (parser != null) {
+            try {
+                if (entry.getValue() instanceof String) {
+                    String value = (String) entry.getValue();
+                    parsed = parser.parse(value);
+                } else {
+                    String[] values = (String[]) entry.getValue();
+                    List<Object> result = new ArrayList<Object>(values.length);
+                    for (String v : values) {
+                        result.add(parser.parse(v));
+                    }
+                    parsed = result;
+                }
+            } catch (Throwable t) {
+                // dont throw any exceptions yet, befor the service is
+                // known
+                errors.add(t);
             }
         }
 
-        return errors;
+        // We only change the value of the parameter if the parser was found and no exception is thrown (parsed != null) If so (==null) it is
+        // untouched (remains a String)
+        if (parsed != null) {
+            entry.setValue(parsed);
+        }
     }
 
     /**
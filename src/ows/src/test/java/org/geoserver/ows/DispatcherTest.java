@@ -25,6 +25,7 @@ import org.geoserver.platform.Operation;
 import org.geoserver.platform.Service;
 import org.geoserver.test.CodeExpectingHttpServletResponse;
 import org.geotools.util.Version;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.support.FileSystemXmlApplicationContext;
 
 import com.mockrunner.mock.web.MockHttpServletRequest;
@@ -450,4 +451,47 @@ public class DispatcherTest extends TestCase {
         dispatcher.handleRequest(request, response);
         assertEquals("Hello world!:V2", response.getOutputStreamContent());
     }
+
+    public void testDispatchCounts() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+        FileSystemXmlApplicationContext context = 
+                new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setScheme("http");
+        request.setServerName("localhost");
+        request.setContextPath("/geoserver");
+        request.setMethod("GET");
+        request.setupAddParameter("service", "hello");
+        request.setupAddParameter("request", "HELLO");
+        request.setupAddParameter("version", "1.0.0");
+        request.setupAddParameter("message", "Hello world!");
+        request.setRequestURI("http://localhost/geoserver/ows");
+        request.setQueryString("service=hello&request=HELLO&version=1.0.0&message=HelloWorld");
+
+        dispatcher.handleRequest(request, new MockHttpServletResponse());
+        dispatcher.handleRequest(request, new MockHttpServletResponse());
+        assertEquals(Long.valueOf(2), dispatcher.getDispatchCounts().get("hello 1.0.0 hello"));
+
+        dispatcher.resetDispatchCounts();
+        assertTrue(dispatcher.getDispatchCounts().isEmpty());
+    }
+
+    public void testServiceRegistryRefresh() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+        FileSystemXmlApplicationContext context = 
+                new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        Service service = dispatcher.findService("HELLO", null, null);
+        assertNotNull(service);
+        assertNotNull(dispatcher.registry().operation(service, "Hello"));
+        assertNull(dispatcher.registry().operation(service, "Goodbye"));
+        assertNull(dispatcher.findService("goodbye", null, null));
+
+        ServiceRegistry registry = dispatcher.registry();
+        dispatcher.onApplicationEvent(new ContextRefreshedEvent(context));
+        assertNotSame(registry, dispatcher.registry());
+    }
 }
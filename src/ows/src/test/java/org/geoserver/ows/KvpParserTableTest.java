@@ -0,0 +1,82 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.geoserver.ows.kvp.DoubleKvpParser;
+import org.geoserver.ows.kvp.IntegerKvpParser;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.ows.util.KvpUtils;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+public class KvpParserTableTest extends TestCase {
+
+    FileSystemXmlApplicationContext context;
+
+    KvpParserTable table;
+
+    @Override
+    protected void setUp() throws Exception {
+        URL url = getClass().getResource("applicationContextKvpParsers.xml");
+        context = new FileSystemXmlApplicationContext(url.toString());
+        table = (KvpParserTable) context.getBean("kvpParserTable");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        context.close();
+    }
+
+    public void testGenericParser() {
+        Map<String, Object> parsers = table.lookup("other", null, null);
+        assertTrue(KvpParserTable.lookup("count", parsers) instanceof IntegerKvpParser);
+        assertNull(KvpParserTable.lookup("strict", parsers));
+        assertNull(KvpParserTable.lookup("unknown", parsers));
+    }
+
+    public void testServiceParserWins() {
+        Map<String, Object> parsers = table.lookup("HELLO", null, "hello");
+        assertTrue(KvpParserTable.lookup("COUNT", parsers) instanceof DoubleKvpParser);
+        assertNotNull(KvpParserTable.lookup("strict", parsers));
+        assertSame(parsers, table.lookup("hello", null, "HELLO"));
+    }
+
+    public void testAmbiguous() {
+        Map<String, Object> parsers = table.lookup("hello", null, null);
+        try {
+            KvpParserTable.lookup("ambiguous", parsers);
+            fail("Two unversioned parsers for the same service should be ambiguous");
+        } catch (IllegalStateException e) {
+            // fine
+        }
+    }
+
+    public void testParse() {
+        Map kvp = new KvpMap();
+        kvp.put("service", "hello");
+        kvp.put("request", "Hello");
+        kvp.put("count", "10");
+        kvp.put("strict", "true");
+        kvp.put("message", "Hello world!");
+
+        List<Throwable> errors = KvpUtils.parse(kvp);
+        assertTrue(errors.isEmpty());
+        assertEquals(Double.valueOf(10), kvp.get("count"));
+        assertEquals(Boolean.TRUE, kvp.get("strict"));
+        assertEquals("Hello world!", kvp.get("message"));
+    }
+
+    public void testRefresh() {
+        Map<String, Object> parsers = table.lookup("hello", null, null);
+        table.onApplicationEvent(new ContextRefreshedEvent(context));
+        assertNotSame(parsers, table.lookup("hello", null, null));
+    }
+}
@@ -0,0 +1,61 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.rest;
+
+import org.geoserver.config.GeoServerPersisterStatistics;
+import org.geoserver.rest.RestletException;
+import org.restlet.Finder;
+import org.restlet.data.Method;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.resource.Resource;
+
+/**
+ * Waits for the configuration changes queued by a write-behind persister to be written to 
+ * disk, for clients that need their changes to be durable before moving on.
+ */
+public class CatalogFlusher extends Finder {
+
+    GeoServerPersisterStatistics persister;
+
+    public CatalogFlusher(GeoServerPersisterStatistics persister) {
+        this.persister = persister;
+    }
+
+    @Override
+    public Resource findTarget(Request request, Response response) {
+        if (!(request.getMethod() == Method.POST || request.getMethod() == Method.PUT)) {
+            response.setStatus(Status.CLIENT_ERROR_METHOD_NOT_ALLOWED);
+            return null;
+        }
+        return new Resource() {
+            @Override
+            public boolean allowPost() {
+                return true;
+            }
+            
+            @Override
+            public boolean allowPut() {
+                return true;
+            }
+            
+            @Override
+            public void handlePost() {
+                try {   
+                    persister.flush();
+                } catch (Exception e) {
+                    throw new RestletException("Error writing out the configuration", 
+                            Status.SERVER_ERROR_INTERNAL, e);
+                }
+            }
+            
+            @Override
+            public void handlePut() {
+                handlePost();
+            }
+        };
+    }
+}
@@ -0,0 +1,30 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geoserver.catalog.ResourcePoolStatistics;
+
+/**
+ * Returns the cache statistics of the catalog resource pool
+ */
+public class ResourcePoolStatisticsResource extends MapResource {
+
+    ResourcePoolStatistics statistics;
+
+    public ResourcePoolStatisticsResource(ResourcePoolStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        HashMap map = new HashMap();
+        map.put("caches", statistics.getStatistics());
+
+        return map;
+    }
+}
@@ -11,6 +11,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Random;
 import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletOutputStream;
@@ -34,6 +35,52 @@ public class GZIPResponseStreamTest  {
         assertEquals("Hello world!", new String(unzip(response.toByteArray())));
     }
 
+    @Test
+    public void testBufferedSetsLength() throws Exception {
+        MockHttpServletResponse mock = new MockHttpServletResponse();
+        ByteStreamCapturingHttpServletResponse response = 
+            new ByteStreamCapturingHttpServletResponse(mock);
+        GZIPResponseStream stream = new GZIPResponseStream(response, 1024, 9);
+        stream.write("Hello world!".getBytes());
+        assertFalse(stream.isStreaming());
+        stream.close();
+        assertEquals(Integer.toString(response.toByteArray().length),
+                mock.getHeader("Content-Length"));
+        assertEquals("gzip", mock.getHeader("Content-Encoding"));
+        assertEquals("Hello world!", new String(unzip(response.toByteArray())));
+    }
+
+    @Test
+    public void testStreamPastThreshold() throws Exception {
+        MockHttpServletResponse mock = new MockHttpServletResponse();
+        ByteStreamCapturingHttpServletResponse response = 
+            new ByteStreamCapturingHttpServletResponse(mock);
+        GZIPResponseStream stream = new GZIPResponseStream(response, 64, 1);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            byte[] line = ("line " + i + " " + random.nextInt() + "\n").getBytes();
+            expected.write(line);
+            stream.write(line);
+        }
+        assertTrue(stream.isStreaming());
+        assertEquals("gzip", mock.getHeader("Content-Encoding"));
+        stream.close();
+
+        assertNull(mock.getHeader("Content-Length"));
+        assertArrayEquals(expected.toByteArray(), unzip(response.toByteArray()));
+    }
+
+    @Test
+    public void testDeflaterReuse() throws Exception {
+        // deflaters going back to the pool must not leak state into the next response
+        for (int i = 0; i < 3; i++) {
+            testStream();
+            testStreamPastThreshold();
+        }
+    }
+
     private byte[] unzip(byte[] zipped) throws Exception {
         InputStream stream  =
             new GZIPInputStream(new ByteArrayInputStream(zipped));
@@ -0,0 +1,345 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.TransactionResponseType;
+import net.opengis.wfs.TransactionType;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.security.auth.LRUCache;
+import org.geotools.data.Query;
+import org.geotools.factory.Hints;
+import org.geotools.filter.visitor.SimplifyingFilterVisitor;
+import org.opengis.filter.Filter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Cache of the number of features matched by GetFeature queries, the numberMatched of WFS 2.0
+ * paged responses, so that paging through a large feature type does not count its features
+ * again at each page.
+ * <p>
+ * Counts are keyed by feature type, simplified filter, view parameters and feature version,
+ * along with the name and roles of the user running the request, as data security might limit
+ * the features the user can see. Counts expire after the time to live set with the
+ * {@link GetFeature#COUNT_CACHE_TTL} WFS setting, and are invalidated by catalog changes and by
+ * WFS transactions on their feature type. The latter invalidate the counts both when the feature
+ * type is modified and once the transaction is over, as a count taken meanwhile might not see
+ * the changes yet. The end of the transaction is notified to plugins for WFS 1.x only, so the
+ * end of the request is tracked as well. Data modified by other means is noticed once the
+ * count expires.
+ * </p>
+ */
+public class FeatureCountCache extends AbstractDispatcherCallback implements TransactionPlugin {
+
+    /**
+     * Default number of counts kept in the cache
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    LRUCache<Key, Count> counts = new LRUCache<Key, Count>(DEFAULT_MAX_ENTRIES);
+
+    /**
+     * Bumped at each invalidation, so that counts taken meanwhile are not kept
+     */
+    long generation;
+
+    /**
+     * The feature types modified by the transaction run by the current thread
+     */
+    ThreadLocal<Set<QName>> modified = new ThreadLocal<Set<QName>>();
+
+    Catalog catalog;
+
+    /**
+     * @param catalog The raw catalog, the cache listens to its changes
+     */
+    public FeatureCountCache(Catalog catalog) {
+        this.catalog = catalog;
+        catalog.addListener(new CatalogListener() {
+            public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+                // nothing to invalidate
+            }
+
+            public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+                invalidate(event.getSource());
+            }
+
+            public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+                // wait for the modification to be applied
+            }
+
+            public void handlePostModifyEvent(CatalogPostModifyEvent event)
+                    throws CatalogException {
+                invalidate(event.getSource());
+            }
+
+            public void reloaded() {
+                clear();
+            }
+        });
+    }
+
+    /**
+     * Builds the key of the count of the features matched by the query, or returns null if the
+     * query cannot be cached. The query is expected to have no offset nor limit.
+     */
+    public Key key(FeatureTypeInfo featureType, Query query) {
+        if (!query.getJoins().isEmpty()) {
+            // joins are not comparable
+            return null;
+        }
+        Object viewParams = query.getHints() != null ?
+            query.getHints().get(Hints.VIRTUAL_TABLE_PARAMETERS) : null;
+
+        String user = null;
+        List<String> roles = null;
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null) {
+            user = auth.getName();
+            if (auth.getAuthorities() != null) {
+                TreeSet<String> names = new TreeSet<String>();
+                for (GrantedAuthority authority : auth.getAuthorities()) {
+                    names.add(authority.getAuthority());
+                }
+                roles = new ArrayList<String>(names);
+            }
+        }
+
+        // simplify the filter, so that trivially equivalent filters share their counts
+        Filter filter = query.getFilter();
+        if (filter != null) {
+            filter = (Filter) filter.accept(new SimplifyingFilterVisitor(), null);
+        }
+        return new Key(getName(featureType), filter, (Map) viewParams,
+            query.getVersion(), user, roles);
+    }
+
+    /**
+     * Returns the cached count, or null if missing or older than the time to live
+     *
+     * @param ttl The time to live of the counts, in milliseconds
+     */
+    public synchronized Integer get(Key key, long ttl) {
+        Count count = counts.get(key);
+        if (count == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - count.time > ttl) {
+            counts.remove(key);
+            return null;
+        }
+        return count.value;
+    }
+
+    /**
+     * Caches a count, unless an invalidation happened since the specified generation
+     */
+    public synchronized void put(Key key, int value, long countGeneration) {
+        if (countGeneration == generation) {
+            counts.put(key, new Count(value, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Returns the current generation, to be grabbed before taking a count
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Removes the counts of the specified feature type, or all of them if null
+     */
+    public synchronized void invalidate(QName featureType) {
+        if (featureType == null) {
+            clear();
+            return;
+        }
+        generation++;
+        for (Iterator<Key> it = counts.keySet().iterator(); it.hasNext();) {
+            if (it.next().name.equals(featureType)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the counts affected by a change to the specified catalog object
+     */
+    void invalidate(CatalogInfo info) {
+        if (info instanceof FeatureTypeInfo) {
+            invalidate(getName((FeatureTypeInfo) info));
+        } else if (info instanceof StoreInfo || info instanceof NamespaceInfo
+                || info instanceof WorkspaceInfo) {
+            // these might affect any number of feature types
+            clear();
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        counts.clear();
+    }
+
+    /**
+     * Sets the maximum number of counts kept in the cache, dropping the current contents
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        generation++;
+        counts = new LRUCache<Key, Count>(maxEntries);
+    }
+
+    public synchronized int getCount() {
+        return counts.size();
+    }
+
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        // the counts are keyed by qualified name, the event might carry the unqualified name
+        // used in the request, null meaning the feature type is not known
+        QName name = event.getQualifiedLayerName(catalog);
+        invalidate(name);
+
+        Set<QName> names = modified.get();
+        if (names == null) {
+            names = new HashSet<QName>();
+            modified.set(names);
+        }
+        names.add(name);
+    }
+
+    public TransactionType beforeTransaction(TransactionType request) throws WFSException {
+        return request;
+    }
+
+    public void beforeCommit(TransactionType request) throws WFSException {
+        // nothing to do
+    }
+
+    public void afterTransaction(TransactionType request, TransactionResponseType result,
+            boolean committed) {
+        invalidateModified();
+    }
+
+    public int getPriority() {
+        return 0;
+    }
+
+    @Override
+    public void finished(Request request) {
+        // WFS 2.0 transactions do not notify plugins when they are over
+        invalidateModified();
+    }
+
+    /**
+     * Removes the counts of the feature types modified by the transaction of the current
+     * thread, now that it is over, as counts might have been taken before its changes were
+     * visible
+     */
+    void invalidateModified() {
+        Set<QName> names = modified.get();
+        if (names != null) {
+            modified.remove();
+            for (QName name : names) {
+                invalidate(name);
+            }
+        }
+    }
+
+    static QName getName(FeatureTypeInfo featureType) {
+        return new QName(featureType.getNamespace().getURI(), featureType.getName());
+    }
+
+    static class Count {
+        int value;
+
+        long time;
+
+        Count(int value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Identifies the features matched by a query
+     */
+    public static class Key {
+        QName name;
+
+        Filter filter;
+
+        Map viewParams;
+
+        String version;
+
+        String user;
+
+        List<String> roles;
+
+        Key(QName name, Filter filter, Map viewParams, String version, String user,
+                List<String> roles) {
+            this.name = name;
+            this.filter = filter;
+            this.viewParams = viewParams;
+            this.version = version;
+            this.user = user;
+            this.roles = roles;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ((name == null) ? 0 : name.hashCode());
+            result = prime * result + ((filter == null) ? 0 : filter.hashCode());
+            result = prime * result + ((viewParams == null) ? 0 : viewParams.hashCode());
+            result = prime * result + ((version == null) ? 0 : version.hashCode());
+            result = prime * result + ((user == null) ? 0 : user.hashCode());
+            result = prime * result + ((roles == null) ? 0 : roles.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return eq(name, other.name) && eq(filter, other.filter)
+                    && eq(viewParams, other.viewParams) && eq(version, other.version)
+                    && eq(user, other.user) && eq(roles, other.roles);
+        }
+
+        static boolean eq(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+}
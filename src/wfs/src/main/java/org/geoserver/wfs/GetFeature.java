@@ -14,6 +14,11 @@ import java.util.Calendar;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.xml.namespace.QName;
@@ -29,9 +34,11 @@ import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.catalog.ResourcePool;
 import org.geoserver.feature.TypeNameExtractingVisitor;
 import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.EnviromentInjectionCallback;
 import org.geoserver.ows.Request;
 import org.geoserver.ows.URLMangler.URLType;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
 import org.geoserver.wfs.request.Lock;
@@ -98,6 +105,8 @@ import org.opengis.filter.temporal.TContains;
 import org.opengis.filter.temporal.TEquals;
 import org.opengis.metadata.extent.GeographicBoundingBox;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.xml.sax.helpers.NamespaceSupport;
 /**
  * Web Feature Service GetFeature operation.
@@ -174,6 +183,44 @@ public class GetFeature {
     /** stored query provider */
     StoredQueryProvider storedQueryProvider;
 
+    /**
+     * WFS metadata key for the maximum number of queries of a GetFeature request whose features 
+     * are counted concurrently, zero or one meaning the queries are run one after the other
+     */
+    public static final String QUERY_PARALLELISM = "getFeatureParallelism";
+
+    /**
+     * WFS metadata key for the number of seconds the features matched by a query, the 
+     * numberMatched of WFS 2.0 paged responses, are cached for, zero disabling the cache
+     */
+    public static final String COUNT_CACHE_TTL = "countCacheTTL";
+
+    /**
+     * WFS metadata key enabling the estimated numberMatched, reported as unknown rather than 
+     * counting all the features matched by a query when the count is not known already
+     */
+    public static final String ESTIMATED_COUNT = "estimatedNumberMatched";
+
+    /** cache of the features matched by the queries */
+    FeatureCountCache countCache;
+
+    /** pool used to count the features of the queries concurrently */
+    FeatureCountPool countPool;
+
+    /**
+     * A query of the request, validated and resolved against the catalog
+     */
+    static class QueryPlan {
+        Query query;
+        List<FeatureTypeInfo> metas;
+        List<List<PropertyName>> propNames;
+        List<List<PropertyName>> allPropNames;
+        Filter filter;
+        List<Join> joins;
+        FeatureSource<? extends FeatureType, ? extends Feature> source;
+        Map<String, String> viewParam;
+    }
+
     /**
      * Creates the WFS 1.0/1.1 GetFeature operation.
      */
@@ -218,6 +265,42 @@ public class GetFeature {
         this.filterFactory = filterFactory;
     }
     
+    /**
+     * Sets the cache of the features matched by the queries
+     */
+    public void setCountCache(FeatureCountCache countCache) {
+        this.countCache = countCache;
+    }
+
+    /**
+     * @return The cache of the features matched by the queries, looked up in the application 
+     *         context if not set
+     */
+    public FeatureCountCache getCountCache() {
+        if (countCache == null) {
+            countCache = GeoServerExtensions.bean(FeatureCountCache.class);
+        }
+        return countCache;
+    }
+
+    /**
+     * Sets the pool used to count the features of the queries concurrently
+     */
+    public void setCountPool(FeatureCountPool countPool) {
+        this.countPool = countPool;
+    }
+
+    /**
+     * @return The pool used to count the features of the queries concurrently, looked up in the
+     *         application context if not set
+     */
+    public FeatureCountPool getCountPool() {
+        if (countPool == null) {
+            countPool = GeoServerExtensions.bean(FeatureCountPool.class);
+        }
+        return countPool;
+    }
+
     /**
      * Sets the stored query provider
      */
@@ -303,10 +386,8 @@ public class GetFeature {
         // this if the following conditions hold
         // 1. the request is wfs 2.0
         // 2. maxFeatures != Integer.MAX_VALUE
-        //TODO: we could actually add a third a optimization that when the count of features is 
-        // less than maxFeatures we don't have to calculate it since it is the same as count, but 
-        // this requires that we do that check post query loop which requires a bit of code 
-        // refactoring
+        // and we don't count the features of a query when they fit in the page, or when they 
+        // were cached by a previous request, see countMatched
 
         int totalCount = 0;
         if (!request.getVersion().startsWith("2")) {
@@ -330,154 +411,44 @@ public class GetFeature {
 
         List results = new ArrayList();
         try {
-            for (int i = 0; (i < queries.size()) && (count < maxFeatures); i++) {
-
+            //plan all the queries up front, so that their features can be counted concurrently
+            List<QueryPlan> plans = new ArrayList<QueryPlan>(queries.size());
+            for (int i = 0; i < queries.size(); i++) {
                 Query query = queries.get(i);
                 try {
-                //alias sanity check
-                if (!query.getAliases().isEmpty()) {
-                    if (query.getAliases().size() != query.getTypeNames().size()) {
-                        throw new WFSException(request, String.format("Query specifies %d type names and %d " +
-                            "aliases, must be equal", query.getTypeNames().size(), query.getAliases().size())); 
-                    }
-                }
-
-                List<FeatureTypeInfo> metas = new ArrayList();
-                for (QName typeName : query.getTypeNames()) {
-                    metas.add(featureTypeInfo(typeName, request));
-                }
-
-                //first is the primary feature type
-                FeatureTypeInfo meta = metas.get(0);
-
-                // parse the requested property names and distribute among requested types
-                List<List<String>> reqPropertyNames = parsePropertyNames(query, metas);
-
-                NamespaceSupport ns = getNamespaceSupport();
-                
-                List<List<PropertyName>> propNames = new ArrayList();
-                List<List<PropertyName>> allPropNames = new ArrayList();
-                
-                for (int j = 0; j < metas.size(); j++) {
-                    List<String> propertyNames = reqPropertyNames.get(j);
-                    List<PropertyName> metaPropNames = null;
-                    List<PropertyName> metaAllPropNames = null;
-                    if (!propertyNames.isEmpty()){
-                        
-                         metaPropNames = new ArrayList<PropertyName>();
-                        
-                        for (Iterator iter = propertyNames.iterator(); iter.hasNext();) {
-                            PropertyName propName = createPropertyName((String) iter.next(), ns);
-        
-                            if ( propName.evaluate(meta.getFeatureType()) == null) {
-                                String mesg = "Requested property: " + propName + " is " + "not available "
-                                    + "for " + meta.getPrefixedName() + ".  ";
-                                
-                                if (meta.getFeatureType() instanceof SimpleFeatureType) {
-                                    List<AttributeTypeInfo> atts = meta.attributes();
-                                    List attNames = new ArrayList( atts.size() );
-                                    for ( AttributeTypeInfo att : atts ) {
-                                        attNames.add( att.getName() );
-                                    }
-                                    mesg += "The possible propertyName values are: " + attNames;
-                                }
-        
-                                throw new WFSException(request, mesg, "InvalidParameterValue");
-                            }
-                            
-                            metaPropNames.add(propName);
-                        }
-                        
-                        // if we need to force feature bounds computation, we have to load 
-                        // all of the geometries, but we'll have to remove them in the 
-                        // returned feature type
-                        if(wfs.isFeatureBounding()) {
-                            metaAllPropNames = addGeometryProperties(meta, metaPropNames);
-                        } else {
-                            metaAllPropNames = metaPropNames;
-                        }     
-                        
-                        //we must also include any properties that are mandatory ( even if not requested ),
-                        // ie. those with minOccurs > 0
-                        //only do this for simple features, complex mandatory features are handled by app-schema
-                        if (meta.getFeatureType() instanceof SimpleFeatureType) {
-                            metaAllPropNames = 
-                                DataUtilities.addMandatoryProperties((SimpleFeatureType) meta.getFeatureType(), metaAllPropNames);
-                            metaPropNames = 
-                                DataUtilities.addMandatoryProperties((SimpleFeatureType) meta.getFeatureType(), metaPropNames);
-                        }
-                        //for complex features, mandatory properties need to be handled by datastore.
-                    }
-                    allPropNames.add(metaAllPropNames);
-                    propNames.add(metaPropNames);
+                    Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
+                    plans.add(planQuery(query, request, viewParam));
                 }
-
-                //set up joins (if specified)
-                List<Join> joins = null;
-                
-                //make sure filters are sane
-                //
-                // Validation of filters on non-simple feature types is not yet supported.
-                // FIXME: Support validation of filters on non-simple feature types:
-                // need to consider xpath properties and how to configure namespace prefixes in
-                // GeoTools app-schema FeaturePropertyAccessorFactory.
-                Filter filter = query.getFilter();
-                
-                if (filter == null && metas.size() > 1) {
-                    throw new WFSException(request, "Join query must specify a filter");
+                catch(WFSException e) {
+                    setQueryLocator(e, query);
+                    throw e;
                 }
+            }
 
-                if (filter != null && meta.getFeatureType() instanceof SimpleFeatureType) {
-                    if (metas.size() > 1) {
-                        //ensure that the filter is allowable
-                        if (!isValidJoinFilter(filter)) {
-                            throw new WFSException(request, 
-                                "Unable to preform join with specified filter: " + filter);
-                        }
-                        //join, need to separate the joining filter from other filters
-                        JoinExtractingVisitor extractor = 
-                            new JoinExtractingVisitor(metas, query.getAliases());
-                        filter.accept(extractor, null);
-
-                        joins = extractor.getJoins();
-                        if (joins.size() != metas.size()-1) {
-                            throw new WFSException(request, String.format("Query specified %d types but %d " +
-                                "join filters were found", metas.size(), extractor.getJoins().size()));
-                        }
-
-                        //validate the filter for each join
-                        for (int j = 1; j < metas.size(); j++) {
-                            Join join = joins.get(j-1);
-                            if (join.getFilter() != null) {
-                                validateFilter(join.getFilter(), query, metas.get(j), request);
-                            }
-                        }
-
-                        filter = extractor.getPrimaryFilter();
-                        if (filter != null) {
-                            validateFilter(filter, query, meta, request);
-                        }
-                    }
-                    else {
-                        validateFilter(filter, query, meta, request);
-                    }
-                }
+            //features matched by each query, when counted ahead of time, with no limit if the
+            // total count is needed and has to be exact
+            boolean countsUnlimited = totalCount > -1 && !isEstimatedCount(request);
+            Integer[] matched = countFeatures(request, plans, maxFeatures, totalOffset, countsUnlimited);
 
-                // load primary feature source
-                Hints hints = null;
-                if (joins != null) {
-                    hints = new Hints(ResourcePool.JOINS, joins);
-                }
-                FeatureSource<? extends FeatureType, ? extends Feature> source = 
-                    metas.get(0).getFeatureSource(null, hints);
+            for (int i = 0; (i < queries.size()) && (count < maxFeatures); i++) {
 
+                QueryPlan plan = plans.get(i);
+                Query query = plan.query;
+                List<FeatureTypeInfo> metas = plan.metas;
+                FeatureTypeInfo meta = metas.get(0);
+                List<List<PropertyName>> propNames = plan.propNames;
+                List<List<PropertyName>> allPropNames = plan.allPropNames;
+                Filter filter = plan.filter;
+                List<Join> joins = plan.joins;
+                FeatureSource<? extends FeatureType, ? extends Feature> source = plan.source;
+                Map<String, String> viewParam = plan.viewParam;
+                try {
                 // handle local maximum
                 int queryMaxFeatures = maxFeatures - count;
                 int metaMaxFeatures = maxFeatures(metas);
                 if (metaMaxFeatures > 0 && metaMaxFeatures < queryMaxFeatures) {
                     queryMaxFeatures = metaMaxFeatures;
                 }
-                Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
                 org.geotools.data.Query gtQuery = toDataQuery(query, filter, offset, queryMaxFeatures, 
                     source, request, allPropNames.get(0), viewParam, joins);
 
@@ -511,7 +482,21 @@ public class GetFeature {
 
                 int size = 0;
                 if (calculateSize) {
-                    size = features.size();
+                    if (matched[i] != null) {
+                        //the same as the collection size, given the features matched by the query
+                        size = Math.max(0, Math.min(matched[i] - Math.max(offset, 0), queryMaxFeatures));
+                    }
+                    else {
+                        size = features.size();
+                    }
+                }
+
+                //a page that is not full holds the last features matched by the query, the 
+                // features matched are the ones skipped plus the ones returned
+                int pageMatched = -1;
+                if (calculateSize && size < queryMaxFeatures && (size > 0 || offset <= 0) 
+                        && meta.getFeatureType() instanceof SimpleFeatureType) {
+                    pageMatched = Math.max(offset, 0) + size;
                 }
                 
                 //update the count
@@ -527,15 +512,26 @@ public class GetFeature {
                     else {
                         //no features might have been because of the offset that was specified, check 
                         // the size of the same query but with no offset
-                        org.geotools.data.Query q2 = toDataQuery(query, filter, 0, queryMaxFeatures, 
-                            source, request, allPropNames.get(0), viewParam, joins);
-                        
-                        //int size2 = getFeatures(request, source, q2).size();
-                        int size2 = source.getCount(q2);
+                        int size2;
+                        if (matched[i] != null) {
+                            size2 = Math.min(matched[i], queryMaxFeatures);
+                        }
+                        else {
+                            org.geotools.data.Query q2 = toDataQuery(query, filter, 0, queryMaxFeatures, 
+                                source, request, allPropNames.get(0), viewParam, joins);
+                            
+                            //int size2 = getFeatures(request, source, q2).size();
+                            size2 = source.getCount(q2);
+                        }
                         if (size2 > 0) {
                             //adjust the offset for the next query
                             offset = Math.max(0, offset - size2);
                         }
+                        if (size2 < queryMaxFeatures 
+                                && meta.getFeatureType() instanceof SimpleFeatureType) {
+                            //all the features matched were skipped
+                            pageMatched = size2;
+                        }
                     }
                 }
 
@@ -546,10 +542,15 @@ public class GetFeature {
                     if (calculateSize && queryMaxFeatures == Integer.MAX_VALUE && offset == 0) {
                         totalCount += size;
                     }
+                    else if (matched[i] != null && countsUnlimited) {
+                        //counted ahead of time with no limit
+                        totalCount += matched[i];
+                    }
                     else {
                         org.geotools.data.Query q2 = toDataQuery(query, filter, 0, Integer.MAX_VALUE, 
                             source, request, allPropNames.get(0), viewParam, joins);
-                        totalCount += source.getFeatures(q2).size();
+                        int n = countMatched(request, meta, source, q2, pageMatched);
+                        totalCount = n < 0 ? -1 : totalCount + n;
                     }
                 }
 
@@ -581,12 +582,7 @@ public class GetFeature {
                 results.add(features);
                 }
                 catch(WFSException e) {
-                    //intercept and set locator to query handle if one was set, or if it simply set
-                    // to GetFeature, which is the default
-                    if (query.getHandle() != null && 
-                        (e.getLocator() == null || "GetFeature".equalsIgnoreCase(e.getLocator()))) {
-                        e.setLocator(query.getHandle());
-                    }
+                    setQueryLocator(e, query);
                     throw e;
                 }
             }
@@ -628,6 +624,424 @@ public class GetFeature {
         return buildResults(request, totalOffset, maxFeatures, count, totalCount, results, lockId);
     }
 
+    /**
+     * Validates a query of the request and resolves everything needed to run it, but the offset 
+     * and the maximum number of features that depend on the queries preceding it
+     */
+    QueryPlan planQuery(Query query, GetFeatureRequest request, Map<String, String> viewParam) 
+        throws IOException {
+        //alias sanity check
+        if (!query.getAliases().isEmpty()) {
+            if (query.getAliases().size() != query.getTypeNames().size()) {
+                throw new WFSException(request, String.format("Query specifies %d type names and %d " +
+                    "aliases, must be equal", query.getTypeNames().size(), query.getAliases().size())); 
+            }
+        }
+
+        List<FeatureTypeInfo> metas = new ArrayList();
+        for (QName typeName : query.getTypeNames()) {
+            metas.add(featureTypeInfo(typeName, request));
+        }
+
+        //first is the primary feature type
+        FeatureTypeInfo meta = metas.get(0);
+
+        // parse the requested property names and distribute among requested types
+        List<List<String>> reqPropertyNames = parsePropertyNames(query, metas);
+
+        NamespaceSupport ns = getNamespaceSupport();
+        
+        List<List<PropertyName>> propNames = new ArrayList();
+        List<List<PropertyName>> allPropNames = new ArrayList();
+        
+        for (int j = 0; j < metas.size(); j++) {
+            List<String> propertyNames = reqPropertyNames.get(j);
+            List<PropertyName> metaPropNames = null;
+            List<PropertyName> metaAllPropNames = null;
+            if (!propertyNames.isEmpty()){
+                
+                 metaPropNames = new ArrayList<PropertyName>();
+                
+                for (Iterator iter = propertyNames.iterator(); iter.hasNext();) {
+                    PropertyName propName = createPropertyName((String) iter.next(), ns);
+
+                    if ( propName.evaluate(meta.getFeatureType()) == null) {
+                        String mesg = "Requested property: " + propName + " is " + "not available "
+                            + "for " + meta.getPrefixedName() + ".  ";
+                        
+                        if (meta.getFeatureType() instanceof SimpleFeatureType) {
+                            List<AttributeTypeInfo> atts = meta.attributes();
+                            List attNames = new ArrayList( atts.size() );
+                            for ( AttributeTypeInfo att : atts ) {
+                                attNames.add( att.getName() );
+                            }
+                            mesg += "The possible propertyName values are: " + attNames;
+                        }
+
+                        throw new WFSException(request, mesg, "InvalidParameterValue");
+                    }
+                    
+                    metaPropNames.add(propName);
+                }
+                
+                // if we need to force feature bounds computation, we have to load 
+                // all of the geometries, but we'll have to remove them in the 
+                // returned feature type
+                if(wfs.isFeatureBounding()) {
+                    metaAllPropNames = addGeometryProperties(meta, metaPropNames);
+                } else {
+                    metaAllPropNames = metaPropNames;
+                }     
+                
+                //we must also include any properties that are mandatory ( even if not requested ),
+                // ie. those with minOccurs > 0
+                //only do this for simple features, complex mandatory features are handled by app-schema
+                if (meta.getFeatureType() instanceof SimpleFeatureType) {
+                    metaAllPropNames = 
+                        DataUtilities.addMandatoryProperties((SimpleFeatureType) meta.getFeatureType(), metaAllPropNames);
+                    metaPropNames = 
+                        DataUtilities.addMandatoryProperties((SimpleFeatureType) meta.getFeatureType(), metaPropNames);
+                }
+                //for complex features, mandatory properties need to be handled by datastore.
+            }
+            allPropNames.add(metaAllPropNames);
+            propNames.add(metaPropNames);
+        }
+
+        //set up joins (if specified)
+        List<Join> joins = null;
+        
+        //make sure filters are sane
+        //
+        // Validation of filters on non-simple feature types is not yet supported.
+        // FIXME: Support validation of filters on non-simple feature types:
+        // need to consider xpath properties and how to configure namespace prefixes in
+        // GeoTools app-schema FeaturePropertyAccessorFactory.
+        Filter filter = query.getFilter();
+        
+        if (filter == null && metas.size() > 1) {
+            throw new WFSException(request, "Join query must specify a filter");
+        }
+
+        if (filter != null && meta.getFeatureType() instanceof SimpleFeatureType) {
+            if (metas.size() > 1) {
+                //ensure that the filter is allowable
+                if (!isValidJoinFilter(filter)) {
+                    throw new WFSException(request, 
+                        "Unable to preform join with specified filter: " + filter);
+                }
+                //join, need to separate the joining filter from other filters
+                JoinExtractingVisitor extractor = 
+                    new JoinExtractingVisitor(metas, query.getAliases());
+                filter.accept(extractor, null);
+
+                joins = extractor.getJoins();
+                if (joins.size() != metas.size()-1) {
+                    throw new WFSException(request, String.format("Query specified %d types but %d " +
+                        "join filters were found", metas.size(), extractor.getJoins().size()));
+                }
+
+                //validate the filter for each join
+                for (int j = 1; j < metas.size(); j++) {
+                    Join join = joins.get(j-1);
+                    if (join.getFilter() != null) {
+                        validateFilter(join.getFilter(), query, metas.get(j), request);
+                    }
+                }
+
+                filter = extractor.getPrimaryFilter();
+                if (filter != null) {
+                    validateFilter(filter, query, meta, request);
+                }
+            }
+            else {
+                validateFilter(filter, query, meta, request);
+            }
+        }
+
+        // load primary feature source
+        Hints hints = null;
+        if (joins != null) {
+            hints = new Hints(ResourcePool.JOINS, joins);
+        }
+        FeatureSource<? extends FeatureType, ? extends Feature> source = 
+            metas.get(0).getFeatureSource(null, hints);
+
+        QueryPlan plan = new QueryPlan();
+        plan.query = query;
+        plan.metas = metas;
+        plan.propNames = propNames;
+        plan.allPropNames = allPropNames;
+        plan.filter = filter;
+        plan.joins = joins;
+        plan.source = source;
+        plan.viewParam = viewParam;
+        return plan;
+    }
+
+    /**
+     * Sets the locator of the exception to the query handle if one was set, and the locator is 
+     * either unset or simply set to GetFeature, which is the default
+     */
+    void setQueryLocator(WFSException e, Query query) {
+        if (query.getHandle() != null && 
+            (e.getLocator() == null || "GetFeature".equalsIgnoreCase(e.getLocator()))) {
+            e.setLocator(query.getHandle());
+        }
+    }
+
+    /**
+     * Returns the number of features matched by the query, looking it up in the count cache when 
+     * the {@link #COUNT_CACHE_TTL} setting enables it. When the count is not cached and not known 
+     * from the page of features returned, the features are counted, unless the 
+     * {@link #ESTIMATED_COUNT} setting is enabled and the request is not a hits one.
+     * 
+     * @param query The query, with no offset nor limit
+     * @param pageMatched The features matched as derived from the page returned, or -1 if unknown
+     * @return The number of features matched, or -1 if unknown
+     */
+    int countMatched(GetFeatureRequest request, FeatureTypeInfo meta, 
+        FeatureSource<? extends FeatureType, ? extends Feature> source, 
+        org.geotools.data.Query query, int pageMatched) throws IOException {
+        long ttl = getCountCacheTTL();
+        FeatureCountCache cache = ttl > 0 ? getCountCache() : null;
+        FeatureCountCache.Key key = cache != null ? cache.key(meta, query) : null;
+        if (key != null) {
+            Integer cached = cache.get(key, ttl);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        long generation = key != null ? cache.getGeneration() : 0;
+        int count = pageMatched;
+        if (count < 0) {
+            if (isEstimatedCount(request)) {
+                return -1;
+            }
+            count = source.getFeatures(query).size();
+        }
+        if (key != null && count >= 0) {
+            cache.put(key, count, generation);
+        }
+        return count;
+    }
+
+    /**
+     * The time to live of the cached counts in milliseconds, zero if they are not cached
+     */
+    long getCountCacheTTL() {
+        Integer ttl = wfs.getMetadata().get(COUNT_CACHE_TTL, Integer.class);
+        return ttl != null && ttl > 0 ? ttl * 1000l : 0;
+    }
+
+    /**
+     * Whether numberMatched can be reported as unknown rather than counted, hits requests are 
+     * always counted as the count is all they ask for
+     */
+    boolean isEstimatedCount(GetFeatureRequest request) {
+        Boolean estimated = wfs.getMetadata().get(ESTIMATED_COUNT, Boolean.class);
+        return estimated != null && estimated.booleanValue() && !request.isResultTypeHits();
+    }
+
+    /**
+     * Counts the features matched by each query concurrently, ignoring the offset, when the 
+     * request has multiple queries, the {@link #QUERY_PARALLELISM} setting is greater than one
+     * and the features would be counted by the query loop anyway. The query loop then derives 
+     * the collection sizes and offsets from these counts instead of issuing the count queries 
+     * one after the other.
+     * <p>
+     * Unless the total count is needed, the counts are capped to the most features a query could 
+     * skip and return, and a query is not counted once the counts of the ones before it show the 
+     * query loop will not reach it. As the queries are counted concurrently though, a query may 
+     * still be counted before the counts of the previous ones are known, so up to 
+     * {@link #QUERY_PARALLELISM} - 1 capped counts may be issued for queries the query loop 
+     * never runs. When the total count is needed every query is counted anyway, and the counts 
+     * are looked up in, and stored into, the count cache when enabled.
+     * </p>
+     * @return the counts, or nulls for the queries that were not counted ahead of time
+     */
+    Integer[] countFeatures(final GetFeatureRequest request, final List<QueryPlan> plans, 
+        int maxFeatures, int offset, boolean totalCount) throws IOException {
+        Integer[] counts = new Integer[plans.size()];
+        
+        Integer parallelism = wfs.getMetadata().get(QUERY_PARALLELISM, Integer.class);
+        final FeatureCountPool pool = getCountPool();
+        if (parallelism == null || Math.min(parallelism, plans.size()) <= 1 || maxFeatures <= 0
+                || pool == null) {
+            return counts;
+        }
+        parallelism = Math.min(parallelism, plans.size());
+        
+        //WFS 1.0 does not count the features of a single query, or of queries not globally
+        // limited, unless an offset has to be carried from one query to the next
+        boolean wfs10 = "1.0".equals(request.getVersion()) || "1.0.0".equals(request.getVersion());
+        if (wfs10 && maxFeatures == Integer.MAX_VALUE && offset <= 0 && !totalCount) {
+            return counts;
+        }
+
+        long ttl = totalCount ? getCountCacheTTL() : 0;
+        FeatureCountCache cache = ttl > 0 ? getCountCache() : null;
+        long generation = cache != null ? cache.getGeneration() : 0;
+        FeatureCountCache.Key[] keys = new FeatureCountCache.Key[plans.size()];
+        
+        //the features the query loop skips and returns, it stops once it has found them all
+        final long needed = totalCount || maxFeatures == Integer.MAX_VALUE ? Long.MAX_VALUE 
+                : (long) Math.max(offset, 0) + maxFeatures;
+        final int[] caps = new int[plans.size()];
+        
+        final List<FutureTask<Integer>> tasks = new ArrayList<FutureTask<Integer>>(plans.size());
+        for (QueryPlan plan : plans) {
+            caps[tasks.size()] = Math.min(maxFeatures, maxFeatures(plan.metas));
+            long limit = Integer.MAX_VALUE;
+            if (!totalCount) {
+                limit = Math.min((long) Math.max(offset, 0) + Math.min(maxFeatures, maxFeatures(plan.metas)), 
+                    Integer.MAX_VALUE);
+            }
+            final FeatureSource<? extends FeatureType, ? extends Feature> source = plan.source;
+            final org.geotools.data.Query q;
+            try {
+                q = toDataQuery(plan.query, plan.filter, 0, (int) limit, source, request, 
+                    plan.allPropNames.get(0), plan.viewParam, plan.joins);
+            }
+            catch(WFSException e) {
+                setQueryLocator(e, plan.query);
+                throw e;
+            }
+            if (cache != null) {
+                int i = tasks.size();
+                keys[i] = cache.key(plan.metas.get(0), q);
+                counts[i] = keys[i] != null ? cache.get(keys[i], ttl) : null;
+                if (counts[i] != null) {
+                    //no need to count again
+                    tasks.add(null);
+                    continue;
+                }
+            }
+            tasks.add(new FutureTask<Integer>(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    return getFeatures(request, source, q).size();
+                }
+            }));
+        }
+        
+        //the workers pick the queries in order, and run on behalf of the current request and 
+        // user, as layer security and env variables depend on them. The current thread is one
+        // of the workers, so that the counts progress even when the pool is busy
+        final AtomicInteger next = new AtomicInteger();
+        final Request owsRequest = Dispatcher.REQUEST.get();
+        final SecurityContext securityContext = SecurityContextHolder.getContext();
+        for (int i = 1; i < parallelism; i++) {
+            boolean started = pool.execute(new Runnable() {
+                public void run() {
+                    EnviromentInjectionCallback environment = new EnviromentInjectionCallback();
+                    Dispatcher.REQUEST.set(owsRequest);
+                    SecurityContextHolder.setContext(securityContext);
+                    if (owsRequest != null) {
+                        environment.init(owsRequest);
+                    }
+                    try {
+                        runTasks(tasks, caps, needed, next);
+                    } finally {
+                        environment.finished(owsRequest);
+                        SecurityContextHolder.clearContext();
+                        Dispatcher.REQUEST.remove();
+                    }
+                }
+            });
+            if (!started) {
+                break;
+            }
+        }
+        runTasks(tasks, caps, needed, next);
+        
+        int i = 0;
+        try {
+            for (; i < tasks.size(); i++) {
+                if (tasks.get(i) != null) {
+                    try {
+                        counts[i] = tasks.get(i).get();
+                    } catch (CancellationException e) {
+                        //not reached by the query loop, not counted
+                        continue;
+                    }
+                    if (keys[i] != null) {
+                        cache.put(keys[i], counts[i], generation);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new WFSException(request, "Interrupted while counting the features", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof WFSException) {
+                setQueryLocator((WFSException) cause, plans.get(i).query);
+                throw (WFSException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new WFSException(request, "Error occurred counting features", cause);
+        } finally {
+            //queries not started yet won't be counted, the running ones are left to complete,
+            // interrupting them might leave the store connections in an inconsistent state
+            for (FutureTask<Integer> task : tasks) {
+                if (task != null) {
+                    task.cancel(false);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Runs the tasks not picked by other workers yet, cancelling the ones of the queries the 
+     * query loop won't reach
+     */
+    static void runTasks(List<FutureTask<Integer>> tasks, int[] caps, long needed, 
+            AtomicInteger next) {
+        for (int j = next.getAndIncrement(); j < tasks.size(); j = next.getAndIncrement()) {
+            FutureTask<Integer> task = tasks.get(j);
+            if (task != null) {
+                if (isReached(tasks, caps, needed, j)) {
+                    task.run();
+                } else {
+                    task.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the query loop may reach the j-th query, given the counts of the queries 
+     * before it done so far. Each of those queries returns at least its count, capped to the 
+     * features it may return, minus the features it skips, and the features skipped are no 
+     * more than the offset
+     */
+    static boolean isReached(List<FutureTask<Integer>> tasks, int[] caps, long needed, int j) {
+        long found = 0;
+        for (int k = 0; k < j && found < needed; k++) {
+            FutureTask<Integer> task = tasks.get(k);
+            if (task == null || !task.isDone()) {
+                return true;
+            }
+            if (task.isCancelled()) {
+                //a previous query is not reached, neither is this one
+                return false;
+            }
+            try {
+                found += Math.min(task.get(), caps[k]);
+            } catch (Exception e) {
+                //the error is reported along with the counts
+                return true;
+            }
+        }
+        return found < needed;
+    }
+
     protected void processStoredQueries(GetFeatureRequest request) {
         List queries = request.getAdaptedQueries();
         for (int i = 0; i < queries.size(); i++) {
@@ -705,9 +1119,10 @@ public class GetFeature {
             if (count > 0 && offset > -1) {
                 //next
 
-                //calculate the count of the next result set 
+                //calculate the count of the next result set, when the total is unknown a full 
+                // page might be followed by more features
                 int nextCount = total - (offset + count);
-                if (nextCount > 0) {
+                if (nextCount > 0 || (total < 0 && count >= maxFeatures)) {
                     kvp.put("startIndex", String.valueOf(offset > 0 ? offset + count : count));
                     //kvp.put("count", String.valueOf(nextCount));
                     kvp.put("count", String.valueOf(maxFeatures));
@@ -4,6 +4,7 @@
  */
 package org.geoserver.wfs;
 
+import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 
 import net.opengis.wfs.DeleteElementType;
@@ -11,6 +12,8 @@ import net.opengis.wfs.InsertElementType;
 import net.opengis.wfs.TransactionType;
 import net.opengis.wfs.UpdateElementType;
 
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.wfs.request.TransactionRequest;
 import org.geotools.data.simple.SimpleFeatureCollection;
 
@@ -73,6 +76,26 @@ public class TransactionEvent {
         return layerName;
     }
     
+    /**
+     * The name of the layer / feature type that this transaction effects, qualified by the
+     * default namespace of the catalog when the request did not qualify it, or null if the name
+     * is missing or cannot be qualified.
+     */
+    public QName getQualifiedLayerName(Catalog catalog) {
+        if (layerName == null) {
+            return null;
+        }
+        String uri = layerName.getNamespaceURI();
+        if (uri != null && !XMLConstants.NULL_NS_URI.equals(uri)) {
+            return layerName;
+        }
+        NamespaceInfo ns = catalog != null ? catalog.getDefaultNamespace() : null;
+        if (ns == null) {
+            return null;
+        }
+        return new QName(ns.getURI(), layerName.getLocalPart());
+    }
+
     /**
      * Sets the source of the transction.
      */
@@ -12,6 +12,7 @@ import net.opengis.wfs.FeatureCollectionType;
 
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
+import org.geoserver.ows.CapabilitiesCache;
 import org.geoserver.ows.SOAPAwareResponse;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
@@ -70,13 +71,38 @@ public abstract class WFSDescribeFeatureTypeOutputFormat extends WFSResponse imp
         return "xsd:base64";
     }
 
+    @Override
+    public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+        CapabilitiesCache cache = CapabilitiesCache.get();
+        return cache != null ? cache.getHeaders(getKey(cache, operation)) : null;
+    }
+
     /**
-     * Calls through to {@link #write(FeatureTypeInfo[], OutputStream, Operation)}.
+     * Calls through to {@link #write(FeatureTypeInfo[], OutputStream, Operation)}, going through
+     * the {@link CapabilitiesCache} if enabled for WFS.
      */
-    public final void write(Object value, OutputStream output, Operation operation)
+    public final void write(final Object value, OutputStream output, final Operation operation)
         throws IOException, ServiceException {
 
-        write((FeatureTypeInfo[]) value, output, operation);
+        CapabilitiesCache cache = CapabilitiesCache.get();
+        if (cache == null) {
+            write((FeatureTypeInfo[]) value, output, operation);
+            return;
+        }
+
+        cache.write(getKey(cache, operation), output, new CapabilitiesCache.Encoder() {
+            public void encode(OutputStream output) throws IOException {
+                write((FeatureTypeInfo[]) value, output, operation);
+            }
+        });
+    }
+
+    /**
+     * Returns the cache key of the schema, or <code>null</code> if caching is not enabled for WFS
+     */
+    CapabilitiesCache.Key getKey(CapabilitiesCache cache, Operation operation) {
+        return cache.requestKey(WFSInfo.class, operation, "TYPENAME", "TYPENAMES",
+                "OUTPUTFORMAT", "NAMESPACE");
     }
 
     /**
@@ -4,7 +4,6 @@
  */
 package org.geoserver.wfs.json;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -15,8 +14,7 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import net.sf.json.JSONException;
-
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
@@ -91,20 +89,18 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         WFSInfo wfs = getInfo();
         boolean featureBounding = wfs.isFeatureBounding();
 
-        // prepare to write out
-        OutputStreamWriter osw = null;
-        Writer outWriter = null;
+        // prepare to write out, the json writer does its own buffering
         boolean hasGeom = false;
 
         try {
-            osw = new OutputStreamWriter(output, gs.getSettings().getCharset());
-            outWriter = new BufferedWriter(osw);
+            Writer outWriter = new OutputStreamWriter(output, gs.getSettings().getCharset());
+            final GeoJSONWriter jsonWriter = new GeoJSONWriter(outWriter,
+                    getNumDecimals(featureCollection.getFeature()));
 
             if (jsonp) {
-                outWriter.write(getCallbackFunction() + "(");
+                jsonWriter.writeRaw(getCallbackFunction() + "(");
             }
 
-            final GeoJSONBuilder jsonWriter = new GeoJSONBuilder(outWriter);
             jsonWriter.object().key("type").value("FeatureCollection");
             jsonWriter.key("features");
             jsonWriter.array();
@@ -252,19 +248,40 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             jsonWriter.endObject(); // end featurecollection
 
             if (jsonp) {
-                outWriter.write(")");
+                jsonWriter.writeRaw(")");
             }
 
-            outWriter.flush();
+            jsonWriter.flush();
 
-        } catch (JSONException jsonException) {
-            ServiceException serviceException = new ServiceException("Error: "
-                    + jsonException.getMessage());
-            serviceException.initCause(jsonException);
+        } catch (IllegalArgumentException e) {
+            // unknown geometry type
+            ServiceException serviceException = new ServiceException("Error: " + e.getMessage());
+            serviceException.initCause(e);
             throw serviceException;
         }
     }
 
+    /**
+     * Returns the number of decimals of the coordinates. When the response has multiple feature
+     * types the largest number of decimals is used, falling back on the global settings when none
+     * is configured.
+     */
+    int getNumDecimals(List resultsList) {
+        int numDecimals = -1;
+        for (int i = 0; i < resultsList.size(); i++) {
+            FeatureCollection collection = (FeatureCollection) resultsList.get(i);
+            FeatureTypeInfo meta = gs.getCatalog().getFeatureTypeByName(
+                    collection.getSchema().getName());
+            if (meta != null && meta.getNumDecimals() > 0) {
+                numDecimals = Math.max(numDecimals, meta.getNumDecimals());
+            }
+        }
+        if (numDecimals == -1) {
+            numDecimals = gs.getSettings().getNumDecimals();
+        }
+        return numDecimals;
+    }
+
     private String getCallbackFunction() {
         Request request = Dispatcher.REQUEST.get();
         if (request == null) {
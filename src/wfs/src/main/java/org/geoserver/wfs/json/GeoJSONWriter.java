@@ -0,0 +1,429 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.geotools.util.Converters;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * A streaming GeoJSON writer, the fast counterpart of {@link GeoJSONBuilder} used to encode
+ * GetFeature responses.
+ * <p>
+ * The output is accumulated in a fixed size character buffer that is handed over to the
+ * underlying writer whenever it fills up, so the document is never held in memory as a whole.
+ * Coordinates are formatted straight into the buffer, rounded to the configured number of
+ * decimals, with no intermediate strings. The writer only keeps track of where commas go, it
+ * does not validate the document structure.
+ * </p>
+ */
+public class GeoJSONWriter {
+
+    static final double[] POWERS_OF_TEN = new double[] { 1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7,
+            1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
+
+    /**
+     * Above this value the scaled coordinates cannot be rounded to a long without losing
+     * precision, they are written in full
+     */
+    static final double MAX_SCALED = 1e15;
+
+    Writer out;
+
+    char[] buffer = new char[8192];
+
+    int pos;
+
+    char[] digits = new char[20];
+
+    int numDecimals;
+
+    /**
+     * Whether the next value at each nesting level is the first one, that is, needs no comma
+     */
+    boolean[] first = new boolean[16];
+
+    int depth;
+
+    boolean afterKey;
+
+    /**
+     * @param out The writer the GeoJSON is written to
+     * @param numDecimals The number of decimals of the coordinates, a negative value writes them
+     *        in full
+     */
+    public GeoJSONWriter(Writer out, int numDecimals) {
+        this.out = out;
+        this.numDecimals = numDecimals;
+        this.first[0] = true;
+    }
+
+    public GeoJSONWriter object() throws IOException {
+        separate();
+        write('{');
+        push();
+        return this;
+    }
+
+    public GeoJSONWriter endObject() throws IOException {
+        depth--;
+        write('}');
+        return this;
+    }
+
+    public GeoJSONWriter array() throws IOException {
+        separate();
+        write('[');
+        push();
+        return this;
+    }
+
+    public GeoJSONWriter endArray() throws IOException {
+        depth--;
+        write(']');
+        return this;
+    }
+
+    public GeoJSONWriter key(String key) throws IOException {
+        separate();
+        writeString(key);
+        write(':');
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * Writes a value, geometries are written as GeoJSON geometries, dates as ISO 8601 strings
+     */
+    public GeoJSONWriter value(Object value) throws IOException {
+        if (value instanceof Geometry) {
+            return writeGeom((Geometry) value);
+        }
+
+        separate();
+        if (value == null) {
+            write("null");
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Double) {
+            writeNumber(((Double) value).doubleValue(), -1);
+        } else if (value instanceof Float) {
+            Float f = (Float) value;
+            if (f.isNaN() || f.isInfinite()) {
+                write("null");
+            } else {
+                // widened to double 0.1f would be written as 0.10000000149011612
+                writeNumber(f.toString());
+            }
+        } else if (value instanceof Number) {
+            writeNumber(value.toString());
+        } else if (value instanceof Boolean) {
+            write(((Boolean) value).booleanValue() ? "true" : "false");
+        } else if (value instanceof Date || value instanceof Calendar) {
+            writeString(Converters.convert(value, String.class));
+        } else {
+            writeString(value.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Writes out a geometry, only the x and y ordinates are written
+     */
+    public GeoJSONWriter writeGeom(Geometry geometry) throws IOException {
+        object();
+        key("type").value(GeoJSONBuilder.getGeometryName(geometry));
+
+        final int geometryType = GeoJSONBuilder.getGeometryType(geometry);
+        if (geometryType == GeoJSONBuilder.MULTIGEOMETRY) {
+            key("geometries");
+            array();
+            for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                writeGeom(geometry.getGeometryN(i));
+            }
+            endArray();
+        } else {
+            key("coordinates");
+            switch (geometryType) {
+            case GeoJSONBuilder.POINT:
+                separate();
+                writeCoordinate(((Point) geometry).getCoordinateSequence(), 0);
+                break;
+            case GeoJSONBuilder.LINESTRING:
+                writeCoordinates(((LineString) geometry).getCoordinateSequence());
+                break;
+            case GeoJSONBuilder.POLYGON:
+                writePolygon((Polygon) geometry);
+                break;
+            case GeoJSONBuilder.MULTIPOINT:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    separate();
+                    writeCoordinate(((Point) geometry.getGeometryN(i)).getCoordinateSequence(), 0);
+                }
+                endArray();
+                break;
+            case GeoJSONBuilder.MULTILINESTRING:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    writeCoordinates(((LineString) geometry.getGeometryN(i))
+                            .getCoordinateSequence());
+                }
+                endArray();
+                break;
+            case GeoJSONBuilder.MULTIPOLYGON:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    writePolygon((Polygon) geometry.getGeometryN(i));
+                }
+                endArray();
+                break;
+            }
+        }
+        return endObject();
+    }
+
+    void writePolygon(Polygon polygon) throws IOException {
+        array();
+        writeCoordinates(polygon.getExteriorRing().getCoordinateSequence());
+        for (int i = 0, n = polygon.getNumInteriorRing(); i < n; i++) {
+            writeCoordinates(polygon.getInteriorRingN(i).getCoordinateSequence());
+        }
+        endArray();
+    }
+
+    void writeCoordinates(CoordinateSequence cs) throws IOException {
+        array();
+        for (int i = 0, n = cs.size(); i < n; i++) {
+            if (i > 0) {
+                write(',');
+            }
+            writeCoordinate(cs, i);
+        }
+        endArray();
+    }
+
+    void writeCoordinate(CoordinateSequence cs, int i) throws IOException {
+        write('[');
+        writeNumber(cs.getX(i), numDecimals);
+        write(',');
+        writeNumber(cs.getY(i), numDecimals);
+        write(']');
+    }
+
+    /**
+     * Writes an envelope as a "bbox" member holding [minX,minY,maxX,maxY]
+     */
+    public GeoJSONWriter writeBoundingBox(Envelope env) throws IOException {
+        key("bbox");
+        separate();
+        write('[');
+        writeNumber(env.getMinX(), numDecimals);
+        write(',');
+        writeNumber(env.getMinY(), numDecimals);
+        write(',');
+        writeNumber(env.getMaxX(), numDecimals);
+        write(',');
+        writeNumber(env.getMaxY(), numDecimals);
+        write(']');
+        return this;
+    }
+
+    /**
+     * Writes raw text, bypassing the document structure, e.g. a JSONP callback
+     */
+    public void writeRaw(String text) throws IOException {
+        write(text);
+    }
+
+    /**
+     * Hands the buffered output over to the underlying writer and flushes it
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    void separate() throws IOException {
+        if (afterKey) {
+            afterKey = false;
+        } else if (first[depth]) {
+            first[depth] = false;
+        } else {
+            write(',');
+        }
+    }
+
+    void push() {
+        depth++;
+        if (depth == first.length) {
+            boolean[] grown = new boolean[first.length * 2];
+            System.arraycopy(first, 0, grown, 0, first.length);
+            first = grown;
+        }
+        first[depth] = true;
+    }
+
+    /**
+     * Writes a number rounded to the specified number of decimals, with no trailing zeros. Non
+     * finite numbers, which JSON cannot represent, are written as null.
+     */
+    void writeNumber(double value, int decimals) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            write("null");
+            return;
+        }
+        if (decimals >= 0 && decimals < POWERS_OF_TEN.length) {
+            double scaled = Math.abs(value) * POWERS_OF_TEN[decimals];
+            if (scaled < MAX_SCALED) {
+                long units = Math.round(scaled);
+                if (units == 0) {
+                    write('0');
+                    return;
+                }
+                if (value < 0) {
+                    write('-');
+                }
+                long factor = (long) POWERS_OF_TEN[decimals];
+                writeDigits(units / factor, 0);
+                long fraction = units % factor;
+                if (fraction != 0) {
+                    int fractionDigits = decimals;
+                    while (fraction % 10 == 0) {
+                        fraction /= 10;
+                        fractionDigits--;
+                    }
+                    write('.');
+                    writeDigits(fraction, fractionDigits);
+                }
+                return;
+            }
+        }
+        writeNumber(Double.toString(value));
+    }
+
+    /**
+     * Writes the textual representation of a number, stripping the trailing zeros of the
+     * decimal part like {@link net.sf.json.util.JSONUtils#numberToString(Number)} does
+     */
+    void writeNumber(String number) throws IOException {
+        int end = number.length();
+        if (number.indexOf('.') > 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+            while (number.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (number.charAt(end - 1) == '.') {
+                end--;
+            }
+        }
+        for (int i = 0; i < end; i++) {
+            write(number.charAt(i));
+        }
+    }
+
+    /**
+     * Writes a non negative long, left padded with zeros up to the specified width
+     */
+    void writeDigits(long value, int width) throws IOException {
+        int i = digits.length;
+        do {
+            digits[--i] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int n = digits.length - i; n < width; n++) {
+            write('0');
+        }
+        for (; i < digits.length; i++) {
+            write(digits[i]);
+        }
+    }
+
+    /**
+     * Writes a quoted string, escaping it the same way {@link net.sf.json.util.JSONUtils#quote}
+     * does
+     */
+    void writeString(String string) throws IOException {
+        if (string == null) {
+            write("null");
+            return;
+        }
+        write('"');
+        char previous = 0;
+        for (int i = 0, n = string.length(); i < n; i++) {
+            char c = string.charAt(i);
+            switch (c) {
+            case '\\':
+            case '"':
+                write('\\');
+                write(c);
+                break;
+            case '/':
+                if (previous == '<') {
+                    write('\\');
+                }
+                write(c);
+                break;
+            case '\b':
+                write("\\b");
+                break;
+            case '\t':
+                write("\\t");
+                break;
+            case '\n':
+                write("\\n");
+                break;
+            case '\f':
+                write("\\f");
+                break;
+            case '\r':
+                write("\\r");
+                break;
+            default:
+                if (c < ' ' || (c >= 0x80 && c < 0xa0) || (c >= 0x2000 && c < 0x2100)) {
+                    String hex = Integer.toHexString(c);
+                    write("\\u");
+                    for (int j = hex.length(); j < 4; j++) {
+                        write('0');
+                    }
+                    write(hex);
+                } else {
+                    write(c);
+                }
+            }
+            previous = c;
+        }
+        write('"');
+    }
+
+    void write(String text) throws IOException {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            write(text.charAt(i));
+        }
+    }
+
+    void write(char c) throws IOException {
+        if (pos == buffer.length) {
+            flushBuffer();
+        }
+        buffer[pos++] = c;
+    }
+
+    void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+}
@@ -13,14 +13,24 @@ import javax.xml.transform.TransformerException;
 
 import net.opengis.wfs.GetCapabilitiesType;
 
+import org.geoserver.ows.CapabilitiesCache;
 import org.geoserver.ows.Response;
 import org.geoserver.ows.util.OwsUtils;
 import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.GetCapabilities;
+import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.request.GetCapabilitiesRequest;
 import org.geotools.xml.transform.TransformerBase;
 
 
+/**
+ * Encodes the WFS capabilities document.
+ * <p>
+ * When the {@link CapabilitiesCache} is enabled for WFS the encoded document is cached and served
+ * along with an ETag header until the catalog or configuration change.
+ * </p>
+ */
 public class GetCapabilitiesResponse extends Response {
     public GetCapabilitiesResponse() {
         super(TransformerBase.class);
@@ -56,14 +66,42 @@ public class GetCapabilitiesResponse extends Response {
         return "application/xml";
     }
 
-    public void write(Object value, OutputStream output, Operation operation)
+    @Override
+    public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+        CapabilitiesCache cache = CapabilitiesCache.get();
+        return cache != null ? cache.getHeaders(getKey(cache, operation)) : null;
+    }
+
+    public void write(final Object value, OutputStream output, final Operation operation)
         throws IOException {
-        TransformerBase tx = (TransformerBase) value;
+        CapabilitiesCache cache = CapabilitiesCache.get();
+        if (cache == null) {
+            encode((TransformerBase) value, output, operation);
+            return;
+        }
+
+        cache.write(getKey(cache, operation), output, new CapabilitiesCache.Encoder() {
+            public void encode(OutputStream output) throws IOException {
+                GetCapabilitiesResponse.this.encode((TransformerBase) value, output, operation);
+            }
+        });
+    }
 
+    void encode(TransformerBase tx, OutputStream output, Operation operation)
+        throws IOException {
         try {
             tx.transform(operation.getParameters()[0], output);
         } catch (TransformerException e) {
             throw (IOException) new IOException().initCause(e);
         }
     }
+
+    /**
+     * Returns the cache key of the document, or <code>null</code> if caching is not enabled for
+     * WFS
+     */
+    CapabilitiesCache.Key getKey(CapabilitiesCache cache, Operation operation) {
+        return cache.requestKey(WFSInfo.class, operation, "NAMESPACE", "SECTIONS",
+                "ACCEPTVERSIONS", "ACCEPTFORMATS", "UPDATESEQUENCE");
+    }
 }
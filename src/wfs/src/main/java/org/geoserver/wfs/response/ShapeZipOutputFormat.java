@@ -4,19 +4,13 @@
  */
 package org.geoserver.wfs.response;
  
-import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.net.MalformedURLException;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -24,6 +18,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -31,18 +26,17 @@ import java.util.Set;
 import java.util.SimpleTimeZone;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.namespace.QName;
 
-import org.apache.commons.io.FileUtils;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogBuilder;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.MetadataMap;
 import org.geoserver.config.GeoServer;
-import org.geoserver.data.util.IOUtils;
 import org.geoserver.feature.RetypingFeatureCollection;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
@@ -58,15 +52,10 @@ import org.geoserver.wfs.WFSGetFeatureOutputFormat;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
-import org.geotools.data.DataStore;
 import org.geotools.data.DataUtilities;
-import org.geotools.data.FeatureWriter;
-import org.geotools.data.Transaction;
-import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
-import org.geotools.data.simple.SimpleFeatureStore;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.referencing.CRS;
 import org.geotools.util.logging.Logging;
@@ -78,6 +67,7 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -115,16 +105,6 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     private ApplicationContext applicationContext;
     private Catalog catalog;
 	private GeoServerResourceLoader resourceLoader;
-    
-    /**
-     * Tuple used when fanning out a collection with generic geometry types to multiple outputs 
-     * @author Administrator
-     *
-     */
-    private static class StoreWriter {
-        DataStore dstore;
-        FeatureWriter<SimpleFeatureType, SimpleFeature> writer;
-    }
 
     /**
      * @deprecated use {@link #ShapeZipOutputFormat(GeoServer)}
@@ -215,84 +195,63 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         GetFeatureRequest request) throws IOException, ServiceException {
         //We might get multiple featurecollections in our response (multiple queries?) so we need to
         //write out multiple shapefile sets, one for each query response.
-        File tempDir = IOUtils.createTempDirectory("shpziptemp");
-        
-        // target charset
+        //The shapefiles are written straight into the zip entries, no temp directory is involved
+        ZipOutputStream zipOut = new ZipOutputStream(output);
         
-        try {
-           // if an empty result out of feature type with unknown geometry is created, the
-            // zip file will be empty and the zip output stream will break
-            boolean shapefileCreated = false;
-            for (SimpleFeatureCollection curCollection : collections) {
-                
-                if(curCollection.getSchema().getGeometryDescriptor() == null) {
-                    throw new WFSException(request, "Cannot write geometryless shapefiles, yet " 
-                            + curCollection.getSchema() + " has no geometry field");
-                } 
-                Class geomType = curCollection.getSchema().getGeometryDescriptor().getType().getBinding();
-                if(GeometryCollection.class.equals(geomType) || Geometry.class.equals(geomType)) {
-                    // in this case we fan out the output to multiple shapefiles
-                    shapefileCreated |= writeCollectionToShapefiles(curCollection, tempDir, charset, request);
-                } else {
-                    // simple case, only one and supported type
-                    writeCollectionToShapefile(curCollection, tempDir, charset, request);
-                    shapefileCreated = true;
-                }
-
-            }
+        // if an empty result out of feature type with unknown geometry is created, the
+        // zip file will be empty and the zip output stream will break
+        boolean shapefileCreated = false;
+        for (SimpleFeatureCollection curCollection : collections) {
             
-            // take care of the case the output is completely empty
-            if(!shapefileCreated) {
-                SimpleFeatureCollection fc;
-                fc = (SimpleFeatureCollection) collections.get(0);
-                fc = remapCollectionSchema(fc, Point.class);
-                writeCollectionToShapefile(fc, tempDir, charset, request);
-                createEmptyZipWarning(tempDir);
+            if(curCollection.getSchema().getGeometryDescriptor() == null) {
+                throw new WFSException(request, "Cannot write geometryless shapefiles, yet " 
+                        + curCollection.getSchema() + " has no geometry field");
+            } 
+            Class geomType = curCollection.getSchema().getGeometryDescriptor().getType().getBinding();
+            if(GeometryCollection.class.equals(geomType) || Geometry.class.equals(geomType)) {
+                // in this case we fan out the output to multiple shapefiles
+                shapefileCreated |= writeCollectionToShapefiles(curCollection, zipOut, charset, request);
+            } else {
+                // simple case, only one and supported type
+                writeCollectionToShapefile(curCollection, zipOut, charset, request);
+                shapefileCreated = true;
             }
-            
-            // dump the request
-            createRequestDump(tempDir, request, collections.get(0));
-            
-            // zip all the files produced
-            final FilenameFilter filter = new FilenameFilter() {
-            
-                public boolean accept(File dir, String name) {
-                    return name.endsWith(".shp") || name.endsWith(".shx") || name.endsWith(".dbf")
-                           || name.endsWith(".prj") || name.endsWith(".cst") || name.endsWith(".txt");
-                }
-            };
-            ZipOutputStream zipOut = new ZipOutputStream(output);
-            IOUtils.zipDirectory(tempDir, zipOut, filter);
-            zipOut.finish();
 
-            // This is an error, because this closes the output stream too... it's
-            // not the right place to do so
-            // zipOut.close();
-        } finally {
-            // make sure we remove the temp directory and its contents completely now
-            try {
-                FileUtils.deleteDirectory(tempDir);
-            } catch(IOException e) {
-                LOGGER.warning("Could not delete temp directory: " + tempDir.getAbsolutePath() + " due to: " + e.getMessage());
-            }
         }
+        
+        // take care of the case the output is completely empty
+        if(!shapefileCreated) {
+            SimpleFeatureCollection fc;
+            fc = (SimpleFeatureCollection) collections.get(0);
+            fc = remapCollectionSchema(fc, Point.class);
+            writeCollectionToShapefile(fc, zipOut, charset, request);
+            createEmptyZipWarning(zipOut);
+        }
+        
+        // dump the request
+        createRequestDump(zipOut, request, collections.get(0));
+        
+        zipOut.finish();
+
+        // This is an error, because this closes the output stream too... it's
+        // not the right place to do so
+        // zipOut.close();
     }
 
     /**
      * Dumps the request
      * @param simpleFeatureCollection
      */
-    private void createRequestDump(File tempDir, GetFeatureRequest gft, SimpleFeatureCollection fc) {
+    private void createRequestDump(ZipOutputStream zipOut, GetFeatureRequest gft, SimpleFeatureCollection fc) {
         final Request request = Dispatcher.REQUEST.get();
         if(request == null || gft == null) {
             // we're probably running in a unit test
             return;
         }
         
-        // build the target file
+        // build the target entry name
         FeatureTypeInfo ftInfo = getFeatureTypeInfo(fc);
         String fileName = new FileNameSource(getClass()).getRequestDumpName(ftInfo) + ".txt";
-        File target = new File(tempDir, fileName);
         
         try {
             if(request.isGet()) {
@@ -304,7 +263,7 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
                 StringBuilder url = new StringBuilder();
                 String parameters = httpRequest.getQueryString();
 				url.append(mangledUrl).append("?").append(parameters);
-                FileUtils.writeStringToFile(target, url.toString());
+                ShapefileZipWriter.writeEntry(zipOut, fileName, url.toString());
             } else {
                 org.geotools.xml.Configuration cfg = null;
                 QName elementName = null;
@@ -315,17 +274,17 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
                     cfg = new org.geotools.wfs.v1_0.WFSConfiguration();
                     elementName = org.geotools.wfs.v1_0.WFS.GetFeature;
                 }
-                FileOutputStream fos = null;
-                try {
-                    fos = new FileOutputStream(target);
-                    Encoder encoder = new Encoder(cfg);
-                    encoder.setIndenting(true);
-                    encoder.setIndentSize(2);
-                    encoder.encode(gft, elementName, fos);
-                } finally {
-                    if(fos != null)
-                        fos.close();
-                }
+                // encode in memory first, the request is small and the encoder
+                // is not meant to share the zip stream
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                Encoder encoder = new Encoder(cfg);
+                encoder.setIndenting(true);
+                encoder.setIndentSize(2);
+                encoder.encode(gft, elementName, bos);
+                
+                zipOut.putNextEntry(new ZipEntry(fileName));
+                bos.writeTo(zipOut);
+                zipOut.closeEntry();
             }
         } catch(IOException e) {
             throw new WFSException(gft, "Failed to dump the WFS request");
@@ -333,60 +292,33 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         
     }
 
-    private void createEmptyZipWarning(File tempDir) throws IOException {
-        PrintWriter pw = null;
-        try {
-            pw = new PrintWriter(new File(tempDir, "README.TXT"));
-            pw.print("The query result is empty, and the geometric type of the features is unknwon:" +
-            		"an empty point shapefile has been created to fill the zip file");
-        } finally {
-            pw.close();
-        }
+    private void createEmptyZipWarning(ZipOutputStream zipOut) throws IOException {
+        ShapefileZipWriter.writeEntry(zipOut, "README.TXT", 
+                "The query result is empty, and the geometric type of the features is unknwon:" +
+                "an empty point shapefile has been created to fill the zip file");
     }   
 
     /**
      * Write one featurecollection to an appropriately named shapefile.
      * @param c the featurecollection to write
-     * @param tempDir the temp directory into which it should be written
+     * @param zipOut the zip stream into which it should be written
      */
-    private void writeCollectionToShapefile(SimpleFeatureCollection c, File tempDir, Charset charset, 
-        GetFeatureRequest request) {
+    private void writeCollectionToShapefile(SimpleFeatureCollection c, ZipOutputStream zipOut, 
+        Charset charset, GetFeatureRequest request) {
         FeatureTypeInfo ftInfo = getFeatureTypeInfo(c);
 
+        // remaps the attribute names to be compatible with shapefile constraints:
+        //  - geometry field is always named the_geom
+        //  - field names have a max length of 10
         c = remapCollectionSchema(c, null);
         
         SimpleFeatureType schema = c.getSchema();
         String fileName = new FileNameSource(getClass()).getShapeName(ftInfo, null);
-        if(!fileName.equals(schema.getTypeName())) {
-        	// rename the schema to have the proper output file name
-        	SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
-        	tb.init(c.getSchema());
-        	tb.setName(fileName);
-        	SimpleFeatureType renamed = tb.buildFeatureType();
-        	c = new RetypingFeatureCollection(c, renamed);
-        }
 
-        SimpleFeatureStore fstore = null;
-        ShapefileDataStore dstore = null;
+        ShapefileZipWriter writer = null;
         try {
-            // create attribute name mappings, to be compatible 
-            // with shapefile constraints:
-            //  - geometry field is always named the_geom
-            //  - field names have a max length of 10
-            Map<String,String> attributeMappings=createAttributeMappings(c.getSchema());
-            // wraps the original collection in a remapping wrapper
-            SimpleFeatureCollection remapped = new RemappingFeatureCollection(c,attributeMappings);
-            SimpleFeatureType remappedSchema=(SimpleFeatureType)remapped.getSchema();
-            dstore = buildStore(tempDir, charset,  remappedSchema); 
-            fstore = (SimpleFeatureStore) dstore.getFeatureSource();
-            // we need retyping too, because the shapefile datastore
-            // could have sorted fields in a different order
-            SimpleFeatureCollection retyped = new RetypingFeatureCollection(remapped, fstore.getSchema());
-            fstore.addFeatures(retyped);
-            
-            changeWKTFormatIfFileFormatIsESRI(tempDir, request, fileName,
-					remappedSchema);
-          
+            writer = new ShapefileZipWriter(fileName, schema, charset);
+            writer.write(zipOut, c, getPrj(request, schema));
         } catch (FactoryException fe) {
         	LOGGER.log(Level.WARNING,
         			"Error while getting EPSG code from FeatureType", fe);
@@ -396,8 +328,8 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
                 "Error while writing featuretype '" + schema.getTypeName() + "' to shapefile.", ioe);
             throw new ServiceException(ioe);
         } finally {
-            if(dstore != null) {
-                dstore.dispose();
+            if(writer != null) {
+                writer.dispose();
             }
         }
     }
@@ -424,51 +356,56 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     }
 
     /**
+     * Returns the contents of the .prj file for the schema, or null if the schema has no CRS.
      * <p>
      * If the {@code GetFeature} request indicated a desired ESRI WKT format or the
      * SHAPE-ZIP_DEFAULT_PRJ_IS_ESRI property in metadata component of wfs.xml is true and there is
-     * an entrance for EPSG code in user_projections/esri.properties file, then the .prj file is
-     * replaced with a new one in ESRI WKT format. The content of the new file is extracted from
+     * an entrance for EPSG code in user_projections/esri.properties file, then the .prj file
+     * contents are in ESRI WKT format. The contents are extracted from
      * user_projections/esri.properties using EPSG code as key. For example:
      * {@code &format_options=PRJFILEFORMAT:ESRI}. Otherwise, the output prj file format is OGC WKT
      * format.
      * </p>
      */
-    private void changeWKTFormatIfFileFormatIsESRI(File tempDir, GetFeatureRequest request,
-            String fileName, SimpleFeatureType remappedSchema) throws FactoryException,
-            IOException, FileNotFoundException {
+    private String getPrj(GetFeatureRequest request, SimpleFeatureType schema)
+            throws FactoryException, IOException {
+        CoordinateReferenceSystem crs = schema.getCoordinateReferenceSystem();
+        if(crs == null) {
+            return null;
+        }
         
         boolean useEsriFormat = false;
         
         // if the request originates from the WPS we won't actually have any GetFeatureType request
-        if(request == null) {
-            return;
-        }
-        
-        Map<String, ?> formatOptions = request.getFormatOptions();
-        final String requestedPrjFileFormat = (String) formatOptions.get("PRJFILEFORMAT");
-        if (null == requestedPrjFileFormat) {
-            WFSInfo bean = gs.getService(WFSInfo.class);
-            MetadataMap metadata = bean.getMetadata();
-            Boolean defaultIsEsri = metadata.get(SHAPE_ZIP_DEFAULT_PRJ_IS_ESRI, Boolean.class);
-            useEsriFormat = defaultIsEsri != null && defaultIsEsri.booleanValue();
-        }else{
-            useEsriFormat = "ESRI".equalsIgnoreCase(requestedPrjFileFormat);
+        if(request != null) {
+            Map<String, ?> formatOptions = request.getFormatOptions();
+            final String requestedPrjFileFormat = (String) formatOptions.get("PRJFILEFORMAT");
+            if (null == requestedPrjFileFormat) {
+                WFSInfo bean = gs.getService(WFSInfo.class);
+                MetadataMap metadata = bean.getMetadata();
+                Boolean defaultIsEsri = metadata.get(SHAPE_ZIP_DEFAULT_PRJ_IS_ESRI, Boolean.class);
+                useEsriFormat = defaultIsEsri != null && defaultIsEsri.booleanValue();
+            }else{
+                useEsriFormat = "ESRI".equalsIgnoreCase(requestedPrjFileFormat);
+            }
         }
         
         if (useEsriFormat) {
-            replaceOGCPrjFileByESRIPrjFile(tempDir, fileName, remappedSchema);
+            String esriWKT = getEsriWKT(crs);
+            if(esriWKT != null) {
+                return esriWKT;
+            }
         }
+        
+        // same single line WKT the shapefile datastore writes
+        return crs.toWKT().replaceAll("\n", "").replaceAll("  ", "");
     }
 
-    private void replaceOGCPrjFileByESRIPrjFile(File tempDir, String fileName,
-            SimpleFeatureType remappedSchema) throws FactoryException, IOException,
-            FileNotFoundException {
-        final Integer epsgCode = CRS.lookupEpsgCode(remappedSchema.getGeometryDescriptor()
-                .getCoordinateReferenceSystem(), true);
+    private String getEsriWKT(CoordinateReferenceSystem crs) throws FactoryException, IOException {
+        final Integer epsgCode = CRS.lookupEpsgCode(crs, true);
         if(epsgCode == null){
             LOGGER.info("Can't find the EPSG code for the shapefile CRS");
-            return;
+            return null;
         }
         File file = resourceLoader.find("user_projections", "esri.properties");
 
@@ -485,22 +422,14 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
 
             String data = (String) properties.get(epsgCode.toString());
 
-            if (data != null) {
-                File prjShapeFile = new File(tempDir, fileName + ".prj");
-                prjShapeFile.delete();
-
-                BufferedWriter out = new BufferedWriter(new FileWriter(prjShapeFile));
-                try {
-                    out.write(data);
-                } finally {
-                    out.close();
-                }
-            } else {
+            if (data == null) {
                 LOGGER.info("Requested shapefile with ESRI WKT .prj format but couldn't find an entry for ESPG code "
                         + epsgCode + " in esri.properties");
             }
+            return data;
         } else {
             LOGGER.info("Requested shapefile with ESRI WKT .prj format but the esri.properties file does not exist in the user_projections directory");
+            return null;
         }
     }
     
@@ -598,47 +527,41 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
      * feature will be discovered during the scan. Each feature will be routed to a shapefile that
      * contains only a specific geometry type chosen among point, multipoint, polygons and lines.
      * @param c the featurecollection to write
-     * @param tempDir the temp directory into which it should be written
+     * @param zipOut the zip stream into which it should be written
      * @param request 
      * @return true if a shapefile has been created, false otherwise
      */
-    private boolean writeCollectionToShapefiles(SimpleFeatureCollection c, File tempDir, Charset charset, 
-        GetFeatureRequest request) {
+    private boolean writeCollectionToShapefiles(SimpleFeatureCollection c, ZipOutputStream zipOut, 
+        Charset charset, GetFeatureRequest request) {
         FeatureTypeInfo ftInfo = getFeatureTypeInfo(c);
         c = remapCollectionSchema(c, null);
         SimpleFeatureType schema = c.getSchema();
         
-        boolean shapefileCreated = false;
-        
-        Map<Class, StoreWriter> writers = new HashMap<Class, StoreWriter>();
-        SimpleFeatureIterator it;
+        Map<Class, ShapefileZipWriter> writers = new LinkedHashMap<Class, ShapefileZipWriter>();
+        SimpleFeatureIterator it = null;
         try {
             it = c.features(); 
             while(it.hasNext()) {
                 SimpleFeature f = it.next();
                 
-                if(f.getDefaultGeometry() == null) {
+                Geometry g = (Geometry) f.getDefaultGeometry();
+                if(g == null) {
                     LOGGER.warning("Skipping " + f.getID() + " as its geometry is null");
                     continue;
                 }
                 
-                FeatureWriter<SimpleFeatureType, SimpleFeature> writer = getFeatureWriter(ftInfo, f, writers, tempDir, charset);
-                SimpleFeature fw = writer.next();
-                
-                // we cannot trust attribute order, shapefile changes the location and name of the geometry
-                for (AttributeDescriptor d : fw.getFeatureType().getAttributeDescriptors()) {
-                    fw.setAttribute(d.getLocalName(), f.getAttribute(d.getLocalName()));
-                }
-                fw.setDefaultGeometry(f.getDefaultGeometry());
-                writer.write();
-                shapefileCreated = true;
-                writer.getFeatureType().getName().getLocalPart();
-                String geometryType = (String) getGeometryType((Geometry)f.getDefaultGeometry()).get("geometryType");
-				String fileName = new FileNameSource(getClass()).getShapeName(ftInfo, geometryType);
-                changeWKTFormatIfFileFormatIsESRI(tempDir, request, fileName,
-                		schema);
+                getShapefileWriter(ftInfo, schema, g, writers, charset).write(f, g);
             }
             
+            // the shapefiles can be written out only once all the features have been routed,
+            // meanwhile the writers keep the records in memory and spill them to disk past
+            // a threshold
+            if(!writers.isEmpty()) {
+                String prj = getPrj(request, schema);
+                for (ShapefileZipWriter writer : writers.values()) {
+                    writer.finish(zipOut, prj);
+                }
+            }
         } catch (FactoryException fe) {
         	LOGGER.log(Level.WARNING,
         			"Error while getting EPSG code from FeatureType", fe);
@@ -648,42 +571,33 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
                 "Error while writing featuretype '" + schema.getTypeName() + "' to shapefile.", ioe);
             throw new ServiceException(ioe);
         } finally {
-            // close all writers, dispose all datastores, even if an exception occurs
-            // during closeup (shapefile datastore will have to copy the shapefiles, that migh
-            // fail in many ways)
-            IOException stored = null;
-            for (StoreWriter sw : writers.values()) {
-                try {
-                    sw.writer.close();
-                    sw.dstore.dispose();
-                } catch(IOException e) {
-                    stored = e;
-                }
+            // release all the writers, even if an exception occurs
+            if(it != null) {
+                it.close();
+            }
+            for (ShapefileZipWriter writer : writers.values()) {
+                writer.dispose();
             }
-            // if an exception occurred make the world aware of it
-            if(stored != null)
-                throw new ServiceException(stored);
         }
         
-        return shapefileCreated;
+        return !writers.isEmpty();
     }
     
     /**
-     * Returns the feature writer for a specific geometry type, creates a new datastore
-     * and a new writer if there are none so far
+     * Returns the shapefile writer for a specific geometry type, creates a new one if there 
+     * are none so far
      */
-    private FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriter(FeatureTypeInfo ftInfo, SimpleFeature f, 
-            Map<Class, StoreWriter> writers, File tempDir, Charset charset) throws IOException {
+    private ShapefileZipWriter getShapefileWriter(FeatureTypeInfo ftInfo, SimpleFeatureType original, 
+            Geometry g, Map<Class, ShapefileZipWriter> writers, Charset charset) throws IOException {
         // get the target class
-    	Map<String, Object> map = getGeometryType((Geometry) f.getDefaultGeometry());
+    	Map<String, Object> map = getGeometryType(g);
         Class<?> target = (Class<?>) map.get("target");
         String geometryType = (String) map.get("geometryType");
         
         // see if we already have a cached writer
-        StoreWriter storeWriter = writers.get(target);
-        if(storeWriter == null) {
+        ShapefileZipWriter writer = writers.get(target);
+        if(writer == null) {
             // retype the schema
-            SimpleFeatureType original = f.getFeatureType();
             SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
             for (AttributeDescriptor d : original.getAttributeDescriptors()) {
                 if(Geometry.class.isAssignableFrom(d.getType().getBinding())) {
@@ -699,16 +613,11 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             builder.setName(fileName);
             SimpleFeatureType retyped = builder.buildFeatureType();
             
-            // create the datastore for the current geom type
-            DataStore dstore = buildStore(tempDir, charset, retyped);
-            
             // cache it
-            storeWriter = new StoreWriter();
-            storeWriter.dstore = dstore;
-            storeWriter.writer = dstore.getFeatureWriter(retyped.getTypeName(), Transaction.AUTO_COMMIT);
-            writers.put(target, storeWriter);
+            writer = new ShapefileZipWriter(fileName, retyped, charset);
+            writers.put(target, writer);
         }
-        return storeWriter.writer;
+        return writer;
     }
     
     private Map<String, Object> getGeometryType(Geometry g) {
@@ -759,55 +668,6 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         return result != null ? result : Charset.forName("ISO-8859-1");
     }
 
-    /**
-     * Creates a shapefile data store for the specified schema 
-     * @param tempDir
-     * @param charset
-     * @param schema
-     * @return
-     * @throws MalformedURLException
-     * @throws FileNotFoundException
-     * @throws IOException
-     */
-    private ShapefileDataStore buildStore(File tempDir,
-            Charset charset, SimpleFeatureType schema) throws MalformedURLException,
-            FileNotFoundException, IOException {
-        File file = new File(tempDir, schema.getTypeName() + ".shp");
-        ShapefileDataStore sfds = new ShapefileDataStore(file.toURL());
-        
-        // handle shapefile encoding
-        // and dump the charset into a .cst file, for debugging and control purposes
-        // (.cst is not a standard extension)
-        sfds.setCharset(charset);
-        File charsetFile = new File(tempDir, schema.getTypeName()+ ".cst");
-        PrintWriter pw = null;
-        try {
-            pw  = new PrintWriter(charsetFile);
-            pw.write(charset.name());
-        } finally {
-            if(pw != null) pw.close();
-        }
-
-        try {
-            sfds.createSchema(schema);
-        } catch (NullPointerException e) {
-            LOGGER.warning(
-                "Error in shapefile schema. It is possible you don't have a geometry set in the output. \n"
-                + "Please specify a <wfs:PropertyName>geom_column_name</wfs:PropertyName> in the request");
-            throw new ServiceException(
-                "Error in shapefile schema. It is possible you don't have a geometry set in the output.");
-        }
-        
-        try {
-            if(schema.getCoordinateReferenceSystem() != null)
-                sfds.forceSchemaCRS(schema.getCoordinateReferenceSystem());
-        } catch(Exception e) {
-            LOGGER.log(Level.WARNING, "Could not properly create the .prj file", e);
-        }
-
-        return sfds;
-    }
-
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         this.applicationContext = applicationContext;
     }
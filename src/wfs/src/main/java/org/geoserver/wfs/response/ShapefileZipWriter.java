@@ -0,0 +1,493 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.geoserver.platform.ServiceException;
+import org.geotools.data.shapefile.dbf.DbaseFileHeader;
+import org.geotools.data.shapefile.dbf.DbaseFileWriter;
+import org.geotools.data.shapefile.shp.JTSUtilities;
+import org.geotools.data.shapefile.shp.ShapeHandler;
+import org.geotools.data.shapefile.shp.ShapeType;
+import org.geotools.data.shapefile.shp.ShapefileHeader;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureTypes;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Writes a shapefile straight into the entries of a zip stream, without going thru the shapefile
+ * datastore and its files.
+ * <p>
+ * The .shp, .shx and .dbf headers hold the number of records, the bounds and the file lengths,
+ * which are known only once all the features have been seen, while zip entries can only be
+ * written one after the other. The features are read once, and their .shp and .dbf records are
+ * accumulated in {@link SpillBuffer}s, kept in memory up to a threshold and spilled to a
+ * temporary file past it. The .shx records are derived from the record lengths, kept in memory.
+ * {@link #finish(ZipOutputStream, String)} then copies the records into the zip entries, after
+ * their headers. Reading the features once keeps each .shp record paired with its .dbf record
+ * no matter the order the store returns them in.
+ * </p>
+ */
+class ShapefileZipWriter {
+
+    static final Logger LOGGER = Logging.getLogger(ShapefileZipWriter.class);
+
+    /**
+     * Amount of records kept in memory for each file before spilling them to disk
+     */
+    static final int SPILL_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Size of the buffer the .shx records are gathered in before being written into the zip
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    String fileName;
+
+    Charset charset;
+
+    GeometryFactory geometryFactory = new GeometryFactory();
+
+    Class<?> geometryBinding;
+
+    ShapeType shapeType;
+
+    ShapeHandler handler;
+
+    String[] dbfAttributes;
+
+    DbaseFileHeader dbfHeader;
+
+    DbaseFileWriter dbfWriter;
+
+    Object[] values;
+
+    int spillThreshold = SPILL_THRESHOLD;
+
+    SpillBuffer shp;
+
+    SpillBuffer dbf;
+
+    /**
+     * The length of the content of each .shp record, in bytes
+     */
+    int[] lengths = new int[1024];
+
+    ByteBuffer record = ByteBuffer.allocate(1024);
+
+    Envelope bounds = new Envelope();
+
+    int records;
+
+    /**
+     * Offset of the next record in the .shp file, in 16 bit words, after the 100 bytes header
+     */
+    int offset = 50;
+
+    /**
+     * @param fileName The name of the shapefile, without extension
+     * @param schema The schema of the features, with shapefile compatible attribute names
+     * @param charset The charset of the dbf file
+     */
+    public ShapefileZipWriter(String fileName, SimpleFeatureType schema, Charset charset)
+            throws IOException {
+        this.fileName = fileName;
+        this.charset = charset;
+        this.geometryBinding = schema.getGeometryDescriptor().getType().getBinding();
+
+        List<String> attributes = new ArrayList<String>();
+        dbfHeader = new DbaseFileHeader();
+        for (AttributeDescriptor ad : schema.getAttributeDescriptors()) {
+            if (ad instanceof GeometryDescriptor) {
+                continue;
+            }
+            addColumn(dbfHeader, ad);
+            attributes.add(ad.getLocalName());
+        }
+        dbfAttributes = attributes.toArray(new String[attributes.size()]);
+        values = new Object[dbfAttributes.length];
+    }
+
+    /**
+     * Adds the dbf column of the attribute, the same way the shapefile datastore does
+     */
+    static void addColumn(DbaseFileHeader header, AttributeDescriptor ad) throws IOException {
+        String name = ad.getLocalName();
+        Class<?> binding = ad.getType().getBinding();
+        int length = FeatureTypes.getFieldLength(ad);
+        if (length == FeatureTypes.ANY_LENGTH) {
+            length = 255;
+        }
+
+        if (binding == Integer.class || binding == Short.class || binding == Byte.class) {
+            header.addColumn(name, 'N', Math.min(length, 9), 0);
+        } else if (binding == Long.class) {
+            header.addColumn(name, 'N', Math.min(length, 19), 0);
+        } else if (binding == BigInteger.class) {
+            header.addColumn(name, 'N', Math.min(length, 33), 0);
+        } else if (Number.class.isAssignableFrom(binding)) {
+            int l = Math.min(length, 33);
+            header.addColumn(name, 'N', l, Math.max(l - 2, 0));
+        } else if (Date.class.isAssignableFrom(binding)) {
+            header.addColumn(name, 'D', length, 0);
+        } else if (binding == Boolean.class) {
+            header.addColumn(name, 'L', 1, 0);
+        } else if (CharSequence.class.isAssignableFrom(binding)) {
+            header.addColumn(name, 'C', Math.min(254, length), 0);
+        } else {
+            throw new IOException("Unable to write " + name + " of type " + binding.getName()
+                    + " in a shapefile");
+        }
+    }
+
+    /**
+     * Returns the shape type for the geometry binding, with z values or not
+     */
+    static ShapeType getShapeType(Class<?> binding, boolean z) {
+        if (Point.class.equals(binding)) {
+            return z ? ShapeType.POINTZ : ShapeType.POINT;
+        } else if (MultiPoint.class.equals(binding)) {
+            return z ? ShapeType.MULTIPOINTZ : ShapeType.MULTIPOINT;
+        } else if (Polygon.class.equals(binding) || MultiPolygon.class.equals(binding)) {
+            return z ? ShapeType.POLYGONZ : ShapeType.POLYGON;
+        } else if (LineString.class.isAssignableFrom(binding)
+                || MultiLineString.class.equals(binding)) {
+            return z ? ShapeType.ARCZ : ShapeType.ARC;
+        }
+        throw new ServiceException("Cannot write geometries of type " + binding.getName()
+                + " in a shapefile");
+    }
+
+    /**
+     * Writes out the features of the collection as the .shp, .shx and .dbf zip entries, along
+     * with the .prj file, if any, and the .cst file holding the dbf charset name. The collection
+     * is read once.
+     */
+    public void write(ZipOutputStream zip, SimpleFeatureCollection features, String prj)
+            throws IOException {
+        SimpleFeatureIterator it = features.features();
+        try {
+            while (it.hasNext()) {
+                SimpleFeature f = it.next();
+                write(f, (Geometry) f.getDefaultGeometry());
+            }
+        } finally {
+            it.close();
+        }
+        finish(zip, prj);
+    }
+
+    /**
+     * Writes out the feature in the spill buffers, to be copied into the zip entries by
+     * {@link #finish(ZipOutputStream, String)}. Its geometry is the one written in the .shp
+     * file, the other attributes are looked up by name and written in the .dbf file.
+     */
+    public void write(SimpleFeature feature, Geometry geometry) throws IOException {
+        if (dbfWriter == null) {
+            createBuffers();
+        }
+
+        geometry = convert(geometry);
+        if (geometry != null) {
+            bounds.expandToInclude(geometry.getEnvelopeInternal());
+        }
+        int length = getLength(geometry);
+        if (records == lengths.length) {
+            lengths = Arrays.copyOf(lengths, records * 2);
+        }
+        lengths[records] = length;
+        encode(++records, geometry, length);
+        shp.write(record.array(), 0, record.position());
+        offset += length / 2 + 4;
+
+        dbfWriter.write(getValues(feature));
+    }
+
+    void createBuffers() throws IOException {
+        shp = new SpillBuffer(spillThreshold);
+        dbf = new SpillBuffer(spillThreshold);
+        dbfWriter = new DbaseFileWriter(dbfHeader, Channels.newChannel(dbf), charset);
+    }
+
+    /**
+     * Converts the geometry to the shape type of the shapefile, which the first geometry decides
+     */
+    Geometry convert(Geometry geometry) {
+        if (geometry == null) {
+            return null;
+        }
+        if (shapeType == null) {
+            // the header is written last, so the first geometry can tell if there are z values
+            Coordinate c = geometry.getCoordinate();
+            shapeType = getShapeType(geometryBinding, c != null && !Double.isNaN(c.z));
+            handler = shapeType.getShapeHandler(geometryFactory);
+        }
+        return JTSUtilities.convertToCollection(geometry, shapeType);
+    }
+
+    /**
+     * The length of the record content, in bytes
+     */
+    int getLength(Geometry geometry) {
+        return geometry == null ? 4 : handler.getLength(geometry);
+    }
+
+    /**
+     * Encodes the .shp record in the record buffer
+     */
+    void encode(int number, Geometry geometry, int length) {
+        if (record.capacity() < length + 8) {
+            record = ByteBuffer.allocate(Math.max(length + 8, record.capacity() * 2));
+        }
+        record.clear();
+        record.order(ByteOrder.BIG_ENDIAN);
+        record.putInt(number);
+        record.putInt(length / 2);
+        record.order(ByteOrder.LITTLE_ENDIAN);
+        if (geometry == null) {
+            record.putInt(0);
+        } else {
+            record.putInt(shapeType.id);
+            handler.write(record, geometry);
+        }
+    }
+
+    Object[] getValues(SimpleFeature feature) {
+        for (int i = 0; i < dbfAttributes.length; i++) {
+            values[i] = feature.getAttribute(dbfAttributes[i]);
+        }
+        return values;
+    }
+
+    ShapeType getShapeType() {
+        return shapeType != null ? shapeType : getShapeType(geometryBinding, false);
+    }
+
+    /**
+     * Writes the .shp or .shx header, the file length is in 16 bit words
+     */
+    void writeHeader(OutputStream out, ShapeType type, int fileLength) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(100);
+        new ShapefileHeader().write(header, type, records, fileLength, bounds.getMinX(),
+                bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+        out.write(header.array(), 0, 100);
+    }
+
+    /**
+     * Returns the number of features written so far
+     */
+    public int getCount() {
+        return records;
+    }
+
+    /**
+     * Writes out the features accumulated by {@link #write(SimpleFeature, Geometry)} as zip
+     * entries, along with the .prj file, if any, and the .cst file holding the dbf charset name
+     */
+    public void finish(ZipOutputStream zip, String prj) throws IOException {
+        if (dbfWriter == null) {
+            createBuffers();
+        }
+        dbfWriter.close();
+        shp.close();
+
+        // the offset past the last record is the file length
+        ShapeType type = getShapeType();
+        zip.putNextEntry(new ZipEntry(fileName + ".shp"));
+        writeHeader(zip, type, offset);
+        shp.writeTo(zip, 0);
+        zip.closeEntry();
+
+        // the .shx records are the offsets and lengths of the .shp ones
+        zip.putNextEntry(new ZipEntry(fileName + ".shx"));
+        writeHeader(zip, type, 50 + records * 4);
+        ByteBuffer index = ByteBuffer.allocate(BUFFER_SIZE);
+        int recordOffset = 50;
+        for (int i = 0; i < records; i++) {
+            if (index.remaining() < 8) {
+                zip.write(index.array(), 0, index.position());
+                index.clear();
+            }
+            index.putInt(recordOffset);
+            index.putInt(lengths[i] / 2);
+            recordOffset += lengths[i] / 2 + 4;
+        }
+        zip.write(index.array(), 0, index.position());
+        zip.closeEntry();
+
+        // the dbf writer wrote a header when no record count was known, replace it
+        dbfHeader.setNumRecords(records);
+        zip.putNextEntry(new ZipEntry(fileName + ".dbf"));
+        dbfHeader.writeHeader(Channels.newChannel(zip));
+        dbf.writeTo(zip, dbfHeader.getHeaderLength());
+        zip.closeEntry();
+
+        writeEntries(zip, prj);
+    }
+
+    /**
+     * Writes the .prj file, if any, and the .cst file
+     */
+    void writeEntries(ZipOutputStream zip, String prj) throws IOException {
+        if (prj != null) {
+            writeEntry(zip, fileName + ".prj", prj);
+        }
+        writeEntry(zip, fileName + ".cst", charset.name());
+    }
+
+    /**
+     * Writes a text file as a zip entry
+     */
+    static void writeEntry(ZipOutputStream zip, String name, String contents) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(contents.getBytes());
+        zip.closeEntry();
+    }
+
+    /**
+     * Releases the spilled records, if any
+     */
+    public void dispose() {
+        if (shp != null) {
+            shp.dispose();
+            dbf.dispose();
+        }
+    }
+
+    /**
+     * An output stream keeping what is written in memory up to a threshold, and spilling it to a
+     * temporary file past it
+     */
+    static class SpillBuffer extends OutputStream {
+
+        int threshold;
+
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+        File file;
+
+        OutputStream fileOut;
+
+        long size;
+
+        SpillBuffer(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (file == null && memory.size() + len > threshold) {
+                file = File.createTempFile("shpzip", ".spill");
+                fileOut = new BufferedOutputStream(new FileOutputStream(file));
+                memory.writeTo(fileOut);
+                memory = null;
+            }
+            if (file == null) {
+                memory.write(b, off, len);
+            } else {
+                fileOut.write(b, off, len);
+            }
+            size += len;
+        }
+
+        /**
+         * The amount of bytes written
+         */
+        long size() {
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+                fileOut = null;
+            }
+        }
+
+        /**
+         * Copies the contents to the specified stream, skipping the first bytes
+         */
+        void writeTo(OutputStream out, long skip) throws IOException {
+            if (file == null) {
+                byte[] bytes = memory.toByteArray();
+                out.write(bytes, (int) skip, (int) (bytes.length - skip));
+                return;
+            }
+
+            InputStream in = new FileInputStream(file);
+            try {
+                while (skip > 0) {
+                    long skipped = in.skip(skip);
+                    if (skipped <= 0) {
+                        break;
+                    }
+                    skip -= skipped;
+                }
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        void dispose() {
+            try {
+                close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close the spill file", e);
+            }
+            if (file != null && !file.delete()) {
+                LOGGER.warning("Could not delete spill file " + file.getAbsolutePath());
+            }
+            memory = null;
+        }
+    }
+}
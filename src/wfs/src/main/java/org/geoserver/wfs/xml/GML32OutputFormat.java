@@ -91,11 +91,25 @@ public class GML32OutputFormat extends GML3OutputFormat {
     }
 
     @Override
-    protected void setAdditionalSchemaLocations(Encoder encoder, GetFeatureRequest request, WFSInfo wfs) {
+    protected void setAdditionalSchemaLocations(Map<String, String> schemaLocations,
+            GetFeatureRequest request, WFSInfo wfs) {
         //since wfs 2.0 schema does not depend on gml 3.2 schema we register it manually
         String loc = wfs.isCanonicalSchemaLocation() ? GML.CANONICAL_SCHEMA_LOCATION : 
             ResponseUtils.buildSchemaURL(request.getBaseUrl(), "gml/3.2.1/gml.xsd");
-        encoder.setSchemaLocation(GML.NAMESPACE, loc);
+        schemaLocations.put(GML.NAMESPACE, loc);
+    }
+
+    @Override
+    protected GML3FeatureWriter createFeatureWriter(FeatureCollectionResponse results,
+            WFSInfo wfs) {
+        // the encoder nests the collections of multiple queries, leave that to it
+        if (results.getFeatures().size() != 1) {
+            return null;
+        }
+        GML3FeatureWriter writer = new GML3FeatureWriter(true, wfs.getGML()
+                .get(WFSInfo.Version.V_20).getSrsNameStyle().toSrsSyntax());
+        writer.setFeatureBounding(wfs.isFeatureBounding());
+        return prepare(writer, results);
     }
 
     @Override
@@ -0,0 +1,526 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.gml2.SrsSyntax;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Writes a GetFeature response made of simple features as a WFS 1.1 / GML 3.1 or a WFS 2.0 /
+ * GML 3.2 feature collection, straight to a {@link XMLStreamWriter}.
+ * <p>
+ * This is a fast path for {@link GML3OutputFormat} that does without the schema driven
+ * {@link org.geotools.xml.Encoder}: the element layout of each feature type, srsName included,
+ * is worked out once, then the features are written attribute by attribute and the coordinates
+ * are copied out of the geometries' coordinate sequences through a reused buffer.
+ * </p>
+ * <p>
+ * Only feature types whose attributes all map to plain elements of the feature type namespace
+ * can be written, the output formats check {@link #canWrite(FeatureType)} and fall back on the
+ * encoder for the others.
+ * </p>
+ */
+public class GML3FeatureWriter {
+
+    static final String XSI = "http://www.w3.org/2001/XMLSchema-instance";
+
+    /**
+     * Attribute names the encoder maps to the gml properties of the features
+     */
+    static final Set<String> GML_PROPERTIES = new HashSet<String>(Arrays.asList("name",
+            "description", "boundedBy", "location", "metaDataProperty"));
+
+    boolean gml32;
+
+    String gml;
+
+    String wfs;
+
+    SrsSyntax srsSyntax;
+
+    boolean srsDimension = true;
+
+    boolean featureBounding;
+
+    boolean encodeFeatureMember;
+
+    /**
+     * Prefixes of the feature type namespaces, by namespace URI
+     */
+    Map<String, String> prefixes = new HashMap<String, String>();
+
+    Map<FeatureType, FeatureLayout> layouts = new HashMap<FeatureType, FeatureLayout>();
+
+    XMLStreamWriter xml;
+
+    StringBuilder text = new StringBuilder();
+
+    char[] chars = new char[1024];
+
+    Calendar calendar = Calendar.getInstance();
+
+    /**
+     * @param gml32 Whether to write a WFS 2.0 / GML 3.2 collection, or a WFS 1.1 / GML 3.1 one
+     * @param srsSyntax The syntax of the srsName attributes
+     */
+    public GML3FeatureWriter(boolean gml32, SrsSyntax srsSyntax) {
+        this.gml32 = gml32;
+        this.srsSyntax = srsSyntax;
+        if (gml32) {
+            gml = org.geotools.gml3.v3_2.GML.NAMESPACE;
+            wfs = org.geotools.wfs.v2_0.WFS.NAMESPACE;
+        } else {
+            gml = org.geotools.gml3.GML.NAMESPACE;
+            wfs = org.geoserver.wfs.xml.v1_1_0.WFS.NAMESPACE;
+        }
+    }
+
+    /**
+     * Sets whether geometries carry the srsDimension attribute, defaults to true
+     */
+    public void setSrsDimension(boolean srsDimension) {
+        this.srsDimension = srsDimension;
+    }
+
+    /**
+     * Sets whether features are written along with their bounds
+     */
+    public void setFeatureBounding(boolean featureBounding) {
+        this.featureBounding = featureBounding;
+    }
+
+    /**
+     * Sets whether each feature is wrapped in its own gml:featureMember, as opposed to all of them
+     * being listed in gml:featureMembers. Only applies to GML 3.1.
+     */
+    public void setEncodeFeatureMember(boolean encodeFeatureMember) {
+        this.encodeFeatureMember = encodeFeatureMember;
+    }
+
+    /**
+     * Declares the prefix of a feature type namespace
+     */
+    public void declareNamespace(String prefix, String namespaceURI) {
+        prefixes.put(namespaceURI, prefix);
+    }
+
+    /**
+     * Returns true if the features of the specified type can be written. The layout of the type
+     * is computed and kept for the features to be written.
+     */
+    public boolean canWrite(FeatureType type) {
+        if (layouts.containsKey(type)) {
+            return true;
+        }
+        if (!(type instanceof SimpleFeatureType)) {
+            return false;
+        }
+        List<AttributeDescriptor> descriptors = ((SimpleFeatureType) type)
+                .getAttributeDescriptors();
+        for (AttributeDescriptor ad : descriptors) {
+            if (GML_PROPERTIES.contains(ad.getLocalName())) {
+                return false;
+            }
+        }
+
+        FeatureLayout layout = new FeatureLayout();
+        layout.namespaceURI = type.getName().getNamespaceURI();
+        layout.localName = type.getName().getLocalPart();
+        layout.prefix = prefixes.get(layout.namespaceURI);
+        if (layout.prefix == null) {
+            layout.prefix = "ns" + (prefixes.size() + 1);
+            prefixes.put(layout.namespaceURI, layout.prefix);
+        }
+        if (type.getGeometryDescriptor() != null) {
+            layout.srsName = srsName(type.getGeometryDescriptor().getCoordinateReferenceSystem());
+        }
+        layout.attributes = new AttributeLayout[descriptors.size()];
+        for (int i = 0; i < descriptors.size(); i++) {
+            AttributeDescriptor ad = descriptors.get(i);
+            AttributeLayout attribute = new AttributeLayout();
+            attribute.name = ad.getLocalName();
+            if (ad instanceof GeometryDescriptor) {
+                attribute.geometry = true;
+                attribute.srsName = srsName(((GeometryDescriptor) ad)
+                        .getCoordinateReferenceSystem());
+            }
+            layout.attributes[i] = attribute;
+        }
+        layouts.put(type, layout);
+        return true;
+    }
+
+    String srsName(CoordinateReferenceSystem crs) {
+        if (crs == null) {
+            return null;
+        }
+        try {
+            Integer code = CRS.lookupEpsgCode(crs, false);
+            if (code != null) {
+                return srsSyntax.getPrefix() + code;
+            }
+        } catch (Exception e) {
+            // fall back on the crs identifier
+        }
+        return CRS.toSRS(crs);
+    }
+
+    /**
+     * Writes out the feature collection response. All its feature types must have been accepted by
+     * {@link #canWrite(FeatureType)} beforehand.
+     *
+     * @param results The response to be written
+     * @param xml The writer the response is written to
+     * @param encoding The document encoding
+     * @param schemaLocations The schema locations, by namespace URI
+     */
+    public void write(FeatureCollectionResponse results, XMLStreamWriter xml, String encoding,
+            Map<String, String> schemaLocations) throws XMLStreamException {
+        this.xml = xml;
+
+        xml.writeStartDocument(encoding, "1.0");
+        xml.writeStartElement("wfs", "FeatureCollection", wfs);
+        xml.writeNamespace("wfs", wfs);
+        xml.writeNamespace("gml", gml);
+        xml.writeNamespace("xsi", XSI);
+        for (Map.Entry<String, String> entry : prefixes.entrySet()) {
+            xml.writeNamespace(entry.getValue(), entry.getKey());
+        }
+
+        if (gml32) {
+            BigInteger matched = results.getTotalNumberOfFeatures();
+            xml.writeAttribute("numberMatched", 
+                    matched != null && matched.signum() >= 0 ? matched.toString() : "unknown");
+            BigInteger returned = results.getNumberOfFeatures();
+            xml.writeAttribute("numberReturned", returned != null ? returned.toString() : "0");
+        } else {
+            if (results.getLockId() != null) {
+                xml.writeAttribute("lockId", results.getLockId());
+            }
+            if (results.getNumberOfFeatures() != null) {
+                xml.writeAttribute("numberOfFeatures", results.getNumberOfFeatures().toString());
+            }
+        }
+        if (results.getTimeStamp() != null) {
+            xml.writeAttribute("timeStamp", DatatypeConverter.printDateTime(results
+                    .getTimeStamp()));
+        }
+        if (gml32) {
+            if (results.getNext() != null) {
+                xml.writeAttribute("next", results.getNext());
+            }
+            if (results.getPrevious() != null) {
+                xml.writeAttribute("previous", results.getPrevious());
+            }
+        }
+        if (schemaLocations != null && !schemaLocations.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> entry : schemaLocations.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append(" ");
+                }
+                sb.append(entry.getKey()).append(" ").append(entry.getValue());
+            }
+            xml.writeAttribute("xsi", XSI, "schemaLocation", sb.toString());
+        }
+
+        boolean featureMembers = false;
+        for (FeatureCollection collection : results.getFeatures()) {
+            FeatureLayout layout = layouts.get(collection.getSchema());
+            FeatureIterator it = collection.features();
+            try {
+                while (it.hasNext()) {
+                    SimpleFeature feature = (SimpleFeature) it.next();
+                    if (gml32) {
+                        xml.writeStartElement("wfs", "member", wfs);
+                    } else if (encodeFeatureMember) {
+                        xml.writeStartElement("gml", "featureMember", gml);
+                    } else if (!featureMembers) {
+                        xml.writeStartElement("gml", "featureMembers", gml);
+                        featureMembers = true;
+                    }
+                    writeFeature(feature, layout);
+                    if (gml32 || encodeFeatureMember) {
+                        xml.writeEndElement();
+                    }
+                }
+            } finally {
+                it.close();
+            }
+        }
+        if (featureMembers) {
+            xml.writeEndElement();
+        }
+
+        xml.writeEndElement();
+        xml.writeEndDocument();
+        xml.flush();
+    }
+
+    void writeFeature(SimpleFeature feature, FeatureLayout layout) throws XMLStreamException {
+        xml.writeStartElement(layout.prefix, layout.localName, layout.namespaceURI);
+        String id = feature.getID();
+        if (id != null) {
+            xml.writeAttribute("gml", gml, "id", id);
+        }
+        if (featureBounding) {
+            writeBounds(feature.getBounds(), layout.srsName);
+        }
+
+        AttributeLayout[] attributes = layout.attributes;
+        for (int i = 0; i < attributes.length; i++) {
+            Object value = feature.getAttribute(i);
+            if (value == null) {
+                continue;
+            }
+            AttributeLayout attribute = attributes[i];
+            xml.writeStartElement(layout.prefix, attribute.name, layout.namespaceURI);
+            if (attribute.geometry && value instanceof Geometry) {
+                Geometry geometry = (Geometry) value;
+                writeGeometry(geometry, attribute.srsName, dimension(geometry), id + "."
+                        + attribute.name);
+            } else {
+                xml.writeCharacters(toString(value));
+            }
+            xml.writeEndElement();
+        }
+
+        xml.writeEndElement();
+    }
+
+    void writeBounds(BoundingBox bounds, String srsName) throws XMLStreamException {
+        if (bounds == null || (bounds.isEmpty() && gml32)) {
+            return;
+        }
+        xml.writeStartElement("gml", "boundedBy", gml);
+        if (bounds.isEmpty()) {
+            xml.writeStartElement("gml", "Null", gml);
+            xml.writeCharacters("unknown");
+            xml.writeEndElement();
+        } else {
+            xml.writeStartElement("gml", "Envelope", gml);
+            if (srsName != null) {
+                xml.writeAttribute("srsName", srsName);
+            }
+            if (srsDimension) {
+                xml.writeAttribute("srsDimension", "2");
+            }
+            xml.writeStartElement("gml", "lowerCorner", gml);
+            text.append(bounds.getMinX()).append(' ').append(bounds.getMinY());
+            flushText();
+            xml.writeEndElement();
+            xml.writeStartElement("gml", "upperCorner", gml);
+            text.append(bounds.getMaxX()).append(' ').append(bounds.getMaxY());
+            flushText();
+            xml.writeEndElement();
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+    }
+
+    /**
+     * Writes out a geometry, the srsName is only set on the top level geometry, the id is only
+     * used in GML 3.2, where all geometries are identified
+     */
+    void writeGeometry(Geometry geometry, String srsName, int dimension, String id)
+            throws XMLStreamException {
+        if (geometry instanceof Point) {
+            startGeometry("Point", srsName, dimension, id);
+            xml.writeStartElement("gml", "pos", gml);
+            writeCoordinates(((Point) geometry).getCoordinateSequence(), dimension);
+            xml.writeEndElement();
+        } else if (geometry instanceof LinearRing) {
+            startGeometry("LinearRing", srsName, dimension, id);
+            writePosList(((LineString) geometry).getCoordinateSequence(), dimension);
+        } else if (geometry instanceof LineString) {
+            startGeometry("LineString", srsName, dimension, id);
+            writePosList(((LineString) geometry).getCoordinateSequence(), dimension);
+        } else if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            startGeometry("Polygon", srsName, dimension, id);
+            writeRing("exterior", polygon.getExteriorRing(), dimension);
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                writeRing("interior", polygon.getInteriorRingN(i), dimension);
+            }
+        } else if (geometry instanceof MultiPoint) {
+            startGeometry("MultiPoint", srsName, dimension, id);
+            writeMembers((GeometryCollection) geometry, "pointMember", dimension, id);
+        } else if (geometry instanceof MultiLineString) {
+            // the multi line string is deprecated in GML 3.2
+            if (gml32) {
+                startGeometry("MultiCurve", srsName, dimension, id);
+                writeMembers((GeometryCollection) geometry, "curveMember", dimension, id);
+            } else {
+                startGeometry("MultiLineString", srsName, dimension, id);
+                writeMembers((GeometryCollection) geometry, "lineStringMember", dimension, id);
+            }
+        } else if (geometry instanceof MultiPolygon) {
+            startGeometry("MultiSurface", srsName, dimension, id);
+            writeMembers((GeometryCollection) geometry, "surfaceMember", dimension, id);
+        } else if (geometry instanceof GeometryCollection) {
+            startGeometry("MultiGeometry", srsName, dimension, id);
+            writeMembers((GeometryCollection) geometry, "geometryMember", dimension, id);
+        } else {
+            throw new IllegalArgumentException("Unsupported geometry type "
+                    + geometry.getGeometryType());
+        }
+        xml.writeEndElement();
+    }
+
+    void startGeometry(String element, String srsName, int dimension, String id)
+            throws XMLStreamException {
+        xml.writeStartElement("gml", element, gml);
+        if (gml32) {
+            xml.writeAttribute("gml", gml, "id", id);
+        }
+        if (srsName != null) {
+            xml.writeAttribute("srsName", srsName);
+        }
+        if (srsDimension) {
+            xml.writeAttribute("srsDimension", dimension == 3 ? "3" : "2");
+        }
+    }
+
+    void writeMembers(GeometryCollection collection, String member, int dimension, String id)
+            throws XMLStreamException {
+        for (int i = 0; i < collection.getNumGeometries(); i++) {
+            xml.writeStartElement("gml", member, gml);
+            writeGeometry(collection.getGeometryN(i), null, dimension, id + "." + (i + 1));
+            xml.writeEndElement();
+        }
+    }
+
+    void writeRing(String element, LineString ring, int dimension) throws XMLStreamException {
+        xml.writeStartElement("gml", element, gml);
+        xml.writeStartElement("gml", "LinearRing", gml);
+        writePosList(ring.getCoordinateSequence(), dimension);
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+
+    void writePosList(CoordinateSequence cs, int dimension) throws XMLStreamException {
+        xml.writeStartElement("gml", "posList", gml);
+        writeCoordinates(cs, dimension);
+        xml.writeEndElement();
+    }
+
+    /**
+     * Writes the ordinates of the coordinate sequence separated by spaces, in chunks, without
+     * creating coordinate objects
+     */
+    void writeCoordinates(CoordinateSequence cs, int dimension) throws XMLStreamException {
+        int size = cs.size();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(cs.getOrdinate(i, CoordinateSequence.X));
+            text.append(' ').append(cs.getOrdinate(i, CoordinateSequence.Y));
+            if (dimension == 3) {
+                text.append(' ').append(cs.getOrdinate(i, CoordinateSequence.Z));
+            }
+            if (text.length() > 4096) {
+                flushText();
+            }
+        }
+        flushText();
+    }
+
+    void flushText() throws XMLStreamException {
+        int length = text.length();
+        if (length > chars.length) {
+            chars = new char[length * 2];
+        }
+        text.getChars(0, length, chars, 0);
+        xml.writeCharacters(chars, 0, length);
+        text.setLength(0);
+    }
+
+    static int dimension(Geometry geometry) {
+        Coordinate c = geometry.getCoordinate();
+        return c != null && !Double.isNaN(c.z) ? 3 : 2;
+    }
+
+    String toString(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+        }
+        if (value instanceof Date) {
+            calendar.setTime((Date) value);
+            if (value instanceof java.sql.Date) {
+                return DatatypeConverter.printDate(calendar);
+            } else if (value instanceof java.sql.Time) {
+                return DatatypeConverter.printTime(calendar);
+            } else {
+                return DatatypeConverter.printDateTime(calendar);
+            }
+        }
+        String converted = Converters.convert(value, String.class);
+        return converted != null ? converted : value.toString();
+    }
+
+    /**
+     * The elements of a feature type, computed once for all its features
+     */
+    static class FeatureLayout {
+        String prefix;
+
+        String namespaceURI;
+
+        String localName;
+
+        String srsName;
+
+        AttributeLayout[] attributes;
+    }
+
+    static class AttributeLayout {
+        String name;
+
+        boolean geometry;
+
+        String srsName;
+    }
+}
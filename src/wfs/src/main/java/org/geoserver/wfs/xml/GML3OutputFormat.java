@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -30,6 +31,9 @@ import java.util.logging.Level;
 
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -65,6 +69,14 @@ import org.opengis.feature.type.Name;
 import org.w3c.dom.Document;
 
 public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
+
+    /**
+     * WFS metadata key enabling the streaming of simple features with the
+     * {@link GML3FeatureWriter}, bypassing the encoder
+     */
+    public static final String STREAMING_ENCODING = "gml3StreamingEncoding";
+
+    static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
     
     GeoServer geoServer;
     Catalog catalog;
@@ -199,13 +211,11 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         //declare wfs schema location
         Object gft = getFeature.getParameters()[0];
         
-        Encoder encoder = createEncoder(configuration, ns2metas, gft);
-        encoder.setEncoding(Charset.forName( geoServer.getSettings().getCharset() ));
-
+        Map<String, String> schemaLocations = new LinkedHashMap<String, String>();
         if (wfs.isCanonicalSchemaLocation()) {
-            encoder.setSchemaLocation(getWfsNamespace(), getCanonicalWfsSchemaLocation());
+            schemaLocations.put(getWfsNamespace(), getCanonicalWfsSchemaLocation());
         } else {
-            encoder.setSchemaLocation(getWfsNamespace(),
+            schemaLocations.put(getWfsNamespace(),
                     buildSchemaURL(request.getBaseURL(), getRelativeWfsSchemaLocation()));
         }
 
@@ -227,7 +237,7 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                 if (userSchemaLocation != null && userSchemaLocation instanceof Map) {
                     Map<String, String> schemaURIs = (Map<String, String>) userSchemaLocation;
                     for (String namespace : schemaURIs.keySet()) {
-                        encoder.setSchemaLocation(namespace, schemaURIs.get(namespace));
+                        schemaLocations.put(namespace, schemaURIs.get(namespace));
                     }
                 } else {
                     typeNames.append(meta.getPrefixedName());
@@ -243,11 +253,26 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                 String schemaLocation = buildURL(request.getBaseURL(), "wfs", params, URLType.SERVICE);
                 LOGGER.finer("Unable to find user-defined schema location for: " + namespaceURI
                         + ". Using a built schema location by default: " + schemaLocation);
-                encoder.setSchemaLocation(namespaceURI, schemaLocation);
+                schemaLocations.put(namespaceURI, schemaLocation);
             }
         }
 
-        setAdditionalSchemaLocations(encoder, request, wfs);
+        setAdditionalSchemaLocations(schemaLocations, request, wfs);
+
+        // simple features can be streamed out without going thru the encoder
+        GML3FeatureWriter writer = isStreamingEncoding(wfs) ? createFeatureWriter(results, wfs)
+                : null;
+        if (writer != null) {
+            write(results, output, writer, schemaLocations);
+            return;
+        }
+
+        Encoder encoder = createEncoder(configuration, ns2metas, gft);
+        encoder.setEncoding(Charset.forName( geoServer.getSettings().getCharset() ));
+        for (Map.Entry<String, String> entry : schemaLocations.entrySet()) {
+            encoder.setSchemaLocation(entry.getKey(), entry.getValue());
+        }
+
         if (this.isComplexFeature(results)) {
             complexFeatureStreamIntercept(results, output, encoder);
         } else {
@@ -261,9 +286,65 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         return new Encoder(configuration, configuration.schema());
     }
 
-    protected void setAdditionalSchemaLocations(Encoder encoder, GetFeatureRequest request, WFSInfo wfs) {
+    protected void setAdditionalSchemaLocations(Map<String, String> schemaLocations,
+            GetFeatureRequest request, WFSInfo wfs) {
         //hook for subclasses
     }
+
+    /**
+     * Returns true if the features are to be written by the {@link GML3FeatureWriter} when
+     * possible, as opposed to going thru the encoder
+     */
+    protected boolean isStreamingEncoding(WFSInfo wfs) {
+        Boolean streaming = wfs.getMetadata().get(STREAMING_ENCODING, Boolean.class);
+        return streaming != null && streaming.booleanValue();
+    }
+
+    /**
+     * Sets up the writer the features are streamed out with, or returns null if the response has
+     * to go thru the encoder
+     */
+    protected GML3FeatureWriter createFeatureWriter(FeatureCollectionResponse results,
+            WFSInfo wfs) {
+        GML3FeatureWriter writer = new GML3FeatureWriter(false, wfs.getGML()
+                .get(WFSInfo.Version.V_11).getSrsNameStyle().toSrsSyntax());
+        writer.setEncodeFeatureMember(wfs.isEncodeFeatureMember());
+        writer.setFeatureBounding(wfs.isFeatureBounding());
+        writer.setSrsDimension(!wfs.isCiteCompliant());
+        return prepare(writer, results);
+    }
+
+    /**
+     * Lets the writer compute the layout of the response feature types, returns null if it cannot
+     * handle any of them
+     */
+    protected GML3FeatureWriter prepare(GML3FeatureWriter writer,
+            FeatureCollectionResponse results) {
+        for (FeatureCollection fc : results.getFeatures()) {
+            Name name = fc.getSchema().getName();
+            FeatureTypeInfo meta = catalog.getFeatureTypeByName(name);
+            if (meta != null) {
+                writer.declareNamespace(meta.getNamespace().getPrefix(), name.getNamespaceURI());
+            }
+            if (!writer.canWrite(fc.getSchema())) {
+                return null;
+            }
+        }
+        return writer;
+    }
+
+    void write(FeatureCollectionResponse results, OutputStream output, GML3FeatureWriter writer,
+            Map<String, String> schemaLocations) throws IOException {
+        String charset = geoServer.getSettings().getCharset();
+        try {
+            XMLStreamWriter xml = XML_OUTPUT_FACTORY.createXMLStreamWriter(output, charset);
+            writer.write(results, xml, charset, schemaLocations);
+            // does not close the output stream
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw (IOException) new IOException(e.getMessage()).initCause(e);
+        }
+    }
     
     protected void encode(FeatureCollectionResponse results, OutputStream output, Encoder encoder)
         throws IOException {
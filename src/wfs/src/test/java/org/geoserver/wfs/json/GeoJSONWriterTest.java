@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeoJSONWriterTest {
+
+    StringWriter writer;
+
+    GeoJSONWriter json;
+
+    @Before
+    public void setUp() {
+        writer = new StringWriter();
+        json = new GeoJSONWriter(writer, 4);
+    }
+
+    String written() throws Exception {
+        json.flush();
+        return writer.toString();
+    }
+
+    @Test
+    public void testWriteNormal() throws Exception {
+        Geometry g = new WKTReader().read("MULTILINESTRING((0 0, 1 1))");
+        json.writeGeom(g);
+
+        assertEquals("{\"type\":\"MultiLineString\",\"coordinates\":[[[0,0],[1,1]]]}", written());
+    }
+
+    @Test
+    public void testWritePolygons() throws Exception {
+        Geometry g = new WKTReader().read("MULTIPOLYGON(((0 0, 1 0, 1 1, 0 0)),"
+                + "((2 2, 3 2, 3 3, 2 2), (2.1 2.1, 2.2 2.1, 2.2 2.2, 2.1 2.1)))");
+        json.writeGeom(g);
+
+        assertEquals("{\"type\":\"MultiPolygon\",\"coordinates\":[[[[0,0],[1,0],[1,1],[0,0]]],"
+                + "[[[2,2],[3,2],[3,3],[2,2]],[[2.1,2.1],[2.2,2.1],[2.2,2.2],[2.1,2.1]]]]}",
+                written());
+    }
+
+    @Test
+    public void testWriteMultiPoint() throws Exception {
+        json.writeGeom(new WKTReader().read("MULTIPOINT(0 0, 1 1)"));
+        assertEquals("{\"type\":\"MultiPoint\",\"coordinates\":[[0,0],[1,1]]}", written());
+    }
+
+    @Test
+    public void testWriteGeomCollection() throws Exception {
+        Geometry g = new WKTReader().read("GEOMETRYCOLLECTION(POINT(2 0),POINT(7 1))");
+        json.writeGeom(g);
+        assertEquals("{\"type\":\"GeometryCollection\",\"geometries\":[{\"type\":\"Point\","
+                + "\"coordinates\":[2,0]},{\"type\":\"Point\",\"coordinates\":[7,1]}]}",
+                written());
+    }
+
+    @Test
+    public void testWriteFloat() throws Exception {
+        json.array().value(0.1f).value(2f).value(Float.NaN).value(1.5e10f).endArray();
+        assertEquals("[0.1,2,null,1.5E10]", written());
+    }
+
+    @Test
+    public void testNumDecimals() throws Exception {
+        json.writeGeom(new WKTReader().read("LINESTRING(55.17400001 -0.00004, "
+                + "-0.00005 1.05, 123456789.123456 -1.99999)"));
+        assertEquals("{\"type\":\"LineString\",\"coordinates\":[[55.174,0],[-0.0001,1.05],"
+                + "[123456789.1235,-2]]}", written());
+    }
+
+    @Test
+    public void testFullPrecision() throws Exception {
+        json = new GeoJSONWriter(writer, -1);
+        json.writeGeom(new WKTReader().read("POINT(55.17400001 1e-7)"));
+        assertEquals("{\"type\":\"Point\",\"coordinates\":[55.17400001,1.0E-7]}", written());
+    }
+
+    @Test
+    public void testWriteProperties() throws Exception {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        cal.clear();
+        cal.set(Calendar.YEAR, 2011);
+        cal.set(Calendar.MONTH, 9);
+        cal.set(Calendar.DAY_OF_MONTH, 25);
+
+        json.object();
+        json.key("string").value("a \"quoted\"\n</script>");
+        json.key("int").value(12);
+        json.key("double").value(1.50);
+        json.key("nan").value(Double.NaN);
+        json.key("bool").value(true);
+        json.key("null").value(null);
+        json.key("date").value(new java.sql.Date(cal.getTimeInMillis()));
+        json.key("list").array().value(1).value("b").endArray();
+        json.writeBoundingBox(new Envelope(0, 1.23456, -1, 2));
+        json.endObject();
+
+        assertEquals("{\"string\":\"a \\\"quoted\\\"\\n<\\/script>\",\"int\":12,\"double\":1.5,"
+                + "\"nan\":null,\"bool\":true,\"null\":null,\"date\":\"2011-10-25Z\","
+                + "\"list\":[1,\"b\"],\"bbox\":[0,-1,1.2346,2]}", written());
+    }
+
+    @Test
+    public void testLargeOutput() throws Exception {
+        json.array();
+        for (int i = 0; i < 10000; i++) {
+            json.value(i);
+        }
+        json.endArray();
+
+        String out = written();
+        assertEquals('[', out.charAt(0));
+        assertEquals("9999]", out.substring(out.length() - 5));
+        assertEquals(9999, out.split(",").length - 1);
+    }
+}
@@ -25,9 +25,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 import javax.xml.namespace.QName;
 import net.opengis.wfs.GetFeatureType;
 import net.opengis.wfs.WfsFactory;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.MetadataMap;
@@ -53,7 +55,9 @@ import org.junit.Test;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.filter.Filter;
 import com.mockrunner.mock.web.MockHttpServletResponse;
 import com.vividsolutions.jts.geom.Geometry;
@@ -475,6 +479,87 @@ public class ShapeZipTest extends WFSTestSupport {
                 get4326_ESRI_WKTContent());
     }
 
+    @Test
+    public void testRecordsInMemory() throws Exception {
+        SimpleFeatureCollection fc = getFeatureSource(GEOMMID).getFeatures();
+        byte[] zip = writeOut(fc);
+
+        checkSameFeatures(fc, new ByteArrayInputStream(zip));
+    }
+
+    @Test
+    public void testSpilledRecords() throws Exception {
+        SimpleFeatureCollection fc = getFeatureSource(GEOMMID).getFeatures();
+        ShapefileZipWriter writer = new ShapefileZipWriter("geommid", fc.getSchema(),
+                Charset.forName("ISO-8859-1"));
+        // smaller than a single record, everything goes to disk
+        writer.spillThreshold = 64;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(bos);
+        try {
+            writer.write(zos, fc, null);
+            assertNotNull(writer.shp.file);
+            assertNotNull(writer.dbf.file);
+            zos.finish();
+        } finally {
+            writer.dispose();
+        }
+
+        checkShapefileIntegrity(new String[] { "geommid" }, new ByteArrayInputStream(
+                bos.toByteArray()));
+        checkSameFeatures(fc, new ByteArrayInputStream(bos.toByteArray()));
+    }
+
+    /**
+     * Reads back the zipped shapefile and checks it has the features of the collection, in the
+     * same order, each geometry along with its attributes
+     */
+    private void checkSameFeatures(SimpleFeatureCollection expected, InputStream in)
+            throws IOException {
+        ZipInputStream zis = new ZipInputStream(in);
+        ZipEntry entry = null;
+        File tempFolder = createTempFolder("shp_");
+        File shapeFile = null;
+        while ((entry = zis.getNextEntry()) != null) {
+            File file = new File(tempFolder, entry.getName());
+            if (entry.getName().endsWith(".shp")) {
+                shapeFile = file;
+            }
+            FileOutputStream outFile = new FileOutputStream(file);
+            copyStream(zis, outFile);
+            outFile.close();
+            zis.closeEntry();
+        }
+        zis.close();
+        assertNotNull(shapeFile);
+
+        ShapefileDataStore ds = new ShapefileDataStore(shapeFile.toURL());
+        SimpleFeatureIterator expectedIt = expected.features();
+        SimpleFeatureIterator it = ds.getFeatureSource().getFeatures().features();
+        try {
+            while (expectedIt.hasNext()) {
+                assertTrue(it.hasNext());
+                SimpleFeature expectedFeature = expectedIt.next();
+                SimpleFeature feature = it.next();
+                Geometry g = (Geometry) expectedFeature.getDefaultGeometry();
+                assertTrue(g.equals((Geometry) feature.getDefaultGeometry()));
+                for (AttributeDescriptor ad : expectedFeature.getFeatureType()
+                        .getAttributeDescriptors()) {
+                    if (!(ad instanceof GeometryDescriptor)) {
+                        assertEquals(expectedFeature.getAttribute(ad.getLocalName()),
+                                feature.getAttribute(ad.getLocalName()));
+                    }
+                }
+            }
+            assertFalse(it.hasNext());
+        } finally {
+            expectedIt.close();
+            it.close();
+            ds.dispose();
+            FileUtils.deleteDirectory(tempFolder);
+        }
+    }
+
     /**
      * Saves the feature source contents into a zipped shapefile, returns the output as a byte array
      */
@@ -13,11 +13,14 @@ import java.net.URLEncoder;
 import java.util.Collections;
 import javax.xml.namespace.QName;
 import org.custommonkey.xmlunit.XMLAssert;
+import org.custommonkey.xmlunit.XMLUnit;
+import org.custommonkey.xmlunit.XpathEngine;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.test.RunTestSetup;
 import org.geoserver.wfs.GMLInfo;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
+import org.geoserver.wfs.xml.GML3OutputFormat;
 import org.geotools.gml3.GML;
 import org.junit.Test;
 import org.w3c.dom.Document;
@@ -541,5 +544,37 @@ public class GetFeatureTest extends WFSTestSupport {
                 + getLayerId(SystemTestData.PRIMITIVEGEOFEATURE));
         XMLAssert.assertXpathNotExists("//gml:Point[@srsDimension = '2']", dom);
     }
+
+    @Test
+    public void testStreamingEncoding() throws Exception {
+        String request = "wfs?request=GetFeature&version=1.1.0&service=wfs&typename="
+                + getLayerId(SystemTestData.BUILDINGS);
+        Document expected = getAsDOM(request);
+
+        WFSInfo wfs = getWFS();
+        wfs.getMetadata().put(GML3OutputFormat.STREAMING_ENCODING, true);
+        getGeoServer().save(wfs);
+        try {
+            Document dom = getAsDOM(request);
+            XpathEngine xpath = XMLUnit.newXpathEngine();
+            String[] paths = new String[] { "count(//cite:Buildings)",
+                    "//wfs:FeatureCollection/@numberOfFeatures", "//cite:Buildings[2]/@gml:id",
+                    "//cite:Buildings[2]/cite:FID", "//cite:Buildings[2]/cite:ADDRESS",
+                    "count(//cite:Buildings/gml:boundedBy/gml:Envelope)",
+                    "//cite:Buildings[2]/cite:the_geom/gml:MultiSurface/@srsName",
+                    "count(//cite:Buildings/cite:the_geom//gml:Polygon/gml:exterior)" };
+            for (String path : paths) {
+                assertEquals(path, xpath.evaluate(path, expected), xpath.evaluate(path, dom));
+            }
+
+            // gml properties are left to the encoder
+            dom = getAsDOM("wfs?request=GetFeature&typename=sf:WithGMLProperties"
+                    + "&version=1.1.0&service=wfs");
+            XMLAssert.assertXpathEvaluatesTo("one", "//sf:WithGMLProperties/gml:name", dom);
+        } finally {
+            wfs.getMetadata().remove(GML3OutputFormat.STREAMING_ENCODING);
+            getGeoServer().save(wfs);
+        }
+    }
     
 }
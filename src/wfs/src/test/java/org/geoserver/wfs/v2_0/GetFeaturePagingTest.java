@@ -12,14 +12,25 @@ import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import javax.xml.namespace.QName;
 
 import org.custommonkey.xmlunit.XMLAssert;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogBuilder;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.FeatureCountCache;
+import org.geoserver.wfs.FeatureCountPool;
+import org.geoserver.wfs.GetFeature;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.WFSInfo;
 import org.geotools.data.DataStore;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
@@ -247,6 +258,171 @@ public class GetFeaturePagingTest extends WFS20TestSupport {
         XMLAssert.assertXpathEvaluatesTo("0", "count(//" + seven + ")", doc);
     }
     
+    @Test
+    public void testStartIndexMultipleTypesConcurrent() throws Exception {
+        WFSInfo wfs = getGeoServer().getService(WFSInfo.class);
+        wfs.getMetadata().put(GetFeature.QUERY_PARALLELISM, 2);
+        getGeoServer().save(wfs);
+        try {
+            doTestStartIndexMultipleTypes("gs:Fifteen", "gs:Seven");
+            doTestStartIndexMultipleTypes("cdf:Fifteen", "cdf:Seven");
+            doTestStartIndexMultipleTypesPOST("gs:Fifteen", "gs:Seven");
+            doTestStartIndexMultipleTypesPOST("cdf:Fifteen", "cdf:Seven");
+
+            Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                    "typename=gs:Fifteen,gs:Seven&startIndex=10&count=6");
+            XMLAssert.assertXpathEvaluatesTo("22", "/wfs:FeatureCollection/@numberMatched", doc);
+            XMLAssert.assertXpathEvaluatesTo("6", "/wfs:FeatureCollection/@numberReturned", doc);
+        } finally {
+            wfs = getGeoServer().getService(WFSInfo.class);
+            wfs.getMetadata().remove(GetFeature.QUERY_PARALLELISM);
+            getGeoServer().save(wfs);
+        }
+    }
+    
+    @Test
+    public void testStartIndexMultipleTypesConcurrentPoolBusy() throws Exception {
+        FeatureCountPool pool = GeoServerExtensions.bean(FeatureCountPool.class);
+        final CountDownLatch latch = new CountDownLatch(1);
+        WFSInfo wfs = getGeoServer().getService(WFSInfo.class);
+        wfs.getMetadata().put(GetFeature.QUERY_PARALLELISM, 2);
+        getGeoServer().save(wfs);
+        try {
+            // fill up the pool, the request thread is expected to do the counts itself
+            while (pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        // done
+                    }
+                }
+            }));
+
+            doTestStartIndexMultipleTypes("gs:Fifteen", "gs:Seven");
+        } finally {
+            latch.countDown();
+            wfs = getGeoServer().getService(WFSInfo.class);
+            wfs.getMetadata().remove(GetFeature.QUERY_PARALLELISM);
+            getGeoServer().save(wfs);
+        }
+    }
+
+    @Test
+    public void testNumberMatchedCached() throws Exception {
+        WFSInfo wfs = getGeoServer().getService(WFSInfo.class);
+        wfs.getMetadata().put(GetFeature.COUNT_CACHE_TTL, 60);
+        getGeoServer().save(wfs);
+        FeatureCountCache cache = GeoServerExtensions.bean(FeatureCountCache.class);
+        cache.clear();
+        try {
+            for (int i = 0; i < 2; i++) {
+                Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                        "typename=gs:Fifteen&startIndex=0&count=5");
+                XMLAssert.assertXpathEvaluatesTo("15", "/wfs:FeatureCollection/@numberMatched", doc);
+                XMLAssert.assertXpathEvaluatesTo("5", "/wfs:FeatureCollection/@numberReturned", doc);
+                assertEquals(1, cache.getCount());
+            }
+
+            FeatureTypeInfo ft = getCatalog().getFeatureTypeByName("gs:Fifteen");
+            cache.invalidate(new QName(ft.getNamespace().getURI(), ft.getName()));
+            assertEquals(0, cache.getCount());
+        } finally {
+            wfs = getGeoServer().getService(WFSInfo.class);
+            wfs.getMetadata().remove(GetFeature.COUNT_CACHE_TTL);
+            getGeoServer().save(wfs);
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void testNumberMatchedInvalidatedAfterTransaction() throws Exception {
+        FeatureCountCache cache = GeoServerExtensions.bean(FeatureCountCache.class);
+        cache.clear();
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName("gs:Fifteen");
+        QName name = new QName(ft.getNamespace().getURI(), ft.getName());
+        FeatureCountCache.Key key = cache.key(ft, new org.geotools.data.Query(ft.getName()));
+        try {
+            // a count taken while the transaction is running might miss its changes
+            cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_UPDATE, null,
+                    name, null));
+            cache.put(key, 15, cache.getGeneration());
+            assertEquals(1, cache.getCount());
+            cache.afterTransaction(null, null, true);
+            assertEquals(0, cache.getCount());
+
+            // WFS 2.0 transactions are only known to be over at the end of the request
+            cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_UPDATE, null,
+                    name, null));
+            cache.put(key, 15, cache.getGeneration());
+            assertEquals(1, cache.getCount());
+            cache.finished(null);
+            assertEquals(0, cache.getCount());
+        } finally {
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void testNumberMatchedInvalidatedByUnqualifiedName() throws Exception {
+        FeatureCountCache cache = GeoServerExtensions.bean(FeatureCountCache.class);
+        cache.clear();
+        Catalog catalog = getCatalog();
+        NamespaceInfo defaultNamespace = catalog.getDefaultNamespace();
+        FeatureTypeInfo ft = catalog.getFeatureTypeByName("gs:Fifteen");
+        catalog.setDefaultNamespace(ft.getNamespace());
+        FeatureCountCache.Key key = cache.key(ft, new org.geotools.data.Query(ft.getName()));
+        try {
+            cache.put(key, 15, cache.getGeneration());
+            assertEquals(1, cache.getCount());
+
+            // a transaction on the default namespace might not qualify the type name
+            cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_INSERT, null,
+                    new QName(ft.getName()), null));
+            assertEquals(0, cache.getCount());
+        } finally {
+            catalog.setDefaultNamespace(defaultNamespace);
+            cache.afterTransaction(null, null, true);
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void testEstimatedNumberMatched() throws Exception {
+        WFSInfo wfs = getGeoServer().getService(WFSInfo.class);
+        wfs.getMetadata().put(GetFeature.ESTIMATED_COUNT, true);
+        getGeoServer().save(wfs);
+        try {
+            doTestEstimatedNumberMatched("gs:Fifteen");
+            doTestEstimatedNumberMatched("cdf:Fifteen");
+        } finally {
+            wfs = getGeoServer().getService(WFSInfo.class);
+            wfs.getMetadata().remove(GetFeature.ESTIMATED_COUNT);
+            getGeoServer().save(wfs);
+        }
+    }
+
+    void doTestEstimatedNumberMatched(String typeName) throws Exception {
+        // a full page leaves the features matched unknown, but can still be followed
+        Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                "typename=" + typeName + "&startIndex=0&count=5");
+        XMLAssert.assertXpathEvaluatesTo("unknown", "/wfs:FeatureCollection/@numberMatched", doc);
+        XMLAssert.assertXpathEvaluatesTo("5", "/wfs:FeatureCollection/@numberReturned", doc);
+        assertStartIndexCount(doc, "next", 5, 5);
+
+        // the last page tells them
+        doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                "typename=" + typeName + "&startIndex=10&count=10");
+        XMLAssert.assertXpathEvaluatesTo("15", "/wfs:FeatureCollection/@numberMatched", doc);
+        XMLAssert.assertXpathEvaluatesTo("5", "/wfs:FeatureCollection/@numberReturned", doc);
+        assertFalse(doc.getDocumentElement().hasAttribute("next"));
+
+        // hits are always counted
+        doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                "typename=" + typeName + "&startIndex=0&count=5&resulttype=hits");
+        XMLAssert.assertXpathEvaluatesTo("15", "/wfs:FeatureCollection/@numberMatched", doc);
+    }
+    
     String startIndexMultiXML(String fifteen, String seven, int startIndex, int count) {
         String xml = 
         "<GetFeature version=\"2.0.0\" startIndex='"+startIndex+"'";
@@ -15,11 +15,14 @@ import java.util.Collections;
 import javax.xml.namespace.QName;
 
 import org.custommonkey.xmlunit.XMLAssert;
+import org.custommonkey.xmlunit.XMLUnit;
+import org.custommonkey.xmlunit.XpathEngine;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.wfs.GMLInfo;
 import org.geoserver.wfs.StoredQuery;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.xml.GML3OutputFormat;
 import org.geotools.filter.v2_0.FES;
 import org.geotools.gml3.v3_2.GML;
 
@@ -871,4 +874,31 @@ public class GetFeatureTest extends WFS20TestSupport {
         XMLAssert.assertXpathEvaluatesTo("OperationParsingFailed", "//ows:Exception/@exceptionCode", dom);
     }
 
+    @Test
+    public void testStreamingEncoding() throws Exception {
+        String request = "wfs?request=GetFeature&version=2.0.0&service=wfs&typenames="
+                + getLayerId(SystemTestData.BUILDINGS);
+        Document expected = getAsDOM(request);
+
+        WFSInfo wfs = getWFS();
+        wfs.getMetadata().put(GML3OutputFormat.STREAMING_ENCODING, true);
+        getGeoServer().save(wfs);
+        try {
+            Document dom = getAsDOM(request);
+            XpathEngine xpath = XMLUnit.newXpathEngine();
+            String[] paths = new String[] { "count(//wfs:member/cite:Buildings)",
+                    "//wfs:FeatureCollection/@numberMatched",
+                    "//wfs:FeatureCollection/@numberReturned", "//cite:Buildings[2]/@gml:id",
+                    "//cite:Buildings[2]/cite:ADDRESS",
+                    "//cite:Buildings[2]/cite:the_geom/gml:MultiSurface/@srsName",
+                    "count(//cite:Buildings/cite:the_geom//gml:Polygon/gml:exterior)" };
+            for (String path : paths) {
+                assertEquals(path, xpath.evaluate(path, expected), xpath.evaluate(path, dom));
+            }
+        } finally {
+            wfs.getMetadata().remove(GML3OutputFormat.STREAMING_ENCODING);
+            getGeoServer().save(wfs);
+        }
+    }
+
 }
@@ -9,7 +9,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.opengis.wfs.FeatureCollectionType;
 
@@ -21,6 +23,7 @@ import org.geoserver.wms.animate.Animator;
 import org.geoserver.wms.capabilities.Capabilities_1_3_0_Transformer;
 import org.geoserver.wms.capabilities.GetCapabilitiesTransformer;
 import org.geoserver.wms.describelayer.DescribeLayerModel;
+import org.geoserver.wms.map.ImagePool;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
@@ -101,6 +104,11 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      */
     public static ExecutorService RENDERING_POOL;
 
+    /**
+     * bounded pool used to render the layers of a map concurrently
+     */
+    public static ExecutorService LAYER_RENDERING_POOL;
+
     /**
      * default for 'bbox' paramter
      */
@@ -137,6 +145,11 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      */
     private static Boolean USE_GLOBAL_RENDERING_POOL = null;
 
+    /**
+     * Memory, in megabytes, retained by the pool of reusable drawing surfaces
+     */
+    private static Integer IMAGE_POOL_SIZE = null;
+
     private GetCapabilities getCapabilities;
 
     private DescribeLayer describeLayer;
@@ -246,6 +259,16 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
             else
                 USE_GLOBAL_RENDERING_POOL = Boolean.valueOf(usePool);
         }
+
+        // size of the drawing surface pool, disabled by default
+        if (IMAGE_POOL_SIZE == null) {
+            String poolSize = GeoServerExtensions.getProperty("IMAGE_POOL_SIZE", context);
+            if (poolSize == null)
+                IMAGE_POOL_SIZE = 0;
+            else
+                IMAGE_POOL_SIZE = Integer.valueOf(poolSize);
+            ImagePool.getDefault().setMaxSize(IMAGE_POOL_SIZE * 1024l * 1024l);
+        }
     }
 
     /**
@@ -688,12 +711,52 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         return RENDERING_POOL;
     }
 
+    /**
+     * Returns the app wide pool used to render layer groups concurrently, see
+     * {@link WMS#getParallelRendering()}. The pool is bounded to the number of processors, or
+     * to the LAYER_RENDERING_THREADS property if set, so that the rendering threads stay
+     * bounded no matter how many requests are being run
+     * 
+     * @return
+     */
+    public static ExecutorService getLayerRenderingPool() {
+        if (LAYER_RENDERING_POOL == null) {
+            synchronized (DefaultWebMapService.class) {
+                if (LAYER_RENDERING_POOL == null) {
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    String value = GeoServerExtensions.getProperty("LAYER_RENDERING_THREADS");
+                    if (value != null) {
+                        threads = Integer.parseInt(value);
+                    }
+                    LAYER_RENDERING_POOL = Executors.newFixedThreadPool(threads,
+                            new ThreadFactory() {
+                                AtomicInteger count = new AtomicInteger();
+
+                                public Thread newThread(Runnable r) {
+                                    Thread t = new Thread(r, "LayerRendering-"
+                                            + count.incrementAndGet());
+                                    t.setDaemon(true);
+                                    return t;
+                                }
+                            });
+                }
+            }
+        }
+
+        return LAYER_RENDERING_POOL;
+    }
+
     public void destroy() throws Exception {
         if (RENDERING_POOL != null) {
             RENDERING_POOL.shutdown();
             RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
             RENDERING_POOL = null;
         }
+        if (LAYER_RENDERING_POOL != null) {
+            LAYER_RENDERING_POOL.shutdown();
+            LAYER_RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
+            LAYER_RENDERING_POOL = null;
+        }
     }
 
 }
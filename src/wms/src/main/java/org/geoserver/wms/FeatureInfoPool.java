@@ -0,0 +1,78 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Pool of the threads identifying the query layers of GetFeatureInfo requests concurrently, see
+ * {@link WMS#getFeatureInfoParallelism()}.
+ * <p>
+ * The pool has a fixed number of threads, {@value #DEFAULT_POOL_SIZE} unless set with the
+ * FEATURE_INFO_POOL_SIZE property, and a queue of the same size. Idle threads go away after a
+ * minute. Requests the pool has no room for identify their layers one after the other. The pool
+ * is shut down along with the application context.
+ * </p>
+ */
+public class FeatureInfoPool implements DisposableBean {
+
+    /**
+     * Default number of threads
+     */
+    static final int DEFAULT_POOL_SIZE = 16;
+
+    ThreadPoolExecutor executor;
+
+    public FeatureInfoPool() {
+        this(getConfiguredSize());
+    }
+
+    public FeatureInfoPool(int size) {
+        executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(size), new ThreadFactory() {
+                    AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "FeatureInfo-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static int getConfiguredSize() {
+        String value = GeoServerExtensions.getProperty("FEATURE_INFO_POOL_SIZE");
+        return value != null ? Integer.parseInt(value) : DEFAULT_POOL_SIZE;
+    }
+
+    /**
+     * Runs the task on a pool thread, or returns false if the pool is full or shut down
+     */
+    public boolean execute(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    public int getPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public void destroy() throws Exception {
+        executor.shutdown();
+    }
+}
@@ -16,6 +16,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,8 +34,12 @@ import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ProjectionPolicy;
 import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.EnviromentInjectionCallback;
+import org.geoserver.ows.Request;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.featureinfo.FeatureCollectionDecorator;
+import org.geoserver.wms.featureinfo.FeatureInfoIndex;
 import org.geotools.coverage.GridSampleDimension;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridEnvelope2D;
@@ -84,6 +94,7 @@ import org.opengis.feature.type.Name;
 import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory2;
 import org.opengis.filter.Or;
+import org.opengis.filter.identity.FeatureId;
 import org.opengis.geometry.DirectPosition;
 import org.opengis.geometry.MismatchedDimensionException;
 import org.opengis.parameter.GeneralParameterValue;
@@ -92,6 +103,8 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.datum.PixelInCell;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -109,10 +122,30 @@ public class GetFeatureInfo {
 
     private WMS wms;
 
+    private FeatureInfoIndex featureInfoIndex;
+
+    private FeatureInfoPool featureInfoPool;
+
     public GetFeatureInfo(final WMS wms) {
         this.wms = wms;
     }
 
+    /**
+     * Sets the index used to find the features under the requested pixel without querying the
+     * stores, optional
+     */
+    public void setFeatureInfoIndex(FeatureInfoIndex featureInfoIndex) {
+        this.featureInfoIndex = featureInfoIndex;
+    }
+
+    /**
+     * Sets the pool of threads used to identify the query layers concurrently, optional, without
+     * it the query layers are identified one after the other
+     */
+    public void setFeatureInfoPool(FeatureInfoPool featureInfoPool) {
+        this.featureInfoPool = featureInfoPool;
+    }
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public FeatureCollectionType run(final GetFeatureInfoRequest request) throws ServiceException {
 
@@ -181,6 +214,156 @@ public class GetFeatureInfo {
     private List<FeatureCollection> execute(GetFeatureInfoRequest request, Style[] styles,
             Filter[] filters) throws Exception {
 
+        final List<MapLayerInfo> requestedLayers = request.getQueryLayers();
+        final int parallelism = Math.min(wms.getFeatureInfoParallelism(), requestedLayers.size());
+        if (parallelism > 1 && featureInfoPool != null) {
+            List<FeatureCollection> results = executeConcurrently(request, styles, filters,
+                    parallelism);
+            if (results != null) {
+                return results;
+            }
+        }
+
+        List<FeatureCollection> results = new ArrayList<FeatureCollection>(requestedLayers.size());
+
+        int maxFeatures = request.getFeatureCount();
+        for (int i = 0; i < requestedLayers.size(); i++) {
+            LayerResult result = identifyLayer(request, styles, filters, i, maxFeatures);
+            results.addAll(result.collections);
+
+            // don't return more than FEATURE_COUNT
+            maxFeatures -= result.size;
+            if (result.size > 0 && maxFeatures <= 0) {
+                break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Identifies the query layers concurrently, using at most <code>parallelism</code> threads
+     * of the {@link FeatureInfoPool feature info pool}, and returns the results in query layer
+     * order, applying FEATURE_COUNT the same way the sequential execution does.
+     * <p>
+     * Each layer is identified asking for FEATURE_COUNT features, and the layer where the count
+     * is reached is identified again asking only for the features still missing. The layers
+     * following it are not identified, unless a thread already started working on them.
+     * Cascaded layers do not report how many features they returned, so they are identified
+     * again asking for the features still missing whenever a previous layer returned some, as
+     * the sequential execution would have asked for those only.
+     * </p>
+     * 
+     * @return the results, or <code>null</code> if the pool had no room for the request
+     */
+    @SuppressWarnings("rawtypes")
+    private List<FeatureCollection> executeConcurrently(final GetFeatureInfoRequest request,
+            final Style[] styles, final Filter[] filters, int parallelism) throws Exception {
+        final int layerCount = request.getQueryLayers().size();
+        final int featureCount = request.getFeatureCount();
+
+        final List<FutureTask<LayerResult>> tasks = new ArrayList<FutureTask<LayerResult>>(
+                layerCount);
+        for (int i = 0; i < layerCount; i++) {
+            final int layerIndex = i;
+            tasks.add(new FutureTask<LayerResult>(new Callable<LayerResult>() {
+                public LayerResult call() throws Exception {
+                    return identifyLayer(request, styles, filters, layerIndex, featureCount);
+                }
+            }));
+        }
+
+        // the workers pick the layers in query order, so that the ones more likely to make it
+        // into the response are identified first. They run on behalf of the current request
+        // and user, as layer security and env variables depend on them
+        final AtomicInteger next = new AtomicInteger();
+        final Request owsRequest = Dispatcher.REQUEST.get();
+        final SecurityContext securityContext = SecurityContextHolder.getContext();
+        int started = 0;
+        for (int i = 0; i < parallelism; i++) {
+            boolean accepted = featureInfoPool.execute(new Runnable() {
+                public void run() {
+                    EnviromentInjectionCallback environment = new EnviromentInjectionCallback();
+                    Dispatcher.REQUEST.set(owsRequest);
+                    SecurityContextHolder.setContext(securityContext);
+                    if (owsRequest != null) {
+                        environment.init(owsRequest);
+                    }
+                    try {
+                        for (int j = next.getAndIncrement(); j < tasks.size(); j = next
+                                .getAndIncrement()) {
+                            tasks.get(j).run();
+                        }
+                    } finally {
+                        environment.finished(owsRequest);
+                        SecurityContextHolder.clearContext();
+                        Dispatcher.REQUEST.remove();
+                    }
+                }
+            });
+            if (!accepted) {
+                break;
+            }
+            started++;
+        }
+        if (started == 0) {
+            return null;
+        }
+
+        final int timeout = wms.getFeatureInfoTimeout();
+        final long deadline = System.currentTimeMillis() + timeout * 1000l;
+        List<FeatureCollection> results = new ArrayList<FeatureCollection>(layerCount);
+        int maxFeatures = featureCount;
+        try {
+            for (int i = 0; i < layerCount; i++) {
+                LayerResult result;
+                if (timeout > 0) {
+                    long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+                    result = tasks.get(i).get(remaining, TimeUnit.MILLISECONDS);
+                } else {
+                    result = tasks.get(i).get();
+                }
+                boolean cascaded = request.getQueryLayers().get(i).getType() 
+                        == MapLayerInfo.TYPE_WMS;
+                if (result.size > maxFeatures || (cascaded && maxFeatures < featureCount)) {
+                    // only part of the features fit in the response
+                    result = identifyLayer(request, styles, filters, i, maxFeatures);
+                }
+                results.addAll(result.collections);
+
+                // don't return more than FEATURE_COUNT
+                maxFeatures -= result.size;
+                if (result.size > 0 && maxFeatures <= 0) {
+                    break;
+                }
+            }
+        } catch (TimeoutException e) {
+            throw new ServiceException("GetFeatureInfo could not identify the query layers in "
+                    + timeout + " seconds, giving up");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        } finally {
+            // layers not started yet won't be identified, the running ones are left to complete,
+            // interrupting them might leave the store connections in an inconsistent state
+            for (FutureTask<LayerResult> task : tasks) {
+                task.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Identifies a single query layer, returning at most <code>maxFeatures</code> features
+     * unless the layer is a cascaded one
+     */
+    @SuppressWarnings("rawtypes")
+    private LayerResult identifyLayer(GetFeatureInfoRequest request, Style[] styles,
+            Filter[] filters, int i, int maxFeatures) throws Exception {
+
         final List<MapLayerInfo> requestedLayers = request.getQueryLayers();
         // delegate to subclasses the hard work
         final int x = request.getXPixel();
@@ -200,132 +383,139 @@ public class GetFeatureInfo {
 		final List<Object> times = request.getGetMapRequest().getTime();
         final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(GeoTools.getDefaultHints());
 
-        List<FeatureCollection> results = new ArrayList<FeatureCollection>(requestedLayers.size());
-
-        int maxFeatures = request.getFeatureCount();
-        for (int i = 0; i < requestedLayers.size(); i++) {
-            final MapLayerInfo layer = requestedLayers.get(i);
-            
-            // look at the property names
-            String[] names;
-            List<List<String>> propertyNames = request.getPropertyNames();
-            if(propertyNames == null || propertyNames.size() == 0 || propertyNames.get(i) == null) {
-                names = Query.ALL_NAMES;
-            } else {
-                List<String> layerPropNames = propertyNames.get(i);
-                names = (String[]) layerPropNames.toArray(new String[layerPropNames.size()]);
-            }
+        LayerResult result = new LayerResult();
+        final MapLayerInfo layer = requestedLayers.get(i);
+        
+        // look at the property names
+        String[] names;
+        List<List<String>> propertyNames = request.getPropertyNames();
+        if(propertyNames == null || propertyNames.size() == 0 || propertyNames.get(i) == null) {
+            names = Query.ALL_NAMES;
+        } else {
+            List<String> layerPropNames = propertyNames.get(i);
+            names = (String[]) layerPropNames.toArray(new String[layerPropNames.size()]);
+        }
 
-            // check cascaded WMS first, it's a special case
-            if (layer.getType() == MapLayerInfo.TYPE_WMS) {
-                List<FeatureCollection> cascadedResults;
-                cascadedResults = handleGetFeatureInfoCascade(request, maxFeatures, layer);
-                if (cascadedResults != null) {
-                    for (FeatureCollection fc : cascadedResults) {
-                        results.add(selectProperties(fc, names));
-                    }
+        // check cascaded WMS first, it's a special case
+        if (layer.getType() == MapLayerInfo.TYPE_WMS) {
+            List<FeatureCollection> cascadedResults;
+            cascadedResults = handleGetFeatureInfoCascade(request, maxFeatures, layer);
+            if (cascadedResults != null) {
+                for (FeatureCollection fc : cascadedResults) {
+                    result.collections.add(selectProperties(fc, names));
                 }
-                continue;
-            } 
-            final Style style = styles[i];
-            // ok, internally rendered layer then, we check the style to see what's active
-            final List<Rule> rules = getActiveRules(style, scaleDenominator);
-            if (rules.size() == 0) {
-                continue;
             }
-            
-            FeatureCollection collection = null;
-            if (layer.getType() == MapLayerInfo.TYPE_VECTOR) {
-                final Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
+            return result;
+        } 
+        final Style style = styles[i];
+        // ok, internally rendered layer then, we check the style to see what's active
+        final List<Rule> rules = getActiveRules(style, scaleDenominator);
+        if (rules.size() == 0) {
+            return result;
+        }
+        
+        FeatureCollection collection = null;
+        if (layer.getType() == MapLayerInfo.TYPE_VECTOR) {
+            final Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
 				collection = identifyVectorLayer(filters, x, y, buffer, viewParam,
-                        requestedCRS, width, height, bbox, ff, results, i, layer, rules, maxFeatures,
-                        times, elevations, names);
-            } else if (layer.getType() == MapLayerInfo.TYPE_RASTER) {
-                final CoverageInfo cinfo = requestedLayers.get(i).getCoverage();
-                final AbstractGridCoverage2DReader reader = (AbstractGridCoverage2DReader) cinfo
-                        .getGridCoverageReader(new NullProgressListener(),
-                                GeoTools.getDefaultHints());
-                
-                
-                // set the requested position in model space for this request
-                final Coordinate middle = WMS.pixelToWorld(x, y, bbox, width, height);
-                DirectPosition position = new DirectPosition2D(requestedCRS, middle.x, middle.y);
-
-                // change from request crs to coverage crs in order to compute a minimal request
-                // area,
-                // TODO this code need to be made much more robust
-                if (requestedCRS != null) {
-                    final CoordinateReferenceSystem targetCRS;
-                    if(cinfo.getProjectionPolicy() == ProjectionPolicy.NONE) {
-                        targetCRS = cinfo.getNativeCRS();
-                    } else {
-                        targetCRS = cinfo.getCRS();
-                    }
-                    final TransformedDirectPosition arbitraryToInternal = new TransformedDirectPosition(
-                            requestedCRS, targetCRS, new Hints(Hints.LENIENT_DATUM_SHIFT,
-                                    Boolean.TRUE));
-                    try {
-                        arbitraryToInternal.transform(position);
-                    } catch (TransformException exception) {
-                        throw new CannotEvaluateException("Unable to answer the geatfeatureinfo",
-                                exception);
-                    }
-                    position = arbitraryToInternal;
+                    requestedCRS, width, height, bbox, ff, i, layer, rules, maxFeatures,
+                    times, elevations, names);
+        } else if (layer.getType() == MapLayerInfo.TYPE_RASTER) {
+            final CoverageInfo cinfo = requestedLayers.get(i).getCoverage();
+            final AbstractGridCoverage2DReader reader = (AbstractGridCoverage2DReader) cinfo
+                    .getGridCoverageReader(new NullProgressListener(),
+                            GeoTools.getDefaultHints());
+            
+            
+            // set the requested position in model space for this request
+            final Coordinate middle = WMS.pixelToWorld(x, y, bbox, width, height);
+            DirectPosition position = new DirectPosition2D(requestedCRS, middle.x, middle.y);
+
+            // change from request crs to coverage crs in order to compute a minimal request
+            // area,
+            // TODO this code need to be made much more robust
+            if (requestedCRS != null) {
+                final CoordinateReferenceSystem targetCRS;
+                if(cinfo.getProjectionPolicy() == ProjectionPolicy.NONE) {
+                    targetCRS = cinfo.getNativeCRS();
+                } else {
+                    targetCRS = cinfo.getCRS();
                 }
-                // check that the provided point is inside the bbox for this coverage
-                if (!reader.getOriginalEnvelope().contains(position)) {
-                    continue;
+                final TransformedDirectPosition arbitraryToInternal = new TransformedDirectPosition(
+                        requestedCRS, targetCRS, new Hints(Hints.LENIENT_DATUM_SHIFT,
+                                Boolean.TRUE));
+                try {
+                    arbitraryToInternal.transform(position);
+                } catch (TransformException exception) {
+                    throw new CannotEvaluateException("Unable to answer the geatfeatureinfo",
+                            exception);
                 }
-
-                // read from the request
-                GeneralParameterValue[] parameters = wms.getWMSReadParameters(request.getGetMapRequest(), 
-                        requestedLayers.get(i), filters[i], times, elevations, reader, true);
-                collection = identifyRasterLayer(reader, position, parameters, cinfo, getMapReq);
-                
-                // apply attribute selection
-                collection = selectProperties(collection, names);
-            } else {
-                LOGGER.log(Level.SEVERE,
-                        "Can't perform feature info " + "requests on " + layer.getName()
-                                + ", layer type not supported");
+                position = arbitraryToInternal;
+            }
+            // check that the provided point is inside the bbox for this coverage
+            if (!reader.getOriginalEnvelope().contains(position)) {
+                return result;
             }
+
+            // read from the request
+            GeneralParameterValue[] parameters = wms.getWMSReadParameters(request.getGetMapRequest(), 
+                    requestedLayers.get(i), filters[i], times, elevations, reader, true);
+            collection = identifyRasterLayer(reader, position, parameters, cinfo, getMapReq);
             
+            // apply attribute selection
+            collection = selectProperties(collection, names);
+        } else {
+            LOGGER.log(Level.SEVERE,
+                    "Can't perform feature info " + "requests on " + layer.getName()
+                            + ", layer type not supported");
+        }
+        
 
-            if (collection != null) {
-                if (!(collection.getSchema() instanceof SimpleFeatureType)) {
-                    //put wrapper around it with layer name
-                    Name name = new NameImpl (layer.getFeature().getNamespace().getName(), layer.getFeature().getName());                
-                    collection = new FeatureCollectionDecorator(name, collection);
-                }
-                
-                int size = collection.size();
-                if(size != 0) {
-
-                    // HACK HACK HACK
-                    // For complex features, we need the targetCrs and version in scenario where we have
-                    // a top level feature that does not contain a geometry(therefore no crs) and has a
-                    // nested feature that contains geometry as its property.Furthermore it is possible
-                    // for each nested feature to have different crs hence we need to reproject on each
-                    // feature accordingly.
-                    // This is a Hack, this information should not be passed through feature type
-                    // appschema will need to remove this information from the feature type again
-                	if (! (collection instanceof SimpleFeatureCollection)) {
-                       collection.getSchema().getUserData().put("targetCrs", request.getGetMapRequest().getCrs());
-                       collection.getSchema().getUserData().put("targetVersion", "wms:getfeatureinfo");
-                       
-                    }
-                	
-                    results.add(collection);
-                    
-                    // don't return more than FEATURE_COUNT
-                    maxFeatures -= size;
-                    if(maxFeatures <= 0) {
-                        break;
-                    }
+        if (collection != null) {
+            if (!(collection.getSchema() instanceof SimpleFeatureType)) {
+                //put wrapper around it with layer name
+                Name name = new NameImpl (layer.getFeature().getNamespace().getName(), layer.getFeature().getName());                
+                collection = new FeatureCollectionDecorator(name, collection);
+            }
+            
+            int size = collection.size();
+            if(size != 0) {
+
+                // HACK HACK HACK
+                // For complex features, we need the targetCrs and version in scenario where we have
+                // a top level feature that does not contain a geometry(therefore no crs) and has a
+                // nested feature that contains geometry as its property.Furthermore it is possible
+                // for each nested feature to have different crs hence we need to reproject on each
+                // feature accordingly.
+                // This is a Hack, this information should not be passed through feature type
+                // appschema will need to remove this information from the feature type again
+            	if (! (collection instanceof SimpleFeatureCollection)) {
+                   collection.getSchema().getUserData().put("targetCrs", request.getGetMapRequest().getCrs());
+                   collection.getSchema().getUserData().put("targetVersion", "wms:getfeatureinfo");
+                   
                 }
+            	
+                result.collections.add(collection);
+                result.size = size;
             }
         }
-        return results;
+        return result;
+    }
+
+    /**
+     * The outcome of identifying a single query layer
+     */
+    @SuppressWarnings("rawtypes")
+    static class LayerResult {
+        /**
+         * The collections to be returned for the layer, empty if nothing was found
+         */
+        List<FeatureCollection> collections = new ArrayList<FeatureCollection>(1);
+
+        /**
+         * The number of features counting towards FEATURE_COUNT
+         */
+        int size;
     }
 
     private FeatureCollection selectProperties(FeatureCollection collection, String[] names) throws IOException {
@@ -409,7 +599,7 @@ public class GetFeatureInfo {
             final int x, final int y, final int buffer, final Map<String, String> viewParams,
             final CoordinateReferenceSystem requestedCRS, final int width, final int height,
             final ReferencedEnvelope bbox, final FilterFactory2 ff,
-            List<FeatureCollection> results, int i, final MapLayerInfo layer, final List<Rule> rules,
+            int i, final MapLayerInfo layer, final List<Rule> rules,
             final int maxFeatures, List<Object> times, List<Object> elevations, final String[] propertyNames)
             throws IOException {
 
@@ -475,6 +665,21 @@ public class GetFeatureInfo {
             throw new ServiceException("Internal error : " + e.getMessage(), e);
         }
 
+        // the cached index of the layer geometries tells which features might be hit, so that
+        // the store is queried by id, or not queried at all if nothing is hit
+        if (featureInfoIndex != null && schema instanceof SimpleFeatureType
+                && (viewParams == null || viewParams.isEmpty()) && layer.getFeature() != null) {
+            double resolution = pixelRect.getEnvelopeInternal().getWidth() / (2 * radius);
+            Set<FeatureId> candidates = featureInfoIndex.getCandidates(layer.getFeature(),
+                    pixelRect, resolution);
+            if (candidates != null) {
+                if (candidates.isEmpty()) {
+                    return null;
+                }
+                getFInfoFilter = ff.and(ff.id(candidates), getFInfoFilter);
+            }
+        }
+
         // include the eventual layer definition filter
         if (filters[i] != null) {
             getFInfoFilter = ff.and(getFInfoFilter, filters[i]);
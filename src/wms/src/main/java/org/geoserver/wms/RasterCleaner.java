@@ -14,6 +14,8 @@ import javax.media.jai.RenderedImageList;
 
 import org.geoserver.ows.AbstractDispatcherCallback;
 import org.geoserver.ows.Request;
+import org.geoserver.wms.animate.FrameList;
+import org.geoserver.wms.map.ImagePool;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.resources.image.ImageUtilities;
 
@@ -62,6 +64,8 @@ public class RasterCleaner extends AbstractDispatcherCallback {
     public void finished(Request request) {
         disposeCoverages();
         disposeImages();
+        // the response has been written, the drawing surfaces can be reused
+        ImagePool.getDefault().release();
     }
 
     private void disposeImages() {
@@ -69,7 +73,11 @@ public class RasterCleaner extends AbstractDispatcherCallback {
         if (list != null) {
             images.remove();
             for (RenderedImage image : list) {
-                if (image instanceof RenderedImageList) {
+                if (image instanceof FrameList) {
+                    // frames are disposed as they are encoded, just make sure the ones left
+                    // are not rendered
+                    ((FrameList) image).dispose();
+                } else if (image instanceof RenderedImageList) {
                     RenderedImageList ril = (RenderedImageList) image;
                     for (int i = 0; i < ril.size(); i++) {
                         disposeImage((RenderedImage) ril.get(i));
@@ -21,6 +21,7 @@ import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageInfo;
@@ -45,7 +46,9 @@ import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.WMSInfo.WMSInterpolation;
 import org.geoserver.wms.WatermarkInfo.Position;
 import org.geoserver.wms.featureinfo.GetFeatureInfoOutputFormat;
+import org.geoserver.wms.map.PNGMapResponse.PNGEncoderType;
 import org.geoserver.wms.map.RenderedImageMapResponse;
+import org.geoserver.wms.map.png.PNGWriter.FilterType;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
@@ -105,6 +108,28 @@ public class WMS implements ApplicationContextAware {
 
     public static final int PNG_COMPRESSION_DEFAULT = 25;
 
+    public static final String PNG_ENCODER = "pngEncoder";
+
+    public static final PNGEncoderType PNG_ENCODER_DEFAULT = PNGEncoderType.IMAGEIO;
+
+    public static final String PNG_FILTER = "pngFilter";
+
+    public static final FilterType PNG_FILTER_DEFAULT = FilterType.AUTO;
+
+    public static final String PNG_DEFLATE_STRATEGY = "pngDeflateStrategy";
+
+    public static final String PARALLEL_RENDERING = "parallelRendering";
+
+    public static final int PARALLEL_RENDERING_DEFAULT = 0;
+
+    public static final String FEATURE_INFO_PARALLELISM = "featureInfoParallelism";
+
+    public static final int FEATURE_INFO_PARALLELISM_DEFAULT = 0;
+
+    public static final String FEATURE_INFO_TIMEOUT = "featureInfoTimeout";
+
+    public static final int FEATURE_INFO_TIMEOUT_DEFAULT = 0;
+
     public static final String MAX_ALLOWED_FRAMES = "maxAllowedFrames";
 
     public static final int MAX_ALLOWED_FRAMES_DEFAULT = Integer.MAX_VALUE;
@@ -462,12 +487,83 @@ public class WMS implements ApplicationContextAware {
                 PNG_COMPRESSION_DEFAULT);
     }
 
+    /**
+     * The encoder used for PNG output
+     */
+    public PNGEncoderType getPNGEncoderType() {
+        return getMetadataEnum(PNG_ENCODER, PNG_ENCODER_DEFAULT, PNGEncoderType.class);
+    }
+
+    /**
+     * The scanline filter used by the {@link PNGEncoderType#FAST} PNG encoder
+     */
+    public FilterType getPNGFilterType() {
+        return getMetadataEnum(PNG_FILTER, PNG_FILTER_DEFAULT, FilterType.class);
+    }
+
+    /**
+     * The deflate strategy used by the {@link PNGEncoderType#FAST} PNG encoder, one of
+     * "DEFAULT", "FILTERED" and "HUFFMAN_ONLY", see {@link Deflater#setStrategy(int)}
+     */
+    public int getPNGDeflateStrategy() {
+        String strategy = getMetadataValue(PNG_DEFLATE_STRATEGY, null, String.class);
+        if (strategy == null || "DEFAULT".equalsIgnoreCase(strategy)) {
+            return Deflater.DEFAULT_STRATEGY;
+        } else if ("FILTERED".equalsIgnoreCase(strategy)) {
+            return Deflater.FILTERED;
+        } else if ("HUFFMAN_ONLY".equalsIgnoreCase(strategy)) {
+            return Deflater.HUFFMAN_ONLY;
+        }
+        LOGGER.warning("Invalid value for '" + PNG_DEFLATE_STRATEGY + "': " + strategy
+                + ", using the default strategy");
+        return Deflater.DEFAULT_STRATEGY;
+    }
+
+    <T extends Enum<T>> T getMetadataEnum(String key, T defaultValue, Class<T> clazz) {
+        String value = getMetadataValue(key, null, String.class);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(clazz, value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Invalid value for '" + key + "': " + value + ", using "
+                    + defaultValue);
+            return defaultValue;
+        }
+    }
+
     public int getJpegCompression() {
         WMSInfo serviceInfo = getServiceInfo();
         return getMetadataPercentage(serviceInfo.getMetadata(), JPEG_COMPRESSION,
                 JPEG_COMPRESSION_DEFAULT);
     }
 
+    /**
+     * The maximum number of layer groups a GetMap request gets split into for concurrent
+     * rendering, zero or one disable concurrent rendering
+     */
+    public int getParallelRendering() {
+        return getMetadataValue(PARALLEL_RENDERING, PARALLEL_RENDERING_DEFAULT, Integer.class);
+    }
+
+    /**
+     * The maximum number of query layers a GetFeatureInfo request identifies concurrently, zero
+     * or one make the query layers be identified one after the other
+     */
+    public int getFeatureInfoParallelism() {
+        return getMetadataValue(FEATURE_INFO_PARALLELISM, FEATURE_INFO_PARALLELISM_DEFAULT,
+                Integer.class);
+    }
+
+    /**
+     * The maximum time, in seconds, a GetFeatureInfo request identifying its query layers
+     * concurrently can take, zero means no limit
+     */
+    public int getFeatureInfoTimeout() {
+        return getMetadataValue(FEATURE_INFO_TIMEOUT, FEATURE_INFO_TIMEOUT_DEFAULT, Integer.class);
+    }
+
     public int getMaxAllowedFrames() {
     	return getMetadataValue(MAX_ALLOWED_FRAMES, MAX_ALLOWED_FRAMES_DEFAULT, Integer.class);
     }
@@ -14,8 +14,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 
 import javax.media.jai.RenderedImageList;
@@ -24,6 +22,7 @@ import org.apache.commons.beanutils.BeanUtils;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.util.CaseInsensitiveMap;
 import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
@@ -35,13 +34,19 @@ import org.geoserver.wms.map.RenderedImageMapResponse;
 
 /**
  * The Frame Visitor contains the logic to produce frame images.<br/>
- * The "visit" method initializes the runnables and the animatorExecutor service, while
- * the "produce" method runs the tasks and generated the frames images.
+ * The "visit" method initializes the frame rendering tasks, while the "produce" method returns
+ * the list of frames, rendered on the animatorExecutor service as the animation is encoded.
  * @author Alessio Fabiani, GeoSolutions S.A.S., alessio.fabiani@geo-solutions.it
  * @author Andrea Aime, GeoSolutions S.A.S., andrea.aime@geo-solutions.it
  */
 public class FrameCatalogVisitor {
 
+    /**
+     * Maximum number of frames of an animation rendered concurrently, and thus held in memory,
+     * while the animation is encoded. Matches the core size of the animator executor service.
+     */
+    static final int FRAMES_WINDOW = 4;
+
     /**
      * total number of available frames for this visitor
      */
@@ -50,10 +55,11 @@ public class FrameCatalogVisitor {
     /**
      * the list of runnables to be executed
      */
-    List<Future<RenderedImage>> tasks;
+    List<FutureTask<RenderedImage>> tasks;
 
     /**
-     * Adds a new visitor to the runnables list and initializes the animatorExecutor service is not yet initialied. 
+     * Adds a new visitor to the runnables list. The frame is not rendered until the list of
+     * frames is {@link #produce(WMS) produced} and read.
      * @param request
      * @param wms
      * @param wmsConfiguration
@@ -62,7 +68,7 @@ public class FrameCatalogVisitor {
      */
     public void visit(final GetMapRequest request, WebMapService wms, WMS wmsConfiguration, String aparam, String avalue) {
         if (this.tasks == null) {
-            this.tasks = new LinkedList<Future<RenderedImage>>();
+            this.tasks = new LinkedList<FutureTask<RenderedImage>>();
         }
 
         FrameLoader loader = new FrameLoader(request, wms, wmsConfiguration, aparam, avalue);
@@ -71,65 +77,34 @@ public class FrameCatalogVisitor {
         final FutureTask<RenderedImage> task = new FutureTask<RenderedImage>(loader);
         this.tasks.add(task);
         this.framesNumber++;
-
-        // run the loading in this thread
-        wmsConfiguration.getAnimatorExecutorService().execute(task);
     }
 
     /**
-     * Invokes the Executor service and produces the frames images.
+     * Returns the list of frames images, rendered on the animatorExecutor service as they are
+     * read, while the animation size and rendering time limits are checked. The first frame is
+     * rendered right away, so that failures common to all frames are reported before the
+     * animation encoding is started.
      * @param wmsConfiguration
      * @return
      * @throws IOException
      */
     public RenderedImageList produce(WMS wmsConfiguration) throws IOException {
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
-
-        long gifAnimatedSize = 0;
-
-        for (Future<RenderedImage> future : tasks) {
-            RenderedImage image = null;
-            try {
-                image = future.get();
-            } catch (InterruptedException e) {
-                dispose();
-                throw new IOException(e);
-            } catch (ExecutionException e) {
-                dispose();
-                throw new IOException(e);
-            }
-
-            if (image == null) {
-                continue;
-            }
-
-            // collect the images
-            gifAnimatedSize += getImageSizeInBytes(image);
-            if (wmsConfiguration.getMaxRenderingSize() != null
-                    && gifAnimatedSize >= wmsConfiguration.getMaxRenderingSize()) {
-                dispose();
-                throw new IOException("Max rendering size exceed!");
-            }
-
-            images.add(image);
-        }
-
-        if (images == null || images.size() == 0) {
+        if (tasks == null || tasks.size() == 0) {
             dispose();
             throw new IOException("Empty list of frames.");
         }
 
+        FrameList frames = new FrameList(tasks, wmsConfiguration.getAnimatorExecutorService(),
+                FRAMES_WINDOW, wmsConfiguration.getMaxRenderingSize(),
+                wmsConfiguration.getMaxAnimatorRenderingTime());
         dispose();
-        return new RenderedImageList(images);
-    }
-
-    private long getImageSizeInBytes(RenderedImage image) {
-        int tileWidth = image.getTileWidth();
-        int tileLength = image.getNumXTiles();
-        int numBands = image.getSampleModel().getNumBands();
-        int[] sampleSize = image.getSampleModel().getSampleSize();
 
-        return (long) Math.ceil(2 * tileWidth * tileLength * numBands * (sampleSize[0] / 8.0));
+        try {
+            frames.get(0);
+        } catch (ServiceException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return frames;
     }
 
     /**
@@ -214,7 +189,6 @@ class FrameLoader implements Callable<RenderedImage> {
         }
         
         wmsResponse = this.wms.getMap(frameRequest);
-
         return ((RenderedImageMap) wmsResponse).getImage();
     }
 
@@ -0,0 +1,217 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.animate;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RenderedImageList;
+
+import org.geoserver.platform.ServiceException;
+import org.geotools.resources.image.ImageUtilities;
+
+/**
+ * The frames of an animation, rendered on demand while the animation is being encoded.
+ * <p>
+ * Frames are meant to be read once and in order, as the animation encoders do. Reading a frame
+ * makes the frames following it, up to the window size, be rendered in the background, so that
+ * at most a window of frames is held in memory no matter how long the animation is. Frames read
+ * are not retained, besides the first one, which backs the {@link RenderedImage} methods of the
+ * list.
+ * </p>
+ * <p>
+ * The animation size and rendering time limits are checked as the frames are rendered, a frame
+ * breaking them fails the animation and stops the rendering of the frames left.
+ * </p>
+ */
+public class FrameList extends RenderedImageList {
+
+    private static final long serialVersionUID = -5021870467207451045L;
+
+    List<FutureTask<RenderedImage>> tasks;
+
+    ExecutorService executor;
+
+    int window;
+
+    Long maxSize;
+
+    Long maxTime;
+
+    long deadline;
+
+    /**
+     * Index of the next frame to be handed out
+     */
+    int next;
+
+    /**
+     * Number of frames submitted for rendering
+     */
+    int submitted;
+
+    long size;
+
+    RenderedImage first;
+
+    boolean disposed;
+
+    /**
+     * @param tasks The tasks rendering the frames
+     * @param executor The executor rendering the frames
+     * @param window The maximum number of frames rendered ahead of the one being read
+     * @param maxSize The maximum size of the animation, in bytes, or null
+     * @param maxTime The maximum time allowed to render the frames, in milliseconds, or null
+     */
+    public FrameList(List<FutureTask<RenderedImage>> tasks, ExecutorService executor,
+            int window, Long maxSize, Long maxTime) {
+        this.tasks = new ArrayList<FutureTask<RenderedImage>>(tasks);
+        this.executor = executor;
+        this.window = Math.max(window, 1);
+        this.maxSize = maxSize;
+        this.maxTime = maxTime;
+        this.deadline = maxTime != null ? System.currentTimeMillis() + maxTime : Long.MAX_VALUE;
+        this.imageCollection = new AbstractList<RenderedImage>() {
+            @Override
+            public RenderedImage get(int index) {
+                return getFrame(index);
+            }
+
+            @Override
+            public int size() {
+                return FrameList.this.tasks.size();
+            }
+        };
+    }
+
+    /**
+     * Returns the specified frame, waiting for it to be rendered, or null if the frame has
+     * already been read or the list has been disposed
+     */
+    synchronized RenderedImage getFrame(int index) {
+        if (index < 0 || index >= tasks.size()) {
+            throw new IndexOutOfBoundsException("Frame " + index + " out of " + tasks.size());
+        }
+        if (index == 0 && first != null) {
+            return first;
+        }
+        if (disposed || index < next) {
+            return null;
+        }
+
+        RenderedImage frame = null;
+        while (next <= index) {
+            if (frame != null) {
+                // skipped frame, nobody is going to read it
+                dispose(frame);
+            }
+            frame = awaitFrame(next);
+            if (next == 0) {
+                first = frame;
+            }
+            next++;
+        }
+        return frame;
+    }
+
+    /**
+     * Waits for the frame to be rendered, keeping the window of frames rendered ahead full and
+     * enforcing the limits
+     */
+    RenderedImage awaitFrame(int index) {
+        while (submitted < tasks.size() && submitted <= index + window - 1) {
+            executor.execute(tasks.get(submitted++));
+        }
+
+        RenderedImage frame;
+        FutureTask<RenderedImage> task = tasks.get(index);
+        try {
+            if (deadline == Long.MAX_VALUE) {
+                frame = task.get();
+            } else {
+                long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+                frame = task.get(remaining, TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException e) {
+            dispose();
+            throw new ServiceException("Max rendering time exceeded, the animation took more than "
+                    + maxTime + " ms to render");
+        } catch (ExecutionException e) {
+            dispose();
+            throw new ServiceException("Failed to render frame " + index, e.getCause());
+        } catch (InterruptedException e) {
+            dispose();
+            throw new ServiceException("Interrupted while rendering frame " + index, e);
+        }
+        // let go of the task, it references the frame
+        tasks.set(index, null);
+
+        if (frame != null && maxSize != null) {
+            size += getImageSizeInBytes(frame);
+            // frames share the same size, so the first one tells how large the animation is
+            // going to be before any rendering or encoding effort is wasted
+            long expected = index == 0 ? size * tasks.size() : size;
+            if (expected >= maxSize) {
+                dispose(frame);
+                dispose();
+                throw new ServiceException("Max rendering size exceed!");
+            }
+        }
+
+        return frame;
+    }
+
+    static long getImageSizeInBytes(RenderedImage image) {
+        int tileWidth = image.getTileWidth();
+        int tileLength = image.getNumXTiles();
+        int numBands = image.getSampleModel().getNumBands();
+        int[] sampleSize = image.getSampleModel().getSampleSize();
+
+        return (long) Math.ceil(2 * tileWidth * tileLength * numBands * (sampleSize[0] / 8.0));
+    }
+
+    /**
+     * Stops rendering the frames left and lets go of the rendered ones, further reads of frames
+     * other than the first one return null
+     */
+    public synchronized void dispose() {
+        if (disposed) {
+            return;
+        }
+        disposed = true;
+        for (int i = next; i < tasks.size(); i++) {
+            FutureTask<RenderedImage> task = tasks.get(i);
+            if (task == null) {
+                continue;
+            }
+            // frames being rendered are left to complete, the others won't start
+            if (!task.cancel(false) && task.isDone()) {
+                try {
+                    dispose(task.get());
+                } catch (Exception e) {
+                    // failed frame, nothing to dispose
+                }
+            }
+            tasks.set(i, null);
+        }
+    }
+
+    static void dispose(RenderedImage image) {
+        if (image instanceof PlanarImage) {
+            ImageUtilities.disposePlanarImageChain((PlanarImage) image);
+        } else if (image instanceof BufferedImage) {
+            ((BufferedImage) image).flush();
+        }
+    }
+}
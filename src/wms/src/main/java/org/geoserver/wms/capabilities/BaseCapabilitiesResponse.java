@@ -4,12 +4,24 @@
  */
 package org.geoserver.wms.capabilities;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.geoserver.ows.CapabilitiesCache;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetCapabilitiesRequest;
+import org.geoserver.wms.WMSInfo;
 
 /**
  * Base class that handles common behavior between 1.1.1 and 1.3.0
+ * <p>
+ * When the capabilities cache is enabled, by setting the {@link CapabilitiesCache#ENABLED_KEY} flag
+ * in the WMS metadata, the encoded document is kept in the {@link CapabilitiesCache} and served
+ * from there, along with an ETag header, until the catalog or the configuration change. Otherwise it is streamed straight to the
+ * output.
+ * </p>
  * 
  * @author Simone Giannecchini, GeoSolutions
  *
@@ -48,4 +60,47 @@ public abstract class BaseCapabilitiesResponse extends Response {
                 + "/" + operation.getId());
     }
 
-}
\ No newline at end of file
+    @Override
+    public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+        CapabilitiesCache cache = CapabilitiesCache.get();
+        return cache != null ? cache.getHeaders(getKey(cache, operation)) : null;
+    }
+
+    @Override
+    public void write(final Object value, OutputStream output, Operation operation)
+            throws IOException, ServiceException {
+        final GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
+
+        CapabilitiesCache cache = CapabilitiesCache.get();
+        if (cache == null) {
+            encode(value, request, output);
+            return;
+        }
+
+        cache.write(getKey(cache, operation), output, new CapabilitiesCache.Encoder() {
+            public void encode(OutputStream output) throws IOException {
+                BaseCapabilitiesResponse.this.encode(value, request, output);
+            }
+        });
+    }
+
+    /**
+     * Encodes the capabilities document to the output
+     * 
+     * @param value The transformer returned by the GetCapabilities operation
+     * @param request The GetCapabilities request
+     * @param output The destination
+     */
+    protected abstract void encode(Object value, GetCapabilitiesRequest request,
+            OutputStream output) throws IOException, ServiceException;
+
+    /**
+     * Returns the cache key of the document, or <code>null</code> if caching is not enabled for
+     * WMS
+     */
+    CapabilitiesCache.Key getKey(CapabilitiesCache cache, Operation operation) {
+        return cache.requestKey(WMSInfo.class, operation, "NAMESPACE", "FORMAT",
+                "UPDATESEQUENCE");
+    }
+
+}
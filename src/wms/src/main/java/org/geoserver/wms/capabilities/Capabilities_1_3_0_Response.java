@@ -10,7 +10,6 @@ import java.io.OutputStream;
 import javax.xml.transform.TransformerException;
 
 import org.geoserver.ows.Response;
-import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetCapabilitiesRequest;
 
@@ -29,21 +28,19 @@ public class Capabilities_1_3_0_Response extends BaseCapabilitiesResponse {
     /**
      * @param value
      *            {@link Capabilities_1_3_0_Transformer}
+     * @param request
+     *            the GetCapabilities request
      * @param output
      *            destination
-     * @param operation
-     *            The operation identifier which resulted in <code>value</code>
-     * @see org.geoserver.ows.Response#write(java.lang.Object, java.io.OutputStream,
-     *      org.geoserver.platform.Operation)
+     * @see BaseCapabilitiesResponse#encode(Object, GetCapabilitiesRequest, OutputStream)
      */
     @Override
-    public void write(final Object value, final OutputStream output, final Operation operation)
-            throws IOException, ServiceException {
+    protected void encode(final Object value, final GetCapabilitiesRequest request,
+            final OutputStream output) throws IOException, ServiceException {
 
         Capabilities_1_3_0_Transformer transformer = (Capabilities_1_3_0_Transformer) value;
 
         try {
-            GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
             transformer.transform(request, output);
         } catch (TransformerException e) {
             throw new ServiceException(e);
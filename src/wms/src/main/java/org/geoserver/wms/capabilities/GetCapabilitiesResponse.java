@@ -25,7 +25,6 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.geoserver.ows.Response;
-import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.CapabilitiesTransformer;
 import org.geoserver.wms.ExtendedCapabilitiesProvider;
@@ -91,19 +90,17 @@ public class GetCapabilitiesResponse extends BaseCapabilitiesResponse {
     /**
      * @param value
      *            {@link GetCapabilitiesTransformer}
+     * @param request
+     *            the GetCapabilities request
      * @param output
      *            destination
-     * @param operation
-     *            The operation identifier which resulted in <code>value</code>
-     * @see org.geoserver.ows.Response#write(java.lang.Object, java.io.OutputStream,
-     *      org.geoserver.platform.Operation)
+     * @see BaseCapabilitiesResponse#encode(Object, GetCapabilitiesRequest, OutputStream)
      */
     @Override
-    public void write(final Object value, final OutputStream output, final Operation operation)
-            throws IOException, ServiceException {
+    protected void encode(final Object value, final GetCapabilitiesRequest request,
+            final OutputStream output) throws IOException, ServiceException {
 
         final GetCapabilitiesTransformer transformer = (GetCapabilitiesTransformer) value;
-        final GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
 
         final String internalDTDDeclaration = getInternalDTDDeclaration(request);
 
@@ -4,6 +4,9 @@
  */
 package org.geoserver.wms.capabilities;
 
+import static org.geoserver.catalog.Predicates.and;
+import static org.geoserver.catalog.Predicates.asc;
+import static org.geoserver.catalog.Predicates.equal;
 import static org.geoserver.ows.util.ResponseUtils.*;
 
 import java.io.IOException;
@@ -32,6 +35,7 @@ import javax.xml.transform.TransformerException;
 import org.apache.commons.lang.StringUtils;
 import org.geoserver.catalog.AttributionInfo;
 import org.geoserver.catalog.AuthorityURLInfo;
+import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.KeywordInfo;
 import org.geoserver.catalog.LayerGroupInfo;
@@ -44,6 +48,7 @@ import org.geoserver.catalog.PublishedInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.config.ContactInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.ResourceErrorHandling;
@@ -64,7 +69,8 @@ import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.styling.Style;
 import org.geotools.xml.transform.TransformerBase;
 import org.geotools.xml.transform.Translator;
-import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.TransformException;
@@ -611,24 +617,25 @@ public class GetCapabilitiesTransformer extends TransformerBase {
         private void handleLayers() {
             start("Layer");
 
-            final List<LayerInfo> layers;
+            //ask for enabled and advertised to start with
+            Filter filter;
+            {
+                Filter enabled = equal("enabled", Boolean.TRUE);
+                Filter advertised = equal("advertised", Boolean.TRUE);
+                filter = and(enabled, advertised);
+            }
 
             // filter the layers if a namespace filter has been set
             if (request.getNamespace() != null) {
-                final List<LayerInfo> allLayers = wmsConfig.getLayers();
-                layers = new ArrayList<LayerInfo>();
-
-                String namespace = wmsConfig.getNamespaceByPrefix(request.getNamespace());
-                for (LayerInfo layer : allLayers) {
-                    Name name = layer.getResource().getQualifiedName();
-                    if (name.getNamespaceURI().equals(namespace)) {
-                        layers.add(layer);
-                    }
-                }
-            } else {
-                layers = wmsConfig.getLayers();
+                //build a query predicate for the namespace prefix
+                final String nsPrefix = request.getNamespace();
+                final String nsProp = "resource.namespace.prefix";
+                Filter equals = equal(nsProp, nsPrefix);
+                filter = and(filter, equals);
             }
 
+            final Catalog catalog = wmsConfig.getCatalog();
+
             WMSInfo serviceInfo = wmsConfig.getServiceInfo();
             element("Title", serviceInfo.getTitle());
             element("Abstract", serviceInfo.getAbstract());
@@ -640,7 +647,13 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             }
             handleRootCrsList(srs);
 
-            handleRootBbox(layers);
+            CloseableIterator<LayerInfo> layers;
+            layers = catalog.list(LayerInfo.class, filter);
+            try {
+                handleRootBbox(layers);
+            } finally {
+                layers.close();
+            }
 
             // handle AuthorityURL
             handleAuthorityURL(serviceInfo.getAuthorityURLs());
@@ -662,9 +675,14 @@ public class GetCapabilitiesTransformer extends TransformerBase {
                         + e.getMessage(), e);
             }
             
-            // now encode each layer individually
-            LayerTree featuresLayerTree = new LayerTree(layers);
-            handleLayerTree(featuresLayerTree, layersAlreadyProcessed);
+            // now encode each layer individually, streaming them out of the catalog
+            SortBy layerOrder = asc("name");
+            layers = catalog.list(LayerInfo.class, filter, null, null, layerOrder);
+            try {
+                handleLayerTree(layers, layersAlreadyProcessed);
+            } finally {
+                layers.close();
+            }
 
             end("Layer");
         }
@@ -718,18 +736,26 @@ public class GetCapabilitiesTransformer extends TransformerBase {
          * @param ftypes
          *            the collection of FeatureTypeInfo and CoverageInfo objects to traverse
          */
-        private void handleRootBbox(Collection<LayerInfo> layers) {
+        private void handleRootBbox(Iterator<LayerInfo> layers) {
+
+            final Envelope world = new Envelope(-180, 180, -90, 90);
 
             Envelope latlonBbox = new Envelope();
             Envelope layerBbox = null;
 
             LOGGER.finer("Collecting summarized latlonbbox and common SRS...");
 
-            for (LayerInfo layer : layers) {
+            while (layers.hasNext()) {
+                LayerInfo layer = layers.next();
                 ResourceInfo resource = layer.getResource();
                 layerBbox = resource.getLatLonBoundingBox();
                 if (layerBbox != null)
                     latlonBbox.expandToInclude(layerBbox);
+
+                //short cut for the case where we already reached the whole world bounds
+                if (latlonBbox.contains(world)) {
+                    break;
+                }
             }
 
             if (LOGGER.isLoggable(Level.FINE)) {
@@ -757,6 +783,27 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             return wmsExposable;   
         }
         
+        /**
+         * Encodes the layers with no wms path as they come out of the iterator, collecting only
+         * the ones that need to be nested into a {@link LayerTree}, which is encoded last.
+         */
+        private void handleLayerTree(final Iterator<LayerInfo> layers,
+                Set<LayerInfo> layersAlreadyProcessed) {
+            LayerTree nestedLayers = new LayerTree();
+
+            while (layers.hasNext()) {
+                LayerInfo layer = layers.next();
+                final String path = layer.getPath();
+                if (path != null && path.length() > 0 && !"/".equals(path)) {
+                    nestedLayers.add(layer);
+                    continue;
+                }
+                doHandleLayer(layer, layersAlreadyProcessed);
+            }
+
+            handleLayerTree(nestedLayers, layersAlreadyProcessed);
+        }
+
         /**
          * @param layerTree
          */
@@ -771,28 +818,7 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             });
 
             for (LayerInfo layer : data) {
-                // ask for enabled() instead of isEnabled() to account for disabled resource/store
-                // don't expose a geometryless layer through wms
-                if (layer.enabled() && !layersAlreadyProcessed.contains(layer) && isExposable(layer)) {
-                    try {
-                        mark();
-                        handleLayer(layer);
-                        commit();
-                    } catch (Exception e) {
-                        if (skipping) {
-                            reset();
-                            LOGGER.log(
-                                Level.WARNING, 
-                                "Error writing metadata; skipping layer: " + layer.getName(),
-                                e);
-                        } else {
-                            // report what layer we failed on to help the admin locate and fix it
-                            throw new ServiceException(
-                                    "Error occurred trying to write out metadata for layer: "
-                                            + layer.getName(), e);
-                        }
-                    }
-                }
+                doHandleLayer(layer, layersAlreadyProcessed);
             }
 
             for (LayerTree childLayerTree : children) {
@@ -804,6 +830,31 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             }
         }
 
+        private void doHandleLayer(LayerInfo layer, Set<LayerInfo> layersAlreadyProcessed) {
+            // ask for enabled() instead of isEnabled() to account for disabled resource/store
+            // don't expose a geometryless layer through wms
+            if (layer.enabled() && !layersAlreadyProcessed.contains(layer) && isExposable(layer)) {
+                try {
+                    mark();
+                    handleLayer(layer);
+                    commit();
+                } catch (Exception e) {
+                    if (skipping) {
+                        reset();
+                        LOGGER.log(
+                            Level.WARNING, 
+                            "Error writing metadata; skipping layer: " + layer.getName(),
+                            e);
+                    } else {
+                        // report what layer we failed on to help the admin locate and fix it
+                        throw new ServiceException(
+                                "Error occurred trying to write out metadata for layer: "
+                                        + layer.getName(), e);
+                    }
+                }
+            }
+        }
+
         /**
          * Calls super.handleFeatureType to add common FeatureType content such as Name, Title and
          * LatLonBoundingBox, and then writes WMS specific layer properties as Styles, Scale Hint,
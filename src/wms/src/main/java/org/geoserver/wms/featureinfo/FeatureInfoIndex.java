@@ -0,0 +1,522 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.featureinfo;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.WFSException;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.Feature;
+import org.opengis.feature.GeometryAttribute;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.identity.FeatureId;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Caches in memory spatial indexes of the layer geometries, so that GetFeatureInfo can tell
+ * which features are under the requested pixel without running a spatial query against the
+ * store, and without querying the store at all when nothing is hit.
+ * <p>
+ * Indexes are built lazily, the first time a layer is identified at a given zoom band, reading
+ * the layer geometries simplified to the resolution of the band. The candidates found in the
+ * index are within the simplification tolerance of the search area, the store is then queried
+ * by id for the actual features, which keeps the results exact.
+ * </p>
+ * <p>
+ * Indexes are invalidated by WFS transactions and catalog changes, data modified by other means
+ * is not noticed until the index is evicted or {@link #clear() cleared}. The indexes are bounded
+ * by a memory budget, the least recently used ones are evicted when it's exceeded and layers
+ * whose index alone would not fit are not indexed. The budget is set with the
+ * FEATURE_INFO_INDEX_SIZE property, in megabytes, and defaults to zero, which disables the
+ * indexes.
+ * </p>
+ */
+public class FeatureInfoIndex implements TransactionListener, GeoServerLifecycleHandler,
+        FeatureInfoIndexMBean {
+
+    static final Logger LOGGER = Logging.getLogger(FeatureInfoIndex.class);
+
+    static final FilterFactory FF = CommonFactoryFinder.getFilterFactory(null);
+
+    /**
+     * Maximum number of candidates turned into an id filter, past it the store is better off
+     * running the spatial query itself
+     */
+    static final int MAX_CANDIDATES = 256;
+
+    /**
+     * Estimated memory used by an index entry, besides the geometry coordinates and the id
+     */
+    static final int ENTRY_OVERHEAD = 160;
+
+    private Catalog catalog;
+
+    private ConcurrentHashMap<IndexKey, FutureTask<LayerIndex>> indexes =
+        new ConcurrentHashMap<IndexKey, FutureTask<LayerIndex>>();
+
+    /**
+     * Logical clock used to track the last access to the indexes
+     */
+    private AtomicLong clock = new AtomicLong();
+
+    private AtomicLong size = new AtomicLong();
+
+    private AtomicLong hits = new AtomicLong();
+
+    private AtomicLong misses = new AtomicLong();
+
+    private AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Bumped at each invalidation, so that indexes built meanwhile are not kept
+     */
+    private long generation;
+
+    private volatile long maxSize;
+
+    /**
+     * @param catalog The raw catalog, indexes are shared among users and thus cannot be built
+     *        out of the layers as seen by the user running the request
+     */
+    public FeatureInfoIndex(Catalog catalog) {
+        this.catalog = catalog;
+        String value = GeoServerExtensions.getProperty("FEATURE_INFO_INDEX_SIZE");
+        if (value != null) {
+            maxSize = Long.parseLong(value) * 1024 * 1024;
+        }
+
+        catalog.addListener(new CatalogListener() {
+            public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+                // nothing to invalidate
+            }
+
+            public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+                invalidate(event.getSource());
+            }
+
+            public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+                // wait for the modification to be applied
+            }
+
+            public void handlePostModifyEvent(CatalogPostModifyEvent event)
+                    throws CatalogException {
+                invalidate(event.getSource());
+            }
+
+            public void reloaded() {
+                clear();
+            }
+        });
+    }
+
+    /**
+     * Returns the ids of the features of the specified feature type that might be hit by the
+     * search area, or null if the index cannot answer and the store has to be queried as usual.
+     *
+     * @param featureType The feature type being identified
+     * @param searchArea The search area, in the feature type CRS
+     * @param resolution The size of a map pixel, in the feature type CRS
+     */
+    public Set<FeatureId> getCandidates(FeatureTypeInfo featureType, Geometry searchArea,
+            double resolution) throws IOException {
+        if (maxSize <= 0 || !(resolution > 0) || Double.isInfinite(resolution)) {
+            return null;
+        }
+
+        // geometries are simplified at most to the map pixel size, and indexed per power of two
+        // of it so that a handful of indexes serve all the zoom levels
+        int band = (int) Math.floor(Math.log(resolution) / Math.log(2));
+        LayerIndex index = getIndex(new IndexKey(getName(featureType), featureType.getId(), band));
+        if (index.tree == null) {
+            return null;
+        }
+
+        Envelope envelope = new Envelope(searchArea.getEnvelopeInternal());
+        envelope.expandBy(index.tolerance);
+        Set<FeatureId> ids = new HashSet<FeatureId>();
+        for (Object item : index.tree.query(envelope)) {
+            IndexEntry entry = (IndexEntry) item;
+            if (entry.geometry.isWithinDistance(searchArea, index.tolerance)) {
+                ids.add(FF.featureId(entry.id));
+                if (ids.size() > MAX_CANDIDATES) {
+                    return null;
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the index for the specified key, building it if missing. Concurrent requests for
+     * the same missing index wait for a single build.
+     */
+    LayerIndex getIndex(final IndexKey key) throws IOException {
+        FutureTask<LayerIndex> task = indexes.get(key);
+        if (task != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            final long buildGeneration = getGeneration();
+            FutureTask<LayerIndex> newTask = new FutureTask<LayerIndex>(
+                    new Callable<LayerIndex>() {
+                        public LayerIndex call() throws Exception {
+                            return build(key);
+                        }
+                    });
+            task = indexes.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+                store(key, task, buildGeneration);
+            }
+        }
+
+        try {
+            LayerIndex index = task.get();
+            index.lastAccess = clock.incrementAndGet();
+            return index;
+        } catch (InterruptedException e) {
+            throw (IOException) new IOException("Interrupted while building the index of "
+                    + key.name).initCause(e);
+        } catch (ExecutionException e) {
+            // don't keep the failure around, the next request will try again
+            remove(key, task);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw (IOException) new IOException("Failed to build the index of " + key.name)
+                    .initCause(e.getCause());
+        }
+    }
+
+    /**
+     * Reads the feature type geometries into a new index, giving up if it would not fit in the
+     * memory budget
+     */
+    LayerIndex build(IndexKey key) throws IOException {
+        double tolerance = Math.pow(2, key.band);
+        FeatureTypeInfo info = catalog.getFeatureType(key.id);
+        if (info == null) {
+            return new LayerIndex(null, tolerance, 0);
+        }
+
+        FeatureSource<? extends FeatureType, ? extends Feature> source;
+        source = info.getFeatureSource(null, null);
+        GeometryDescriptor descriptor = source.getSchema().getGeometryDescriptor();
+        if (descriptor == null) {
+            return new LayerIndex(null, tolerance, 0);
+        }
+        Query query = new Query(source.getSchema().getName().getLocalPart(), Filter.INCLUDE,
+                new String[] { descriptor.getLocalName() });
+
+        STRtree tree = new STRtree();
+        long memory = 0;
+        FeatureIterator<? extends Feature> features = source.getFeatures(query).features();
+        try {
+            while (features.hasNext()) {
+                Feature feature = features.next();
+                GeometryAttribute attribute = feature.getDefaultGeometryProperty();
+                Geometry geometry = attribute != null ? (Geometry) attribute.getValue() : null;
+                if (geometry == null || geometry.isEmpty()) {
+                    continue;
+                }
+                if (!(geometry instanceof Point)) {
+                    geometry = TopologyPreservingSimplifier.simplify(geometry, tolerance);
+                }
+
+                String id = feature.getIdentifier().getID();
+                memory += ENTRY_OVERHEAD + 16l * geometry.getNumPoints() + 2l * id.length();
+                if (memory > maxSize) {
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.fine("The index of " + key.name + " would not fit in "
+                                + maxSize + " bytes, the layer won't be indexed");
+                    }
+                    return new LayerIndex(null, tolerance, 0);
+                }
+                tree.insert(geometry.getEnvelopeInternal(), new IndexEntry(id, geometry));
+            }
+        } finally {
+            features.close();
+        }
+        tree.build();
+
+        return new LayerIndex(tree, tolerance, memory);
+    }
+
+    /**
+     * Accounts for a newly built index, evicting the least recently used indexes if the budget
+     * is exceeded. The index is dropped if an invalidation happened while it was being built.
+     */
+    synchronized void store(IndexKey key, FutureTask<LayerIndex> task, long buildGeneration) {
+        LayerIndex index;
+        try {
+            index = task.get();
+        } catch (Exception e) {
+            // failed builds are cleaned up by whoever waits on them
+            return;
+        }
+        if (buildGeneration != generation || indexes.get(key) != task) {
+            indexes.remove(key, task);
+            return;
+        }
+        index.accounted = true;
+        index.lastAccess = clock.incrementAndGet();
+        size.addAndGet(index.size);
+
+        while (size.get() > maxSize) {
+            Map.Entry<IndexKey, FutureTask<LayerIndex>> eldest = null;
+            long eldestAccess = Long.MAX_VALUE;
+            for (Map.Entry<IndexKey, FutureTask<LayerIndex>> entry : indexes.entrySet()) {
+                LayerIndex candidate = getBuilt(entry.getValue());
+                if (candidate != null && candidate.size > 0
+                        && candidate.lastAccess < eldestAccess) {
+                    eldest = entry;
+                    eldestAccess = candidate.lastAccess;
+                }
+            }
+            if (eldest == null) {
+                break;
+            }
+            if (remove(eldest.getKey(), eldest.getValue())) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    synchronized boolean remove(IndexKey key, FutureTask<LayerIndex> task) {
+        if (indexes.remove(key, task)) {
+            LayerIndex index = getBuilt(task);
+            if (index != null && index.accounted) {
+                size.addAndGet(-index.size);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index built by the task, or null if still building or failed
+     */
+    static LayerIndex getBuilt(FutureTask<LayerIndex> task) {
+        if (!task.isDone()) {
+            return null;
+        }
+        try {
+            return task.get();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Removes the indexes of the specified feature type
+     */
+    public synchronized void invalidate(QName featureType) {
+        generation++;
+        for (Map.Entry<IndexKey, FutureTask<LayerIndex>> entry : indexes.entrySet()) {
+            if (entry.getKey().name.equals(featureType)) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes the indexes affected by a change to the specified catalog object
+     */
+    void invalidate(CatalogInfo info) {
+        if (info instanceof FeatureTypeInfo) {
+            invalidate(getName((FeatureTypeInfo) info));
+        } else if (info instanceof StoreInfo || info instanceof NamespaceInfo
+                || info instanceof WorkspaceInfo) {
+            // these might affect any number of feature types
+            clear();
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        for (Map.Entry<IndexKey, FutureTask<LayerIndex>> entry : indexes.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Sets the memory budget of the indexes, in bytes, zero disables them
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        if (size.get() > maxSize) {
+            clear();
+        }
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    public int getCount() {
+        return indexes.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    static QName getName(FeatureTypeInfo featureType) {
+        Name name = featureType.getQualifiedName();
+        return new QName(name.getNamespaceURI(), name.getLocalPart());
+    }
+
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        // the indexes are keyed by qualified name, the event might carry the unqualified name
+        // used in the request
+        QName name = event.getQualifiedLayerName(catalog);
+        if (name != null) {
+            invalidate(name);
+        } else {
+            clear();
+        }
+    }
+
+    public void onReset() {
+        // data might have changed in the meantime
+        clear();
+    }
+
+    public void onDispose() {
+        clear();
+    }
+
+    public void onReload() {
+        clear();
+    }
+
+    /**
+     * Identifies the index of a feature type at a zoom band
+     */
+    static class IndexKey {
+        QName name;
+
+        String id;
+
+        int band;
+
+        IndexKey(QName name, String id, int band) {
+            this.name = name;
+            this.id = id;
+            this.band = band;
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode() * 31 + band;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof IndexKey)) {
+                return false;
+            }
+            IndexKey other = (IndexKey) obj;
+            return id.equals(other.id) && band == other.band;
+        }
+    }
+
+    /**
+     * The index of a feature type at a zoom band, a null tree marks a feature type that could
+     * not be indexed
+     */
+    static class LayerIndex {
+        STRtree tree;
+
+        double tolerance;
+
+        long size;
+
+        boolean accounted;
+
+        volatile long lastAccess;
+
+        LayerIndex(STRtree tree, double tolerance, long size) {
+            this.tree = tree;
+            this.tolerance = tolerance;
+            this.size = size;
+        }
+    }
+
+    static class IndexEntry {
+        String id;
+
+        Geometry geometry;
+
+        IndexEntry(String id, Geometry geometry) {
+            this.id = id;
+            this.geometry = geometry;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.featureinfo;
+
+/**
+ * JMX management interface of the {@link FeatureInfoIndex} GetFeatureInfo hit index.
+ */
+public interface FeatureInfoIndexMBean {
+
+    /**
+     * The memory budget of the indexes, in bytes
+     */
+    long getMaxSize();
+
+    /**
+     * The memory used by the cached indexes, in bytes
+     */
+    long getSize();
+
+    /**
+     * The number of cached indexes, including the ones of layers too large to be indexed
+     */
+    int getCount();
+
+    /**
+     * The number of lookups answered by a cached index
+     */
+    long getHits();
+
+    /**
+     * The number of lookups that required building an index
+     */
+    long getMisses();
+
+    /**
+     * The number of indexes evicted to stay within the memory budget
+     */
+    long getEvictions();
+
+    /**
+     * Removes all the cached indexes
+     */
+    void clear();
+
+    /**
+     * Resets the hit, miss and eviction counts
+     */
+    void resetStatistics();
+}
@@ -9,9 +9,7 @@ import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -166,7 +164,6 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
         param.setCompressionQuality(0.75f);
 
         ImageOutputStream otStream = null;
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
         try {
             otStream = ImageIO.createImageOutputStream(outStream);
             gifWriter.setOutput(otStream);
@@ -201,7 +198,10 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
 
                     // write
                     gifWriter.writeToSequence(new IIOImage(ri, null, imageMetadata), param);
-                    images.add(ri);
+
+                    // let go of the frame right away, frames might be rendered on demand
+                    // and there is no need to hold them all in memory
+                    dispose(ri);
                 }
             }
 
@@ -229,20 +229,23 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
                 // swallow
             }
 
-            // let go of the image chain as soon as possible to free memory
-            for (RenderedImage image : images) {
-                if (image instanceof PlanarImage) {
-                    ImageUtilities.disposePlanarImageChain((PlanarImage) image);
-                } else if (image instanceof BufferedImage) {
-                    ((BufferedImage) image).flush();
-                }
-            }
         }
 
         if (LOGGER.isLoggable(Level.FINE))
             LOGGER.fine("Done writing animated gif");
     }
 
+    /**
+     * Lets go of the image chain as soon as possible to free memory
+     */
+    private static void dispose(RenderedImage image) {
+        if (image instanceof PlanarImage) {
+            ImageUtilities.disposePlanarImageChain((PlanarImage) image);
+        } else if (image instanceof BufferedImage) {
+            ((BufferedImage) image).flush();
+        }
+    }
+
     public String getContentDisposition() {
         // can be null
         return null;
@@ -0,0 +1,296 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.wms.RasterCleaner;
+
+/**
+ * A bounded pool of the rasters backing the images map rendering draws onto, so that they can
+ * be reused across requests instead of being allocated anew for each GetMap.
+ * <p>
+ * Rasters are pooled by size, number of bands and data type, the image handed out is built
+ * around a pooled raster and the color model requested. Rasters are borrowed by the request
+ * thread, and handed back by {@link RasterCleaner} once the request is finished, that is, after
+ * the response has been encoded. A raster whose data escapes the request, like a metatile whose
+ * tiles are cached, has to be {@link #detach(RenderedImage) detached} from the pool.
+ * </p>
+ * <p>
+ * The pool is disabled by default, see {@link #setMaxSize(long)}. Images are borrowed only while
+ * a request is being dispatched, anywhere else a plain new image is returned. A map rendered for
+ * a request that outlives the dispatch, like the metatiles GeoWebCache seeds through the
+ * dispatcher and encodes once it returns, has its rasters {@link #detachAll() detached}.
+ * </p>
+ */
+public class ImagePool {
+
+    /**
+     * Maximum number of distinct raster layouts retained, clients control the image size so the
+     * pool cannot be allowed to grow indefinitely
+     */
+    static final int MAX_LAYOUTS = 1000;
+
+    static final ColorModel RGBA = new BufferedImage(1, 1, BufferedImage.TYPE_4BYTE_ABGR)
+            .getColorModel();
+
+    static final ColorModel RGB = new BufferedImage(1, 1, BufferedImage.TYPE_3BYTE_BGR)
+            .getColorModel();
+
+    static final ImagePool DEFAULT = new ImagePool();
+
+    ConcurrentHashMap<RasterKey, Queue<WritableRaster>> rasters =
+        new ConcurrentHashMap<RasterKey, Queue<WritableRaster>>();
+
+    ThreadLocal<List<WritableRaster>> borrowed = new ThreadLocal<List<WritableRaster>>();
+
+    AtomicLong size = new AtomicLong();
+
+    AtomicLong hits = new AtomicLong();
+
+    AtomicLong misses = new AtomicLong();
+
+    volatile long maxSize;
+
+    /**
+     * The pool used by the raster map output formats
+     */
+    public static ImagePool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Sets the maximum amount of memory, in bytes, retained by the pooled rasters. Zero disables
+     * pooling and releases the pooled rasters.
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        if (maxSize <= 0) {
+            clear();
+        }
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * The amount of memory, in bytes, currently retained by the pooled rasters
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * Number of images built around a pooled raster
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of images that required allocating a new raster while pooling was enabled
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Releases all the pooled rasters
+     */
+    public void clear() {
+        for (Iterator<Queue<WritableRaster>> it = rasters.values().iterator(); it.hasNext();) {
+            Queue<WritableRaster> queue = it.next();
+            it.remove();
+            for (WritableRaster raster = queue.poll(); raster != null; raster = queue.poll()) {
+                size.addAndGet(-bytes(raster));
+            }
+        }
+    }
+
+    /**
+     * Returns an image with the same layout as {@link ImageUtils#createImage(int, int,
+     * IndexColorModel, boolean)} would build, backed by a pooled raster if one is available.
+     * The image pixels are all zero, as in a newly allocated image.
+     */
+    public BufferedImage createImage(int width, int height, IndexColorModel palette,
+            boolean transparent) {
+        if (maxSize <= 0 || Dispatcher.REQUEST.get() == null) {
+            return ImageUtils.createImage(width, height, palette, transparent);
+        }
+
+        ColorModel cm;
+        RasterKey key;
+        if (palette != null) {
+            cm = palette;
+            key = new RasterKey(width, height, 1, palette.getTransferType());
+        } else {
+            cm = transparent ? RGBA : RGB;
+            key = new RasterKey(width, height, transparent ? 4 : 3, DataBuffer.TYPE_BYTE);
+        }
+
+        WritableRaster raster = null;
+        Queue<WritableRaster> queue = rasters.get(key);
+        if (queue != null) {
+            raster = queue.poll();
+        }
+        if (raster != null) {
+            size.addAndGet(-bytes(raster));
+            hits.incrementAndGet();
+        } else {
+            BufferedImage image = ImageUtils.createImage(width, height, palette, transparent);
+            raster = image.getRaster();
+            misses.incrementAndGet();
+        }
+
+        List<WritableRaster> list = borrowed.get();
+        if (list == null) {
+            list = new ArrayList<WritableRaster>();
+            borrowed.set(list);
+        }
+        list.add(raster);
+
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    /**
+     * Removes the raster backing the image from the ones borrowed by the current thread, so
+     * that it won't be reused. To be called when the image data is going to be referenced
+     * past the end of the request.
+     */
+    public void detach(RenderedImage image) {
+        List<WritableRaster> list = borrowed.get();
+        if (list == null || !(image instanceof BufferedImage)) {
+            return;
+        }
+        Raster raster = ((BufferedImage) image).getRaster();
+        for (Iterator<WritableRaster> it = list.iterator(); it.hasNext();) {
+            if (it.next() == raster) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all the rasters borrowed by the current thread, so that none of them is reused. To
+     * be called when the rendered map is going to be used past the end of the request, and the
+     * image backed by the pooled raster cannot be told apart, e.g. because it has been wrapped.
+     */
+    public void detachAll() {
+        borrowed.remove();
+    }
+
+    /**
+     * Clears the rasters borrowed by the current thread and hands them back to the pool, as long
+     * as it has room for them. Called by {@link RasterCleaner} at the end of each request.
+     */
+    public void release() {
+        List<WritableRaster> list = borrowed.get();
+        if (list == null) {
+            return;
+        }
+        borrowed.remove();
+
+        for (WritableRaster raster : list) {
+            long bytes = bytes(raster);
+            if (bytes <= 0 || size.get() + bytes > maxSize) {
+                continue;
+            }
+
+            RasterKey key = new RasterKey(raster.getWidth(), raster.getHeight(),
+                    raster.getNumBands(), raster.getTransferType());
+            Queue<WritableRaster> queue = rasters.get(key);
+            if (queue == null) {
+                if (rasters.size() >= MAX_LAYOUTS) {
+                    continue;
+                }
+                queue = new ConcurrentLinkedQueue<WritableRaster>();
+                Queue<WritableRaster> existing = rasters.putIfAbsent(key, queue);
+                queue = existing != null ? existing : queue;
+            }
+
+            clear(raster.getDataBuffer());
+            size.addAndGet(bytes);
+            queue.offer(raster);
+        }
+    }
+
+    /**
+     * The memory used by the raster, or -1 if the raster data cannot be cleared
+     */
+    static long bytes(WritableRaster raster) {
+        DataBuffer buffer = raster.getDataBuffer();
+        if (buffer instanceof DataBufferByte) {
+            return (long) buffer.getSize() * buffer.getNumBanks();
+        } else if (buffer instanceof DataBufferUShort) {
+            return 2l * buffer.getSize() * buffer.getNumBanks();
+        }
+        return -1;
+    }
+
+    static void clear(DataBuffer buffer) {
+        if (buffer instanceof DataBufferByte) {
+            for (byte[] bank : ((DataBufferByte) buffer).getBankData()) {
+                Arrays.fill(bank, (byte) 0);
+            }
+        } else if (buffer instanceof DataBufferUShort) {
+            for (short[] bank : ((DataBufferUShort) buffer).getBankData()) {
+                Arrays.fill(bank, (short) 0);
+            }
+        }
+    }
+
+    /**
+     * Identifies the layout of a raster
+     */
+    static class RasterKey {
+        int width;
+
+        int height;
+
+        int bands;
+
+        int dataType;
+
+        RasterKey(int width, int height, int bands, int dataType) {
+            this.width = width;
+            this.height = height;
+            this.bands = bands;
+            this.dataType = dataType;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((width * 31 + height) * 31 + bands) * 31 + dataType;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RasterKey)) {
+                return false;
+            }
+            RasterKey other = (RasterKey) obj;
+            return width == other.width && height == other.height && bands == other.bands
+                    && dataType == other.dataType;
+        }
+    }
+}
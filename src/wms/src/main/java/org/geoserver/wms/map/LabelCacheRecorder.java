@@ -0,0 +1,140 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.geotools.geometry.jts.LiteShape2;
+import org.geotools.renderer.lite.LabelCache;
+import org.geotools.styling.TextSymbolizer;
+import org.geotools.util.NumberRange;
+import org.opengis.feature.Feature;
+
+/**
+ * A {@link LabelCache} that records the labels and obstacles a renderer sends to it, so that
+ * they can be replayed later into the label cache actually painting the labels.
+ * <p>
+ * Used when the layers of a map are rendered by multiple renderers concurrently: replaying the
+ * recordings in layer order into a single label cache and painting it once all the layers have
+ * been composited resolves label conflicts across all the layers, exactly like a single renderer
+ * would do. A recorder is meant to be used by a single renderer.
+ * </p>
+ */
+class LabelCacheRecorder implements LabelCache {
+
+    /**
+     * A recorded label cache call
+     */
+    static abstract class Call {
+        abstract void replay(LabelCache target, Graphics2D graphics, Rectangle displayArea);
+    }
+
+    List<Call> calls = new ArrayList<Call>();
+
+    Set<String> enabledLayers = new HashSet<String>();
+
+    /**
+     * Replays the recorded calls into the target label cache
+     */
+    synchronized void replay(LabelCache target, Graphics2D graphics, Rectangle displayArea) {
+        for (Call call : calls) {
+            call.replay(target, graphics, displayArea);
+        }
+    }
+
+    public void start() {
+        // the target cache is started by whoever replays the recordings
+    }
+
+    public synchronized void startLayer(final String layerId) {
+        enabledLayers.add(layerId);
+        calls.add(new Call() {
+            void replay(LabelCache target, Graphics2D graphics, Rectangle displayArea) {
+                target.startLayer(layerId);
+            }
+        });
+    }
+
+    public synchronized void put(final String layerId, final TextSymbolizer symbolizer,
+            final Feature feature, final LiteShape2 shape, final NumberRange<Double> scaleRange) {
+        calls.add(new Call() {
+            void replay(LabelCache target, Graphics2D graphics, Rectangle displayArea) {
+                target.put(layerId, symbolizer, feature, shape, scaleRange);
+            }
+        });
+    }
+
+    public synchronized void put(final Rectangle2D area) {
+        calls.add(new Call() {
+            void replay(LabelCache target, Graphics2D graphics, Rectangle displayArea) {
+                target.put(area);
+            }
+        });
+    }
+
+    public synchronized void endLayer(final String layerId, Graphics2D graphics,
+            Rectangle displayArea) {
+        calls.add(new Call() {
+            void replay(LabelCache target, Graphics2D graphics, Rectangle displayArea) {
+                target.endLayer(layerId, graphics, displayArea);
+            }
+        });
+    }
+
+    public void end(Graphics2D graphics, Rectangle displayArea) {
+        // labels are painted by whoever replays the recordings
+    }
+
+    public void stop() {
+        // a stopped renderer fails the whole map, nothing will be painted
+    }
+
+    public synchronized void clear() {
+        calls.clear();
+        enabledLayers.clear();
+    }
+
+    public synchronized void clear(final String layerId) {
+        calls.add(new Call() {
+            void replay(LabelCache target, Graphics2D graphics, Rectangle displayArea) {
+                target.clear(layerId);
+            }
+        });
+    }
+
+    public synchronized void disableLayer(final String layerId) {
+        enabledLayers.remove(layerId);
+        calls.add(new Call() {
+            void replay(LabelCache target, Graphics2D graphics, Rectangle displayArea) {
+                target.disableLayer(layerId);
+            }
+        });
+    }
+
+    public synchronized void enableLayer(final String layerId) {
+        enabledLayers.add(layerId);
+        calls.add(new Call() {
+            void replay(LabelCache target, Graphics2D graphics, Rectangle displayArea) {
+                target.enableLayer(layerId);
+            }
+        });
+    }
+
+    public synchronized boolean isEnabled(String layerId) {
+        return enabledLayers.contains(layerId);
+    }
+
+    public List orderedLabels() {
+        // labels are only laid out once replayed
+        return Collections.EMPTY_LIST;
+    }
+}
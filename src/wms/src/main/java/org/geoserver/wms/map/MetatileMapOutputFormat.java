@@ -14,6 +14,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -120,15 +121,16 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
      * @see org.geoserver.wms.GetMapOutputFormat#produceMap(org.geoserver.wms.WMSMapContent)
      */
     public WebMap produceMap(WMSMapContent mapContent) throws ServiceException, IOException {
-        // get the key that identifies the meta tile. The cache will make sure
-        // two threads asking
-        // for the same tile will get the same key, and thus will synchronize
+        // get the key that identifies the meta tile. Two threads asking
+        // for the same meta tile will get the same lock, and thus will synchronize
         // with each other
         // (the first eventually builds the meta-tile, the second finds it ready
         // to be used)
         QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
 
-        synchronized (key) {
+        Lock lock = tileCache.getLock(key);
+        lock.lock();
+        try {
             RenderedImage tile = tileCache.getTile(key, request);
             List<GridCoverage2D> renderedCoverages = null;
 
@@ -171,6 +173,8 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
             RenderedImageMap tileMap = new RenderedImageMap(mapContent, tile, getMimeType());
             tileMap.setRenderedCoverages(renderedCoverages);
             return tileMap;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -288,6 +292,8 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
                     	LOGGER.finer("Metatile split on BufferedImage");        
                     }                  	
                     final BufferedImage image = (BufferedImage) metaTile;
+                    // the tiles share the metatile raster and get cached, it cannot be reused
+                    ImagePool.getDefault().detach(image);
                     tile = image.getSubimage(x, y, tileSize, tileSize);                    
                     break;                    
                 default:
@@ -25,6 +25,7 @@ import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
 import org.geoserver.wms.map.quantize.LRUColorIndexer;
+import org.geoserver.wms.map.png.PNGWriter;
 import org.geoserver.wms.map.quantize.Quantizer;
 import org.geotools.image.ImageWorker;
 import org.geotools.util.logging.Logging;
@@ -53,6 +54,21 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         Octree, MedianCut
     };
 
+    /**
+     * The PNG encoders available
+     */
+    public enum PNGEncoderType {
+        /**
+         * The ImageIO encoder, natively accelerated when the JAI ImageIO native libraries are
+         * installed
+         */
+        IMAGEIO,
+        /**
+         * The pure java {@link PNGWriter}, used for the image layouts it supports
+         */
+        FAST
+    };
+
     static {
         ColorIndexerDescriptor.register();
     }
@@ -108,6 +124,19 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         // check to see if we have to see a translucent or bitmask quantizer
         image = applyPalette(image, mapContent, "image/png8", true);
 
+        if (wms.getPNGEncoderType() == PNGEncoderType.FAST && PNGWriter.isSupported(image)) {
+            int level = Math.round(wms.getPngCompression() * 9 / 100.0f);
+            PNGWriter writer = new PNGWriter(level, wms.getPNGDeflateStrategy(),
+                    wms.getPNGFilterType());
+            writer.write(image, outStream);
+            RasterCleaner.addImage(image);
+
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Writing png image ... done!");
+            }
+            return;
+        }
+
         Boolean PNGNativeAcc = wms.getPNGNativeAcceleration();
         float quality = (100 - wms.getPngCompression()) / 100.0f;
         SampleModel sm = image.getSampleModel();
@@ -6,35 +6,74 @@ package org.geoserver.wms.map;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.xml.namespace.QName;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.geoserver.catalog.Catalog;
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
-import org.geotools.util.CanonicalSet;
+import org.opengis.feature.type.Name;
 
 import com.vividsolutions.jts.geom.Envelope;
 
-public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+/**
+ * Caches the tiles of the meta-tiles built for tiled GetMap requests, so that the requests for
+ * the other tiles of the same meta-tile can be served without rendering.
+ * <p>
+ * The cache is bounded by the memory used by the tiles, the least recently used meta-tiles are
+ * evicted when the budget is exceeded. Callers building a meta-tile are expected to hold the
+ * {@link #getLock(MetaTileKey) lock} of its key, locks are striped so that threads only wait
+ * on the meta-tiles they need. Transactions only invalidate the meta-tiles of maps containing
+ * the modified feature type.
+ * </p>
+ * <p>
+ * The memory budget defaults to {@value #DEFAULT_MAX_SIZE} MB, and can be changed with the
+ * META_TILE_CACHE_SIZE property, in megabytes.
+ * </p>
+ */
+public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler,
+        QuickTileCacheMBean {
+
+    /**
+     * Default memory budget, in megabytes
+     */
+    static final int DEFAULT_MAX_SIZE = 64;
+
+    /**
+     * Number of locks meta-tile keys are spread over
+     */
+    static final int LOCK_STRIPES = 256;
+
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -53,27 +92,52 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         ignoredParameters.add("EXCEPTIONS");
     }
 
+    private Lock[] locks = new Lock[LOCK_STRIPES];
+
+    private ConcurrentHashMap<MetaTileKey, CacheElement> tileCache =
+        new ConcurrentHashMap<MetaTileKey, CacheElement>();
+
     /**
-     * Canonicalizer used to return the same object when two threads ask for the same meta-tile
+     * Logical clock used to track the last access to the cached meta-tiles
      */
-    private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
+    private AtomicLong clock = new AtomicLong();
+
+    private AtomicLong size = new AtomicLong();
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    private AtomicLong hits = new AtomicLong();
+
+    private AtomicLong misses = new AtomicLong();
+
+    private AtomicLong evictions = new AtomicLong();
+
+    private volatile long maxSize;
+
+    /**
+     * Used to qualify the feature type names of transaction events, null when testing
+     */
+    Catalog catalog;
 
     public QuickTileCache(GeoServer geoServer) {
+        this();
+        this.catalog = geoServer.getCatalog();
+        String value = GeoServerExtensions.getProperty("META_TILE_CACHE_SIZE");
+        if (value != null) {
+            maxSize = Long.parseLong(value) * 1024 * 1024;
+        }
+
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void reloaded() {
-                tileCache.clear();
+                clear();
             }
         });
     }
@@ -82,6 +146,20 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * For testing only
      */
     QuickTileCache() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        maxSize = DEFAULT_MAX_SIZE * 1024l * 1024l;
+    }
+
+    /**
+     * Returns the lock to be held while looking up, and eventually building and storing, the
+     * specified meta-tile
+     */
+    public Lock getLock(MetaTileKey key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return locks[(hash & 0x7fffffff) % locks.length];
     }
 
     /**
@@ -106,16 +184,31 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
             }
         }
         MapKey mapKey = new MapKey(mapDefinition, normalize(bbox.getWidth() / request.getWidth()),
-                origin);
+                origin, getFeatureTypeNames(request));
         Point tileCoords = getTileCoordinates(bbox, origin);
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
-        MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
+        return new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
+    }
 
-        // since this will be used for thread synchronization, we have to make
-        // sure two thread asking for the same meta tile will get the same key
-        // object
-        return (MetaTileKey) metaTileKeys.unique(key);
+    /**
+     * The names of the feature types rendered by the map, used to invalidate its meta-tiles
+     * when one of them is modified by a transaction, or null if the map contains layers other
+     * than local feature types, in which case any transaction invalidates its meta-tiles
+     */
+    private Set<QName> getFeatureTypeNames(GetMapRequest request) {
+        Set<QName> names = new HashSet<QName>();
+        if (request.getLayers() != null) {
+            for (MapLayerInfo layer : request.getLayers()) {
+                if (layer.getType() != MapLayerInfo.TYPE_VECTOR) {
+                    // coverages, cascaded and remote layers are not backed by a feature type
+                    return null;
+                }
+                Name name = layer.getFeature().getQualifiedName();
+                names.add(new QName(name.getNamespaceURI(), name.getLocalPart()));
+            }
+        }
+        return names;
     }
 
     private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
@@ -183,31 +276,30 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
     }
 
     /**
-     * Turns the request back into a sort of GET request (not url-encoded) for fast comparison
+     * Turns the request back into a sort of GET request (not url-encoded) for fast comparison.
+     * Parameters are sorted by name, so that the same map is recognized no matter the order of
+     * the parameters in the request.
      * 
      * @param map
      * @return
      */
     private String buildMapDefinition(Map<String, String> map) {
-        StringBuffer sb = new StringBuffer();
-
-        Entry<String, String> en;
-        String paramName;
-        for (Iterator<Map.Entry<String, String>> it = map.entrySet().iterator(); it.hasNext();) {
-            en = it.next();
-            paramName = en.getKey();
-
-            if (ignoredParameters.contains(paramName.toUpperCase())) {
-                continue;
+        List<String> names = new ArrayList<String>(map.size());
+        for (String paramName : map.keySet()) {
+            if (!ignoredParameters.contains(paramName.toUpperCase())) {
+                names.add(paramName);
             }
+        }
+        Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
 
+        StringBuilder sb = new StringBuilder(256);
+        for (String paramName : names) {
             // we don't have multi-valued parameters afaik, otherwise we would
             // have to use getParameterValues and deal with the returned array
-            sb.append(paramName).append('=').append(en.getValue());
-
-            if (it.hasNext()) {
+            if (sb.length() > 0) {
                 sb.append('&');
             }
+            sb.append(paramName).append('=').append(map.get(paramName));
         }
 
         return sb.toString();
@@ -223,11 +315,24 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
         Point2D origin;
 
+        /**
+         * The feature types rendered in the map, not part of the key identity as the map
+         * definition already determines them. Null if unknown, any transaction invalidates the
+         * meta-tiles of the map then.
+         */
+        Set<QName> featureTypes;
+
         public MapKey(String mapDefinition, double resolution, Point2D origin) {
+            this(mapDefinition, resolution, origin, null);
+        }
+
+        public MapKey(String mapDefinition, double resolution, Point2D origin,
+                Set<QName> featureTypes) {
             super();
             this.mapDefinition = mapDefinition;
             this.resolution = resolution;
             this.origin = origin;
+            this.featureTypes = featureTypes;
         }
 
         public int hashCode() {
@@ -316,14 +421,30 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param request
      * @return
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+    public RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
+        RenderedImage[] tiles = getTiles(key);
+
+        if (tiles == null) {
+            return null;
+        }
+
+        return getTile(key, request, tiles);
+    }
+
+    /**
+     * Returns the tiles of the meta-tile, or null if not cached, and counts the hit or miss
+     */
+    RenderedImage[] getTiles(MetaTileKey key) {
+        CacheElement ce = tileCache.get(key);
 
         if (ce == null) {
+            misses.incrementAndGet();
             return null;
         }
 
-        return getTile(key, request, ce.tiles);
+        hits.incrementAndGet();
+        ce.lastAccess = clock.incrementAndGet();
+        return ce.tiles;
     }
 
     /**
@@ -346,46 +467,175 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
     }
 
     /**
-     * Puts the specified tile array in the cache, and returns the tile the request was looking for
+     * Puts the specified tile array in the cache, evicting the least recently used meta-tiles
+     * if the cache goes over its memory budget. Meta-tiles larger than the whole budget are not
+     * cached.
      * 
      * @param key
-     * @param request
      * @param tiles
-     * @return
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+    public void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
+        CacheElement ce = new CacheElement(tiles);
+        if (ce.size > maxSize) {
+            return;
+        }
+
+        ce.lastAccess = clock.incrementAndGet();
+        CacheElement previous = tileCache.put(key, ce);
+        size.addAndGet(ce.size - (previous != null ? previous.size : 0));
+
+        while (size.get() > maxSize) {
+            // look for the least recently used meta-tile, there are not many given how large
+            // each of them is
+            Map.Entry<MetaTileKey, CacheElement> eldest = null;
+            for (Map.Entry<MetaTileKey, CacheElement> entry : tileCache.entrySet()) {
+                if (eldest == null || entry.getValue().lastAccess < eldest.getValue().lastAccess) {
+                    eldest = entry;
+                }
+            }
+            if (eldest == null) {
+                break;
+            }
+            if (remove(eldest.getKey(), eldest.getValue())) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean remove(MetaTileKey key, CacheElement ce) {
+        if (tileCache.remove(key, ce)) {
+            size.addAndGet(-ce.size);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes all the cached meta-tiles
+     */
+    public void clear() {
+        for (Map.Entry<MetaTileKey, CacheElement> entry : tileCache.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Removes the cached meta-tiles of the maps containing the specified feature type, along
+     * with the ones of the maps whose feature types are unknown
+     */
+    public void invalidate(QName featureType) {
+        for (Map.Entry<MetaTileKey, CacheElement> entry : tileCache.entrySet()) {
+            Set<QName> featureTypes = entry.getKey().mapKey.featureTypes;
+            if (featureTypes == null || featureTypes.contains(featureType)) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Sets the memory budget of the cache, in bytes
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        if (size.get() > maxSize) {
+            clear();
+        }
     }
 
-    class CacheElement {
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    public int getCount() {
+        return tileCache.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    static class CacheElement {
         RenderedImage[] tiles;
 
+        long size;
+
+        volatile long lastAccess;
+
         public CacheElement(RenderedImage[] tiles) {
             this.tiles = tiles;
+            this.size = getMemoryUse(tiles);
         }
     }
 
+    /**
+     * Estimates the memory used by the tiles, tiles sharing the raster of the meta-tile are
+     * accounted for once
+     */
+    static long getMemoryUse(RenderedImage[] tiles) {
+        long memory = 0;
+        Map<DataBuffer, DataBuffer> buffers = new IdentityHashMap<DataBuffer, DataBuffer>();
+        for (RenderedImage tile : tiles) {
+            if (tile instanceof BufferedImage) {
+                DataBuffer buffer = ((BufferedImage) tile).getRaster().getDataBuffer();
+                if (buffers.put(buffer, buffer) == null) {
+                    memory += (long) buffer.getSize() * buffer.getNumBanks()
+                            * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+                }
+            } else if (tile != null) {
+                SampleModel sm = tile.getSampleModel();
+                long bits = 0;
+                for (int size : sm.getSampleSize()) {
+                    bits += size;
+                }
+                memory += (long) tile.getWidth() * tile.getHeight() * bits / 8;
+            }
+        }
+        return memory;
+    }
+
     public void dataStoreChange(TransactionEvent event) throws WFSException {
-        // if anything changes we just wipe out the cache. the mapkey
-        // contains a string with part of the map request where the layer
-        // name is included, but we would have to parse it and consider
-        // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        // only the meta-tiles of the maps containing the modified feature type are affected,
+        // the map key keeps track of the qualified names of the feature types the map contains,
+        // while the event might carry the unqualified name used in the request
+        QName name = event.getQualifiedLayerName(catalog);
+        if (name != null) {
+            invalidate(name);
+        } else {
+            clear();
+        }
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        clear();
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        clear();
     }
 }
@@ -0,0 +1,51 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+/**
+ * JMX management interface of the {@link QuickTileCache} meta-tile cache.
+ */
+public interface QuickTileCacheMBean {
+
+    /**
+     * The memory budget of the cache, in bytes
+     */
+    long getMaxSize();
+
+    /**
+     * The memory used by the cached meta-tiles, in bytes
+     */
+    long getSize();
+
+    /**
+     * The number of cached meta-tiles
+     */
+    int getCount();
+
+    /**
+     * The number of tile requests served from the cache
+     */
+    long getHits();
+
+    /**
+     * The number of tile requests that did not find their meta-tile in the cache
+     */
+    long getMisses();
+
+    /**
+     * The number of meta-tiles evicted to stay within the memory budget
+     */
+    long getEvictions();
+
+    /**
+     * Removes all the cached meta-tiles
+     */
+    void clear();
+
+    /**
+     * Resets the hit, miss and eviction counts
+     */
+    void resetStatistics();
+}
@@ -22,9 +22,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,6 +52,8 @@ import javax.media.jai.operator.FormatDescriptor;
 import javax.media.jai.operator.LookupDescriptor;
 import javax.media.jai.operator.MosaicDescriptor;
 
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapOutputFormat;
@@ -59,6 +69,8 @@ import org.geoserver.wms.decoration.MapDecorationLayout;
 import org.geoserver.wms.decoration.MetatiledMapDecorationLayout;
 import org.geoserver.wms.decoration.WatermarkDecoration;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.function.EnvFunction;
 import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
@@ -67,11 +79,15 @@ import org.geotools.gce.imagemosaic.ImageMosaicFormat;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.image.ImageWorker;
 import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.map.MapViewport;
 import org.geotools.map.StyleLayer;
 import org.geotools.parameter.Parameter;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.referencing.operation.transform.AffineTransform2D;
+import org.geotools.renderer.label.LabelCacheImpl;
+import org.geotools.renderer.label.LabelCacheImpl.LabelRenderingMode;
 import org.geotools.renderer.lite.RendererUtilities;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.renderer.lite.gridcoverage2d.GridCoverageRenderer;
@@ -81,11 +97,14 @@ import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.Feature;
 import org.opengis.feature.type.FeatureType;
+import org.opengis.filter.FilterFactory;
 import org.opengis.geometry.BoundingBox;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.datum.PixelInCell;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.vfny.geoserver.global.GeoserverDataDirectory;
 
 
@@ -293,6 +312,10 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                 palette = pe.getPalette();
         }
 
+        // split the layers in groups rendered concurrently, if enabled
+        final List<List<Layer>> layerGroups = groupLayers(mapContent.layers(),
+                wms.getParallelRendering());
+
         // before even preparing the rendering surface, check it's not too big,
         // if so, throw a service exception
         long maxMemory = wms.getMaxRequestMemory() * KB;
@@ -303,7 +326,15 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         // multiple featureTypeStyles against the same layer
         StreamingRenderer testRenderer = new StreamingRenderer();
         testRenderer.setMapContent(mapContent);
-        memory += testRenderer.getMaxBackBufferMemory(paintArea.width, paintArea.height);
+        long backBufferMemory = testRenderer.getMaxBackBufferMemory(paintArea.width,
+                paintArea.height);
+        memory += backBufferMemory;
+        // ... and the surfaces the other layer groups are rendered onto, concurrently
+        if (layerGroups.size() > 1) {
+            memory += (layerGroups.size() - 1)
+                    * (ImageUtils.getDrawingSurfaceMemoryUse(paintArea.width, paintArea.height,
+                            null, true) + backBufferMemory);
+        }
         if (maxMemory > 0 && memory > maxMemory) {
             long kbUsed = memory / KB;
             long kbMax = maxMemory / KB;
@@ -461,6 +492,21 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         // return null;
         // }
 
+        // render the layer groups concurrently, if more than one
+        if (layerGroups.size() > 1) {
+            try {
+                paintLayerGroups(mapContent, layerGroups, renderer, rendererParams, graphic,
+                        hintsMap, paintArea, layout);
+            } finally {
+                graphic.dispose();
+            }
+            if (palette != null && palette.getMapSize() < 256)
+                image = optimizeSampleModel(preparedImage);
+            else
+                image = preparedImage;
+            return buildMap(mapContent, image);
+        }
+
         // enforce no more than x rendering errors
         int maxErrors = wms.getMaxRenderingErrors();
         MaxErrorEnforcer errorChecker = new MaxErrorEnforcer(renderer, maxErrors);
@@ -473,8 +519,12 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
 
         // setup the timeout enforcer (the enforcer is neutral when the timeout is 0)
         int maxRenderingTime = wms.getMaxRenderingTime() * 1000;
+        List<String> layerNames = new ArrayList<String>();
+        for (Layer layer : mapContent.layers()) {
+            layerNames.add(layer.getTitle());
+        }
         RenderingTimeoutEnforcer timeout = new RenderingTimeoutEnforcer(maxRenderingTime, renderer,
-                graphic);
+                graphic, layerNames);
         timeout.start();
         try {
             // finally render the image;
@@ -525,6 +575,231 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         return map;
     }
 
+    /**
+     * Splits the layers in at most {@code parallelism} groups of contiguous layers, each one
+     * rendered by its own renderer. Returns a single group if parallelism is not greater than one.
+     */
+    static List<List<Layer>> groupLayers(List<Layer> layers, int parallelism) {
+        int count = Math.min(parallelism, layers.size());
+        if (count <= 1) {
+            return Collections.singletonList(layers);
+        }
+
+        List<List<Layer>> groups = new ArrayList<List<Layer>>(count);
+        for (int i = 0; i < count; i++) {
+            int from = i * layers.size() / count;
+            int to = (i + 1) * layers.size() / count;
+            groups.add(new ArrayList<Layer>(layers.subList(from, to)));
+        }
+        return groups;
+    }
+
+    /**
+     * Renders the layer groups concurrently, the first one on the calling thread directly onto
+     * the map graphics, the others on the {@link DefaultWebMapService#getLayerRenderingPool()
+     * layer rendering pool} onto transparent surfaces that are then composited in order. The
+     * labels of all the groups are collected and painted last, so that conflicts are resolved
+     * across all the layers like a single renderer would do.
+     * <p>
+     * The rendering time limit applies to the request as a whole, including the time groups spend
+     * waiting for a thread, while the rendering errors are summed up across the groups. The
+     * caller is in charge of disposing the map graphics.
+     * </p>
+     */
+    void paintLayerGroups(final WMSMapContent mapContent, List<List<Layer>> groups,
+            StreamingRenderer renderer, Map<Object, Object> rendererParams,
+            final Graphics2D graphic, Map<RenderingHints.Key, Object> hintsMap,
+            final Rectangle paintArea, MapDecorationLayout layout) {
+        final int count = groups.size();
+        final int maxErrors = wms.getMaxRenderingErrors();
+        final int maxRenderingTime = wms.getMaxRenderingTime() * 1000;
+        final long deadline = System.currentTimeMillis() + maxRenderingTime;
+
+        // setup a renderer, error checkers and a timeout enforcer for each group
+        final LabelCacheRecorder[] labels = new LabelCacheRecorder[count];
+        final BufferedImage[] surfaces = new BufferedImage[count];
+        final MaxErrorEnforcer[] errorCheckers = new MaxErrorEnforcer[count];
+        final RenderExceptionStrategy[] exceptionListeners = new RenderExceptionStrategy[count];
+        final RenderingTimeoutEnforcer[] timeouts = new RenderingTimeoutEnforcer[count];
+        final StreamingRenderer[] renderers = new StreamingRenderer[count];
+        final Graphics2D[] graphics = new Graphics2D[count];
+        for (int i = 0; i < count; i++) {
+            StreamingRenderer r = renderer;
+            if (i == 0) {
+                graphics[i] = graphic;
+            } else {
+                r = new StreamingRenderer();
+                r.setThreadPool(DefaultWebMapService.getRenderingPool());
+                r.setJava2DHints(renderer.getJava2DHints());
+                surfaces[i] = ImagePool.getDefault().createImage(paintArea.width,
+                        paintArea.height, null, true);
+                graphics[i] = surfaces[i].createGraphics();
+                graphics[i].setRenderingHints(hintsMap);
+            }
+            r.setMapContent(new LayerGroupContent(mapContent, groups.get(i)));
+            labels[i] = new LabelCacheRecorder();
+            Map<Object, Object> params = new HashMap<Object, Object>(rendererParams);
+            params.put(StreamingRenderer.LABEL_CACHE_KEY, labels[i]);
+            r.setRendererHints(params);
+
+            errorCheckers[i] = new MaxErrorEnforcer(r, maxErrors);
+            exceptionListeners[i] = new RenderExceptionStrategy(r);
+            r.addRenderListener(exceptionListeners[i]);
+            List<String> layerNames = new ArrayList<String>();
+            for (Layer layer : groups.get(i)) {
+                layerNames.add(layer.getTitle());
+            }
+            timeouts[i] = new RenderingTimeoutEnforcer(maxRenderingTime, r, graphics[i],
+                    layerNames);
+            renderers[i] = r;
+        }
+
+        // the pool threads render on behalf of the current request and user, styles might
+        // depend on them through the SLD environment variables
+        final Request request = Dispatcher.REQUEST.get();
+        final SecurityContext securityContext = SecurityContextHolder.getContext();
+        final Map<String, Object> environment = getRenderingEnvironment(request);
+
+        boolean timedOut = false;
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            ExecutorService pool = DefaultWebMapService.getLayerRenderingPool();
+            for (int i = 1; i < count; i++) {
+                final int group = i;
+                futures.add(pool.submit(new Runnable() {
+                    public void run() {
+                        Dispatcher.REQUEST.set(request);
+                        SecurityContextHolder.setContext(securityContext);
+                        EnvFunction.setLocalValues(environment);
+                        try {
+                            paintLayerGroup(mapContent, renderers[group], graphics[group],
+                                    paintArea, timeouts[group]);
+                        } finally {
+                            EnvFunction.clearLocalValues();
+                            SecurityContextHolder.clearContext();
+                            Dispatcher.REQUEST.remove();
+                        }
+                    }
+                }));
+            }
+            paintLayerGroup(mapContent, renderers[0], graphic, paintArea, timeouts[0]);
+
+            // wait for the other groups, within the time limit if any
+            for (Future<?> future : futures) {
+                if (maxRenderingTime > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+                } else {
+                    future.get();
+                }
+            }
+        } catch (TimeoutException e) {
+            timedOut = true;
+        } catch (ExecutionException e) {
+            throw new ServiceException("Rendering process failed", e.getCause(), "internalError");
+        } catch (InterruptedException e) {
+            throw new ServiceException("Rendering process interrupted", e);
+        } finally {
+            for (int i = 1; i < count; i++) {
+                if (i <= futures.size() && !futures.get(i - 1).isDone()) {
+                    renderers[i].stopRendering();
+                    futures.get(i - 1).cancel(true);
+                    // the group might still be painting, its surface cannot be reused
+                    ImagePool.getDefault().detach(surfaces[i]);
+                }
+                graphics[i].dispose();
+            }
+        }
+
+        // check if the request did timeout
+        for (RenderingTimeoutEnforcer timeout : timeouts) {
+            timedOut |= timeout.isTimedOut();
+        }
+        if (timedOut) {
+            throw new ServiceException(
+                    "This requested used more time than allowed and has been forcefully stopped. "
+                            + "Max rendering time is " + (maxRenderingTime / 1000.0) + "s");
+        }
+
+        // check if a non ignorable error occurred
+        int errors = 0;
+        Exception lastException = null;
+        for (int i = 0; i < count; i++) {
+            if (exceptionListeners[i].exceptionOccurred()) {
+                Exception renderError = exceptionListeners[i].getException();
+                throw new ServiceException("Rendering process failed", renderError,
+                        "internalError");
+            }
+            errors += errorCheckers[i].errors;
+            if (errorCheckers[i].getLastException() != null) {
+                lastException = errorCheckers[i].getLastException();
+            }
+        }
+
+        // check if too many errors occurred
+        if (maxErrors > 0 && errors > maxErrors) {
+            throw new ServiceException("More than " + maxErrors
+                    + " rendering errors occurred, bailing out.", lastException, "internalError");
+        }
+
+        // composite the groups in order, then paint the labels on top
+        for (int i = 1; i < count; i++) {
+            graphic.drawImage(surfaces[i], 0, 0, null);
+        }
+        LabelCacheImpl labelCache = new LabelCacheImpl();
+        labelCache.setLabelRenderingMode(LabelRenderingMode.valueOf((String) rendererParams
+                .get(StreamingRenderer.TEXT_RENDERING_KEY)));
+        labelCache.start();
+        for (LabelCacheRecorder recorder : labels) {
+            recorder.replay(labelCache, graphic, paintArea);
+        }
+        labelCache.end(graphic, paintArea);
+
+        // apply watermarking
+        if (layout != null) {
+            try {
+                layout.paint(graphic, paintArea, mapContent);
+            } catch (Exception e) {
+                throw new ServiceException("Problem occurred while trying to watermark data", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the SLD environment variables set for the current thread, the ones the dispatcher
+     * parsed out of the request and the ones describing the map being rendered
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> getRenderingEnvironment(Request request) {
+        Set<String> names = new HashSet<String>(Arrays.asList("wms_bbox", "wms_crs", "wms_srs",
+                "wms_width", "wms_height", "wms_scale_denominator", "GSUSER"));
+        if (request != null && request.getKvp() != null
+                && request.getKvp().get("env") instanceof Map) {
+            names.addAll(((Map<String, Object>) request.getKvp().get("env")).keySet());
+        }
+
+        Map<String, Object> environment = new HashMap<String, Object>();
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        for (String name : names) {
+            Object value = ff.function("env", ff.literal(name)).evaluate(null);
+            if (value != null) {
+                environment.put(name, value);
+            }
+        }
+        return environment;
+    }
+
+    void paintLayerGroup(WMSMapContent mapContent, StreamingRenderer renderer,
+            Graphics2D graphics, Rectangle paintArea, RenderingTimeoutEnforcer timeout) {
+        timeout.start();
+        try {
+            renderer.paint(graphics, paintArea, mapContent.getRenderingArea(),
+                    mapContent.getRenderingTransform());
+        } finally {
+            timeout.stop();
+        }
+    }
+
     protected RenderedImageMap buildMap(final WMSMapContent mapContent, RenderedImage image) {
         RenderedImageMap map = new RenderedImageMap(mapContent, image, getMimeType());
         if(extension != null) {
@@ -629,10 +904,40 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         return null;
     }
 
+    /**
+     * A view of a map content exposing only a group of its layers. It does not own the layers,
+     * so it does not need to be disposed
+     */
+    static class LayerGroupContent extends MapContent {
+        MapContent content;
+
+        List<Layer> layers;
+
+        LayerGroupContent(MapContent content, List<Layer> layers) {
+            this.content = content;
+            this.layers = Collections.unmodifiableList(layers);
+        }
+
+        @Override
+        public List<Layer> layers() {
+            return layers;
+        }
+
+        @Override
+        public MapViewport getViewport() {
+            return content.getViewport();
+        }
+
+        @Override
+        public CoordinateReferenceSystem getCoordinateReferenceSystem() {
+            return content.getCoordinateReferenceSystem();
+        }
+    }
+
     /**
      * Sets up a {@link BufferedImage#TYPE_4BYTE_ABGR} if the paletteInverter is not provided, or a
      * indexed image otherwise. Subclasses may override this method should they need a special kind
-     * of image
+     * of image. The image is backed by a raster taken from the {@link ImagePool}, if enabled.
      * 
      * @param width
      * @param height
@@ -641,8 +946,8 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
      */
     final protected RenderedImage prepareImage(int width, int height, IndexColorModel palette,
             boolean transparent) {
-        return ImageUtils.createImage(width, height, isPaletteSupported() ? palette : null,
-                transparent && isTransparencySupported());
+        return ImagePool.getDefault().createImage(width, height,
+                isPaletteSupported() ? palette : null, transparent && isTransparencySupported());
     }
 
     /**
@@ -24,7 +24,7 @@ import org.geoserver.wms.map.PNGMapResponse.QuantizeMethod;
 import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
-import org.geoserver.wms.map.quantize.LRUColorIndexer;
+import org.geoserver.wms.map.quantize.InverseColorMapIndexer;
 import org.geoserver.wms.map.quantize.Quantizer;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.image.ImageWorker;
@@ -174,7 +174,7 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
                 
                 // user provided palette?
                 if (mapContent.getPalette() != null) {
-                    indexer = new CachingColorIndexer(new LRUColorIndexer(icm, 1024));
+                    indexer = new CachingColorIndexer(InverseColorMapIndexer.get(icm));
                 } else if (palettedFormatName.equalsIgnoreCase(format)) {
                     // build the palette and grab the optimized color indexer
                     indexer = new Quantizer(256).subsample().buildColorIndexer(image);
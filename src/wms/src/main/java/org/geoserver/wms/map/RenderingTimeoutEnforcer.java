@@ -5,8 +5,17 @@
 package org.geoserver.wms.map;
 
 import java.awt.Graphics;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.geotools.renderer.GTRenderer;
 
@@ -14,71 +23,137 @@ import org.geotools.renderer.GTRenderer;
  * An utility class that can be used to set a strict timeout on rendering operations:
  * if the timeout elapses, the renderer will be asked to stop rendering and the graphics
  * will be disposed of to make extra sure the renderer cannot keep going on.
+ * <p>
+ * All enforcers share a single scheduler thread, and keep count of the renderings stopped by
+ * the timeout for each of the layers involved, see {@link #getTimeoutCounts()}.
+ * </p>
  * @author Andrea Aime - OpenGeo
  */
 public class RenderingTimeoutEnforcer {
-    
+
+    /**
+     * Number of cancelled checks after which the scheduler queue is purged, cancelled tasks
+     * would otherwise linger in the queue until their timeout elapses
+     */
+    static final int PURGE_INTERVAL = 1000;
+
+    static final ScheduledThreadPoolExecutor SCHEDULER =
+        new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RenderingTimeoutEnforcer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    static final AtomicInteger CANCELLED = new AtomicInteger();
+
+    static final ConcurrentHashMap<String, AtomicLong> TIMEOUTS =
+        new ConcurrentHashMap<String, AtomicLong>();
+
     long timeout;
     GTRenderer renderer;
     Graphics graphics;
-    Timer timer;
-    boolean timedOut = false;
+    Collection<String> layers;
+    ScheduledFuture<?> check;
+    volatile boolean timedOut = false;
 
     public RenderingTimeoutEnforcer(long timeout, GTRenderer renderer, Graphics graphics) {
+        this(timeout, renderer, graphics, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param layers The names of the layers being rendered, used to keep count of the timeouts
+     */
+    public RenderingTimeoutEnforcer(long timeout, GTRenderer renderer, Graphics graphics,
+            Collection<String> layers) {
         this.timeout = timeout;
         this.renderer = renderer;
         this.graphics = graphics;
+        this.layers = layers;
     }
 
     /**
      * Starts checking the rendering timeout (if timeout is positive, does nothing otherwise)
      */
     public void start() {
-        if(timer != null)
+        if(check != null)
             throw new IllegalStateException("The timeout enforcer has already been started");
-        
+
         if(timeout > 0) {
             timedOut = false;
-            timer = new Timer();
-            timer.schedule(new StopRenderingTask(), timeout);
+            check = SCHEDULER.schedule(new StopRenderingTask(), timeout, TimeUnit.MILLISECONDS);
         }
     }
-    
+
     /**
      * Stops the timeout check
      */
     public void stop() {
-        if(timer != null) {
-            timer.cancel();
-            timer.purge();
-            // timer.getTheHellOutOfDodge();
-            timer = null;
+        if(check != null) {
+            if (check.cancel(false) && CANCELLED.incrementAndGet() % PURGE_INTERVAL == 0) {
+                SCHEDULER.purge();
+            }
+            check = null;
         }
     }
-    
+
     /**
      * Returns true if the renderer has been stopped mid-way due to the timeout occurring
      */
     public boolean isTimedOut() {
         return timedOut;
     }
-    
-    class StopRenderingTask extends TimerTask {
 
-        @Override
+    /**
+     * Returns the number of renderings stopped by the timeout, by layer name
+     */
+    public static Map<String, Long> getTimeoutCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : TIMEOUTS.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Resets the timeout counts
+     */
+    public static void resetTimeoutCounts() {
+        TIMEOUTS.clear();
+    }
+
+    static void countTimeout(String layer) {
+        AtomicLong count = TIMEOUTS.get(layer);
+        if (count == null) {
+            count = new AtomicLong();
+            AtomicLong existing = TIMEOUTS.putIfAbsent(layer, count);
+            count = existing != null ? existing : count;
+        }
+        count.incrementAndGet();
+    }
+
+    class StopRenderingTask implements Runnable {
+
         public void run() {
-            // mark as timed out
+            for (String layer : layers) {
+                if (layer != null) {
+                    countTimeout(layer);
+                }
+            }
+            // mark as timed out, only once the counts are updated so that whoever sees the
+            // flag sees the counts too
             timedOut = true;
-            
+
             // ask gently...
             renderer.stopRendering();
             // ... but also be rude for extra measure (coverage rendering is
             // an atomic call to the graphics, it cannot be stopped
             // by the above)
             graphics.dispose();
-            
+
         }
-        
+
     }
 
 }
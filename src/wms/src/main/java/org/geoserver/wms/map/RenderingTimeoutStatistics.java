@@ -0,0 +1,21 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.util.Map;
+
+/**
+ * Exposes the rendering timeouts counted by {@link RenderingTimeoutEnforcer}.
+ */
+public class RenderingTimeoutStatistics implements RenderingTimeoutStatisticsMBean {
+
+    public Map<String, Long> getTimeoutCounts() {
+        return RenderingTimeoutEnforcer.getTimeoutCounts();
+    }
+
+    public void reset() {
+        RenderingTimeoutEnforcer.resetTimeoutCounts();
+    }
+}
@@ -0,0 +1,23 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of {@link RenderingTimeoutStatistics}.
+ */
+public interface RenderingTimeoutStatisticsMBean {
+
+    /**
+     * The number of renderings stopped by the timeout, by layer name
+     */
+    Map<String, Long> getTimeoutCounts();
+
+    /**
+     * Resets the timeout counts
+     */
+    void reset();
+}
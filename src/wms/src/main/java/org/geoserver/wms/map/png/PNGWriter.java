@@ -0,0 +1,423 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A PNG encoder tuned for map tiles, writing straight from the image raster data.
+ * <p>
+ * Supports images backed by interleaved byte rasters, that is, 8 bit paletted images and 8 bit
+ * per sample gray, RGB and RGBA images (the kind of images produced by the rendering and
+ * quantization code), use {@link #isSupported(RenderedImage)} to check an image can be
+ * encoded. Scanlines are assembled and filtered in buffers allocated once per image.
+ * </p>
+ */
+public class PNGWriter {
+
+    /**
+     * The scanline filter to apply
+     */
+    public enum FilterType {
+        NONE, SUB, UP, AVERAGE, PAETH,
+        /**
+         * Tries all filters on each scanline, and picks the one producing the minimum sum of
+         * absolute differences
+         */
+        ADAPTIVE,
+        /**
+         * No filtering for paletted images, {@link #ADAPTIVE} for the others, as suggested by
+         * the PNG specification
+         */
+        AUTO
+    }
+
+    static final byte[] SIGNATURE = new byte[] { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    static final int IDAT_SIZE = 32 * 1024;
+
+    int level;
+
+    int strategy;
+
+    FilterType filter;
+
+    /**
+     * @param level The deflate level, 0 to 9
+     * @param strategy The deflate strategy, see {@link Deflater#setStrategy(int)}
+     * @param filter The scanline filter
+     */
+    public PNGWriter(int level, int strategy, FilterType filter) {
+        this.level = level;
+        this.strategy = strategy;
+        this.filter = filter;
+    }
+
+    /**
+     * Returns true if the image can be encoded by this class
+     */
+    public static boolean isSupported(RenderedImage image) {
+        SampleModel sm = image.getSampleModel();
+        ColorModel cm = image.getColorModel();
+        if (!(sm instanceof ComponentSampleModel) || sm.getDataType() != DataBuffer.TYPE_BYTE) {
+            return false;
+        }
+        for (int size : sm.getSampleSize()) {
+            if (size != 8) {
+                return false;
+            }
+        }
+        for (int bank : ((ComponentSampleModel) sm).getBankIndices()) {
+            if (bank != 0) {
+                return false;
+            }
+        }
+        int bands = sm.getNumBands();
+        if (cm instanceof IndexColorModel) {
+            return bands == 1;
+        } else if (cm instanceof ComponentColorModel) {
+            if (cm.isAlphaPremultiplied() || cm.getNumComponents() != bands) {
+                return false;
+            }
+            int type = cm.getColorSpace().getType();
+            if (bands <= 2) {
+                return type == ColorSpace.TYPE_GRAY;
+            }
+            return type == ColorSpace.TYPE_RGB && bands <= 4;
+        }
+        return false;
+    }
+
+    /**
+     * Encodes the image, which must be supported, see {@link #isSupported(RenderedImage)}.
+     */
+    public void write(RenderedImage image, OutputStream out) throws IOException {
+        if (!isSupported(image)) {
+            throw new IllegalArgumentException("Unsupported image layout, sample model "
+                    + image.getSampleModel() + ", color model " + image.getColorModel());
+        }
+        ColorModel cm = image.getColorModel();
+        int bands = image.getSampleModel().getNumBands();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean paletted = cm instanceof IndexColorModel;
+
+        out.write(SIGNATURE);
+        writeHeader(out, width, height, paletted, bands);
+        if (paletted) {
+            writePalette(out, (IndexColorModel) cm);
+        }
+
+        FilterType filterType = filter;
+        if (filterType == null || filterType == FilterType.AUTO) {
+            filterType = paletted ? FilterType.NONE : FilterType.ADAPTIVE;
+        }
+
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setStrategy(strategy);
+            ChunkOutputStream idat = new ChunkOutputStream(out, "IDAT");
+            DeflaterOutputStream zout = new DeflaterOutputStream(idat, deflater, 8192);
+            writeScanlines(image, zout, bands, filterType);
+            zout.finish();
+            idat.close();
+        } finally {
+            deflater.end();
+        }
+
+        writeChunk(out, "IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    void writeHeader(OutputStream out, int width, int height, boolean paletted, int bands)
+            throws IOException {
+        byte[] data = new byte[13];
+        writeInt(data, 0, width);
+        writeInt(data, 4, height);
+        data[8] = 8; // bit depth
+        if (paletted) {
+            data[9] = 3;
+        } else if (bands == 1) {
+            data[9] = 0;
+        } else if (bands == 2) {
+            data[9] = 4;
+        } else if (bands == 3) {
+            data[9] = 2;
+        } else {
+            data[9] = 6;
+        }
+        // compression, filter and interlace methods are all zero
+        writeChunk(out, "IHDR", data, data.length);
+    }
+
+    void writePalette(OutputStream out, IndexColorModel icm) throws IOException {
+        int size = icm.getMapSize();
+        byte[] rgb = new byte[size * 3];
+        byte[] alpha = new byte[size];
+        int transparent = 0;
+        for (int i = 0; i < size; i++) {
+            int color = icm.getRGB(i);
+            rgb[i * 3] = (byte) (color >> 16);
+            rgb[i * 3 + 1] = (byte) (color >> 8);
+            rgb[i * 3 + 2] = (byte) color;
+            alpha[i] = (byte) (color >>> 24);
+            if (alpha[i] != (byte) 255) {
+                transparent = i + 1;
+            }
+        }
+        writeChunk(out, "PLTE", rgb, rgb.length);
+        if (transparent > 0) {
+            // trailing opaque entries can be omitted
+            writeChunk(out, "tRNS", alpha, transparent);
+        }
+    }
+
+    void writeScanlines(RenderedImage image, OutputStream out, int bands, FilterType filterType)
+            throws IOException {
+        int width = image.getWidth();
+        int rowBytes = width * bands;
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        byte[][] filtered = new byte[filterType == FilterType.ADAPTIVE ? 5 : 1][rowBytes + 1];
+
+        int minTileY = image.getMinTileY();
+        int maxTileY = minTileY + image.getNumYTiles() - 1;
+        boolean singleTile = image.getNumXTiles() == 1 && image.getNumYTiles() == 1;
+        int y = image.getMinY();
+        int maxY = y + image.getHeight();
+        for (int ty = minTileY; ty <= maxTileY && y < maxY; ty++) {
+            // grab a raster spanning the whole width of the image for this row of tiles
+            Raster raster;
+            if (singleTile) {
+                raster = image.getTile(image.getMinTileX(), minTileY);
+            } else {
+                int tileMaxY = image.getTileGridYOffset() + (ty + 1) * image.getTileHeight();
+                raster = image.getData(new Rectangle(image.getMinX(), y, width,
+                        Math.min(tileMaxY, maxY) - y));
+            }
+
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            int pixelStride = sm.getPixelStride();
+            int scanlineStride = sm.getScanlineStride();
+            int[] bandOffsets = sm.getBandOffsets();
+            int bankOffset = raster.getDataBuffer().getOffset();
+            int rasterMaxY = Math.min(maxY, raster.getMinY() + raster.getHeight());
+            for (; y < rasterMaxY; y++) {
+                int rowStart = bankOffset
+                        + (y - raster.getSampleModelTranslateY()) * scanlineStride
+                        + (image.getMinX() - raster.getSampleModelTranslateX()) * pixelStride;
+                readRow(data, rowStart, width, bands, pixelStride, bandOffsets, current);
+                byte[] row = filter(filterType, current, previous, bands, filtered);
+                out.write(row, 0, rowBytes + 1);
+
+                byte[] tmp = previous;
+                previous = current;
+                current = tmp;
+            }
+        }
+    }
+
+    static void readRow(byte[] data, int rowStart, int width, int bands, int pixelStride,
+            int[] bandOffsets, byte[] row) {
+        boolean natural = pixelStride == bands;
+        for (int b = 0; b < bands && natural; b++) {
+            natural = bandOffsets[b] == b;
+        }
+        if (natural) {
+            System.arraycopy(data, rowStart, row, 0, width * bands);
+        } else if (bands == 4) {
+            int o0 = bandOffsets[0], o1 = bandOffsets[1], o2 = bandOffsets[2], o3 = bandOffsets[3];
+            for (int x = 0, src = rowStart, dst = 0; x < width; x++, src += pixelStride) {
+                row[dst++] = data[src + o0];
+                row[dst++] = data[src + o1];
+                row[dst++] = data[src + o2];
+                row[dst++] = data[src + o3];
+            }
+        } else if (bands == 3) {
+            int o0 = bandOffsets[0], o1 = bandOffsets[1], o2 = bandOffsets[2];
+            for (int x = 0, src = rowStart, dst = 0; x < width; x++, src += pixelStride) {
+                row[dst++] = data[src + o0];
+                row[dst++] = data[src + o1];
+                row[dst++] = data[src + o2];
+            }
+        } else {
+            for (int x = 0, src = rowStart, dst = 0; x < width; x++, src += pixelStride) {
+                for (int b = 0; b < bands; b++) {
+                    row[dst++] = data[src + bandOffsets[b]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Filters the current row, returns the buffer holding the filter type byte followed by the
+     * filtered row
+     */
+    static byte[] filter(FilterType type, byte[] current, byte[] previous, int bpp,
+            byte[][] buffers) {
+        if (type != FilterType.ADAPTIVE) {
+            filter(type, current, previous, bpp, buffers[0]);
+            return buffers[0];
+        }
+
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        FilterType[] types = FilterType.values();
+        for (int i = 0; i < 5; i++) {
+            byte[] buffer = buffers[i];
+            filter(types[i], current, previous, bpp, buffer);
+            long sum = 0;
+            for (int j = 1; j < buffer.length && sum < bestSum; j++) {
+                sum += Math.abs((int) buffer[j]);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = buffer;
+            }
+        }
+        return best;
+    }
+
+    static void filter(FilterType type, byte[] cur, byte[] prev, int bpp, byte[] out) {
+        int length = cur.length;
+        switch (type) {
+        case NONE:
+            out[0] = 0;
+            System.arraycopy(cur, 0, out, 1, length);
+            break;
+        case SUB:
+            out[0] = 1;
+            for (int i = 0; i < length; i++) {
+                int left = i >= bpp ? cur[i - bpp] : 0;
+                out[i + 1] = (byte) (cur[i] - left);
+            }
+            break;
+        case UP:
+            out[0] = 2;
+            for (int i = 0; i < length; i++) {
+                out[i + 1] = (byte) (cur[i] - prev[i]);
+            }
+            break;
+        case AVERAGE:
+            out[0] = 3;
+            for (int i = 0; i < length; i++) {
+                int left = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+                int up = prev[i] & 0xFF;
+                out[i + 1] = (byte) (cur[i] - ((left + up) >> 1));
+            }
+            break;
+        case PAETH:
+            out[0] = 4;
+            for (int i = 0; i < length; i++) {
+                int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+                int b = prev[i] & 0xFF;
+                int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+                int p = a + b - c;
+                int pa = Math.abs(p - a);
+                int pb = Math.abs(p - b);
+                int pc = Math.abs(p - c);
+                int predictor = (pa <= pb && pa <= pc) ? a : (pb <= pc ? b : c);
+                out[i + 1] = (byte) (cur[i] - predictor);
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Not a scanline filter: " + type);
+        }
+    }
+
+    static void writeChunk(OutputStream out, String type, byte[] data, int length)
+            throws IOException {
+        byte[] header = new byte[8];
+        writeInt(header, 0, length);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, length);
+
+        out.write(header);
+        out.write(data, 0, length);
+        byte[] trailer = new byte[4];
+        writeInt(trailer, 0, (int) crc.getValue());
+        out.write(trailer);
+    }
+
+    static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Splits whatever is written into chunks of the specified type
+     */
+    static class ChunkOutputStream extends OutputStream {
+        OutputStream out;
+
+        String type;
+
+        byte[] buffer = new byte[IDAT_SIZE];
+
+        int count;
+
+        ChunkOutputStream(OutputStream out, String type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(out, type, buffer, count);
+                count = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // does not close the target stream, more chunks will follow
+            flushChunk();
+        }
+    }
+}
@@ -15,9 +15,12 @@ import java.awt.image.IndexColorModel;
 public class CachingColorIndexer implements ColorIndexer {
     ColorIndexer delegate;
 
-    int lr, lg, lb, la;
-
-    int idx = -1;
+    /**
+     * The last looked up color in the high 32 bits, its index in the low ones, or -1 if no
+     * lookup was made yet. A single volatile long keeps color and index consistent without
+     * locking
+     */
+    volatile long last = -1;
 
     public CachingColorIndexer(ColorIndexer delegate) {
         this.delegate = delegate;
@@ -30,21 +33,14 @@ public class CachingColorIndexer implements ColorIndexer {
 
     @Override
     public int getClosestIndex(int r, int g, int b, int a) {
-        synchronized (this) {
-            if (r == lr && g == lg && b == lb && a == la && idx >= 0) {
-                return idx;
-            }
+        int color = ColorUtils.color(r, g, b, a);
+        long cached = last;
+        if (cached != -1 && (int) (cached >>> 32) == color) {
+            return (int) cached;
         }
 
         int delegateIdx = delegate.getClosestIndex(r, g, b, a);
-
-        synchronized (this) {
-            lr = r;
-            lg = g;
-            lb = b;
-            la = a;
-            idx = delegateIdx;
-        }
+        last = (((long) color) << 32) | (delegateIdx & 0xFFFFFFFFL);
 
         return delegateIdx;
     }
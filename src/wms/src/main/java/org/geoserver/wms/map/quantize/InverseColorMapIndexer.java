@@ -0,0 +1,203 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.geotools.util.SoftValueHashMap;
+
+/**
+ * A color indexer used when all we have is the target palette, safe to share among threads
+ * without locking.
+ * <p>
+ * The RGBA space is split in cells, 5 bits for each of red, green and blue (RGB555) and 2 bits
+ * for alpha. For each cell the indexer computes, on first use, the palette entries that can
+ * possibly be the closest to a color in the cell, so a lookup only has to search among those,
+ * in the common case a single entry. The result is the same as the one of
+ * {@link SimpleColorIndexer}. Cells are published through an {@link AtomicReferenceArray}, two
+ * threads hitting the same empty cell may both compute it, which is harmless.
+ * </p>
+ * <p>
+ * Indexers are cached by palette contents, use {@link #get(IndexColorModel)} to grab one.
+ * </p>
+ */
+public class InverseColorMapIndexer implements ColorIndexer {
+
+    static final int RGB_SHIFT = 3;
+
+    static final int ALPHA_SHIFT = 6;
+
+    static final int CELL_COUNT = 1 << (3 * (8 - RGB_SHIFT) + (8 - ALPHA_SHIFT));
+
+    static final SoftValueHashMap<PaletteKey, InverseColorMapIndexer> CACHE =
+        new SoftValueHashMap<PaletteKey, InverseColorMapIndexer>();
+
+    IndexColorModel icm;
+
+    int[] reds;
+
+    int[] greens;
+
+    int[] blues;
+
+    int[] alphas;
+
+    AtomicReferenceArray<int[]> cells = new AtomicReferenceArray<int[]>(CELL_COUNT);
+
+    /**
+     * Returns the indexer for the specified palette, building it if necessary.
+     */
+    public static InverseColorMapIndexer get(IndexColorModel icm) {
+        PaletteKey key = new PaletteKey(icm);
+        synchronized (CACHE) {
+            InverseColorMapIndexer indexer = CACHE.get(key);
+            if (indexer == null) {
+                indexer = new InverseColorMapIndexer(icm);
+                CACHE.put(key, indexer);
+            }
+            return indexer;
+        }
+    }
+
+    public InverseColorMapIndexer(IndexColorModel icm) {
+        this.icm = icm;
+        int size = icm.getMapSize();
+        reds = new int[size];
+        greens = new int[size];
+        blues = new int[size];
+        alphas = new int[size];
+        for (int i = 0; i < size; i++) {
+            int rgb = icm.getRGB(i);
+            alphas[i] = (rgb >>> 24) & 0xFF;
+            reds[i] = (rgb >> 16) & 0xFF;
+            greens[i] = (rgb >> 8) & 0xFF;
+            blues[i] = rgb & 0xFF;
+        }
+    }
+
+    @Override
+    public IndexColorModel toIndexColorModel() {
+        return icm;
+    }
+
+    @Override
+    public int getClosestIndex(int r, int g, int b, int a) {
+        int cell = ((a >> ALPHA_SHIFT) << 15) | ((r >> RGB_SHIFT) << 10)
+                | ((g >> RGB_SHIFT) << 5) | (b >> RGB_SHIFT);
+        int[] candidates = cells.get(cell);
+        if (candidates == null) {
+            candidates = candidates(r, g, b, a);
+            cells.set(cell, candidates);
+        }
+        if (candidates.length == 1) {
+            return candidates[0];
+        }
+
+        // same search as SimpleColorIndexer, over the candidates only
+        int idx = candidates[0];
+        int distance = Integer.MAX_VALUE;
+        for (int i : candidates) {
+            int dr = r - reds[i];
+            int dg = g - greens[i];
+            int db = b - blues[i];
+            int da = a - alphas[i];
+            int d = 3 * dr * dr + 4 * dg * dg + 2 * db * db + 4 * da * da;
+            if (d < distance) {
+                distance = d;
+                idx = i;
+                if (distance == 0) {
+                    break;
+                }
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Computes the palette entries that can be the closest to a color in the cell containing the
+     * specified one: the entries whose minimum distance from the cell is not greater than the
+     * smallest maximum distance of any entry from the cell. Returned in palette order, so that
+     * ties are resolved like {@link SimpleColorIndexer} does.
+     */
+    int[] candidates(int r, int g, int b, int a) {
+        int rmin = (r >> RGB_SHIFT) << RGB_SHIFT;
+        int gmin = (g >> RGB_SHIFT) << RGB_SHIFT;
+        int bmin = (b >> RGB_SHIFT) << RGB_SHIFT;
+        int amin = (a >> ALPHA_SHIFT) << ALPHA_SHIFT;
+        int rmax = rmin + (1 << RGB_SHIFT) - 1;
+        int gmax = gmin + (1 << RGB_SHIFT) - 1;
+        int bmax = bmin + (1 << RGB_SHIFT) - 1;
+        int amax = amin + (1 << ALPHA_SHIFT) - 1;
+
+        int size = reds.length;
+        int[] lower = new int[size];
+        int minUpper = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            int dr = near(reds[i], rmin, rmax);
+            int dg = near(greens[i], gmin, gmax);
+            int db = near(blues[i], bmin, bmax);
+            int da = near(alphas[i], amin, amax);
+            lower[i] = 3 * dr * dr + 4 * dg * dg + 2 * db * db + 4 * da * da;
+
+            dr = far(reds[i], rmin, rmax);
+            dg = far(greens[i], gmin, gmax);
+            db = far(blues[i], bmin, bmax);
+            da = far(alphas[i], amin, amax);
+            int upper = 3 * dr * dr + 4 * dg * dg + 2 * db * db + 4 * da * da;
+            if (upper < minUpper) {
+                minUpper = upper;
+            }
+        }
+
+        int[] result = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (lower[i] <= minUpper) {
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    static int near(int value, int min, int max) {
+        if (value < min) {
+            return min - value;
+        } else if (value > max) {
+            return value - max;
+        }
+        return 0;
+    }
+
+    static int far(int value, int min, int max) {
+        return Math.max(Math.abs(value - min), Math.abs(value - max));
+    }
+
+    /**
+     * Identifies a palette by its contents
+     */
+    static class PaletteKey {
+        int[] rgbs;
+
+        int hashCode;
+
+        PaletteKey(IndexColorModel icm) {
+            rgbs = new int[icm.getMapSize()];
+            icm.getRGBs(rgbs);
+            hashCode = Arrays.hashCode(rgbs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof PaletteKey && Arrays.equals(rgbs, ((PaletteKey) obj).rgbs);
+        }
+    }
+}
@@ -6,12 +6,22 @@ package org.geoserver.wms.animate;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
@@ -21,6 +31,7 @@ import javax.xml.namespace.QName;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.data.test.MockData;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMSTestSupport;
 import org.geoserver.wms.WebMapService;
@@ -213,5 +224,66 @@ public class AnimatorTest extends WMSTestSupport {
             catalog.remove(singleGroup);
         }
     }
-    
+
+    List<FutureTask<RenderedImage>> createFrameTasks(int count, final AtomicInteger started) {
+        List<FutureTask<RenderedImage>> tasks = new ArrayList<FutureTask<RenderedImage>>();
+        for (int i = 0; i < count; i++) {
+            tasks.add(new FutureTask<RenderedImage>(new Callable<RenderedImage>() {
+                public RenderedImage call() throws Exception {
+                    started.incrementAndGet();
+                    return new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_INDEXED);
+                }
+            }));
+        }
+        return tasks;
+    }
+
+    /**
+     * Frames are rendered in a bounded window ahead of the one being read
+     */
+    @org.junit.Test
+    public void testFrameListWindow() throws Exception {
+        AtomicInteger started = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            FrameList frames = new FrameList(createFrameTasks(10, started), executor, 3, null,
+                    null);
+            assertEquals(10, frames.size());
+            for (int i = 0; i < 10; i++) {
+                assertNotNull(frames.get(i));
+                assertTrue(started.get() <= Math.min(i + 3, 10));
+            }
+
+            // frames already read are not retained, besides the first one
+            assertNull(frames.get(5));
+            assertNotNull(frames.get(0));
+            assertEquals(100, frames.getWidth());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The animation size limit is checked as soon as the first frame is rendered
+     */
+    @org.junit.Test
+    public void testFrameListMaxSize() throws Exception {
+        AtomicInteger started = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            // each frame accounts for 200 bytes
+            FrameList frames = new FrameList(createFrameTasks(10, started), executor, 2,
+                    1000l, null);
+            try {
+                frames.get(0);
+                fail("The animation is larger than allowed");
+            } catch (ServiceException e) {
+                assertEquals("Max rendering size exceed!", e.getMessage());
+            }
+            assertNull(frames.get(1));
+            assertTrue(started.get() <= 2);
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
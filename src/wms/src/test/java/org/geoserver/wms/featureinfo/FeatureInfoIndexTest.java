@@ -0,0 +1,156 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.featureinfo;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
+import static org.junit.Assert.*;
+
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wms.WMSTestSupport;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.identity.FeatureId;
+import org.w3c.dom.Document;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+public class FeatureInfoIndexTest extends WMSTestSupport {
+
+    FeatureInfoIndex index;
+
+    FeatureTypeInfo lakes;
+
+    SimpleFeature lake;
+
+    @Before
+    public void setUpIndex() throws Exception {
+        index = GeoServerExtensions.bean(FeatureInfoIndex.class);
+        index.setMaxSize(1024 * 1024);
+        index.clear();
+        index.resetStatistics();
+
+        lakes = getCatalog().getFeatureTypeByName(getLayerId(MockData.LAKES));
+        SimpleFeatureIterator it = (SimpleFeatureIterator) lakes.getFeatureSource(null, null)
+                .getFeatures().features();
+        try {
+            lake = it.next();
+        } finally {
+            it.close();
+        }
+    }
+
+    @After
+    public void disableIndex() {
+        index.setMaxSize(0);
+    }
+
+    @Test
+    public void testCandidates() throws Exception {
+        Point inside = ((Geometry) lake.getDefaultGeometry()).getInteriorPoint();
+        Set<FeatureId> ids = index.getCandidates(lakes, inside.buffer(1e-6), 1e-6);
+        assertNotNull(ids);
+        assertTrue(ids.contains(FeatureInfoIndex.FF.featureId(lake.getID())));
+        assertEquals(1, index.getCount());
+        assertEquals(1, index.getMisses());
+        assertTrue(index.getSize() > 0);
+
+        // nothing there, answered from the same index
+        Point outside = new GeometryFactory().createPoint(new Coordinate(inside.getX() + 10,
+                inside.getY()));
+        ids = index.getCandidates(lakes, outside.buffer(1e-6), 1e-6);
+        assertNotNull(ids);
+        assertTrue(ids.isEmpty());
+        assertEquals(1, index.getCount());
+        assertEquals(1, index.getHits());
+
+        // a different zoom band gets its own index
+        index.getCandidates(lakes, inside.buffer(1e-3), 1e-3);
+        assertEquals(2, index.getCount());
+    }
+
+    @Test
+    public void testTransactionInvalidation() throws Exception {
+        Point inside = ((Geometry) lake.getDefaultGeometry()).getInteriorPoint();
+        index.getCandidates(lakes, inside.buffer(1e-6), 1e-6);
+        assertEquals(1, index.getCount());
+
+        index.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_UPDATE, null,
+                MockData.FORESTS, null));
+        assertEquals(1, index.getCount());
+
+        index.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_UPDATE, null,
+                MockData.LAKES, null));
+        assertEquals(0, index.getCount());
+        assertEquals(0, index.getSize());
+    }
+
+    @Test
+    public void testUnqualifiedTransactionInvalidation() throws Exception {
+        Catalog catalog = getCatalog();
+        NamespaceInfo defaultNamespace = catalog.getDefaultNamespace();
+        catalog.setDefaultNamespace(catalog.getNamespaceByPrefix(MockData.CITE_PREFIX));
+        try {
+            Point inside = ((Geometry) lake.getDefaultGeometry()).getInteriorPoint();
+            index.getCandidates(lakes, inside.buffer(1e-6), 1e-6);
+            assertEquals(1, index.getCount());
+
+            // a transaction on the default namespace might not qualify the type name
+            index.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_INSERT, null,
+                    new QName(MockData.LAKES.getLocalPart()), null));
+            assertEquals(0, index.getCount());
+        } finally {
+            catalog.setDefaultNamespace(defaultNamespace);
+        }
+    }
+
+    @Test
+    public void testTooLarge() throws Exception {
+        index.setMaxSize(10);
+        Point inside = ((Geometry) lake.getDefaultGeometry()).getInteriorPoint();
+        assertNull(index.getCandidates(lakes, inside.buffer(1e-6), 1e-6));
+        assertEquals(0, index.getSize());
+
+        // the failure is remembered
+        assertNull(index.getCandidates(lakes, inside.buffer(1e-6), 1e-6));
+        assertEquals(1, index.getHits());
+    }
+
+    @Test
+    public void testGetFeatureInfo() throws Exception {
+        String layer = getLayerId(MockData.FORESTS) + "," + getLayerId(MockData.LAKES);
+        String request = "wms?REQUEST=GetFeatureInfo&EXCEPTIONS=application%2Fvnd.ogc.se_xml&"
+                + "BBOX=-0.002356%2C-0.004819%2C0.005631%2C0.004781&SERVICE=WMS&VERSION=1.1.0"
+                + "&INFO_FORMAT=application/vnd.ogc.gml&QUERY_LAYERS=" + layer + "&Layers="
+                + layer + "&Styles=&WIDTH=426&HEIGHT=512&format=image%2Fpng&srs=EPSG%3A4326"
+                + "&FEATURE_COUNT=2";
+
+        // a hit on both the lake and the forest
+        Document dom = getAsDOM(request + "&X=267&Y=325");
+        assertXpathEvaluatesTo("1", "count(//cite:Forests)", dom);
+        assertXpathEvaluatesTo("1", "count(//cite:Lakes)", dom);
+        assertEquals(2, index.getCount());
+
+        // same zoom level, answered by the same indexes
+        dom = getAsDOM(request + "&X=1&Y=1");
+        assertEquals(2, index.getCount());
+        assertEquals(2, index.getHits());
+    }
+}
@@ -0,0 +1,113 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImagePoolTest {
+
+    ImagePool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ImagePool();
+        pool.setMaxSize(1024 * 1024);
+        Dispatcher.REQUEST.set(new Request());
+    }
+
+    @After
+    public void tearDown() {
+        Dispatcher.REQUEST.remove();
+    }
+
+    @Test
+    public void testReuse() {
+        BufferedImage image = pool.createImage(64, 64, null, true);
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, image.getType());
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, 64, 64);
+        graphics.dispose();
+        pool.release();
+        assertEquals(64 * 64 * 4, pool.getSize());
+
+        BufferedImage reused = pool.createImage(64, 64, null, true);
+        assertSame(image.getRaster(), reused.getRaster());
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, reused.getType());
+        assertEquals(0, reused.getRGB(10, 10));
+        assertEquals(0, pool.getSize());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void testLayouts() {
+        BufferedImage rgb = pool.createImage(64, 64, null, false);
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, rgb.getType());
+        pool.release();
+
+        BufferedImage rgba = pool.createImage(64, 64, null, true);
+        assertNotSame(rgb.getRaster(), rgba.getRaster());
+        BufferedImage larger = pool.createImage(128, 64, null, false);
+        assertNotSame(rgb.getRaster(), larger.getRaster());
+
+        IndexColorModel palette = new IndexColorModel(8, 2, new byte[] { 0, (byte) 255 },
+                new byte[] { 0, (byte) 255 }, new byte[] { 0, (byte) 255 });
+        BufferedImage indexed = pool.createImage(64, 64, palette, false);
+        assertSame(palette, indexed.getColorModel());
+        assertEquals(1, indexed.getRaster().getNumBands());
+    }
+
+    @Test
+    public void testDetach() {
+        BufferedImage image = pool.createImage(64, 64, null, true);
+        pool.detach(image);
+        pool.release();
+        assertEquals(0, pool.getSize());
+        assertNotSame(image.getRaster(), pool.createImage(64, 64, null, true).getRaster());
+    }
+
+    @Test
+    public void testDetachAll() {
+        pool.createImage(64, 64, null, true);
+        pool.createImage(64, 64, null, false);
+        pool.detachAll();
+        pool.release();
+        assertEquals(0, pool.getSize());
+    }
+
+    @Test
+    public void testMaxSize() {
+        pool.setMaxSize(64 * 64 * 4);
+        BufferedImage first = pool.createImage(64, 64, null, true);
+        pool.createImage(64, 64, null, true);
+        pool.release();
+        assertEquals(64 * 64 * 4, pool.getSize());
+
+        pool.setMaxSize(0);
+        assertEquals(0, pool.getSize());
+        assertNotSame(first.getRaster(), pool.createImage(64, 64, null, true).getRaster());
+    }
+
+    @Test
+    public void testOutsideRequest() {
+        Dispatcher.REQUEST.remove();
+        pool.createImage(64, 64, null, true);
+        pool.release();
+        assertEquals(0, pool.getSize());
+        assertEquals(0, pool.getMisses());
+    }
+}
@@ -4,11 +4,27 @@
  */
 package org.geoserver.wms.map;
 
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
 import static org.junit.Assert.*;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
-
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.Collections;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.impl.NamespaceInfoImpl;
+import org.geoserver.data.test.MockData;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.junit.Test;
 
 import com.vividsolutions.jts.geom.Envelope;
@@ -57,4 +73,130 @@ public class QuickTileCacheTest {
         tc = cache.getTileCoordinates(env, origin);
         assertEquals(new Point(-1, -1), tc);
     }
+
+    @Test
+    public void testStoreAndEvict() {
+        MetaTileKey k1 = key("layers=a", 0);
+        MetaTileKey k2 = key("layers=a", 3);
+        MetaTileKey k3 = key("layers=b", 0);
+        RenderedImage[] tiles = tiles();
+        long size = QuickTileCache.getMemoryUse(tiles);
+        assertEquals(768 * 768 * 4, size);
+        cache.setMaxSize(size * 2);
+
+        assertNull(cache.getTiles(k1));
+        cache.storeTiles(k1, tiles);
+        cache.storeTiles(k2, tiles());
+        assertSame(tiles, cache.getTiles(k1));
+        assertEquals(2, cache.getCount());
+        assertEquals(size * 2, cache.getSize());
+
+        // k2 is the least recently used one
+        cache.storeTiles(k3, tiles());
+        assertNotNull(cache.getTiles(k1));
+        assertNull(cache.getTiles(k2));
+        assertNotNull(cache.getTiles(k3));
+        assertEquals(size * 2, cache.getSize());
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        cache.clear();
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testTooLarge() {
+        cache.setMaxSize(1024);
+        cache.storeTiles(key("layers=a", 0), tiles());
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testTransactionInvalidation() {
+        MetaTileKey lakes = key("layers=cite:Lakes", 0);
+        MetaTileKey forests = key("layers=cite:Forests", 0);
+        cache.storeTiles(lakes, tiles());
+        cache.storeTiles(forests, tiles());
+
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_UPDATE, null,
+                MockData.LAKES, null));
+        assertNull(cache.getTiles(lakes));
+        assertNotNull(cache.getTiles(forests));
+
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_UPDATE, null,
+                null, null));
+        assertNull(cache.getTiles(forests));
+    }
+
+    @Test
+    public void testUnqualifiedTransactionInvalidation() {
+        MetaTileKey lakes = key("layers=cite:Lakes", 0);
+        cache.storeTiles(lakes, tiles());
+
+        // no catalog to qualify the name against, everything goes
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_UPDATE, null,
+                new QName(MockData.LAKES.getLocalPart()), null));
+        assertNull(cache.getTiles(lakes));
+    }
+
+    @Test
+    public void testDefaultNamespaceTransactionInvalidation() {
+        NamespaceInfoImpl ns = new NamespaceInfoImpl();
+        ns.setPrefix(MockData.CITE_PREFIX);
+        ns.setURI(MockData.CITE_URI);
+        Catalog catalog = createNiceMock(Catalog.class);
+        expect(catalog.getDefaultNamespace()).andReturn(ns).anyTimes();
+        replay(catalog);
+        cache.catalog = catalog;
+
+        MetaTileKey lakes = key("layers=cite:Lakes", 0);
+        MetaTileKey forests = key("layers=cite:Forests", 0);
+        cache.storeTiles(lakes, tiles());
+        cache.storeTiles(forests, tiles());
+
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_UPDATE, null,
+                new QName(MockData.LAKES.getLocalPart()), null));
+        assertNull(cache.getTiles(lakes));
+        assertNotNull(cache.getTiles(forests));
+    }
+
+    @Test
+    public void testUnknownFeatureTypesInvalidation() {
+        // e.g. a map with a coverage or cascaded WMS layer
+        MetaTileKey mixed = new MetaTileKey(new MapKey("layers=a,b", 1,
+                new Point2D.Double(0, 0)), new Point(0, 0), new ReferencedEnvelope());
+        MetaTileKey forests = key("layers=cite:Forests", 0);
+        cache.storeTiles(mixed, tiles());
+        cache.storeTiles(forests, tiles());
+
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_UPDATE, null,
+                MockData.LAKES, null));
+        assertNull(cache.getTiles(mixed));
+        assertNotNull(cache.getTiles(forests));
+    }
+
+    @Test
+    public void testLockStriping() {
+        assertSame(cache.getLock(key("layers=a", 0)), cache.getLock(key("layers=a", 0)));
+    }
+
+    MetaTileKey key(String definition, int x) {
+        QName layer = definition.endsWith("Lakes") ? MockData.LAKES : MockData.FORESTS;
+        MapKey mapKey = new MapKey(definition, 1, new Point2D.Double(0, 0),
+                Collections.singleton(layer));
+        return new MetaTileKey(mapKey, new Point(x, 0), new ReferencedEnvelope());
+    }
+
+    RenderedImage[] tiles() {
+        BufferedImage metaTile = new BufferedImage(768, 768, BufferedImage.TYPE_4BYTE_ABGR);
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < 9; i++) {
+            tiles[i] = metaTile.getSubimage((i % 3) * 256, (i / 3) * 256, 256, 256);
+        }
+        return tiles;
+    }
 }
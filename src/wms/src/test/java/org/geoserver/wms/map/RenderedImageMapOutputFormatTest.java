@@ -5,6 +5,7 @@
 package org.geoserver.wms.map;
 
 import static org.geoserver.data.test.SystemTestData.STREAMS;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -14,6 +15,8 @@ import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -29,16 +32,19 @@ import org.geoserver.platform.ServiceException;
 import org.geoserver.security.decorators.DecoratingFeatureSource;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WMSTestSupport;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.IllegalAttributeException;
 import org.geotools.filter.IllegalFilterException;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
+import org.geotools.map.Layer;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
@@ -161,6 +167,88 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         assertNotBlank("testBlueLake", image);
     }
 
+    @Test
+    public void testParallelRendering() throws Exception {
+        BufferedImage sequential = renderLayers();
+
+        WMSInfo wms = getGeoServer().getService(WMSInfo.class);
+        wms.getMetadata().put(WMS.PARALLEL_RENDERING, 3);
+        getGeoServer().save(wms);
+        try {
+            BufferedImage parallel = renderLayers();
+            assertNotBlank("testParallelRendering", parallel);
+            // compositing translucent pixels in a different order can round differently
+            for (int x = 0; x < sequential.getWidth(); x++) {
+                for (int y = 0; y < sequential.getHeight(); y++) {
+                    int expected = sequential.getRGB(x, y);
+                    int actual = parallel.getRGB(x, y);
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        int delta = ((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF);
+                        assertTrue("Pixel " + x + "," + y + " differs", Math.abs(delta) <= 2);
+                    }
+                }
+            }
+        } finally {
+            wms.getMetadata().remove(WMS.PARALLEL_RENDERING);
+            getGeoServer().save(wms);
+        }
+    }
+
+    @Test
+    public void testGroupLayers() throws Exception {
+        List<Layer> layers = new ArrayList<Layer>();
+        for (int i = 0; i < 5; i++) {
+            layers.add(new FeatureLayer(new DefaultFeatureCollection(null, null), null));
+        }
+
+        assertEquals(1, RenderedImageMapOutputFormat.groupLayers(layers, 0).size());
+        assertEquals(1, RenderedImageMapOutputFormat.groupLayers(layers, 1).size());
+
+        List<List<Layer>> groups = RenderedImageMapOutputFormat.groupLayers(layers, 2);
+        assertEquals(2, groups.size());
+        assertEquals(layers.subList(0, 2), groups.get(0));
+        assertEquals(layers.subList(2, 5), groups.get(1));
+
+        groups = RenderedImageMapOutputFormat.groupLayers(layers, 10);
+        assertEquals(5, groups.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Collections.singletonList(layers.get(i)), groups.get(i));
+        }
+    }
+
+    /**
+     * Renders a few layers without antialiasing, so that compositing cannot introduce rounding
+     * differences
+     */
+    private BufferedImage renderLayers() throws Exception {
+        FeatureTypeInfo typeInfo = getCatalog().getFeatureTypeByName(
+                MockData.FORESTS.getNamespaceURI(), MockData.FORESTS.getLocalPart());
+        Envelope env = typeInfo.getFeatureSource(null, null).getBounds();
+        GetMapRequest request = new GetMapRequest();
+        request.getFormatOptions().put("antialias", "none");
+        final WMSMapContent map = new WMSMapContent();
+        map.setMapWidth(300);
+        map.setMapHeight(200);
+        map.setBgColor(BG_COLOR);
+        map.setTransparent(true);
+        map.setRequest(request);
+
+        addToMap(map, MockData.FORESTS);
+        addToMap(map, MockData.LAKES);
+        addToMap(map, MockData.STREAMS);
+        addToMap(map, MockData.ROAD_SEGMENTS);
+        addToMap(map, MockData.BUILDINGS);
+        addToMap(map, MockData.BRIDGES);
+
+        map.getViewport().setBounds(new ReferencedEnvelope(env, DefaultGeographicCRS.WGS84));
+
+        request.setFormat(getMapFormat());
+        RenderedImageMap imageMap = this.rasterMapProducer.produceMap(map);
+        BufferedImage image = (BufferedImage) imageMap.getImage();
+        imageMap.dispose();
+        return image;
+    }
+
     private void addToMap(final WMSMapContent map, final QName typeName) throws IOException {
         final FeatureTypeInfo ftInfo = getCatalog().getFeatureTypeByName(
                 typeName.getNamespaceURI(), typeName.getLocalPart());
@@ -0,0 +1,54 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.*;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.junit.After;
+import org.junit.Test;
+
+public class RenderingTimeoutEnforcerTest {
+
+    @After
+    public void resetCounts() {
+        RenderingTimeoutEnforcer.resetTimeoutCounts();
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        Graphics2D graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        RenderingTimeoutEnforcer enforcer = new RenderingTimeoutEnforcer(10,
+                new StreamingRenderer(), graphics, Arrays.asList("cite:Lakes", "cite:Forests"));
+        enforcer.start();
+        for (int i = 0; i < 100 && !enforcer.isTimedOut(); i++) {
+            Thread.sleep(20);
+        }
+        enforcer.stop();
+
+        assertTrue(enforcer.isTimedOut());
+        assertEquals(Long.valueOf(1), RenderingTimeoutEnforcer.getTimeoutCounts().get("cite:Lakes"));
+        assertEquals(Long.valueOf(1),
+                RenderingTimeoutEnforcer.getTimeoutCounts().get("cite:Forests"));
+    }
+
+    @Test
+    public void testStopBeforeTimeout() throws Exception {
+        Graphics2D graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        RenderingTimeoutEnforcer enforcer = new RenderingTimeoutEnforcer(100,
+                new StreamingRenderer(), graphics, Arrays.asList("cite:Lakes"));
+        enforcer.start();
+        enforcer.stop();
+        Thread.sleep(200);
+
+        assertFalse(enforcer.isTimedOut());
+        assertTrue(RenderingTimeoutEnforcer.getTimeoutCounts().isEmpty());
+        graphics.dispose();
+    }
+}
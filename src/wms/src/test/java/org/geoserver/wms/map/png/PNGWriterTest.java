@@ -0,0 +1,104 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import org.geoserver.wms.map.png.PNGWriter.FilterType;
+import org.junit.Test;
+
+public class PNGWriterTest {
+
+    @Test
+    public void testRGBA() throws Exception {
+        assertRoundTrip(paint(new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR)));
+    }
+
+    @Test
+    public void testRGB() throws Exception {
+        assertRoundTrip(paint(new BufferedImage(256, 256, BufferedImage.TYPE_3BYTE_BGR)));
+    }
+
+    @Test
+    public void testGray() throws Exception {
+        assertRoundTrip(paint(new BufferedImage(256, 256, BufferedImage.TYPE_BYTE_GRAY)));
+    }
+
+    @Test
+    public void testPaletted() throws Exception {
+        Random random = new Random(0);
+        byte[] r = new byte[256], g = new byte[256], b = new byte[256], a = new byte[256];
+        random.nextBytes(r);
+        random.nextBytes(g);
+        random.nextBytes(b);
+        Arrays.fill(a, (byte) 255);
+        a[0] = 0;
+        a[10] = (byte) 128;
+        IndexColorModel icm = new IndexColorModel(8, 256, r, g, b, a);
+        BufferedImage image = new BufferedImage(icm, Raster.createInterleavedRaster(
+                DataBuffer.TYPE_BYTE, 256, 256, 1, null), false, null);
+        assertRoundTrip(paint(image));
+    }
+
+    @Test
+    public void testSubImage() throws Exception {
+        BufferedImage image = paint(new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR));
+        assertRoundTrip(image.getSubimage(17, 23, 150, 120));
+    }
+
+    @Test
+    public void testUnsupported() throws Exception {
+        assertFalse(PNGWriter.isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB)));
+        assertFalse(PNGWriter.isSupported(new BufferedImage(10, 10,
+                BufferedImage.TYPE_BYTE_BINARY)));
+    }
+
+    BufferedImage paint(BufferedImage image) {
+        Random random = new Random(1);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+        for (int i = 0; i < 50; i++) {
+            graphics.setColor(new Color(random.nextInt(256), random.nextInt(256),
+                    random.nextInt(256), random.nextInt(256)));
+            graphics.fillOval(random.nextInt(256), random.nextInt(256), random.nextInt(100),
+                    random.nextInt(100));
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    void assertRoundTrip(BufferedImage image) throws Exception {
+        assertTrue(PNGWriter.isSupported(image));
+        for (FilterType filter : FilterType.values()) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            new PNGWriter(4, Deflater.FILTERED, filter).write(image, bos);
+            BufferedImage read = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+            assertEquals(image.getWidth(), read.getWidth());
+            assertEquals(image.getHeight(), read.getHeight());
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    assertEquals(filter + " at " + x + "," + y, image.getRGB(x, y),
+                            read.getRGB(x, y));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+
+import org.geoserver.wms.kvp.PaletteManager;
+import org.junit.Test;
+
+public class InverseColorMapIndexerTest {
+
+    @Test
+    public void testSafePalette() {
+        assertSameAsSimple(PaletteManager.safePalette, new Random(0));
+    }
+
+    @Test
+    public void testTranslucentPalette() {
+        Random random = new Random(1);
+        int size = 200;
+        byte[] r = new byte[size], g = new byte[size], b = new byte[size], a = new byte[size];
+        random.nextBytes(r);
+        random.nextBytes(g);
+        random.nextBytes(b);
+        random.nextBytes(a);
+        a[0] = 0;
+        assertSameAsSimple(new IndexColorModel(8, size, r, g, b, a), random);
+    }
+
+    @Test
+    public void testCachedByPalette() {
+        IndexColorModel icm1 = new IndexColorModel(1, 2, new byte[] { 0, (byte) 255 },
+                new byte[] { 0, (byte) 255 }, new byte[] { 0, (byte) 255 });
+        IndexColorModel icm2 = new IndexColorModel(1, 2, new byte[] { 0, (byte) 255 },
+                new byte[] { 0, (byte) 255 }, new byte[] { 0, (byte) 255 });
+        IndexColorModel icm3 = new IndexColorModel(1, 2, new byte[] { 0, (byte) 255 },
+                new byte[] { 0, 0 }, new byte[] { 0, (byte) 255 });
+        assertSame(InverseColorMapIndexer.get(icm1), InverseColorMapIndexer.get(icm2));
+        assertNotSame(InverseColorMapIndexer.get(icm1), InverseColorMapIndexer.get(icm3));
+    }
+
+    void assertSameAsSimple(IndexColorModel icm, Random random) {
+        SimpleColorIndexer simple = new SimpleColorIndexer(icm);
+        InverseColorMapIndexer indexer = new InverseColorMapIndexer(icm);
+        for (int i = 0; i < 100000; i++) {
+            int r = random.nextInt(256);
+            int g = random.nextInt(256);
+            int b = random.nextInt(256);
+            int a = random.nextBoolean() ? 255 : random.nextInt(256);
+            assertEquals(simple.getClosestIndex(r, g, b, a), indexer.getClosestIndex(r, g, b, a));
+        }
+    }
+}
@@ -12,6 +12,7 @@ import static org.junit.Assert.assertTrue;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 
 import javax.xml.namespace.QName;
@@ -29,8 +30,11 @@ import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.test.SystemTestData.LayerProperty;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.test.RemoteOWSTestSupport;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wms.FeatureInfoPool;
+import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSTestSupport;
 import org.geotools.factory.CommonFactoryFinder;
@@ -393,6 +397,83 @@ public class GetFeatureInfoTest extends WMSTestSupport {
         assertXpathEvaluatesTo("1", "count(//cite:Lakes)", dom);
     }
 
+    /**
+     * Tests that identifying the query layers concurrently returns the same results, in the same
+     * order, as the sequential execution
+     * 
+     * @throws Exception
+     */
+    @Test 
+    public void testTwoLayersFeatureCountParallel() throws Exception {
+        WMSInfo wms = getGeoServer().getService(WMSInfo.class);
+        wms.getMetadata().put(WMS.FEATURE_INFO_PARALLELISM, 2);
+        wms.getMetadata().put(WMS.FEATURE_INFO_TIMEOUT, 60);
+        getGeoServer().save(wms);
+        try {
+            String layer = getLayerId(MockData.FORESTS) + "," + getLayerId(MockData.LAKES);
+            String request = "wms?REQUEST=GetFeatureInfo&EXCEPTIONS=application%2Fvnd.ogc.se_xml&" +
+                    "BBOX=-0.002356%2C-0.004819%2C0.005631%2C0.004781&SERVICE=WMS&VERSION=1.1.0&X=267&Y=325" +
+                    "&INFO_FORMAT=application/vnd.ogc.gml" +
+                    "&QUERY_LAYERS=" + layer + "&Layers=" + layer + " &Styles=&WIDTH=426&HEIGHT=512" +
+                    "&format=image%2Fpng&srs=EPSG%3A4326";
+            // no feature count, the lake is not returned even if it has been identified
+            Document dom = getAsDOM(request);
+            assertXpathEvaluatesTo("1", "count(//gml:featureMember)", dom);
+            assertXpathEvaluatesTo("1", "count(//cite:Forests)", dom);
+
+            // both features, in query layer order
+            dom = getAsDOM(request + "&FEATURE_COUNT=2");
+            assertXpathEvaluatesTo("2", "count(//gml:featureMember)", dom);
+            assertXpathEvaluatesTo("1", "count(//gml:featureMember[1]/cite:Forests)", dom);
+            assertXpathEvaluatesTo("1", "count(//gml:featureMember[2]/cite:Lakes)", dom);
+        } finally {
+            wms.getMetadata().remove(WMS.FEATURE_INFO_PARALLELISM);
+            wms.getMetadata().remove(WMS.FEATURE_INFO_TIMEOUT);
+            getGeoServer().save(wms);
+        }
+    }
+
+    /**
+     * Tests the query layers are identified one after the other when the pool is full
+     * 
+     * @throws Exception
+     */
+    @Test 
+    public void testTwoLayersFeatureCountParallelPoolBusy() throws Exception {
+        FeatureInfoPool pool = GeoServerExtensions.bean(FeatureInfoPool.class);
+        final CountDownLatch latch = new CountDownLatch(1);
+        WMSInfo wms = getGeoServer().getService(WMSInfo.class);
+        wms.getMetadata().put(WMS.FEATURE_INFO_PARALLELISM, 2);
+        getGeoServer().save(wms);
+        try {
+            // fill up the pool
+            while (pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        // done
+                    }
+                }
+            }));
+
+            String layer = getLayerId(MockData.FORESTS) + "," + getLayerId(MockData.LAKES);
+            String request = "wms?REQUEST=GetFeatureInfo&EXCEPTIONS=application%2Fvnd.ogc.se_xml&" +
+                    "BBOX=-0.002356%2C-0.004819%2C0.005631%2C0.004781&SERVICE=WMS&VERSION=1.1.0&X=267&Y=325" +
+                    "&INFO_FORMAT=application/vnd.ogc.gml" +
+                    "&QUERY_LAYERS=" + layer + "&Layers=" + layer + " &Styles=&WIDTH=426&HEIGHT=512" +
+                    "&format=image%2Fpng&srs=EPSG%3A4326&FEATURE_COUNT=2";
+            Document dom = getAsDOM(request);
+            assertXpathEvaluatesTo("2", "count(//gml:featureMember)", dom);
+            assertXpathEvaluatesTo("1", "count(//gml:featureMember[1]/cite:Forests)", dom);
+            assertXpathEvaluatesTo("1", "count(//gml:featureMember[2]/cite:Lakes)", dom);
+        } finally {
+            latch.countDown();
+            wms.getMetadata().remove(WMS.FEATURE_INFO_PARALLELISM);
+            getGeoServer().save(wms);
+        }
+    }
+
 
     /**
      * Check GetFeatureInfo returns an error if the format is not known, instead